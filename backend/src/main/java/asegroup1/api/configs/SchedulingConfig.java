@@ -0,0 +1,14 @@
+package asegroup1.api.configs;
+
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Enables the @Scheduled maintenance jobs, e.g. location data retention
+ */
+
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
@@ -1,7 +1,14 @@
 package asegroup1.api.controllers;
 
+import asegroup1.api.models.PostCodeCoordinates;
+import asegroup1.api.models.PriceRefreshJob;
+import asegroup1.api.models.TransactionImport;
+import asegroup1.api.models.TransactionImport.Mode;
+import asegroup1.api.services.http.CircuitOpenException;
 import asegroup1.api.services.landregistry.LandRegistryServiceImpl;
-import com.mashape.unirest.http.exceptions.UnirestException;
+import asegroup1.api.services.landregistry.PostcodeLookupServiceImpl;
+import asegroup1.api.services.landregistry.PriceRefreshJobServiceImpl;
+import asegroup1.api.services.landregistry.TransactionImportServiceImpl;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import org.apache.logging.log4j.LogManager;
@@ -35,9 +42,13 @@ public class LandRegistryController {
     private final static Logger logger = LogManager.getLogger(LandRegistryController.class);
     private Properties mockResponses;
     private LandRegistryServiceImpl landRegistryService;
+    private PriceRefreshJobServiceImpl priceRefreshJobService;
+    private PostcodeLookupServiceImpl postcodeLookupService;
+    private TransactionImportServiceImpl transactionImportService;
 
     @Autowired
-    public LandRegistryController(LandRegistryServiceImpl landRegistryService) {
+    public LandRegistryController(LandRegistryServiceImpl landRegistryService, PriceRefreshJobServiceImpl priceRefreshJobService,
+            PostcodeLookupServiceImpl postcodeLookupService, TransactionImportServiceImpl transactionImportService) {
         try {
             FileInputStream fakeResponsesInputStream = new FileInputStream(new File("src/main/java/asegroup1/api/controllers/fake-responses.properties"));
             mockResponses = new Properties();
@@ -46,6 +57,9 @@ public class LandRegistryController {
             logger.warn("Unable to setup fake responses", e);
         }
         this.landRegistryService = landRegistryService;
+        this.priceRefreshJobService = priceRefreshJobService;
+        this.postcodeLookupService = postcodeLookupService;
+        this.transactionImportService = transactionImportService;
     }
 
     @ApiOperation(value = "Get Land registry data based on map position")
@@ -68,6 +82,9 @@ public class LandRegistryController {
             );
 
             return new ResponseEntity<>(positionsInsideBounds, HttpStatus.OK);
+        } catch (CircuitOpenException e) {
+            logger.warn("Unable to get Land Registry data while the upstream is failing", e);
+            return new ResponseEntity<>("Land Registry data is temporarily unavailable, please try again later", HttpStatus.SERVICE_UNAVAILABLE);
         } catch (Exception e) {
             logger.error("Error Getting Land Registry Data", e);
             return new ResponseEntity<>("An error occurred whilst handling this request: " + e, HttpStatus.BAD_REQUEST);
@@ -80,7 +97,7 @@ public class LandRegistryController {
         return new ResponseEntity<>(mockResponses.getProperty("addressData"), HttpStatus.OK);
     }
 
-    @ApiOperation(value = "Updates average price for each postcode with defined prefix")
+    @ApiOperation(value = "Starts a background job updating the average price for each postcode with defined prefix, returns the job id")
     @GetMapping("update-postcode/{prefix}")
     public ResponseEntity<?> updateTransactionData(@PathVariable String prefix) {
         if (prefix == null) {
@@ -93,12 +110,86 @@ public class LandRegistryController {
 			}
         }
         try {
-            landRegistryService.updatePostcodeDatabase(prefix);
-            return new ResponseEntity<>("Update triggered", HttpStatus.OK);
-        } catch (IOException | UnirestException e) {
+            return new ResponseEntity<>(priceRefreshJobService.startJob(prefix), HttpStatus.ACCEPTED);
+        } catch (Exception e) {
             logger.error( "Failure to Update Database", e);
             return new ResponseEntity<>(e, HttpStatus.BAD_REQUEST);
         }
     }
 
+    @ApiOperation(value = "Get the progress and estimated time remaining of a postcode update job")
+    @GetMapping("update-postcode-status/{jobId}")
+    public ResponseEntity<?> getUpdateStatus(@PathVariable String jobId) {
+        PriceRefreshJob job = priceRefreshJobService.getJobStatus(jobId);
+        if (job == null) {
+            return new ResponseEntity<>("No update job with id " + jobId, HttpStatus.NOT_FOUND);
+        }
+        return new ResponseEntity<>(job, HttpStatus.OK);
+    }
+
+    @ApiOperation(value = "Get the postcode nearest to a position, within max-distance metres")
+    @GetMapping("get-nearest-postcode")
+    public ResponseEntity<?> getNearestPostcode(@RequestParam("lat") double latitude, @RequestParam("lng") double longitude,
+            @RequestParam(value = "max-distance", required = false) Double maxDistanceMetres) {
+        try {
+            PostCodeCoordinates postcode = postcodeLookupService.getNearestPostcode(latitude, longitude, maxDistanceMetres);
+            if (postcode == null) {
+                return new ResponseEntity<>("No postcode found within range", HttpStatus.NOT_FOUND);
+            }
+            return new ResponseEntity<>(postcode, HttpStatus.OK);
+        } catch (InvalidParameterException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (IllegalStateException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+        }
+    }
+
+    @ApiOperation(value = "Get the postcode nearest to each of a list of [latitude, longitude] positions, "
+            + "null where there is none within max-distance metres")
+    @PostMapping("get-nearest-postcodes")
+    public ResponseEntity<?> getNearestPostcodes(@RequestBody double[][] positions,
+            @RequestParam(value = "max-distance", required = false) Double maxDistanceMetres) {
+        try {
+            return new ResponseEntity<>(postcodeLookupService.getNearestPostcodes(positions, maxDistanceMetres), HttpStatus.OK);
+        } catch (InvalidParameterException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (IllegalStateException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+        }
+    }
+
+    @ApiOperation(value = "Starts a background import of a Price Paid Data CSV from the import directory into the local transaction store, returns the import id. "
+            + "Mode is FULL (default) for the complete file or DELTA for a monthly change file")
+    @PostMapping("import-transactions")
+    public ResponseEntity<?> importTransactions(@RequestParam("file") String fileName,
+            @RequestParam(value = "mode", required = false) String mode) {
+        Mode importMode;
+        try {
+            importMode = mode == null ? Mode.FULL : Mode.valueOf(mode.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>("Mode must be FULL or DELTA", HttpStatus.BAD_REQUEST);
+        }
+
+        try {
+            return new ResponseEntity<>(transactionImportService.startImport(fileName, importMode), HttpStatus.ACCEPTED);
+        } catch (InvalidParameterException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (IllegalStateException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+        } catch (IOException e) {
+            logger.error("Failure to start transaction import", e);
+            return new ResponseEntity<>("Unable to read " + fileName, HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    @ApiOperation(value = "Get the progress of a transaction import")
+    @GetMapping("import-transactions-status/{importId}")
+    public ResponseEntity<?> getImportStatus(@PathVariable String importId) {
+        TransactionImport transactionImport = transactionImportService.getImportStatus(importId);
+        if (transactionImport == null) {
+            return new ResponseEntity<>("No import with id " + importId, HttpStatus.NOT_FOUND);
+        }
+        return new ResponseEntity<>(transactionImport, HttpStatus.OK);
+    }
+
 }
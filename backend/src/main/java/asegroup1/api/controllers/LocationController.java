@@ -1,21 +1,31 @@
 package asegroup1.api.controllers;
 
+import asegroup1.api.models.LocationArea;
 import asegroup1.api.models.LocationData;
+import asegroup1.api.models.LocationInsertStatus;
+import asegroup1.api.models.TrajectoryPrices;
 import asegroup1.api.services.location.LocationServiceImpl;
+import asegroup1.api.services.location.WriteBufferFullException;
 import asegroup1.api.services.user.UserServiceImpl;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mashape.unirest.http.exceptions.UnirestException;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.security.InvalidParameterException;
+import java.sql.Timestamp;
 import java.util.List;
 
 /**
@@ -32,12 +42,29 @@ public class LocationController {
     private LocationServiceImpl locationService;
 	private final static Logger logger = LogManager.getLogger(LocationController.class);
 
+	/**
+	 * Most locations accepted in one batch
+	 */
+	static final int MAX_BATCH_SIZE = 1000;
+
+	/**
+	 * Most locations returned in one page
+	 */
+	static final int MAX_PAGE_SIZE = 10000;
+
+	static final String NEXT_PAGE_HEADER = "X-Next-After";
+	private static final String NDJSON_VALUE = "application/x-ndjson";
+
+	// Spring's mapper, so streamed locations are written in the same format as other responses
+	private final ObjectMapper objectMapper;
+
 
 
 	@Autowired
-	public LocationController(LocationServiceImpl locationService, UserServiceImpl userServiceImpl) {
+	public LocationController(LocationServiceImpl locationService, UserServiceImpl userServiceImpl, ObjectMapper objectMapper) {
         this.locationService = locationService;
 		this.userService = userServiceImpl;
+		this.objectMapper = objectMapper;
     }
 
     @ApiOperation(value= "Add user location data to the server")
@@ -46,11 +73,17 @@ public class LocationController {
 		if (userService.get(location.getUserId()) != null) {
 			try {
 				locationService.create(location);
+				if (locationService.isWriteBehind()) {
+					return new ResponseEntity<>("Queued to be added to database", HttpStatus.ACCEPTED);
+				}
 				logger.debug("Successfully added location to database", location);
 				return new ResponseEntity<>("Successfully added to database", HttpStatus.OK);
 			} catch (InvalidParameterException e) {
 				logger.error( "Unable to add location to database", e);
 				return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+			} catch (WriteBufferFullException e) {
+				logger.warn("Location write buffer is full, rejecting location from user: " + location.getUserId());
+				return new ResponseEntity<>(e.getMessage(), HttpStatus.TOO_MANY_REQUESTS);
 			}
 		} else {
 			logger.info("Cannot add location as user: "+ location.getUserId() + " does not exist in database");
@@ -59,10 +92,148 @@ public class LocationController {
 
     }
 
-    @ApiOperation(value= "Get user location data")
+    @ApiOperation(value= "Add many of a user's locations to the server at once, returns whether each was added")
+    @PostMapping(value = {"add-location-data-batch/{user-id}", "add-location-data-batch/{user-id}/"})
+    public ResponseEntity<?> postAddLocationDataBatch(@PathVariable("user-id") String userId, @RequestBody List<LocationData> locations) {
+		if (locations == null || locations.isEmpty()) {
+			return new ResponseEntity<>("No locations given", HttpStatus.BAD_REQUEST);
+		}
+		if (locations.size() > MAX_BATCH_SIZE) {
+			return new ResponseEntity<>("At most " + MAX_BATCH_SIZE + " locations can be added at once", HttpStatus.BAD_REQUEST);
+		}
+		if (userService.get(userId) == null) {
+			logger.info("Cannot add locations as user: " + userId + " does not exist in database");
+			return new ResponseEntity<>("Could not add to database: User does not exist", HttpStatus.BAD_REQUEST);
+		}
+
+		List<LocationInsertStatus> statuses = locationService.createAll(userId, locations);
+		logger.debug("Added batch of " + locations.size() + " locations for user " + userId);
+		return new ResponseEntity<>(statuses, HttpStatus.OK);
+    }
+
+    @ApiOperation(value= "Get user location data in time order, optionally within a time range and a page at a time. "
+    		+ "Times are in milliseconds since the epoch, when a page is full the " + NEXT_PAGE_HEADER + " header gives the after value for the next page")
     @GetMapping(value = {"get-user-locations/{user-id}"})
-    public ResponseEntity<List<LocationData>> getUserLocation(@PathVariable("user-id") String userID) {
-        return new ResponseEntity<>(locationService.getLocationData(userID), HttpStatus.OK);
+    public ResponseEntity<?> getUserLocation(@PathVariable("user-id") String userID,
+    		@RequestParam(value = "from", required = false) Long from,
+    		@RequestParam(value = "to", required = false) Long to,
+    		@RequestParam(value = "after", required = false) Long after,
+    		@RequestParam(value = "limit", required = false) Integer limit) {
+		if (limit != null && (limit <= 0 || limit > MAX_PAGE_SIZE)) {
+			return new ResponseEntity<>("Limit must be between 1 and " + MAX_PAGE_SIZE, HttpStatus.BAD_REQUEST);
+		}
+		List<LocationData> locations = locationService.getLocationData(userID, toTimestamp(from), toTimestamp(to), toTimestamp(after),
+				limit == null ? 0 : limit);
+
+		return new ResponseEntity<>(locations, getPageHeaders(locations, limit), HttpStatus.OK);
+    }
+
+    @ApiOperation(value= "Get user location data inside a box, given by min-lat, min-lng, max-lat and max-lng, or a circle, given by lat, lng "
+    		+ "and radius in metres. Times and paging are as for get-user-locations")
+    @GetMapping(value = {"get-user-locations-in-area/{user-id}"})
+    public ResponseEntity<?> getUserLocationInArea(@PathVariable("user-id") String userID,
+    		@RequestParam(value = "min-lat", required = false) Double minLatitude,
+    		@RequestParam(value = "min-lng", required = false) Double minLongitude,
+    		@RequestParam(value = "max-lat", required = false) Double maxLatitude,
+    		@RequestParam(value = "max-lng", required = false) Double maxLongitude,
+    		@RequestParam(value = "lat", required = false) Double latitude,
+    		@RequestParam(value = "lng", required = false) Double longitude,
+    		@RequestParam(value = "radius", required = false) Double radiusMetres,
+    		@RequestParam(value = "from", required = false) Long from,
+    		@RequestParam(value = "to", required = false) Long to,
+    		@RequestParam(value = "after", required = false) Long after,
+    		@RequestParam(value = "limit", required = false) Integer limit) {
+		if (limit != null && (limit <= 0 || limit > MAX_PAGE_SIZE)) {
+			return new ResponseEntity<>("Limit must be between 1 and " + MAX_PAGE_SIZE, HttpStatus.BAD_REQUEST);
+		}
+
+		LocationArea area;
+		try {
+			if (minLatitude != null && minLongitude != null && maxLatitude != null && maxLongitude != null) {
+				area = LocationArea.box(minLatitude, minLongitude, maxLatitude, maxLongitude);
+			} else if (latitude != null && longitude != null && radiusMetres != null) {
+				area = LocationArea.circle(latitude, longitude, radiusMetres);
+			} else {
+				throw new InvalidParameterException("Either min-lat, min-lng, max-lat and max-lng, or lat, lng and radius must be given");
+			}
+		} catch (InvalidParameterException e) {
+			return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+		}
+
+		List<LocationData> locations = locationService.getLocationDataInArea(userID, area, toTimestamp(from), toTimestamp(to),
+				toTimestamp(after), limit == null ? 0 : limit);
+
+		return new ResponseEntity<>(locations, getPageHeaders(locations, limit), HttpStatus.OK);
+    }
+
+    @ApiOperation(value= "Stream user location data in time order as newline delimited JSON, or as a JSON array if format is json")
+    @GetMapping(value = {"stream-user-locations/{user-id}"})
+    public ResponseEntity<StreamingResponseBody> streamUserLocations(@PathVariable("user-id") String userID,
+    		@RequestParam(value = "from", required = false) Long from,
+    		@RequestParam(value = "to", required = false) Long to,
+    		@RequestParam(value = "format", defaultValue = "ndjson") String format) {
+		boolean jsonArray = "json".equalsIgnoreCase(format);
+
+		StreamingResponseBody body = outputStream -> {
+			try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+				// Rows are buffered by the generator rather than each flushed to the client
+				generator.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+				generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+				generator.setRootValueSeparator(null);
+				if (jsonArray) {
+					generator.writeStartArray();
+				}
+				try {
+					locationService.streamLocationData(userID, toTimestamp(from), toTimestamp(to), location -> {
+						try {
+							generator.writeObject(location);
+							if (!jsonArray) {
+								generator.writeRaw('\n');
+							}
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					});
+				} catch (UncheckedIOException e) {
+					throw e.getCause();
+				}
+				if (jsonArray) {
+					generator.writeEndArray();
+				}
+			}
+		};
+
+		HttpHeaders headers = new HttpHeaders();
+		headers.add("Content-Type", jsonArray ? MediaType.APPLICATION_JSON_VALUE : NDJSON_VALUE);
+		return new ResponseEntity<>(body, headers, HttpStatus.OK);
+    }
+
+    @ApiOperation(value= "Get the land prices of the postcodes a user's track passed through, optionally within a time range. "
+    		+ "Times are in milliseconds since the epoch")
+    @GetMapping(value = {"get-trajectory-prices/{user-id}"})
+    public ResponseEntity<?> getTrajectoryPrices(@PathVariable("user-id") String userID,
+    		@RequestParam(value = "from", required = false) Long from,
+    		@RequestParam(value = "to", required = false) Long to) {
+		TrajectoryPrices trajectoryPrices = locationService.getTrajectoryPrices(userID, toTimestamp(from), toTimestamp(to));
+		if (trajectoryPrices == null) {
+			return new ResponseEntity<>("Postcode index has not been loaded yet", HttpStatus.SERVICE_UNAVAILABLE);
+		}
+		return new ResponseEntity<>(trajectoryPrices, HttpStatus.OK);
+    }
+
+    /**
+     * A full page may be followed by another, fetched by passing the time of its last location as after
+     */
+    private static HttpHeaders getPageHeaders(List<LocationData> locations, Integer limit) {
+		HttpHeaders headers = new HttpHeaders();
+		if (limit != null && locations.size() == limit) {
+			headers.add(NEXT_PAGE_HEADER, String.valueOf(locations.get(locations.size() - 1).getTimelog().getTime()));
+		}
+		return headers;
+    }
+
+    private static Timestamp toTimestamp(Long millis) {
+		return millis == null ? null : new Timestamp(millis);
     }
 
     @GetMapping(value = "get-address-coordinates/{address}", produces = MediaType.APPLICATION_JSON_VALUE
@@ -0,0 +1,32 @@
+package asegroup1.api.controllers;
+
+import asegroup1.api.services.metrics.MetricsServiceImpl;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/metrics/")
+@Api(value = "Metrics", description = "Operations pertaining to application metrics")
+public class MetricsController {
+
+	private MetricsServiceImpl metricsService;
+
+	@Autowired
+	public MetricsController(MetricsServiceImpl metricsService) {
+		this.metricsService = metricsService;
+	}
+
+	@ApiOperation(value = "Get the current value of every application metric, e.g. cache hit rates")
+	@GetMapping("get-metrics")
+	public ResponseEntity<Map<String, Object>> getMetrics() {
+		return new ResponseEntity<>(metricsService.getMetrics(), HttpStatus.OK);
+	}
+}
@@ -0,0 +1,17 @@
+package asegroup1.api.daos.geocoding;
+
+
+import javax.transaction.Transactional;
+
+import org.springframework.stereotype.Repository;
+
+import asegroup1.api.daos.DaoImpl;
+import asegroup1.api.models.GeocodedAddress;
+
+@Transactional
+@Repository
+public class GeocodeCacheDaoImpl extends DaoImpl<GeocodedAddress> {
+	public GeocodeCacheDaoImpl() {
+		setCurrentClass(GeocodedAddress.class);
+	}
+}
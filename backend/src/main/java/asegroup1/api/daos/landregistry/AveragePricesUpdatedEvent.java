@@ -0,0 +1,29 @@
+package asegroup1.api.daos.landregistry;
+
+import asegroup1.api.models.PostCodeCoordinates;
+import org.springframework.context.ApplicationEvent;
+
+import java.util.List;
+
+/**
+ * Published once changes to postcode average prices have been committed, so
+ * that anything holding the old prices can be refreshed.
+ */
+public class AveragePricesUpdatedEvent extends ApplicationEvent {
+
+	private static final long serialVersionUID = 5204880387385630162L;
+
+	private final List<PostCodeCoordinates> updatedPostcodes;
+
+	public AveragePricesUpdatedEvent(Object source, List<PostCodeCoordinates> updatedPostcodes) {
+		super(source);
+		this.updatedPostcodes = updatedPostcodes;
+	}
+
+	/**
+	 * @return the postcodes whose price changed, holding their new prices
+	 */
+	public List<PostCodeCoordinates> getUpdatedPostcodes() {
+		return updatedPostcodes;
+	}
+}
@@ -4,21 +4,67 @@ import asegroup1.api.controllers.LandRegistryController;
 import asegroup1.api.daos.DaoImpl;
 import asegroup1.api.models.PostCodeCoordinates;
 import asegroup1.api.models.landregistry.LandRegistryData;
-import com.mashape.unirest.http.Unirest;
+import asegroup1.api.models.landregistry.SamplingMode;
+import asegroup1.api.services.cache.ExpiringLruCache;
+import asegroup1.api.services.cache.SingleFlight;
+import asegroup1.api.services.http.HttpClientServiceImpl;
+import asegroup1.api.services.http.CircuitOpenException;
+import asegroup1.api.services.http.HttpClientServiceImpl.Upstream;
+import asegroup1.api.services.metrics.MetricsServiceImpl;
 import com.mashape.unirest.http.exceptions.UnirestException;
+import com.mashape.unirest.http.options.Option;
+import com.mashape.unirest.http.options.Options;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.hibernate.Session;
 import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Repository;
 
+import javax.annotation.PostConstruct;
 import javax.persistence.EntityManager;
 import javax.transaction.Transactional;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -33,18 +79,105 @@ public class LandRegistryDaoImpl extends DaoImpl<PostCodeCoordinates> {
 	private static final String GOOGLE_MAPS_URL =
 			"https://maps.googleapis.com/maps/api/geocode/json?address=";
 
-	@Value("${google.maps.api-key}") // Get Api Key from application.properties
-	private String googleMapsApiKey;
+	private final String googleMapsApiKey;
+
+	// Connect and read timeout of each geocoding request
+	private final int geocodingTimeoutMillis;
 
 	private static final String LAND_REGISTRY_SPARQL_ENDPOINT =
+		"http://landregistry.data.gov.uk/landregistry/query";
+
+	// Only used if the SPARQL endpoint fails, as it returns the result wrapped in a string that cannot be read a row at a time
+	private static final String LAND_REGISTRY_QONSOLE_ENDPOINT =
 		"http://landregistry.data.gov.uk/app/root/qonsole/query";
 
 	private static final String TABLE_NAME = "postcodelatlng";
+	private static final String SPARQL_KEY_PREFIX = "sparql:";
+	private static final String GEOCODE_KEY_PREFIX = "geocode:";
+	public static final int AGGREGATION_RETURN_COUNT = 1000;
+	/**
+	 * Most postcodes read in one IN query when updating average prices
+	 */
+	static final int MAX_BATCH_SIZE = 1000;
 	private final static Logger logger = LogManager.getLogger(LandRegistryController.class);
 
+	private final boolean spatialIndexEnabled;
+
+	// Null until the index has finished loading, in which case queries fall back to the database
+	private volatile PostcodeSpatialIndex spatialIndex;
+
+	private final ApplicationEventPublisher eventPublisher;
+	private final MetricsServiceImpl metricsService;
+	private final HttpClientServiceImpl httpClientService;
+
+	private final boolean sparqlCacheEnabled;
+	private final int sparqlCacheMaxEntries;
+	private final long sparqlCacheTtlHours;
+
+	// Empty to only cache responses in memory
+	private final String sparqlCacheDirectory;
+
+	// Null when SPARQL responses are not cached
+	private SparqlResultCache sparqlResultCache;
+
+	private final int staleCacheMaxEntries;
+	private final long staleCacheTtlHours;
 
-	public LandRegistryDaoImpl() {
+	// The last good response to each SPARQL query and geocoding request, served when the upstream fails
+	private ExpiringLruCache<String, String> lastGoodResponses;
+	private final AtomicLong staleResponsesServed = new AtomicLong();
+
+	// Identical SPARQL queries and geocoding requests made at the same time share one upstream call
+	private final ConcurrentHashMap<String, SharedSparqlQuery> sparqlQueries = new ConcurrentHashMap<>();
+	private final AtomicLong sharedSparqlQueries = new AtomicLong();
+	private final SingleFlight<String, JSONObject> geocodeFlights = new SingleFlight<>();
+
+	@Autowired
+	public LandRegistryDaoImpl(ApplicationEventPublisher eventPublisher, MetricsServiceImpl metricsService, HttpClientServiceImpl httpClientService,
+			@Value("${google.maps.api-key}") String googleMapsApiKey, // Get Api Key from application.properties
+			@Value("${geocoding.request-timeout-ms:5000}") int geocodingTimeoutMillis,
+			@Value("${landregistry.spatial-index.enabled:true}") boolean spatialIndexEnabled,
+			@Value("${landregistry.sparql-cache.enabled:true}") boolean sparqlCacheEnabled,
+			@Value("${landregistry.sparql-cache.max-entries:500}") int sparqlCacheMaxEntries,
+			@Value("${landregistry.sparql-cache.ttl-hours:24}") long sparqlCacheTtlHours,
+			@Value("${landregistry.sparql-cache.disk-directory:}") String sparqlCacheDirectory,
+			@Value("${landregistry.stale-cache.max-entries:2000}") int staleCacheMaxEntries,
+			@Value("${landregistry.stale-cache.ttl-hours:168}") long staleCacheTtlHours) {
 		setCurrentClass(PostCodeCoordinates.class);
+		this.eventPublisher = eventPublisher;
+		this.metricsService = metricsService;
+		this.httpClientService = httpClientService;
+		this.googleMapsApiKey = googleMapsApiKey;
+		this.geocodingTimeoutMillis = geocodingTimeoutMillis;
+		this.spatialIndexEnabled = spatialIndexEnabled;
+		this.sparqlCacheEnabled = sparqlCacheEnabled;
+		this.sparqlCacheMaxEntries = sparqlCacheMaxEntries;
+		this.sparqlCacheTtlHours = sparqlCacheTtlHours;
+		this.sparqlCacheDirectory = sparqlCacheDirectory;
+		this.staleCacheMaxEntries = staleCacheMaxEntries;
+		this.staleCacheTtlHours = staleCacheTtlHours;
+	}
+
+	@PostConstruct
+	public void createResponseCaches() {
+		lastGoodResponses = new ExpiringLruCache<>(staleCacheMaxEntries, TimeUnit.HOURS.toMillis(staleCacheTtlHours));
+		if (metricsService != null) {
+			metricsService.register("landregistry.stale-cache", lastGoodResponses::getStatistics);
+			metricsService.register("landregistry.stale-responses-served", staleResponsesServed::get);
+			metricsService.register("landregistry.sparql-requests.shared", sharedSparqlQueries::get);
+			metricsService.register("landregistry.geocode-requests.shared", geocodeFlights::getSharedCalls);
+		}
+
+		if (!sparqlCacheEnabled) {
+			return;
+		}
+		Path diskDirectory = sparqlCacheDirectory == null || sparqlCacheDirectory.isEmpty() ? null : Paths.get(sparqlCacheDirectory);
+		sparqlResultCache = new SparqlResultCache(sparqlCacheMaxEntries, TimeUnit.HOURS.toMillis(sparqlCacheTtlHours), diskDirectory);
+
+		if (metricsService != null) {
+			metricsService.register("landregistry.sparql-cache", sparqlResultCache::getStatistics);
+			metricsService.register("landregistry.sparql-cache.disk-hits", sparqlResultCache::getDiskHits);
+		}
 	}
 
 	@Override
@@ -61,21 +194,90 @@ public class LandRegistryDaoImpl extends DaoImpl<PostCodeCoordinates> {
 				"All Postcodes cannot be listed due to magnitude, use searchForLandRegistryDataInBoundaries instead.");
 	}
 
+	/**
+	 * Loads the postcode spatial index in the background once the application has
+	 * started, so that startup is not held up by reading the whole table.
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void loadSpatialIndexInBackground() {
+		if (!spatialIndexEnabled) {
+			logger.info("Postcode spatial index disabled, boundary searches will query the database");
+			return;
+		}
+		Thread loader = new Thread(this::loadSpatialIndex, "postcode-index-loader");
+		loader.setDaemon(true);
+		loader.start();
+	}
+
+	/**
+	 * Reads every row of the postcodelatlng table into a {@link PostcodeSpatialIndex},
+	 * replacing any index already loaded.
+	 */
+	public void loadSpatialIndex() {
+		long startTime = System.currentTimeMillis();
+		try {
+			PostcodeSpatialIndex index = useEntityManager(em -> em.unwrap(Session.class).doReturningWork(this::readSpatialIndex));
+			spatialIndex = index;
+			logger.info("Loaded " + index.size() + " postcodes into spatial index in " + (System.currentTimeMillis() - startTime) + "ms");
+
+			if (eventPublisher != null) {
+				eventPublisher.publishEvent(new PostcodeSpatialIndexLoadedEvent(index));
+			}
+		} catch (Exception e) {
+			logger.error("Unable to load postcode spatial index, boundary searches will query the database", e);
+		}
+	}
+
+	private PostcodeSpatialIndex readSpatialIndex(Connection connection) throws SQLException {
+		try (Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+			// Integer.MIN_VALUE makes the MySQL driver stream rows rather than buffering the whole table
+			statement.setFetchSize(Integer.MIN_VALUE);
+			try (ResultSet resultSet = statement.executeQuery("SELECT postcode, latitude, longitude, averageprice FROM " + TABLE_NAME)) {
+				PostcodeSpatialIndex.Builder builder = PostcodeSpatialIndex.builder();
+				while (resultSet.next()) {
+					builder.add(resultSet.getString(1), resultSet.getDouble(2), resultSet.getDouble(3), resultSet.getLong(4));
+				}
+				if (builder.getSkipped() > 0) {
+					logger.warn("Skipped " + builder.getSkipped() + " malformed postcodes whilst loading spatial index");
+				}
+				return builder.build();
+			}
+		}
+	}
+
+	/**
+	 * Get the in memory copy of the postcodelatlng table.
+	 *
+	 * @return the spatial index, or null if it has not been loaded
+	 */
+	public PostcodeSpatialIndex getSpatialIndex() {
+		return spatialIndex;
+	}
+
 	public List<LandRegistryData> searchForLandRegistryDataInBoundaries(
 			double top, double right, double bottom, double left,
-			boolean sorted) {
-		return makeTransaction(em -> queryDataPointsInBoundaries(top, right, bottom, left, sorted, em));
+			boolean sorted, SamplingMode sampling) {
+		PostcodeSpatialIndex index = spatialIndex;
+		if (index == null) {
+			return makeTransaction(em -> queryDataPointsInBoundaries(top, right, bottom, left, sorted, sampling, em));
+		}
+
+		List<LandRegistryData> collectedResponse = index.searchInBoundaries(top, right, bottom, left, AGGREGATION_RETURN_COUNT, sampling);
+		if (sorted) {
+			Collections.sort(collectedResponse);
+		}
+		return collectedResponse;
 	}
 
 	@SuppressWarnings("unchecked")
 	private List<LandRegistryData> queryDataPointsInBoundaries(
 			double top, double right, double bottom, double left,
-			boolean sorted, EntityManager em
+			boolean sorted, SamplingMode sampling, EntityManager em
 	) {
-		double delta = ((top - bottom));
-		double deltab3 = Math.log(delta) / Math.log(3);
-		int scalingModifier = (int) Math.max(0, Math.min(Math.ceil(deltab3), 3));
-		int retCount = 1000;
+		int scalingModifier = PostcodeSpatialIndex.getScalingModifier(top, bottom);
+		int retCount = AGGREGATION_RETURN_COUNT;
+		// CRC32 matches SamplingMode.getSampleRank, so the index and database pick the same groups
+		String sampleOrder = sampling == SamplingMode.DETERMINISTIC ? "CRC32(postcode_aggregate)" : "RAND()";
 
 		List<LandRegistryData> collectedResponse = (List<LandRegistryData>) em
 				.createNativeQuery(
@@ -98,7 +300,7 @@ public class LandRegistryDaoImpl extends DaoImpl<PostCodeCoordinates> {
 								+ "AND latitude > :leftBound "
 								+ "AND latitude < :rightBound ) as innerQuery "
 								+ "group by postcode_aggregate "
-								+ "ORDER BY RAND() "
+								+ "ORDER BY " + sampleOrder + " "
 								+ "LIMIT :returnCount")
 				.setParameter("scalingModifier", scalingModifier)
 				.setParameter("topBound", top)
@@ -132,26 +334,164 @@ public class LandRegistryDaoImpl extends DaoImpl<PostCodeCoordinates> {
 		return landRegistryData;
 	}
 
+	/**
+	 * Save the average price of many postcodes at once. The current prices are
+	 * read with one query per {@link #MAX_BATCH_SIZE} postcodes, and only the
+	 * prices that changed are written, as a single JDBC batch in the same
+	 * transaction.
+	 *
+	 * @param averagePrices new average price of each postcode, null if it has no sales
+	 * @return number of postcodes whose average price changed
+	 */
 	public int updateAveragePrice(HashMap<String, Long> averagePrices) {
+		if (averagePrices.isEmpty()) {
+			return 0;
+		}
+		List<PostCodeCoordinates> updatedPostcodes = makeTransaction(em -> em.unwrap(Session.class)
+				.doReturningWork(connection -> writeChangedAveragePrices(connection, averagePrices)));
+		if (!updatedPostcodes.isEmpty()) {
+			logger.info("Updated the average price of " + updatedPostcodes.size() + " of " + averagePrices.size() + " postcodes");
+		}
 
-		return makeTransaction(em -> {
-			int updatedRecords = 0;
-			for (Entry<String, Long> averagePrice : averagePrices.entrySet()) {
+		// Only applied once the transaction has committed, so the index never runs ahead of the database
+		PostcodeSpatialIndex index = spatialIndex;
+		if (index != null) {
+			for (PostCodeCoordinates updatedPostcode : updatedPostcodes) {
+				index.updateAveragePrice(updatedPostcode.getPostcode(), updatedPostcode.getAverageprice());
+			}
+		}
+		if (eventPublisher != null && !updatedPostcodes.isEmpty()) {
+			eventPublisher.publishEvent(new AveragePricesUpdatedEvent(this, updatedPostcodes));
+		}
+
+		return updatedPostcodes.size();
+	}
 
-				PostCodeCoordinates coordsToUpdate = em
-						.find(PostCodeCoordinates.class, averagePrice.getKey());
+	private List<PostCodeCoordinates> writeChangedAveragePrices(Connection connection, Map<String, Long> averagePrices) throws SQLException {
+		List<PostCodeCoordinates> changedPostcodes = new ArrayList<>();
+		List<String> postcodes = new ArrayList<>(averagePrices.keySet());
 
-				if (!coordsToUpdate.getAverageprice()
-						.equals(averagePrice.getValue())) {
-					logger.info("Updating Average price value for postcode " + coordsToUpdate.getPostcode() + " to " +averagePrice.getValue());
-					coordsToUpdate.setAverageprice(averagePrice.getValue());
-					em.merge(coordsToUpdate);
-					updatedRecords++;
+		for (int from = 0; from < postcodes.size(); from += MAX_BATCH_SIZE) {
+			List<String> batch = postcodes.subList(from, Math.min(postcodes.size(), from + MAX_BATCH_SIZE));
+			String placeholders = String.join(",", Collections.nCopies(batch.size(), "?"));
+
+			try (PreparedStatement select = connection.prepareStatement(
+					"SELECT postcode, latitude, longitude, averageprice FROM " + TABLE_NAME + " WHERE postcode IN (" + placeholders + ")")) {
+				for (int i = 0; i < batch.size(); i++) {
+					select.setString(i + 1, batch.get(i));
+				}
+				try (ResultSet resultSet = select.executeQuery()) {
+					while (resultSet.next()) {
+						String postcode = resultSet.getString(1);
+						long storedPrice = resultSet.getLong(4);
+						Long currentPrice = resultSet.wasNull() ? null : storedPrice;
+						Long newPrice = averagePrices.get(postcode);
+
+						if (!Objects.equals(currentPrice, newPrice)) {
+							PostCodeCoordinates changedPostcode = new PostCodeCoordinates();
+							changedPostcode.setPostcode(postcode);
+							changedPostcode.setLatitude(resultSet.getDouble(2));
+							changedPostcode.setLongitude(resultSet.getDouble(3));
+							changedPostcode.setAverageprice(newPrice);
+							changedPostcodes.add(changedPostcode);
+						}
+					}
 				}
 			}
-			return updatedRecords;
-		});
+		}
+
+		if (changedPostcodes.isEmpty()) {
+			return changedPostcodes;
+		}
+
+		// Sent as one multi-row statement when the connection has rewriteBatchedStatements=true
+		try (PreparedStatement update = connection.prepareStatement("UPDATE " + TABLE_NAME + " SET averageprice = ? WHERE postcode = ?")) {
+			for (PostCodeCoordinates changedPostcode : changedPostcodes) {
+				if (changedPostcode.getAverageprice() == null) {
+					update.setNull(1, Types.BIGINT);
+				} else {
+					update.setLong(1, changedPostcode.getAverageprice());
+				}
+				update.setString(2, changedPostcode.getPostcode());
+				update.addBatch();
+			}
+			update.executeBatch();
+		}
+		return changedPostcodes;
+	}
+
+	/**
+	 * Get the centroid of each postcode, from the spatial index if it has loaded
+	 * or otherwise from the database.
+	 *
+	 * @param postcodes to find
+	 * @return the latitude and longitude of each postcode found, keyed by postcode
+	 */
+	@SuppressWarnings("unchecked")
+	public HashMap<String, double[]> getPostcodeCentroids(Collection<String> postcodes) {
+		HashMap<String, double[]> centroids = new HashMap<>();
+		if (postcodes.isEmpty()) {
+			return centroids;
+		}
+
+		PostcodeSpatialIndex index = spatialIndex;
+		if (index != null) {
+			for (String postcode : postcodes) {
+				double[] centroid = index.getPosition(postcode);
+				if (centroid != null) {
+					centroids.put(postcode, centroid);
+				}
+			}
+			return centroids;
+		}
 
+		List<Object[]> rows = useEntityManager(em -> em
+				.createNativeQuery("SELECT postcode, latitude, longitude FROM " + TABLE_NAME + " WHERE postcode IN (:postcodes)")
+				.setParameter("postcodes", new ArrayList<>(postcodes))
+				.getResultList());
+		for (Object[] row : rows) {
+			centroids.put(String.valueOf(row[0]),
+					new double[] {Double.valueOf(String.valueOf(row[1])), Double.valueOf(String.valueOf(row[2]))});
+		}
+		return centroids;
+	}
+
+	/**
+	 * Find the postcode nearest to each point from the spatial index.
+	 *
+	 * @param points            latitude and longitude pairs
+	 * @param maxDistanceMetres furthest a postcode may be from its point
+	 * @return the nearest postcode to each point, in the same order, with null
+	 * where there is no postcode within the distance, or null if the index has
+	 * not been loaded
+	 */
+	public List<PostCodeCoordinates> findNearestPostcodes(double[][] points, double maxDistanceMetres) {
+		PostcodeSpatialIndex index = spatialIndex;
+		if (index == null) {
+			return null;
+		}
+
+		List<PostCodeCoordinates> nearestPostcodes = new ArrayList<>(points.length);
+		for (double[] point : points) {
+			int position = index.findNearest(point[0], point[1], maxDistanceMetres);
+			if (position < 0) {
+				nearestPostcodes.add(null);
+				continue;
+			}
+			long averagePrice = index.getAveragePrice(position);
+			nearestPostcodes.add(createPostcodeCoordinates(index.getPostcode(position), index.getLatitude(position),
+					index.getLongitude(position), averagePrice > 0 ? averagePrice : null));
+		}
+		return nearestPostcodes;
+	}
+
+	private static PostCodeCoordinates createPostcodeCoordinates(String postcode, double latitude, double longitude, Long averagePrice) {
+		PostCodeCoordinates postcodeCoordinates = new PostCodeCoordinates();
+		postcodeCoordinates.setPostcode(postcode);
+		postcodeCoordinates.setLatitude(latitude);
+		postcodeCoordinates.setLongitude(longitude);
+		postcodeCoordinates.setAverageprice(averagePrice);
+		return postcodeCoordinates;
 	}
 
 	@SuppressWarnings("unchecked")
@@ -191,25 +531,234 @@ public class LandRegistryDaoImpl extends DaoImpl<PostCodeCoordinates> {
 	 * Used to fetch the position of a specific address or place
 	 *
 	 * @param builtAddress a valid address component for the google api call
-	 * @return JSONObject returning lat and lng values
+	 * @return JSONObject returning lat and lng values, shared with concurrent
+	 *         callers for the same address so must not be modified
 	 * @throws UnirestException
 	 */
 	public JSONObject getGeoLocationData(String builtAddress)
 			throws UnirestException {
-		return Unirest.get(GOOGLE_MAPS_URL + builtAddress + "&key=" + googleMapsApiKey).asJson().getBody().getArray()
-				.getJSONObject(0).getJSONArray("results").getJSONObject(0)
+		return geocodeFlights.execute(builtAddress, () -> {
+			String staleKey = GEOCODE_KEY_PREFIX + builtAddress;
+			try {
+				return send(Upstream.GEOCODING, buildGeoLocationRequest(builtAddress),
+						response -> readGeoLocation(staleKey, response.getStatusLine().getStatusCode(),
+								EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8)));
+			} catch (IOException | URISyntaxException | UnirestException | RuntimeException e) {
+				String staleResponse = getLastGoodResponse(staleKey, e);
+				if (staleResponse == null) {
+					if (e instanceof RuntimeException) {
+						throw (RuntimeException) e;
+					}
+					throw e instanceof UnirestException ? (UnirestException) e : new UnirestException(e);
+				}
+				return parseGeoLocation(staleResponse);
+			}
+		});
+	}
+
+	/**
+	 * A geocoding request with its own connect and read timeouts, so a request
+	 * that stops responding fails rather than holding its thread until the
+	 * pool's read timeout.
+	 */
+	private HttpUriRequest buildGeoLocationRequest(String builtAddress) throws URISyntaxException {
+		URI mapsUrl = URI.create(GOOGLE_MAPS_URL);
+		// Quotes any characters of the address that are not allowed in a URL, as Unirest does
+		HttpGet request = new HttpGet(new URI(mapsUrl.getScheme(), mapsUrl.getHost(), mapsUrl.getPath(),
+				"address=" + builtAddress + "&key=" + googleMapsApiKey, null));
+		request.setConfig(RequestConfig.custom()
+				.setConnectTimeout(geocodingTimeoutMillis)
+				.setConnectionRequestTimeout(geocodingTimeoutMillis)
+				.setSocketTimeout(geocodingTimeoutMillis)
+				.build());
+		return request;
+	}
+
+	private JSONObject readGeoLocation(String staleKey, int status, String body) {
+		JSONObject location = parseGeoLocation(body);
+		if (staleKey != null && status == 200) {
+			putLastGoodResponse(staleKey, body);
+		}
+		return location;
+	}
+
+	private JSONObject parseGeoLocation(String response) {
+		return new JSONObject(response).getJSONArray("results").getJSONObject(0)
 				.getJSONObject("geometry").getJSONObject("location");
 	}
 
-	public JSONObject executeSPARQLQuery(String query) throws UnirestException {
-		// Navigates through JSON and returns list of addresses based on post
-		// code
-		return Unirest.post(LAND_REGISTRY_SPARQL_ENDPOINT)
-			.field("output", "json")
-			.field("q", query)
-			.field("url", "/landregistry/query")
-			.asJson()
-			.getBody()
-			.getObject();
+	/**
+	 * Runs a SPARQL query, parsing the response from the connection and handing
+	 * each row to the consumer as it is read, without building a tree of the
+	 * response. A cached response is used if there is one. Identical queries
+	 * made at the same time share one request, with the callers that joined it
+	 * reading its rows as they arrive. If the request fails before any rows
+	 * have been read, the last good response to the query is read instead.
+	 *
+	 * @param query SPARQL query to run against the Land Registry endpoint
+	 * @param rows  receives each row as it is read
+	 * @return number of rows read
+	 * @throws IOException if the response cannot be read
+	 * @throws UnirestException if the request cannot be sent
+	 */
+	public int executeSPARQLQuery(String query, Consumer<LandRegistryData> rows) throws IOException, UnirestException {
+		SparqlResultCache cache = sparqlResultCache;
+		String canonicalQuery = SparqlResultCache.canonicalise(query);
+		if (cache != null) {
+			String cachedResponse = cache.get(canonicalQuery);
+			if (cachedResponse != null) {
+				return SparqlResultParser.parse(cachedResponse, rows);
+			}
+		}
+
+		// Keyed by the canonical query, so queries differing only in whitespace share a call too
+		SharedSparqlQuery sharedQuery = new SharedSparqlQuery();
+		SharedSparqlQuery inFlightQuery = sparqlQueries.putIfAbsent(canonicalQuery, sharedQuery);
+		if (inFlightQuery != null) {
+			sharedSparqlQueries.incrementAndGet();
+			return readSharedSparqlQuery(query, canonicalQuery, inFlightQuery, rows);
+		}
+
+		AtomicInteger rowsRead = new AtomicInteger();
+		// Replaced once the query has been read, so callers sharing it are never told an error finished it cleanly
+		Exception failure = new IOException("SPARQL query was not read");
+		try {
+			sendSparqlQuery(query, binding -> {
+				sharedQuery.add(binding);
+				rowsRead.incrementAndGet();
+				rows.accept(SparqlResultParser.toRow(binding));
+			});
+			failure = null;
+		} catch (IOException | UnirestException | RuntimeException e) {
+			failure = e;
+			String staleResponse = getLastGoodSparqlResponse(canonicalQuery, rowsRead.get(), e);
+			if (staleResponse == null) {
+				throw e;
+			}
+			return SparqlResultParser.parse(staleResponse, rows);
+		} finally {
+			// Removed before finishing, so callers sending an abandoned query again start a fresh one
+			sparqlQueries.remove(canonicalQuery, sharedQuery);
+			sharedQuery.finish(failure);
+		}
+
+		String response = SparqlResultParser.write(sharedQuery.getBindings());
+		if (cache != null) {
+			cache.put(canonicalQuery, response);
+		}
+		putLastGoodResponse(SPARQL_KEY_PREFIX + canonicalQuery, response);
+		return rowsRead.get();
+	}
+
+	/**
+	 * Reads the rows of an identical query another caller is reading, as it
+	 * reads them
+	 */
+	private int readSharedSparqlQuery(String query, String canonicalQuery, SharedSparqlQuery sharedQuery,
+			Consumer<LandRegistryData> rows) throws IOException, UnirestException {
+		AtomicInteger rowsRead = new AtomicInteger();
+		try {
+			return sharedQuery.read(row -> {
+				rowsRead.incrementAndGet();
+				rows.accept(row);
+			});
+		} catch (IOException | UnirestException | RuntimeException e) {
+			if (sharedQuery.isAbandoned() && rowsRead.get() == 0) {
+				return executeSPARQLQuery(query, rows);
+			}
+			String staleResponse = getLastGoodSparqlResponse(canonicalQuery, rowsRead.get(), e);
+			if (staleResponse == null) {
+				throw e;
+			}
+			return SparqlResultParser.parse(staleResponse, rows);
+		}
+	}
+
+	private String getLastGoodSparqlResponse(String canonicalQuery, int rowsRead, Throwable failure) {
+		// Rows already handed to the consumer cannot be taken back
+		return rowsRead == 0 ? getLastGoodResponse(SPARQL_KEY_PREFIX + canonicalQuery, failure) : null;
+	}
+
+	/**
+	 * Sends a query to the SPARQL endpoint, whose bindings are read a row at a
+	 * time, falling back to the qonsole proxy if that fails before any rows
+	 * have been read
+	 */
+	private void sendSparqlQuery(String query, Consumer<Map<String, String>> bindings)
+			throws IOException, UnirestException {
+		AtomicInteger rowsRead = new AtomicInteger();
+		Consumer<Map<String, String>> readRow = binding -> {
+			rowsRead.incrementAndGet();
+			bindings.accept(binding);
+		};
+		try {
+			send(Upstream.LAND_REGISTRY, buildSparqlRequest(query), response -> readSparqlResponse(response, readRow));
+		} catch (IOException | UnirestException e) {
+			if (rowsRead.get() > 0 || e instanceof CircuitOpenException) {
+				throw e;
+			}
+			logger.warn("SPARQL endpoint failed, sending query through the qonsole proxy: " + e);
+			send(Upstream.LAND_REGISTRY, buildQonsoleRequest(query), response -> readSparqlResponse(response, readRow));
+		}
+	}
+
+	private int readSparqlResponse(HttpResponse response, Consumer<Map<String, String>> bindings)
+			throws IOException {
+		int status = response.getStatusLine().getStatusCode();
+		if (status != 200) {
+			throw new HttpResponseException(status, "SPARQL query failed with status " + status);
+		}
+		return SparqlResultParser.parseBindings(response.getEntity().getContent(), bindings);
+	}
+
+	private HttpUriRequest buildSparqlRequest(String query) {
+		HttpPost request = new HttpPost(LAND_REGISTRY_SPARQL_ENDPOINT);
+		request.setHeader("Accept", "application/sparql-results+json");
+		request.setEntity(new UrlEncodedFormEntity(Collections.singletonList(
+				new BasicNameValuePair("query", query)), StandardCharsets.UTF_8));
+		return request;
+	}
+
+	private HttpUriRequest buildQonsoleRequest(String query) {
+		// The qonsole proxy runs the query against the SPARQL endpoint and wraps the whole result in a string
+		HttpPost request = new HttpPost(LAND_REGISTRY_QONSOLE_ENDPOINT);
+		request.setEntity(new UrlEncodedFormEntity(Arrays.asList(
+				new BasicNameValuePair("output", "json"),
+				new BasicNameValuePair("q", query),
+				new BasicNameValuePair("url", "/landregistry/query")), StandardCharsets.UTF_8));
+		return request;
+	}
+
+	private void putLastGoodResponse(String key, String response) {
+		if (lastGoodResponses != null) {
+			lastGoodResponses.put(key, response);
+		}
+	}
+
+	/**
+	 * Used when a request fails, including when it is not sent because the
+	 * upstream's circuit breaker is open
+	 *
+	 * @return the last good response to the request, or null if there is none
+	 */
+	private String getLastGoodResponse(String key, Throwable failure) {
+		String staleResponse = lastGoodResponses == null ? null : lastGoodResponses.get(key);
+		if (staleResponse != null) {
+			staleResponsesServed.incrementAndGet();
+			logger.warn("Serving last good response after request failed: " + failure);
+		}
+		return staleResponse;
+	}
+
+	/**
+	 * Requests go through the pooled client when it is available, and are sent
+	 * directly otherwise
+	 */
+	private <T> T send(Upstream upstream, HttpUriRequest request, ResponseHandler<? extends T> handler)
+			throws IOException, UnirestException {
+		if (httpClientService != null) {
+			return httpClientService.execute(upstream, request, handler);
+		}
+		return ((HttpClient) Options.getOption(Option.HTTPCLIENT)).execute(request, handler);
 	}
 }
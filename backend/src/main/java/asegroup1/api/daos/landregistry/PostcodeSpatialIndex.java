@@ -0,0 +1,873 @@
+package asegroup1.api.daos.landregistry;
+
+import asegroup1.api.models.landregistry.LandRegistryData;
+import asegroup1.api.models.landregistry.SamplingMode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * An in memory copy of the postcodelatlng table, packed into primitive arrays
+ * and ordered as a static k-d tree so that boundary searches can be answered
+ * without querying the database.
+ *
+ * Postcodes are encoded into longs (see {@link #encodePostcode(String)}) so
+ * that the full table of ~2.6 million rows can be held without a String per
+ * row. All arrays are indexed by tree position.
+ */
+public class PostcodeSpatialIndex {
+
+	/**
+	 * Maximum number of points stored in a leaf of the k-d tree
+	 */
+	private static final int NODE_SIZE = 64;
+
+	/**
+	 * Number of low bits used to store a tree position when a position is packed
+	 * alongside an encoded postcode in a single long
+	 */
+	private static final int POSITION_BITS = 26;
+	private static final long POSITION_MASK = (1L << POSITION_BITS) - 1;
+	static final int MAX_SIZE = 1 << POSITION_BITS;
+
+	/**
+	 * Number of low bits used to store a group index below a 32 bit sample rank
+	 */
+	private static final int RANK_INDEX_BITS = 31;
+	private static final long RANK_INDEX_MASK = (1L << RANK_INDEX_BITS) - 1;
+
+	private static final int SYMBOL_COUNT = 37;
+	private static final int OUTWARD_LENGTH = 4;
+	private static final int INWARD_LENGTH = 3;
+	private static final int MAX_AGGREGATION_STRIP = 3;
+	private static final long[] SYMBOL_POWERS = {1, 37, 37 * 37, 37 * 37 * 37};
+
+	/**
+	 * Metres in a degree of latitude, on a sphere of the earth's mean radius
+	 */
+	static final double METRES_PER_DEGREE = 111195;
+
+	private final int size;
+	private final long[] codes;
+	private final double[] coords;
+	// Updated by updateAveragePrice while other threads read, so each element is read and written atomically
+	private final AtomicLongArray prices;
+	private final int[] byCode;
+
+	// Only used while the tree is sorted, before the index is published
+	private long[] sortPrices;
+
+	private PostcodeSpatialIndex(int size, long[] codes, double[] coords, long[] prices) {
+		this.size = size;
+		this.codes = codes;
+		this.coords = coords;
+		this.sortPrices = prices;
+
+		sortKD(0, size - 1, 0);
+		this.prices = new AtomicLongArray(sortPrices);
+		this.sortPrices = null;
+		this.byCode = buildCodeLookup();
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Check if a postcode is held in the index.
+	 *
+	 * @param postcode to check
+	 * @return true, if the postcode is held in the index
+	 */
+	public boolean contains(String postcode) {
+		return findPosition(encodePostcode(postcode)) >= 0;
+	}
+
+	/**
+	 * Update the average price of a single postcode, this is used to keep the
+	 * index in step with the database after {@link LandRegistryDaoImpl#updateAveragePrice}.
+	 *
+	 * @param postcode     to update
+	 * @param averagePrice new price, null is stored as 0 (unset)
+	 * @return true, if the postcode exists in the index
+	 */
+	public boolean updateAveragePrice(String postcode, Long averagePrice) {
+		int position = findPosition(encodePostcode(postcode));
+		if (position < 0) {
+			return false;
+		}
+		prices.set(position, averagePrice == null ? 0 : averagePrice);
+		return true;
+	}
+
+	/**
+	 * Get the average price currently held for a postcode.
+	 *
+	 * @param postcode to fetch
+	 * @return the average price, or null if the postcode is not held in the index
+	 */
+	public Long getAveragePrice(String postcode) {
+		int position = findPosition(encodePostcode(postcode));
+		return position < 0 ? null : prices.get(position);
+	}
+
+	/**
+	 * @param postcode to find, e.g. "BN14 7BH"
+	 * @return the latitude and longitude of the postcode, or null if it is not in the index
+	 */
+	public double[] getPosition(String postcode) {
+		int position = findPosition(encodePostcode(postcode));
+		return position < 0 ? null : new double[] {coords[2 * position], coords[2 * position + 1]};
+	}
+
+	/**
+	 * Aggregates the priced postcodes inside the boundaries in the same way as
+	 * the native query in {@link LandRegistryDaoImpl}. Postcodes are grouped by a
+	 * prefix whose length shrinks as the viewport grows, and the groups are
+	 * sampled down to the return count.
+	 *
+	 * Note that, as in the database query, top and bottom bound the longitude
+	 * and left and right bound the latitude.
+	 *
+	 * @param top         upper longitude bound (exclusive)
+	 * @param right       upper latitude bound (exclusive)
+	 * @param bottom      lower longitude bound (exclusive)
+	 * @param left        lower latitude bound (exclusive)
+	 * @param returnCount maximum number of aggregated points to return
+	 * @param sampling    how groups are picked when there are more than the return count
+	 * @return aggregated points, in no particular order
+	 */
+	public List<LandRegistryData> searchInBoundaries(double top, double right, double bottom, double left, int returnCount,
+			SamplingMode sampling) {
+		int[] matches = new int[64];
+		int matchCount = 0;
+
+		int[] stack = new int[96];
+		int stackSize = 0;
+		stack[stackSize++] = 0;
+		stack[stackSize++] = size - 1;
+		stack[stackSize++] = 0;
+
+		while (stackSize > 0) {
+			int axis = stack[--stackSize];
+			int nodeRight = stack[--stackSize];
+			int nodeLeft = stack[--stackSize];
+
+			if (nodeRight - nodeLeft <= NODE_SIZE) {
+				for (int i = nodeLeft; i <= nodeRight; i++) {
+					if (isPricedAndInside(i, top, right, bottom, left)) {
+						if (matchCount == matches.length) {
+							matches = Arrays.copyOf(matches, matchCount * 2);
+						}
+						matches[matchCount++] = i;
+					}
+				}
+				continue;
+			}
+
+			int median = (nodeLeft + nodeRight) >>> 1;
+			if (isPricedAndInside(median, top, right, bottom, left)) {
+				if (matchCount == matches.length) {
+					matches = Arrays.copyOf(matches, matchCount * 2);
+				}
+				matches[matchCount++] = median;
+			}
+
+			double value = coords[2 * median + axis];
+			double min = axis == 0 ? left : bottom;
+			double max = axis == 0 ? right : top;
+
+			if (stackSize + 6 > stack.length) {
+				stack = Arrays.copyOf(stack, stack.length * 2);
+			}
+			if (min <= value) {
+				stack[stackSize++] = nodeLeft;
+				stack[stackSize++] = median - 1;
+				stack[stackSize++] = 1 - axis;
+			}
+			if (max >= value) {
+				stack[stackSize++] = median + 1;
+				stack[stackSize++] = nodeRight;
+				stack[stackSize++] = 1 - axis;
+			}
+		}
+
+		return aggregate(matches, matchCount, getAggregationStrip(top, bottom, matchCount, returnCount), returnCount, sampling);
+	}
+
+	public List<LandRegistryData> searchInBoundaries(double top, double right, double bottom, double left, int returnCount) {
+		return searchInBoundaries(top, right, bottom, left, returnCount, SamplingMode.RANDOM);
+	}
+
+	/**
+	 * Finds the postcode nearest to a point, priced or not. Distances are
+	 * measured on a flat projection centred on the point, which is accurate to
+	 * well within a metre over the distances between neighbouring postcodes.
+	 *
+	 * @param latitude          of the point
+	 * @param longitude         of the point
+	 * @param maxDistanceMetres furthest the postcode may be from the point
+	 * @return tree position of the nearest postcode, for use with {@link #getPostcode(int)}
+	 * and {@link #getAveragePrice(int)}, or -1 if there is no postcode within the distance
+	 */
+	public int findNearest(double latitude, double longitude, double maxDistanceMetres) {
+		NearestSearch search = new NearestSearch(latitude, longitude, maxDistanceMetres);
+		searchNearest(search, 0, size - 1, 0);
+		return search.position;
+	}
+
+	public int findNearest(double latitude, double longitude) {
+		return findNearest(latitude, longitude, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Distance between two points, measured in the same way as {@link #findNearest}
+	 */
+	public static double getDistanceMetres(double latitude, double longitude, double otherLatitude, double otherLongitude) {
+		double latitudeDelta = otherLatitude - latitude;
+		double longitudeDelta = (otherLongitude - longitude) * Math.cos(Math.toRadians(latitude));
+		return Math.sqrt(latitudeDelta * latitudeDelta + longitudeDelta * longitudeDelta) * METRES_PER_DEGREE;
+	}
+
+	private void searchNearest(NearestSearch search, int nodeLeft, int nodeRight, int axis) {
+		if (nodeRight - nodeLeft <= NODE_SIZE) {
+			for (int i = nodeLeft; i <= nodeRight; i++) {
+				search.offer(i);
+			}
+			return;
+		}
+
+		int median = (nodeLeft + nodeRight) >>> 1;
+		search.offer(median);
+
+		// The side of the split holding the point is searched first, the other side
+		// can only hold a nearer postcode if the split itself is nearer
+		double delta = search.getAxisDelta(axis, coords[2 * median + axis]);
+		if (delta < 0) {
+			searchNearest(search, nodeLeft, median - 1, 1 - axis);
+			if (delta * delta <= search.distance) {
+				searchNearest(search, median + 1, nodeRight, 1 - axis);
+			}
+		} else {
+			searchNearest(search, median + 1, nodeRight, 1 - axis);
+			if (delta * delta <= search.distance) {
+				searchNearest(search, nodeLeft, median - 1, 1 - axis);
+			}
+		}
+	}
+
+	/**
+	 * @param position tree position, as returned by {@link #findNearest}
+	 * @return the postcode at the position
+	 */
+	public String getPostcode(int position) {
+		return decodePostcodePrefix(codes[position], 0);
+	}
+
+	/**
+	 * @param position tree position, as returned by {@link #findNearest}
+	 * @return the average price of the postcode at the position, 0 if unset
+	 */
+	public long getAveragePrice(int position) {
+		return prices.get(position);
+	}
+
+	public double getLatitude(int position) {
+		return coords[2 * position];
+	}
+
+	public double getLongitude(int position) {
+		return coords[2 * position + 1];
+	}
+
+	private boolean isPricedAndInside(int position, double top, double right, double bottom, double left) {
+		double latitude = coords[2 * position];
+		double longitude = coords[2 * position + 1];
+		return prices.get(position) > 0 && longitude > bottom && longitude < top && latitude > left && latitude < right;
+	}
+
+	private List<LandRegistryData> aggregate(int[] matches, int matchCount, int strip, int returnCount, SamplingMode sampling) {
+		// Pack the postcode prefix above the tree position so that a primitive sort
+		// leaves every prefix group contiguous
+		long[] keys = new long[matchCount];
+		for (int i = 0; i < matchCount; i++) {
+			keys[i] = ((codes[matches[i]] / SYMBOL_POWERS[strip]) << POSITION_BITS) | matches[i];
+		}
+		Arrays.sort(keys);
+
+		int groupCount = 0;
+		long[] groupKeys = new long[Math.min(matchCount, 1024)];
+		double[] groupValues = new double[groupKeys.length * 4];
+		GroupAccumulator accumulator = new GroupAccumulator();
+
+		int start = 0;
+		while (start < matchCount) {
+			long groupKey = keys[start] >>> POSITION_BITS;
+			accumulator.reset();
+
+			int end = start;
+			while (end < matchCount && (keys[end] >>> POSITION_BITS) == groupKey) {
+				accumulator.add((int) (keys[end] & POSITION_MASK));
+				end++;
+			}
+
+			if (groupCount == groupKeys.length) {
+				groupKeys = Arrays.copyOf(groupKeys, groupCount * 2);
+				groupValues = Arrays.copyOf(groupValues, groupCount * 8);
+			}
+
+			groupKeys[groupCount] = groupKey;
+			groupValues[4 * groupCount] = accumulator.getLatitude();
+			groupValues[4 * groupCount + 1] = accumulator.getLongitude();
+			groupValues[4 * groupCount + 2] = accumulator.getAveragePrice();
+			groupValues[4 * groupCount + 3] = accumulator.getRadius();
+			groupCount++;
+
+			start = end;
+		}
+
+		int[] selected;
+		if (sampling == SamplingMode.DETERMINISTIC && groupCount > returnCount) {
+			long[] ranks = new long[groupCount];
+			for (int group = 0; group < groupCount; group++) {
+				ranks[group] = SamplingMode.getSampleRank(decodePostcodePrefix(groupKeys[group], strip));
+			}
+			selected = sampleGroupsByRank(ranks, groupCount, returnCount);
+		} else {
+			selected = sampleGroups(groupCount, returnCount);
+		}
+
+		List<LandRegistryData> landRegistryDataList = new ArrayList<>(selected.length);
+		for (int group : selected) {
+			LandRegistryData landRegistryData = new LandRegistryData();
+			landRegistryData.setPostCode(decodePostcodePrefix(groupKeys[group], strip));
+			landRegistryData.setLatitude(groupValues[4 * group]);
+			landRegistryData.setLongitude(groupValues[4 * group + 1]);
+			landRegistryData.setPricePaid(Math.round(groupValues[4 * group + 2]));
+			landRegistryData.setRadius(groupValues[4 * group + 3]);
+			landRegistryDataList.add(landRegistryData);
+		}
+		return landRegistryDataList;
+	}
+
+	/**
+	 * Aggregates every priced postcode in the index by prefix, in postcode order.
+	 * This is the same aggregation as {@link #searchInBoundaries}, but over the
+	 * whole country, and is used to precompute heatmap tiles.
+	 *
+	 * @param strip    number of characters (0-3) to remove from each postcode
+	 * @param consumer called once per postcode prefix group
+	 */
+	public void forEachPostcodeGroup(int strip, PostcodeGroupConsumer consumer) {
+		if (strip < 0 || strip > MAX_AGGREGATION_STRIP) {
+			throw new IllegalArgumentException("Strip must be between 0 and " + MAX_AGGREGATION_STRIP);
+		}
+		GroupAccumulator accumulator = new GroupAccumulator();
+
+		// byCode is sorted by postcode, so every prefix group is already contiguous
+		int start = 0;
+		while (start < size) {
+			long groupKey = codes[byCode[start]] / SYMBOL_POWERS[strip];
+			accumulator.reset();
+
+			int end = start;
+			while (end < size && codes[byCode[end]] / SYMBOL_POWERS[strip] == groupKey) {
+				if (prices.get(byCode[end]) > 0) {
+					accumulator.add(byCode[end]);
+				}
+				end++;
+			}
+
+			if (accumulator.getCount() > 0) {
+				consumer.accept(decodePostcodePrefix(groupKey, strip), accumulator.getLatitude(), accumulator.getLongitude(),
+						Math.round(accumulator.getAveragePrice()), accumulator.getRadius(), accumulator.getCount());
+			}
+			start = end;
+		}
+	}
+
+	/**
+	 * Picks a uniformly random subset of the groups, the equivalent of
+	 * "ORDER BY RAND() LIMIT :returnCount"
+	 *
+	 * @param groupCount  number of groups to pick from
+	 * @param returnCount maximum number of groups to pick
+	 * @return indexes of the picked groups
+	 */
+	public static int[] sampleGroups(int groupCount, int returnCount) {
+		int[] groups = new int[groupCount];
+		for (int i = 0; i < groupCount; i++) {
+			groups[i] = i;
+		}
+		if (groupCount <= returnCount) {
+			return groups;
+		}
+
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int i = 0; i < returnCount; i++) {
+			int swapWith = i + random.nextInt(groupCount - i);
+			int tmp = groups[i];
+			groups[i] = groups[swapWith];
+			groups[swapWith] = tmp;
+		}
+		return Arrays.copyOf(groups, returnCount);
+	}
+
+	/**
+	 * Picks the groups with the lowest ranks, the equivalent of
+	 * "ORDER BY CRC32(postcode_aggregate) LIMIT :returnCount". Only the
+	 * partition holding the picked groups is ordered, rather than sorting every
+	 * group.
+	 *
+	 * @param ranks       rank of each group, between 0 and 2^32 - 1
+	 * @param groupCount  number of groups to pick from
+	 * @param returnCount maximum number of groups to pick
+	 * @return indexes of the picked groups, in no particular order
+	 */
+	public static int[] sampleGroupsByRank(long[] ranks, int groupCount, int returnCount) {
+		if (groupCount <= returnCount) {
+			return sampleGroups(groupCount, returnCount);
+		}
+
+		// Packing the index below the rank breaks ties by group order and keeps every key distinct
+		long[] keys = new long[groupCount];
+		for (int i = 0; i < groupCount; i++) {
+			keys[i] = (ranks[i] << RANK_INDEX_BITS) | i;
+		}
+		selectSmallest(keys, returnCount);
+
+		int[] selected = new int[returnCount];
+		for (int i = 0; i < returnCount; i++) {
+			selected[i] = (int) (keys[i] & RANK_INDEX_MASK);
+		}
+		return selected;
+	}
+
+	/**
+	 * Quickselect, rearranges the keys so that the smallest count keys come
+	 * first in no particular order
+	 */
+	private static void selectSmallest(long[] keys, int count) {
+		int k = count - 1;
+		int left = 0;
+		int right = keys.length - 1;
+
+		while (left < right) {
+			long pivot = keys[(left + right) >>> 1];
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (keys[i] < pivot) {
+					i++;
+				}
+				while (keys[j] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					long tmp = keys[i];
+					keys[i] = keys[j];
+					keys[j] = tmp;
+					i++;
+					j--;
+				}
+			}
+
+			if (k <= j) {
+				right = j;
+			} else if (k >= i) {
+				left = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Calculates how many characters are removed from the end of each postcode
+	 * before grouping. Larger viewports, and viewports containing more postcodes,
+	 * are aggregated into larger areas.
+	 *
+	 * @param top         upper longitude bound
+	 * @param bottom      lower longitude bound
+	 * @param matchCount  number of priced postcodes inside the bounds
+	 * @param returnCount maximum number of points that will be returned
+	 * @return number of characters (0-3) to remove from each postcode
+	 */
+	public static int getAggregationStrip(double top, double bottom, int matchCount, int returnCount) {
+		if (matchCount <= 0) {
+			return 0;
+		}
+		int countModifier = (int) Math.floor(Math.log10(matchCount / (double) (returnCount * 5)));
+		return Math.max(0, Math.min(MAX_AGGREGATION_STRIP, countModifier + getScalingModifier(top, bottom)));
+	}
+
+	public static int getScalingModifier(double top, double bottom) {
+		double delta = top - bottom;
+		double deltab3 = Math.log(delta) / Math.log(3);
+		return (int) Math.max(0, Math.min(Math.ceil(deltab3), MAX_AGGREGATION_STRIP));
+	}
+
+	/**
+	 * Encodes a postcode as a base 37 number, the outward code is padded to four
+	 * characters so that encoded postcodes sort in the same order as the strings
+	 * and any prefix of the inward code can be found by integer division.
+	 *
+	 * @param postcode to encode, e.g. "BN14 7BH"
+	 * @return the encoded postcode, or -1 if it is not a valid postcode
+	 */
+	static long encodePostcode(String postcode) {
+		if (postcode == null) {
+			return -1;
+		}
+		String trimmed = postcode.trim().toUpperCase();
+		int space = trimmed.indexOf(' ');
+
+		String outward = space < 0 ? trimmed.substring(0, Math.max(0, trimmed.length() - INWARD_LENGTH)) : trimmed.substring(0, space);
+		String inward = space < 0 ? trimmed.substring(outward.length()) : trimmed.substring(space + 1).trim();
+
+		if (outward.length() < 2 || outward.length() > OUTWARD_LENGTH || inward.length() != INWARD_LENGTH) {
+			return -1;
+		}
+
+		long code = 0;
+		for (int i = 0; i < OUTWARD_LENGTH + INWARD_LENGTH; i++) {
+			char c;
+			if (i < OUTWARD_LENGTH) {
+				c = i < outward.length() ? outward.charAt(i) : ' ';
+			} else {
+				c = inward.charAt(i - OUTWARD_LENGTH);
+			}
+
+			int symbol = encodeSymbol(c);
+			if (symbol < 0 || (symbol == 0 && i >= OUTWARD_LENGTH)) {
+				return -1;
+			}
+			code = code * SYMBOL_COUNT + symbol;
+		}
+		return code;
+	}
+
+	/**
+	 * Decodes a postcode prefix produced by dividing an encoded postcode by
+	 * 37^strip. As with the native query a fully stripped inward code leaves a
+	 * trailing space, e.g. "BN14 ".
+	 *
+	 * @param prefix encoded prefix
+	 * @param strip  number of inward characters removed
+	 * @return the postcode prefix
+	 */
+	static String decodePostcodePrefix(long prefix, int strip) {
+		char[] symbols = new char[OUTWARD_LENGTH + INWARD_LENGTH];
+		long code = prefix * SYMBOL_POWERS[strip];
+		for (int i = symbols.length - 1; i >= 0; i--) {
+			symbols[i] = decodeSymbol((int) (code % SYMBOL_COUNT));
+			code /= SYMBOL_COUNT;
+		}
+
+		StringBuilder postcode = new StringBuilder(OUTWARD_LENGTH + INWARD_LENGTH + 1);
+		for (int i = 0; i < OUTWARD_LENGTH; i++) {
+			if (symbols[i] != ' ') {
+				postcode.append(symbols[i]);
+			}
+		}
+		postcode.append(' ').append(symbols, OUTWARD_LENGTH, INWARD_LENGTH - strip);
+		return postcode.toString();
+	}
+
+	private static int encodeSymbol(char c) {
+		if (c == ' ') {
+			return 0;
+		} else if (c >= '0' && c <= '9') {
+			return 1 + (c - '0');
+		} else if (c >= 'A' && c <= 'Z') {
+			return 11 + (c - 'A');
+		} else {
+			return -1;
+		}
+	}
+
+	private static char decodeSymbol(int symbol) {
+		if (symbol == 0) {
+			return ' ';
+		} else if (symbol <= 10) {
+			return (char) ('0' + symbol - 1);
+		} else {
+			return (char) ('A' + symbol - 11);
+		}
+	}
+
+	private int findPosition(long code) {
+		if (code < 0) {
+			return -1;
+		}
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			long midCode = codes[byCode[mid]];
+			if (midCode < code) {
+				low = mid + 1;
+			} else if (midCode > code) {
+				high = mid - 1;
+			} else {
+				return byCode[mid];
+			}
+		}
+		return -1;
+	}
+
+	private int[] buildCodeLookup() {
+		long[] keys = new long[size];
+		for (int i = 0; i < size; i++) {
+			keys[i] = (codes[i] << POSITION_BITS) | i;
+		}
+		Arrays.sort(keys);
+
+		int[] lookup = new int[size];
+		for (int i = 0; i < size; i++) {
+			lookup[i] = (int) (keys[i] & POSITION_MASK);
+		}
+		return lookup;
+	}
+
+	/* K-D TREE CONSTRUCTION */
+
+	private void sortKD(int left, int right, int axis) {
+		if (right - left <= NODE_SIZE) {
+			return;
+		}
+		int median = (left + right) >>> 1;
+		select(median, left, right, axis);
+		sortKD(left, median - 1, 1 - axis);
+		sortKD(median + 1, right, 1 - axis);
+	}
+
+	/**
+	 * Floyd-Rivest selection, rearranges the items between left and right so
+	 * that the k-th item is in its sorted position along the axis
+	 */
+	private void select(int k, int left, int right, int axis) {
+		while (right > left) {
+			if (right - left > 600) {
+				int n = right - left + 1;
+				int m = k - left + 1;
+				double z = Math.log(n);
+				double s = 0.5 * Math.exp(2 * z / 3);
+				double sd = 0.5 * Math.sqrt(z * s * (n - s) / n) * (m - n / 2 < 0 ? -1 : 1);
+				int newLeft = (int) Math.max(left, Math.floor(k - m * s / n + sd));
+				int newRight = (int) Math.min(right, Math.floor(k + (n - m) * s / n + sd));
+				select(k, newLeft, newRight, axis);
+			}
+
+			double pivot = coords[2 * k + axis];
+			int i = left;
+			int j = right;
+
+			swap(left, k);
+			if (coords[2 * right + axis] > pivot) {
+				swap(left, right);
+			}
+
+			while (i < j) {
+				swap(i, j);
+				i++;
+				j--;
+				while (coords[2 * i + axis] < pivot) {
+					i++;
+				}
+				while (coords[2 * j + axis] > pivot) {
+					j--;
+				}
+			}
+
+			if (coords[2 * left + axis] == pivot) {
+				swap(left, j);
+			} else {
+				j++;
+				swap(j, right);
+			}
+
+			if (j <= k) {
+				left = j + 1;
+			}
+			if (k <= j) {
+				right = j - 1;
+			}
+		}
+	}
+
+	private void swap(int i, int j) {
+		long code = codes[i];
+		codes[i] = codes[j];
+		codes[j] = code;
+
+		long price = sortPrices[i];
+		sortPrices[i] = sortPrices[j];
+		sortPrices[j] = price;
+
+		double latitude = coords[2 * i];
+		double longitude = coords[2 * i + 1];
+		coords[2 * i] = coords[2 * j];
+		coords[2 * i + 1] = coords[2 * j + 1];
+		coords[2 * j] = latitude;
+		coords[2 * j + 1] = longitude;
+	}
+
+	/**
+	 * Receives the aggregate of a group of postcodes sharing a prefix.
+	 */
+	@FunctionalInterface
+	public interface PostcodeGroupConsumer {
+		void accept(String postcodePrefix, double latitude, double longitude, long averagePrice, double radius, int postcodeCount);
+	}
+
+	/**
+	 * Running totals for a group of postcodes, matching the avg/min/max columns
+	 * of the native aggregation query
+	 */
+	private final class GroupAccumulator {
+		private int count;
+		private double latTotal, lngTotal, priceTotal;
+		private double minLat, maxLat, minLng, maxLng;
+
+		void reset() {
+			count = 0;
+			latTotal = lngTotal = priceTotal = 0;
+			minLat = minLng = Double.MAX_VALUE;
+			maxLat = maxLng = -Double.MAX_VALUE;
+		}
+
+		void add(int position) {
+			double latitude = coords[2 * position];
+			double longitude = coords[2 * position + 1];
+
+			latTotal += latitude;
+			lngTotal += longitude;
+			priceTotal += prices.get(position);
+			minLat = Math.min(minLat, latitude);
+			maxLat = Math.max(maxLat, latitude);
+			minLng = Math.min(minLng, longitude);
+			maxLng = Math.max(maxLng, longitude);
+			count++;
+		}
+
+		int getCount() {
+			return count;
+		}
+
+		double getLatitude() {
+			return latTotal / count;
+		}
+
+		double getLongitude() {
+			return lngTotal / count;
+		}
+
+		double getAveragePrice() {
+			return priceTotal / count;
+		}
+
+		double getRadius() {
+			return Math.sqrt(Math.pow(maxLat - minLat, 2) + Math.pow(maxLng - minLng, 2)) * 55556;
+		}
+	}
+
+	/**
+	 * The nearest postcode found so far by {@link #findNearest}, distances are
+	 * squared and measured in degrees of latitude
+	 */
+	private final class NearestSearch {
+		private final double latitude, longitude;
+		private final double longitudeScale;
+		private int position = -1;
+		private double distance;
+
+		NearestSearch(double latitude, double longitude, double maxDistanceMetres) {
+			this.latitude = latitude;
+			this.longitude = longitude;
+			this.longitudeScale = Math.cos(Math.toRadians(latitude));
+			double maxDistance = maxDistanceMetres / METRES_PER_DEGREE;
+			this.distance = maxDistance * maxDistance;
+		}
+
+		void offer(int candidate) {
+			double latitudeDelta = coords[2 * candidate] - latitude;
+			double longitudeDelta = (coords[2 * candidate + 1] - longitude) * longitudeScale;
+			double candidateDistance = latitudeDelta * latitudeDelta + longitudeDelta * longitudeDelta;
+			if (candidateDistance <= distance) {
+				position = candidate;
+				distance = candidateDistance;
+			}
+		}
+
+		/**
+		 * @return distance from the split to the point along the axis, negative if
+		 * the point is below the split
+		 */
+		double getAxisDelta(int axis, double split) {
+			return axis == 0 ? latitude - split : (longitude - split) * longitudeScale;
+		}
+	}
+
+	/**
+	 * Accumulates rows into growable primitive arrays, so that rows can be
+	 * streamed from the database without holding a result set in memory.
+	 */
+	public static class Builder {
+		private int size;
+		private long[] codes = new long[1024];
+		private double[] coords = new double[2048];
+		private long[] prices = new long[1024];
+		private int skipped;
+
+		private Builder() {
+		}
+
+		/**
+		 * Add a row to the index, rows with postcodes that cannot be encoded are
+		 * skipped.
+		 *
+		 * @param postcode     of the row
+		 * @param latitude     of the postcode
+		 * @param longitude    of the postcode
+		 * @param averagePrice of the postcode, 0 if unset
+		 * @return this builder
+		 */
+		public Builder add(String postcode, double latitude, double longitude, long averagePrice) {
+			long code = encodePostcode(postcode);
+			if (code < 0) {
+				skipped++;
+				return this;
+			}
+			if (size == MAX_SIZE) {
+				throw new IllegalStateException("Postcode index cannot hold more than " + MAX_SIZE + " rows");
+			}
+			if (size == codes.length) {
+				codes = Arrays.copyOf(codes, size * 2);
+				coords = Arrays.copyOf(coords, size * 4);
+				prices = Arrays.copyOf(prices, size * 2);
+			}
+			codes[size] = code;
+			coords[2 * size] = latitude;
+			coords[2 * size + 1] = longitude;
+			prices[size] = averagePrice;
+			size++;
+			return this;
+		}
+
+		public int getSkipped() {
+			return skipped;
+		}
+
+		public PostcodeSpatialIndex build() {
+			return new PostcodeSpatialIndex(size, Arrays.copyOf(codes, size), Arrays.copyOf(coords, size * 2), Arrays.copyOf(prices, size));
+		}
+	}
+}
@@ -0,0 +1,20 @@
+package asegroup1.api.daos.landregistry;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published once the postcode spatial index has been (re)loaded from the
+ * database, so that anything derived from it can be rebuilt.
+ */
+public class PostcodeSpatialIndexLoadedEvent extends ApplicationEvent {
+
+	private static final long serialVersionUID = -2960134876414218712L;
+
+	public PostcodeSpatialIndexLoadedEvent(PostcodeSpatialIndex index) {
+		super(index);
+	}
+
+	public PostcodeSpatialIndex getIndex() {
+		return (PostcodeSpatialIndex) getSource();
+	}
+}
@@ -0,0 +1,99 @@
+package asegroup1.api.daos.landregistry;
+
+
+import java.sql.Timestamp;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.transaction.Transactional;
+
+import org.springframework.stereotype.Repository;
+
+import asegroup1.api.daos.DaoImpl;
+import asegroup1.api.models.PriceRefreshArea;
+import asegroup1.api.models.PriceRefreshJob;
+import asegroup1.api.models.PriceRefreshJob.Status;
+
+/**
+ * Stores price refresh jobs and a checkpoint for every postcode area they have
+ * finished. Progress counters are incremented in the database rather than
+ * merged, as many workers update the same job at once.
+ */
+
+@Transactional
+@Repository
+public class PriceRefreshJobDaoImpl extends DaoImpl<PriceRefreshJob> {
+
+	public PriceRefreshJobDaoImpl() {
+		setCurrentClass(PriceRefreshJob.class);
+	}
+
+	/**
+	 * @return jobs that were still running when they were last saved
+	 */
+	public List<PriceRefreshJob> listUnfinishedJobs() {
+		return useEntityManager(em -> em
+				.createQuery("from PriceRefreshJob where status = :status", PriceRefreshJob.class)
+				.setParameter("status", Status.RUNNING)
+				.getResultList());
+	}
+
+	/**
+	 * @return the postcode areas the job has already finished
+	 */
+	@SuppressWarnings("unchecked")
+	public Set<String> getCompletedAreas(String jobId) {
+		List<Object> areas = useEntityManager(em -> em
+				.createNativeQuery("SELECT POSTCODE_AREA FROM price_refresh_area WHERE JOB_ID = :jobId")
+				.setParameter("jobId", jobId)
+				.getResultList());
+		Set<String> completedAreas = new HashSet<>();
+		for (Object area : areas) {
+			completedAreas.add(String.valueOf(area));
+		}
+		return completedAreas;
+	}
+
+	/**
+	 * Marks the job as running over the given number of areas. Completed areas
+	 * are recounted from the checkpoints, and areas that failed on a previous
+	 * run are retried.
+	 */
+	public void startRun(String jobId, int totalAreas) {
+		makeTransaction(em -> em
+				.createNativeQuery("UPDATE price_refresh_job SET STATUS = :status, TOTAL_AREAS = :totalAreas, FAILED_AREAS = 0, FINISHED = NULL,"
+						+ " COMPLETED_AREAS = (SELECT COUNT(*) FROM price_refresh_area WHERE JOB_ID = :jobId),"
+						+ " UPDATED_RECORDS = (SELECT COALESCE(SUM(UPDATED_RECORDS), 0) FROM price_refresh_area WHERE JOB_ID = :jobId)"
+						+ " WHERE JOB_ID = :jobId")
+				.setParameter("status", Status.RUNNING.name())
+				.setParameter("totalAreas", totalAreas)
+				.setParameter("jobId", jobId)
+				.executeUpdate());
+	}
+
+	/**
+	 * Records that an area has been refreshed, in the same transaction as the
+	 * job's progress, so a resumed job neither skips nor double counts it.
+	 */
+	public void completeArea(String jobId, String postcodeArea, int updatedRecords) {
+		makeTransaction(em -> {
+			em.persist(new PriceRefreshArea(jobId, postcodeArea, updatedRecords, new Timestamp(System.currentTimeMillis())));
+			return em.createNativeQuery("UPDATE price_refresh_job SET COMPLETED_AREAS = COMPLETED_AREAS + 1,"
+					+ " UPDATED_RECORDS = UPDATED_RECORDS + :updatedRecords WHERE JOB_ID = :jobId")
+					.setParameter("updatedRecords", updatedRecords)
+					.setParameter("jobId", jobId)
+					.executeUpdate();
+		});
+	}
+
+	public void finishJob(String jobId, Status status, int failedAreas) {
+		makeTransaction(em -> em
+				.createNativeQuery("UPDATE price_refresh_job SET STATUS = :status, FAILED_AREAS = :failedAreas, FINISHED = :finished WHERE JOB_ID = :jobId")
+				.setParameter("status", status.name())
+				.setParameter("failedAreas", failedAreas)
+				.setParameter("finished", new Timestamp(System.currentTimeMillis()))
+				.setParameter("jobId", jobId)
+				.executeUpdate());
+	}
+}
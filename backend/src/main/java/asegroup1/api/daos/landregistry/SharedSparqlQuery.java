@@ -0,0 +1,115 @@
+package asegroup1.api.daos.landregistry;
+
+import asegroup1.api.models.landregistry.LandRegistryData;
+import com.mashape.unirest.http.exceptions.UnirestException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * A SPARQL query being read by one caller, shared with the callers asking for
+ * the same query while it is in flight. Each row is kept as it is read, so
+ * callers joining part way through still read every row, and every caller
+ * reads the rows on its own thread as they arrive rather than once the
+ * response has been read.
+ */
+class SharedSparqlQuery {
+
+	private final List<Map<String, String>> bindings = new ArrayList<>();
+	private boolean finished;
+	private Exception failure;
+	private boolean abandoned;
+
+	/**
+	 * Called by the caller reading the response for each row it reads
+	 */
+	synchronized void add(Map<String, String> binding) {
+		bindings.add(binding);
+		notifyAll();
+	}
+
+	/**
+	 * Called by the caller reading the response once it has stopped
+	 *
+	 * @param failure why the response could not be read, or null if it was
+	 */
+	synchronized void finish(Exception failure) {
+		finished = true;
+		this.failure = failure;
+		abandoned = failure != null && wasInterrupted(failure);
+		notifyAll();
+	}
+
+	/**
+	 * @return the bindings of every row read, once finished
+	 */
+	synchronized List<Map<String, String>> getBindings() {
+		return bindings;
+	}
+
+	/**
+	 * @return true if the query failed because the caller reading it was
+	 *         interrupted, so the callers sharing it should send it themselves
+	 */
+	synchronized boolean isAbandoned() {
+		return abandoned;
+	}
+
+	/**
+	 * Hands each row to the consumer as it is read, waiting until every row
+	 * has been read. Each caller gets its own rows, as they are modified once
+	 * read.
+	 *
+	 * @param rows receives each row
+	 * @return number of rows read
+	 * @throws IOException      if the response could not be read
+	 * @throws UnirestException if the query could not be sent
+	 */
+	int read(Consumer<LandRegistryData> rows) throws IOException, UnirestException {
+		int rowsRead = 0;
+		while (true) {
+			Map<String, String> binding;
+			synchronized (this) {
+				while (rowsRead == bindings.size() && !finished) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException("Interrupted while waiting for a shared SPARQL query");
+					}
+				}
+				if (rowsRead == bindings.size()) {
+					if (failure == null) {
+						return rowsRead;
+					}
+					if (failure instanceof IOException) {
+						throw (IOException) failure;
+					}
+					if (failure instanceof UnirestException) {
+						throw (UnirestException) failure;
+					}
+					throw (RuntimeException) failure;
+				}
+				binding = bindings.get(rowsRead);
+			}
+			rows.accept(SparqlResultParser.toRow(binding));
+			rowsRead++;
+		}
+	}
+
+	private static boolean wasInterrupted(Exception failure) {
+		if (Thread.currentThread().isInterrupted()) {
+			return true;
+		}
+		for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+			if (cause instanceof InterruptedException || cause instanceof InterruptedIOException) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,169 @@
+package asegroup1.api.daos.landregistry;
+
+import asegroup1.api.controllers.LandRegistryController;
+import asegroup1.api.models.CacheStatistics;
+import asegroup1.api.services.cache.ExpiringLruCache;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Caches responses from the Land Registry SPARQL endpoint, keyed by a
+ * canonical form of the query so that queries differing only in whitespace or
+ * in the order of their VALUES rows share an entry.
+ *
+ * Responses are held in memory and, if a directory is given, also written to
+ * disk so that they outlive a restart. Entries on disk expire after the same
+ * time to live as those in memory.
+ */
+public class SparqlResultCache {
+
+	private final static Logger logger = LogManager.getLogger(LandRegistryController.class);
+
+	private static final Pattern VALUES_BLOCK = Pattern.compile("VALUES \\(([^)]*)\\) \\{((?:\"(?:[^\"\\\\]|\\\\.)*\"|[^}\"])*)\\}");
+	private static final Pattern VALUES_ROW = Pattern.compile("\\((?:\"(?:[^\"\\\\]|\\\\.)*\"|[^()\"])*\\)");
+
+	private final ExpiringLruCache<String, String> memoryCache;
+	private final long ttlMillis;
+	private final Path diskDirectory;
+	private final AtomicLong diskHits = new AtomicLong();
+
+	/**
+	 * @param maxEntries    maximum number of responses held in memory
+	 * @param ttlMillis     how long a response may be reused for
+	 * @param diskDirectory directory to also store responses in, or null to only cache in memory
+	 */
+	public SparqlResultCache(int maxEntries, long ttlMillis, Path diskDirectory) {
+		this.memoryCache = new ExpiringLruCache<>(maxEntries, ttlMillis);
+		this.ttlMillis = ttlMillis;
+		this.diskDirectory = diskDirectory;
+	}
+
+	/**
+	 * Normalises a query built by {@link asegroup1.api.models.landregistry.LandRegistryQuery#buildQuery()}.
+	 * Runs of whitespace outside string literals are collapsed to a single
+	 * space, and the rows of each VALUES block are sorted, as their order does
+	 * not change the results.
+	 *
+	 * @param query SPARQL query
+	 * @return the canonical form of the query
+	 */
+	public static String canonicalise(String query) {
+		StringBuilder collapsed = new StringBuilder(query.length());
+		boolean inLiteral = false;
+		boolean pendingSpace = false;
+
+		for (int i = 0; i < query.length(); i++) {
+			char c = query.charAt(i);
+			if (!inLiteral && Character.isWhitespace(c)) {
+				pendingSpace = collapsed.length() > 0;
+				continue;
+			}
+			if (pendingSpace) {
+				collapsed.append(' ');
+				pendingSpace = false;
+			}
+			collapsed.append(c);
+
+			if (c == '"') {
+				inLiteral = !inLiteral;
+			} else if (c == '\\' && inLiteral && i + 1 < query.length()) {
+				collapsed.append(query.charAt(++i));
+			}
+		}
+
+		Matcher valuesBlock = VALUES_BLOCK.matcher(collapsed);
+		StringBuffer canonical = new StringBuffer(collapsed.length());
+		while (valuesBlock.find()) {
+			List<String> rows = new ArrayList<>();
+			Matcher row = VALUES_ROW.matcher(valuesBlock.group(2));
+			while (row.find()) {
+				rows.add(row.group());
+			}
+			Collections.sort(rows);
+			valuesBlock.appendReplacement(canonical,
+					Matcher.quoteReplacement("VALUES (" + valuesBlock.group(1) + ") {" + String.join("", rows) + "}"));
+		}
+		valuesBlock.appendTail(canonical);
+		return canonical.toString();
+	}
+
+	/**
+	 * @param canonicalQuery query from {@link #canonicalise(String)}
+	 * @return the cached response, or null if there is none or it has expired
+	 */
+	public String get(String canonicalQuery) {
+		String response = memoryCache.get(canonicalQuery);
+		if (response != null || diskDirectory == null) {
+			return response;
+		}
+
+		Path file = getDiskFile(canonicalQuery);
+		try {
+			if (Files.exists(file) && Files.getLastModifiedTime(file).toMillis() + ttlMillis > System.currentTimeMillis()) {
+				response = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+				memoryCache.put(canonicalQuery, response);
+				diskHits.incrementAndGet();
+			}
+		} catch (IOException e) {
+			logger.warn("Unable to read cached SPARQL response from " + file, e);
+		}
+		return response;
+	}
+
+	public void put(String canonicalQuery, String response) {
+		memoryCache.put(canonicalQuery, response);
+		if (diskDirectory == null) {
+			return;
+		}
+
+		Path file = getDiskFile(canonicalQuery);
+		try {
+			Files.createDirectories(diskDirectory);
+			// Written to a temporary file first so that a reader never sees a partial response
+			Path temporaryFile = Files.createTempFile(diskDirectory, "sparql", ".tmp");
+			Files.write(temporaryFile, response.getBytes(StandardCharsets.UTF_8));
+			Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			logger.warn("Unable to write SPARQL response to " + file, e);
+		}
+	}
+
+	public CacheStatistics getStatistics() {
+		return memoryCache.getStatistics();
+	}
+
+	/**
+	 * @return number of memory misses answered from disk
+	 */
+	public long getDiskHits() {
+		return diskHits.get();
+	}
+
+	private Path getDiskFile(String canonicalQuery) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(canonicalQuery.getBytes(StandardCharsets.UTF_8));
+			StringBuilder fileName = new StringBuilder(digest.length * 2 + 5);
+			for (byte b : digest) {
+				fileName.append(String.format("%02x", b));
+			}
+			return diskDirectory.resolve(fileName.append(".json").toString());
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,176 @@
+package asegroup1.api.daos.landregistry;
+
+import asegroup1.api.models.landregistry.LandRegistryData;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.function.Consumer;
+
+/**
+ * Reads SPARQL JSON results a token at a time, handing each binding to a
+ * consumer as a {@link LandRegistryData} as soon as it has been read. Only
+ * the row being read is held in memory, however large the result.
+ *
+ * Accepts both a plain SPARQL result and the response of the qonsole proxy,
+ * which wraps the result as a string in its "result" field. Only a plain
+ * result can be read a row at a time, the wrapped one is read whole first.
+ */
+public final class SparqlResultParser {
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	private SparqlResultParser() {
+	}
+
+	/**
+	 * @param response the result, which is closed once it has been read
+	 * @param rows     receives each row as it is read
+	 * @return number of rows read
+	 * @throws IOException if the response cannot be read or is not a SPARQL result
+	 */
+	public static int parse(InputStream response, Consumer<LandRegistryData> rows) throws IOException {
+		return parseBindings(response, binding -> rows.accept(toRow(binding)));
+	}
+
+	/**
+	 * @see #parse(InputStream, Consumer)
+	 */
+	public static int parse(String response, Consumer<LandRegistryData> rows) throws IOException {
+		return parseBindings(response, binding -> rows.accept(toRow(binding)));
+	}
+
+	/**
+	 * Like {@link #parse(InputStream, Consumer)}, but hands over each row as
+	 * the value bound to each of its variables, for rows read by more than one
+	 * caller, who each need their own {@link LandRegistryData}
+	 */
+	public static int parseBindings(InputStream response, Consumer<Map<String, String>> bindings) throws IOException {
+		try (JsonParser parser = JSON_FACTORY.createParser(response)) {
+			return parse(parser, bindings);
+		}
+	}
+
+	/**
+	 * @see #parseBindings(InputStream, Consumer)
+	 */
+	public static int parseBindings(String response, Consumer<Map<String, String>> bindings) throws IOException {
+		try (JsonParser parser = JSON_FACTORY.createParser(response)) {
+			return parse(parser, bindings);
+		}
+	}
+
+	/**
+	 * @param binding the value bound to each variable of a row
+	 * @return the row
+	 */
+	public static LandRegistryData toRow(Map<String, String> binding) {
+		LandRegistryData row = new LandRegistryData();
+		for (Entry<String, String> value : binding.entrySet()) {
+			row.setConstraint(value.getKey(), value.getValue());
+		}
+		return row;
+	}
+
+	/**
+	 * Writes rows back out as a SPARQL result, with only the value of each
+	 * variable, which is all that is read from it
+	 *
+	 * @param bindings the value bound to each variable of each row
+	 * @return a result {@link #parse(String, Consumer)} reads the same rows from
+	 */
+	public static String write(List<Map<String, String>> bindings) {
+		StringWriter result = new StringWriter();
+		try (JsonGenerator generator = JSON_FACTORY.createGenerator(result)) {
+			generator.writeStartObject();
+			generator.writeObjectFieldStart("results");
+			generator.writeArrayFieldStart("bindings");
+			for (Map<String, String> binding : bindings) {
+				generator.writeStartObject();
+				for (Entry<String, String> value : binding.entrySet()) {
+					generator.writeObjectFieldStart(value.getKey());
+					generator.writeStringField("value", value.getValue());
+					generator.writeEndObject();
+				}
+				generator.writeEndObject();
+			}
+			generator.writeEndArray();
+			generator.writeEndObject();
+			generator.writeEndObject();
+		} catch (IOException e) {
+			// Only thrown by the writer, which cannot fail
+			throw new IllegalStateException(e);
+		}
+		return result.toString();
+	}
+
+	private static int parse(JsonParser parser, Consumer<Map<String, String>> rows) throws IOException {
+		if (parser.nextToken() != JsonToken.START_OBJECT) {
+			throw new IOException("Expected a SPARQL result object");
+		}
+		return parseResult(parser, rows);
+	}
+
+	/**
+	 * Reads the fields of the object the parser is at, up to its end
+	 */
+	private static int parseResult(JsonParser parser, Consumer<Map<String, String>> rows) throws IOException {
+		int rowsRead = 0;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.getCurrentName();
+			JsonToken value = parser.nextToken();
+
+			if (field.equals("result") && value == JsonToken.VALUE_STRING) {
+				// The qonsole proxy's wrapper, the result is only available once the whole string has been read
+				rowsRead += parseBindings(parser.getText(), rows);
+			} else if ((field.equals("result") || field.equals("results")) && value == JsonToken.START_OBJECT) {
+				rowsRead += parseResult(parser, rows);
+			} else if (field.equals("bindings") && value == JsonToken.START_ARRAY) {
+				rowsRead += readBindings(parser, rows);
+			} else {
+				parser.skipChildren();
+			}
+		}
+		return rowsRead;
+	}
+
+	private static int readBindings(JsonParser parser, Consumer<Map<String, String>> rows) throws IOException {
+		int rowsRead = 0;
+		while (parser.nextToken() == JsonToken.START_OBJECT) {
+			Map<String, String> row = new LinkedHashMap<>();
+			// Each variable is bound to an object such as {"type": "literal", "value": "BN1 1AA"}
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String variable = parser.getCurrentName();
+				if (parser.nextToken() != JsonToken.START_OBJECT) {
+					parser.skipChildren();
+					continue;
+				}
+
+				String value = null;
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					String field = parser.getCurrentName();
+					parser.nextToken();
+					if (field.equals("value")) {
+						value = parser.getText();
+					} else {
+						parser.skipChildren();
+					}
+				}
+				if (value != null) {
+					row.put(variable, value);
+				}
+			}
+			rows.accept(row);
+			rowsRead++;
+		}
+		return rowsRead;
+	}
+}
@@ -0,0 +1,339 @@
+package asegroup1.api.daos.landregistry;
+
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import javax.transaction.Transactional;
+
+import org.hibernate.Session;
+import org.springframework.stereotype.Repository;
+
+import asegroup1.api.daos.DaoImpl;
+import asegroup1.api.models.TransactionImport;
+import asegroup1.api.models.TransactionImport.Mode;
+import asegroup1.api.models.TransactionImport.Status;
+import asegroup1.api.models.landregistry.LandRegistryData;
+import asegroup1.api.models.landregistry.LandRegistrySqlQuery;
+import asegroup1.api.models.landregistry.PricePaidRecord;
+import asegroup1.api.models.landregistry.PricePaidRecord.RecordStatus;
+
+/**
+ * Stores a local copy of the Price Paid Data, and the imports that filled it.
+ * Each batch of rows is written in the same transaction as its import's
+ * progress, and for delta imports the postcodes it touched, so an interrupted
+ * import resumes exactly where it stopped.
+ */
+
+@Transactional
+@Repository
+public class TransactionStoreDaoImpl extends DaoImpl<TransactionImport> {
+
+	private static final String TABLE_NAME = LandRegistrySqlQuery.TABLE_NAME;
+	private static final String IMPORT_TABLE_NAME = "transaction_import";
+	private static final String TOUCHED_POSTCODE_TABLE_NAME = "transaction_import_postcode";
+
+	public TransactionStoreDaoImpl() {
+		setCurrentClass(TransactionImport.class);
+	}
+
+	/**
+	 * @return imports that were still running when they were last saved
+	 */
+	public List<TransactionImport> listUnfinishedImports() {
+		return useEntityManager(em -> em
+				.createQuery("from TransactionImport where status = :status", TransactionImport.class)
+				.setParameter("status", Status.RUNNING)
+				.getResultList());
+	}
+
+	/**
+	 * Apply a batch of rows and move the import's watermark past them. Added and
+	 * changed rows replace any transaction already stored with the same id, and
+	 * deleted rows remove it. For delta imports the postcodes of the affected
+	 * transactions, both before and after the change, are recorded against the
+	 * import.
+	 *
+	 * @param progress the import the rows were read by, with its read progress up
+	 *                 to the end of the batch, whose written progress is updated
+	 * @param records  rows to apply
+	 */
+	public void writeBatch(TransactionImport progress, List<PricePaidRecord> records) {
+		makeTransaction(em -> em.unwrap(Session.class).doReturningWork(connection -> {
+			long startTime = System.currentTimeMillis();
+			List<PricePaidRecord> upserts = new ArrayList<>(records.size());
+			List<String> deletedIds = new ArrayList<>();
+			for (PricePaidRecord record : records) {
+				if (record.getRecordStatus() == RecordStatus.DELETED) {
+					deletedIds.add(record.getTransactionId());
+				} else {
+					upserts.add(record);
+				}
+			}
+
+			if (progress.getMode() == Mode.DELTA && !records.isEmpty()) {
+				Set<String> touchedPostcodes = readStoredPostcodes(connection, records);
+				for (PricePaidRecord upsert : upserts) {
+					if (upsert.getPostcode() != null) {
+						touchedPostcodes.add(upsert.getPostcode());
+					}
+				}
+				writeTouchedPostcodes(connection, progress.getImportId(), touchedPostcodes);
+			}
+
+			Date latestDate = writeUpserts(connection, upserts);
+			int deleted = deleteTransactions(connection, deletedIds);
+
+			progress.setRowsApplied(progress.getRowsApplied() + upserts.size());
+			progress.setRowsDeleted(progress.getRowsDeleted() + deleted);
+			progress.setWriteMillis(progress.getWriteMillis() + System.currentTimeMillis() - startTime);
+			if (latestDate != null && (progress.getLatestTransactionDate() == null || latestDate.after(progress.getLatestTransactionDate()))) {
+				progress.setLatestTransactionDate(latestDate);
+			}
+
+			try (PreparedStatement update = connection.prepareStatement("UPDATE " + IMPORT_TABLE_NAME + " SET BYTES_READ = ?,"
+					+ " ROWS_READ = ?, ROWS_APPLIED = ?, ROWS_DELETED = ?, ROWS_SKIPPED = ?, READ_MILLIS = ?, WRITE_MILLIS = ?,"
+					+ " LATEST_TRANSACTION_DATE = ? WHERE IMPORT_ID = ?")) {
+				update.setLong(1, progress.getBytesRead());
+				update.setLong(2, progress.getRowsRead());
+				update.setLong(3, progress.getRowsApplied());
+				update.setLong(4, progress.getRowsDeleted());
+				update.setLong(5, progress.getRowsSkipped());
+				update.setLong(6, progress.getReadMillis());
+				update.setLong(7, progress.getWriteMillis());
+				update.setDate(8, progress.getLatestTransactionDate());
+				update.setString(9, progress.getImportId());
+				update.executeUpdate();
+			}
+			return records.size();
+		}));
+	}
+
+	/**
+	 * @return the postcodes currently stored for the transactions of the records
+	 */
+	private Set<String> readStoredPostcodes(Connection connection, List<PricePaidRecord> records) throws SQLException {
+		Set<String> postcodes = new HashSet<>();
+		try (PreparedStatement select = connection.prepareStatement("SELECT DISTINCT POSTCODE FROM " + TABLE_NAME
+				+ " WHERE TRANSACTION_ID IN (" + String.join(",", Collections.nCopies(records.size(), "?")) + ")")) {
+			for (int i = 0; i < records.size(); i++) {
+				select.setString(i + 1, records.get(i).getTransactionId());
+			}
+			try (ResultSet resultSet = select.executeQuery()) {
+				while (resultSet.next()) {
+					if (resultSet.getString(1) != null) {
+						postcodes.add(resultSet.getString(1));
+					}
+				}
+			}
+		}
+		return postcodes;
+	}
+
+	private void writeTouchedPostcodes(Connection connection, String importId, Set<String> postcodes) throws SQLException {
+		if (postcodes.isEmpty()) {
+			return;
+		}
+		try (PreparedStatement insert = connection.prepareStatement("INSERT IGNORE INTO " + TOUCHED_POSTCODE_TABLE_NAME
+				+ " (IMPORT_ID, POSTCODE) VALUES (?, ?)")) {
+			for (String postcode : postcodes) {
+				insert.setString(1, importId);
+				insert.setString(2, postcode);
+				insert.addBatch();
+			}
+			insert.executeBatch();
+		}
+	}
+
+	/**
+	 * @return date of the latest transaction written, or null if there were none
+	 */
+	private Date writeUpserts(Connection connection, List<PricePaidRecord> records) throws SQLException {
+		if (records.isEmpty()) {
+			return null;
+		}
+		Date latestDate = null;
+		try (PreparedStatement upsert = connection.prepareStatement("INSERT INTO " + TABLE_NAME + " (TRANSACTION_ID, PRICE_PAID,"
+				+ " TRANSACTION_DATE, POSTCODE, PROPERTY_TYPE, NEW_BUILD, ESTATE_TYPE, PAON, SAON, STREET, LOCALITY, TOWN, DISTRICT,"
+				+ " COUNTY, TRANSACTION_CATEGORY) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE"
+				+ " PRICE_PAID = VALUES(PRICE_PAID), TRANSACTION_DATE = VALUES(TRANSACTION_DATE), POSTCODE = VALUES(POSTCODE),"
+				+ " PROPERTY_TYPE = VALUES(PROPERTY_TYPE), NEW_BUILD = VALUES(NEW_BUILD), ESTATE_TYPE = VALUES(ESTATE_TYPE),"
+				+ " PAON = VALUES(PAON), SAON = VALUES(SAON), STREET = VALUES(STREET), LOCALITY = VALUES(LOCALITY),"
+				+ " TOWN = VALUES(TOWN), DISTRICT = VALUES(DISTRICT), COUNTY = VALUES(COUNTY),"
+				+ " TRANSACTION_CATEGORY = VALUES(TRANSACTION_CATEGORY)")) {
+			for (PricePaidRecord record : records) {
+				Date transactionDate = Date.valueOf(record.getTransactionDate());
+				if (latestDate == null || transactionDate.after(latestDate)) {
+					latestDate = transactionDate;
+				}
+
+				upsert.setString(1, record.getTransactionId());
+				upsert.setLong(2, record.getPricePaid());
+				upsert.setDate(3, transactionDate);
+				upsert.setString(4, record.getPostcode());
+				setNullableString(upsert, 5, record.getPropertyType());
+				upsert.setBoolean(6, record.isNewBuild());
+				setNullableString(upsert, 7, record.getEstateType());
+				setNullableString(upsert, 8, record.getPaon());
+				setNullableString(upsert, 9, record.getSaon());
+				setNullableString(upsert, 10, record.getStreet());
+				setNullableString(upsert, 11, record.getLocality());
+				setNullableString(upsert, 12, record.getTown());
+				setNullableString(upsert, 13, record.getDistrict());
+				setNullableString(upsert, 14, record.getCounty());
+				setNullableString(upsert, 15, record.getTransactionCategory());
+				upsert.addBatch();
+			}
+			// Sent as one multi-row statement when the connection has rewriteBatchedStatements=true
+			upsert.executeBatch();
+		}
+		return latestDate;
+	}
+
+	/**
+	 * @return number of transactions deleted, deleting one that is not stored is not an error
+	 */
+	private int deleteTransactions(Connection connection, List<String> transactionIds) throws SQLException {
+		if (transactionIds.isEmpty()) {
+			return 0;
+		}
+		try (PreparedStatement delete = connection.prepareStatement("DELETE FROM " + TABLE_NAME + " WHERE TRANSACTION_ID IN ("
+				+ String.join(",", Collections.nCopies(transactionIds.size(), "?")) + ")")) {
+			for (int i = 0; i < transactionIds.size(); i++) {
+				delete.setString(i + 1, transactionIds.get(i));
+			}
+			return delete.executeUpdate();
+		}
+	}
+
+	/**
+	 * @return the postcodes a delta import has touched so far
+	 */
+	@SuppressWarnings("unchecked")
+	public List<String> getTouchedPostcodes(String importId) {
+		List<Object> postcodes = useEntityManager(em -> em
+				.createNativeQuery("SELECT POSTCODE FROM " + TOUCHED_POSTCODE_TABLE_NAME + " WHERE IMPORT_ID = :importId")
+				.setParameter("importId", importId)
+				.getResultList());
+		return postcodes.stream().map(String::valueOf).collect(Collectors.toList());
+	}
+
+	private static void setNullableString(PreparedStatement statement, int index, Object value) throws SQLException {
+		if (value == null) {
+			statement.setNull(index, Types.VARCHAR);
+		} else {
+			statement.setString(index, value.toString());
+		}
+	}
+
+	/**
+	 * Records the outcome of the import, with its repricing stage. The postcodes
+	 * touched by a completed import are no longer needed, so are removed.
+	 */
+	public void finishImport(TransactionImport finishedImport, Status status) {
+		makeTransaction(em -> {
+			em.createNativeQuery("UPDATE " + IMPORT_TABLE_NAME + " SET STATUS = :status, FINISHED = :finished, POSTCODES_TOUCHED = :touched,"
+					+ " POSTCODES_REPRICED = :repriced, REPRICE_MILLIS = :repriceMillis WHERE IMPORT_ID = :importId")
+					.setParameter("status", status.name())
+					.setParameter("finished", new Timestamp(System.currentTimeMillis()))
+					.setParameter("touched", finishedImport.getPostcodesTouched())
+					.setParameter("repriced", finishedImport.getPostcodesRepriced())
+					.setParameter("repriceMillis", finishedImport.getRepriceMillis())
+					.setParameter("importId", finishedImport.getImportId())
+					.executeUpdate();
+			if (status == Status.COMPLETED) {
+				em.createNativeQuery("DELETE FROM " + TOUCHED_POSTCODE_TABLE_NAME + " WHERE IMPORT_ID = :importId")
+						.setParameter("importId", finishedImport.getImportId())
+						.executeUpdate();
+			}
+			return 0;
+		});
+	}
+
+	/**
+	 * @return date of the latest transaction written by a completed import, or
+	 * null if nothing has been imported
+	 */
+	public Date getWatermark() {
+		Object watermark = useEntityManager(em -> em
+				.createNativeQuery("SELECT MAX(LATEST_TRANSACTION_DATE) FROM " + IMPORT_TABLE_NAME + " WHERE STATUS = :status")
+				.setParameter("status", Status.COMPLETED.name())
+				.getSingleResult());
+		return watermark == null ? null : Date.valueOf(String.valueOf(watermark).substring(0, 10));
+	}
+
+	/**
+	 * Run a query against the transactions table.
+	 *
+	 * @return a row for each result, holding the columns that were not null
+	 */
+	public List<LandRegistryData> executeQuery(LandRegistrySqlQuery query) {
+		List<LandRegistryData> rows = new ArrayList<>();
+		useEntityManager(em -> em.unwrap(Session.class).doReturningWork(connection -> readQuery(connection, query, false, rows::add)));
+		return rows;
+	}
+
+	/**
+	 * Run a query against the transactions table, handing each row to the
+	 * consumer as it is read. The results are streamed from MySQL rather than
+	 * read into memory first, so the connection is held until the consumer has
+	 * seen every row.
+	 *
+	 * @return number of rows read
+	 */
+	public int executeQuery(LandRegistrySqlQuery query, Consumer<LandRegistryData> rows) {
+		return useEntityManager(em -> em.unwrap(Session.class).doReturningWork(connection -> readQuery(connection, query, true, rows)));
+	}
+
+	private int readQuery(Connection connection, LandRegistrySqlQuery query, boolean streaming, Consumer<LandRegistryData> rows)
+			throws SQLException {
+		int rowsRead = 0;
+		try (PreparedStatement statement = connection.prepareStatement(query.getSql(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+			if (streaming) {
+				// Connector/J only streams rows one at a time with this fetch size, otherwise it reads the whole result first
+				statement.setFetchSize(Integer.MIN_VALUE);
+			}
+			List<Object> parameters = query.getParameters();
+			for (int i = 0; i < parameters.size(); i++) {
+				statement.setObject(i + 1, parameters.get(i));
+			}
+			try (ResultSet resultSet = statement.executeQuery()) {
+				ResultSetMetaData metaData = resultSet.getMetaData();
+				while (resultSet.next()) {
+					LandRegistryData row = new LandRegistryData();
+					for (int column = 1; column <= metaData.getColumnCount(); column++) {
+						Object value = resultSet.getObject(column);
+						if (value != null) {
+							String name = metaData.getColumnLabel(column);
+							row.setConstraint(name, toConstraintValue(name, value));
+						}
+					}
+					rows.accept(row);
+					rowsRead++;
+				}
+			}
+		}
+		return rowsRead;
+	}
+
+	private static String toConstraintValue(String name, Object value) {
+		// NEW_BUILD comes back as a number rather than a boolean
+		if (value instanceof Number && name.equalsIgnoreCase("newBuild")) {
+			return String.valueOf(((Number) value).intValue() != 0);
+		}
+		return String.valueOf(value);
+	}
+}
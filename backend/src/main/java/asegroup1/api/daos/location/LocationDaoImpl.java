@@ -1,16 +1,26 @@
 package asegroup1.api.daos.location;
 
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import javax.persistence.Query;
 import javax.transaction.Transactional;
 
+import org.hibernate.Session;
 import org.springframework.stereotype.Repository;
 
 import asegroup1.api.daos.DaoImpl;
+import asegroup1.api.models.LocationArea;
 import asegroup1.api.models.LocationData;
 
 /**
@@ -23,6 +33,12 @@ import asegroup1.api.models.LocationData;
 public class LocationDaoImpl extends DaoImpl<LocationData> {
 
 	private static final String TABLE_NAME = "location_data";
+	private static final String ROLLUP_TABLE_NAME = "location_data_rollup";
+
+	/**
+	 * Locations read at once when streaming a user's locations
+	 */
+	static final int STREAM_PAGE_SIZE = 1000;
 
 	public LocationDaoImpl() {
 		setCurrentClass(LocationData.class);
@@ -59,6 +75,292 @@ public class LocationDaoImpl extends DaoImpl<LocationData> {
 	}
 
 	public List<LocationData> getUserLocations(String userID) {
-		return getLocationDataById(userID, null);
+		return getUserLocations(userID, null, null, null, 0, true);
+	}
+
+	/**
+	 * Get a page of a user's locations in time order. Pages are found by the
+	 * time of the last location on the previous page, rather than an offset, so
+	 * each page is a single index range scan however far into the history it is.
+	 *
+	 * @param from          earliest time to include, or null for no limit
+	 * @param to            time to stop before, or null for no limit
+	 * @param after         time of the last location on the previous page, or null for the first page
+	 * @param limit         most locations to return, or 0 for every location
+	 * @param includeRollup whether to also read the rolled up locations older than the raw retention period
+	 */
+	public List<LocationData> getUserLocations(String userID, Timestamp from, Timestamp to, Timestamp after, int limit,
+			boolean includeRollup) {
+		return useEntityManager(em -> em.unwrap(Session.class).doReturningWork(connection -> {
+			List<LocationData> locations = new ArrayList<>();
+			try (PreparedStatement select = prepareLocationQuery(connection, userID, from, to, after, limit, includeRollup)) {
+				try (ResultSet resultSet = select.executeQuery()) {
+					while (resultSet.next()) {
+						locations.add(readLocation(resultSet));
+					}
+				}
+			}
+			return locations;
+		}));
+	}
+
+	/**
+	 * Pass each of a user's locations to the consumer in time order, reading
+	 * them a page at a time so they are never all held in memory. Each page is
+	 * read on its own connection, which is released before the page is passed
+	 * on, so a slow consumer does not hold a connection open.
+	 *
+	 * @param from          earliest time to include, or null for no limit
+	 * @param to            time to stop before, or null for no limit
+	 * @param includeRollup whether to also read the rolled up locations older than the raw retention period
+	 */
+	public void streamUserLocations(String userID, Timestamp from, Timestamp to, boolean includeRollup, Consumer<LocationData> consumer) {
+		Timestamp after = null;
+		List<LocationData> page;
+		do {
+			page = getUserLocations(userID, from, to, after, STREAM_PAGE_SIZE, includeRollup);
+			page.forEach(consumer);
+			if (!page.isEmpty()) {
+				after = page.get(page.size() - 1).getTimelog();
+			}
+		} while (page.size() == STREAM_PAGE_SIZE);
+	}
+
+	/**
+	 * Get a page of a user's locations inside an area in time order, found
+	 * through the spatial index on their positions.
+	 *
+	 * @see #getUserLocations(String, Timestamp, Timestamp, Timestamp, int, boolean)
+	 */
+	public List<LocationData> getUserLocationsInArea(String userID, LocationArea area, Timestamp from, Timestamp to, Timestamp after,
+			int limit, boolean includeRollup) {
+		return useEntityManager(em -> em.unwrap(Session.class).doReturningWork(connection -> {
+			List<LocationData> locations = new ArrayList<>();
+			try (PreparedStatement select = prepareLocationQuery(connection, userID, area, from, to, after, limit, includeRollup)) {
+				try (ResultSet resultSet = select.executeQuery()) {
+					while (resultSet.next()) {
+						locations.add(readLocation(resultSet));
+					}
+				}
+			}
+			return locations;
+		}));
+	}
+
+	private static PreparedStatement prepareLocationQuery(Connection connection, String userID, Timestamp from, Timestamp to,
+			Timestamp after, int limit, boolean includeRollup) throws SQLException {
+		return prepareLocationQuery(connection, userID, null, from, to, after, limit, includeRollup);
+	}
+
+	private static PreparedStatement prepareLocationQuery(Connection connection, String userID, LocationArea area, Timestamp from,
+			Timestamp to, Timestamp after, int limit, boolean includeRollup) throws SQLException {
+		List<Object> bounds = new ArrayList<>();
+		StringBuilder conditions = new StringBuilder(" WHERE USER_ID = ?");
+		if (area != null) {
+			// Points are stored as (longitude, latitude) in SRID 0, the SRID POINT() gives the envelope, so the spatial index applies
+			conditions.append(" AND MBRContains(ST_MakeEnvelope(POINT(?, ?), POINT(?, ?)), POSITION)");
+			bounds.add(area.getMinLongitude());
+			bounds.add(area.getMinLatitude());
+			bounds.add(area.getMaxLongitude());
+			bounds.add(area.getMaxLatitude());
+			if (area.isCircle()) {
+				conditions.append(" AND ST_Distance_Sphere(POSITION, POINT(?, ?)) <= ?");
+				bounds.add(area.getCentreLongitude());
+				bounds.add(area.getCentreLatitude());
+				bounds.add(area.getRadiusMetres());
+			}
+		}
+		if (from != null) {
+			conditions.append(" AND TIMELOG >= ?");
+			bounds.add(from);
+		}
+		if (to != null) {
+			conditions.append(" AND TIMELOG < ?");
+			bounds.add(to);
+		}
+		if (after != null) {
+			conditions.append(" AND TIMELOG > ?");
+			bounds.add(after);
+		}
+
+		String query = selectLocations(TABLE_NAME, conditions, limit);
+		if (includeRollup) {
+			// Locations are deleted as they are rolled up, so the two tables never hold the same period
+			query = "(" + query + ") UNION ALL (" + selectLocations(ROLLUP_TABLE_NAME, conditions, limit) + ") ORDER BY TIMELOG"
+					+ (limit > 0 ? " LIMIT ?" : "");
+		}
+
+		PreparedStatement select = connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		int parameter = 1;
+		for (int table = 0; table < (includeRollup ? 2 : 1); table++) {
+			select.setString(parameter++, userID);
+			for (Object bound : bounds) {
+				select.setObject(parameter++, bound);
+			}
+			if (limit > 0) {
+				select.setInt(parameter++, limit);
+			}
+		}
+		if (includeRollup && limit > 0) {
+			select.setInt(parameter, limit);
+		}
+		return select;
+	}
+
+	private static String selectLocations(String table, CharSequence conditions, int limit) {
+		return "SELECT USER_ID, TIMELOG, LONGITUDE, LATITUDE, ALTITUDE, DELIVERED FROM " + table + conditions
+				+ " ORDER BY TIMELOG" + (limit > 0 ? " LIMIT ?" : "");
+	}
+
+	/**
+	 * @return time of the oldest location not yet rolled up, or null if there are none
+	 */
+	public Timestamp getOldestLocationTime() {
+		Object oldest = useEntityManager(em -> em.createNativeQuery("SELECT MIN(TIMELOG) FROM " + TABLE_NAME).getSingleResult());
+		return oldest == null ? null : Timestamp.valueOf(String.valueOf(oldest));
+	}
+
+	/**
+	 * Replace every location in a period with one point per user per interval,
+	 * averaging the positions within each interval. The rolled up points are
+	 * written and the locations deleted in one transaction.
+	 *
+	 * Locations that arrive late, for an interval that has already been rolled
+	 * up, are merged into its point, weighted by the number of locations each
+	 * side holds.
+	 *
+	 * @param start           start of the period, aligned to the interval
+	 * @param end             end of the period, aligned to the interval
+	 * @param intervalSeconds length of each interval
+	 * @return number of locations rolled up
+	 */
+	public int rollUpLocations(Timestamp start, Timestamp end, int intervalSeconds) {
+		return makeTransaction(em -> {
+			// Selected from a derived table so the columns being updated are not ambiguous with those of location_data.
+			// POINTS is assigned last, as the assignments before it read its old value
+			em.createNativeQuery("INSERT INTO " + ROLLUP_TABLE_NAME + " (USER_ID, TIMELOG, LONGITUDE, LATITUDE, ALTITUDE, DELIVERED, POINTS)"
+					+ " SELECT * FROM (SELECT USER_ID, FROM_UNIXTIME(FLOOR(UNIX_TIMESTAMP(TIMELOG) / :interval) * :interval) AS BUCKET,"
+					+ " AVG(LONGITUDE), AVG(LATITUDE), AVG(ALTITUDE), MAX(DELIVERED), COUNT(*)"
+					+ " FROM " + TABLE_NAME + " WHERE TIMELOG >= :start AND TIMELOG < :end GROUP BY USER_ID, BUCKET) AS rolled_up"
+					+ " ON DUPLICATE KEY UPDATE"
+					+ " LONGITUDE = " + weightedMerge("LONGITUDE") + ","
+					+ " LATITUDE = " + weightedMerge("LATITUDE") + ","
+					+ " ALTITUDE = " + weightedMerge("ALTITUDE") + ","
+					+ " DELIVERED = GREATEST(" + ROLLUP_TABLE_NAME + ".DELIVERED, VALUES(DELIVERED)),"
+					+ " POINTS = " + ROLLUP_TABLE_NAME + ".POINTS + VALUES(POINTS)")
+					.setParameter("interval", intervalSeconds)
+					.setParameter("start", start)
+					.setParameter("end", end)
+					.executeUpdate();
+			return em.createNativeQuery("DELETE FROM " + TABLE_NAME + " WHERE TIMELOG >= :start AND TIMELOG < :end")
+					.setParameter("start", start)
+					.setParameter("end", end)
+					.executeUpdate();
+		});
+	}
+
+	/**
+	 * @return the average of a rolled up column and the value being merged into it, weighted by their points
+	 */
+	private static String weightedMerge(String column) {
+		String existing = ROLLUP_TABLE_NAME + "." + column;
+		String points = ROLLUP_TABLE_NAME + ".POINTS";
+		return "(" + existing + " * " + points + " + VALUES(" + column + ") * VALUES(POINTS)) / (" + points + " + VALUES(POINTS))";
+	}
+
+	/**
+	 * @return number of rolled up points deleted
+	 */
+	public int deleteRollupsBefore(Timestamp before) {
+		return makeTransaction(em -> em
+				.createNativeQuery("DELETE FROM " + ROLLUP_TABLE_NAME + " WHERE TIMELOG < :before")
+				.setParameter("before", before)
+				.executeUpdate());
+	}
+
+	private static LocationData readLocation(ResultSet resultSet) throws SQLException {
+		LocationData locationData = new LocationData();
+		locationData.setUserId(resultSet.getString("USER_ID"));
+		locationData.setTimelog(resultSet.getTimestamp("TIMELOG"));
+		locationData.setLongitude(resultSet.getFloat("LONGITUDE"));
+		locationData.setLatitude(resultSet.getFloat("LATITUDE"));
+		locationData.setAltitude(resultSet.getFloat("ALTITUDE"));
+		locationData.setDelivered(resultSet.getBoolean("DELIVERED"));
+		return locationData;
+	}
+
+	/**
+	 * Times are stored to the second. Every insert truncates them here, rather
+	 * than leaving MySQL to round them, so a time is always stored as the same
+	 * second whichever path inserts it.
+	 */
+	public static Timestamp truncateToSecond(Timestamp timelog) {
+		return timelog == null ? null : new Timestamp(Math.floorDiv(timelog.getTime(), 1000) * 1000);
+	}
+
+	/**
+	 * Insert a location in one statement, relying on the primary key to reject
+	 * a location the user already has at the same time.
+	 *
+	 * @return false if the location was not inserted as it already exists
+	 */
+	public boolean insertIfAbsent(LocationData location) {
+		int insertedRows = makeTransaction(em -> em
+				.createNativeQuery("INSERT IGNORE INTO " + TABLE_NAME
+						+ " (USER_ID, TIMELOG, LONGITUDE, LATITUDE, ALTITUDE, DELIVERED) VALUES (:userID, :timelog, :longitude, :latitude, :altitude, :delivered)")
+				.setParameter("userID", location.getUserId())
+				.setParameter("timelog", truncateToSecond(location.getTimelog()))
+				.setParameter("longitude", location.getLongitude())
+				.setParameter("latitude", location.getLatitude())
+				.setParameter("altitude", location.getAltitude())
+				.setParameter("delivered", location.getDelivered())
+				.executeUpdate());
+		return insertedRows > 0;
+	}
+
+	/**
+	 * @return the times the user already has locations stored at, between from and to inclusive
+	 */
+	@SuppressWarnings("unchecked")
+	public Set<Timestamp> getTimelogs(String userID, Timestamp from, Timestamp to) {
+		List<Object> timelogs = useEntityManager(em -> em
+				.createNativeQuery("SELECT TIMELOG FROM " + TABLE_NAME + " WHERE USER_ID=:userID AND TIMELOG BETWEEN :from AND :to")
+				.setParameter("userID", userID)
+				.setParameter("from", from)
+				.setParameter("to", to)
+				.getResultList());
+		Set<Timestamp> existingTimelogs = new HashSet<>();
+		for (Object timelog : timelogs) {
+			existingTimelogs.add(Timestamp.valueOf(String.valueOf(timelog)));
+		}
+		return existingTimelogs;
+	}
+
+	/**
+	 * Insert many locations as a single JDBC batch in one transaction. Locations
+	 * that are already stored are skipped rather than failing the batch.
+	 *
+	 * @return for each location, the number of rows inserted, or
+	 * {@link java.sql.Statement#SUCCESS_NO_INFO} if the driver combined the rows
+	 */
+	public int[] addAll(List<LocationData> locations) {
+		if (locations.isEmpty()) {
+			return new int[0];
+		}
+		return makeTransaction(em -> em.unwrap(Session.class).doReturningWork(connection -> {
+			try (PreparedStatement insert = connection.prepareStatement("INSERT IGNORE INTO " + TABLE_NAME
+					+ " (USER_ID, TIMELOG, LONGITUDE, LATITUDE, ALTITUDE, DELIVERED) VALUES (?, ?, ?, ?, ?, ?)")) {
+				for (LocationData location : locations) {
+					insert.setString(1, location.getUserId());
+					insert.setTimestamp(2, truncateToSecond(location.getTimelog()));
+					insert.setFloat(3, location.getLongitude());
+					insert.setFloat(4, location.getLatitude());
+					insert.setFloat(5, location.getAltitude());
+					insert.setBoolean(6, location.getDelivered());
+					insert.addBatch();
+				}
+				return insert.executeBatch();
+			}
+		}));
 	}
 }
@@ -0,0 +1,70 @@
+package asegroup1.api.models;
+
+/**
+ * A snapshot of the counters kept by a cache, reported through the metrics
+ * endpoint.
+ */
+public class CacheStatistics {
+	private int size;
+	private int maxSize;
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long expirations;
+	private long invalidations;
+
+	public CacheStatistics(int size, int maxSize, long hits, long misses, long evictions, long expirations, long invalidations) {
+		this.size = size;
+		this.maxSize = maxSize;
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+		this.expirations = expirations;
+		this.invalidations = invalidations;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return the fraction of lookups that were hits, or 0 if there have been no lookups
+	 */
+	public double getHitRate() {
+		long lookups = hits + misses;
+		return lookups == 0 ? 0 : hits / (double) lookups;
+	}
+
+	/**
+	 * @return number of entries removed to keep the cache within its maximum size
+	 */
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return number of entries removed because they outlived their time to live
+	 */
+	public long getExpirations() {
+		return expirations;
+	}
+
+	/**
+	 * @return number of entries removed because their data changed
+	 */
+	public long getInvalidations() {
+		return invalidations;
+	}
+}
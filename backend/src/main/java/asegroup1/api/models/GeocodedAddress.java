@@ -0,0 +1,71 @@
+package asegroup1.api.models;
+
+
+import java.io.Serializable;
+import java.sql.Timestamp;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+@Entity
+@Table(name = "geocode_cache")
+public class GeocodedAddress implements Serializable {
+
+	private static final long serialVersionUID = -3871396409284757120L;
+
+	@Id
+	@Column(name = "ADDRESS_KEY")
+	private String addressKey;
+	@Column(name = "LATITUDE")
+	private double latitude;
+	@Column(name = "LONGITUDE")
+	private double longitude;
+	@Column(name = "GEOCODED")
+	private Timestamp geocoded;
+
+	public GeocodedAddress() {
+		super();
+	}
+
+	public GeocodedAddress(String addressKey, double latitude, double longitude, Timestamp geocoded) {
+		super();
+		this.addressKey = addressKey;
+		this.latitude = latitude;
+		this.longitude = longitude;
+		this.geocoded = geocoded;
+	}
+
+	public String getAddressKey() {
+		return addressKey;
+	}
+
+	public void setAddressKey(String addressKey) {
+		this.addressKey = addressKey;
+	}
+
+	public double getLatitude() {
+		return latitude;
+	}
+
+	public void setLatitude(double latitude) {
+		this.latitude = latitude;
+	}
+
+	public double getLongitude() {
+		return longitude;
+	}
+
+	public void setLongitude(double longitude) {
+		this.longitude = longitude;
+	}
+
+	public Timestamp getGeocoded() {
+		return geocoded;
+	}
+
+	public void setGeocoded(Timestamp geocoded) {
+		this.geocoded = geocoded;
+	}
+}
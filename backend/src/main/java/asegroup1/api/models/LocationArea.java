@@ -0,0 +1,84 @@
+package asegroup1.api.models;
+
+import java.security.InvalidParameterException;
+
+/**
+ * An area to search for locations in, either a box of latitudes and
+ * longitudes or a circle around a point.
+ */
+public class LocationArea {
+
+	private static final double METRES_PER_DEGREE_LATITUDE = 111320;
+
+	private final double minLatitude, minLongitude, maxLatitude, maxLongitude;
+	// Only set for circles
+	private final Double centreLatitude, centreLongitude, radiusMetres;
+
+	private LocationArea(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude,
+			Double centreLatitude, Double centreLongitude, Double radiusMetres) {
+		this.minLatitude = minLatitude;
+		this.minLongitude = minLongitude;
+		this.maxLatitude = maxLatitude;
+		this.maxLongitude = maxLongitude;
+		this.centreLatitude = centreLatitude;
+		this.centreLongitude = centreLongitude;
+		this.radiusMetres = radiusMetres;
+	}
+
+	/**
+	 * @throws InvalidParameterException if the box is empty or outside the valid latitudes and longitudes
+	 */
+	public static LocationArea box(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+		if (!(minLatitude <= maxLatitude && minLongitude <= maxLongitude)
+				|| minLatitude < -90 || maxLatitude > 90 || minLongitude < -180 || maxLongitude > 180) {
+			throw new InvalidParameterException("Bounds must be valid latitudes and longitudes, with each minimum below its maximum");
+		}
+		return new LocationArea(minLatitude, minLongitude, maxLatitude, maxLongitude, null, null, null);
+	}
+
+	/**
+	 * @throws InvalidParameterException if the centre is not a valid position or the radius is not positive
+	 */
+	public static LocationArea circle(double latitude, double longitude, double radiusMetres) {
+		if (Math.abs(latitude) > 90 || Math.abs(longitude) > 180 || !(radiusMetres > 0)) {
+			throw new InvalidParameterException("Centre must be a valid latitude and longitude, and the radius positive");
+		}
+		double latitudeSpan = radiusMetres / METRES_PER_DEGREE_LATITUDE;
+		double longitudeSpan = radiusMetres / (METRES_PER_DEGREE_LATITUDE * Math.max(Math.cos(Math.toRadians(latitude)), 1e-6));
+		return new LocationArea(Math.max(-90, latitude - latitudeSpan), Math.max(-180, longitude - longitudeSpan),
+				Math.min(90, latitude + latitudeSpan), Math.min(180, longitude + longitudeSpan),
+				latitude, longitude, radiusMetres);
+	}
+
+	public double getMinLatitude() {
+		return minLatitude;
+	}
+
+	public double getMinLongitude() {
+		return minLongitude;
+	}
+
+	public double getMaxLatitude() {
+		return maxLatitude;
+	}
+
+	public double getMaxLongitude() {
+		return maxLongitude;
+	}
+
+	public boolean isCircle() {
+		return radiusMetres != null;
+	}
+
+	public Double getCentreLatitude() {
+		return centreLatitude;
+	}
+
+	public Double getCentreLongitude() {
+		return centreLongitude;
+	}
+
+	public Double getRadiusMetres() {
+		return radiusMetres;
+	}
+}
@@ -0,0 +1,21 @@
+package asegroup1.api.models;
+
+/**
+ * Outcome of adding one location in a batch
+ */
+public enum LocationInsertStatus {
+	/**
+	 * The location was stored
+	 */
+	ADDED,
+	/**
+	 * A location for the user at the same time is already stored, or appears
+	 * earlier in the batch
+	 */
+	DUPLICATE,
+	/**
+	 * The location has no time, belongs to a different user or its position is
+	 * out of range
+	 */
+	INVALID
+}
@@ -0,0 +1,73 @@
+package asegroup1.api.models;
+
+
+import java.io.Serializable;
+import java.sql.Timestamp;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Table;
+
+@Entity
+@Table(name = "price_refresh_area")
+@IdClass(PriceRefreshAreaId.class)
+public class PriceRefreshArea implements Serializable {
+
+	private static final long serialVersionUID = -5172980364115583307L;
+	@Id
+	@Column(name = "JOB_ID")
+	private String jobId;
+	@Id
+	@Column(name = "POSTCODE_AREA")
+	private String postcodeArea;
+	@Column(name = "UPDATED_RECORDS")
+	private int updatedRecords;
+	@Column(name = "COMPLETED")
+	private Timestamp completed;
+
+	public PriceRefreshArea() {
+		super();
+	}
+
+	public PriceRefreshArea(String jobId, String postcodeArea, int updatedRecords, Timestamp completed) {
+		super();
+		this.jobId = jobId;
+		this.postcodeArea = postcodeArea;
+		this.updatedRecords = updatedRecords;
+		this.completed = completed;
+	}
+
+	public String getJobId() {
+		return jobId;
+	}
+
+	public void setJobId(String jobId) {
+		this.jobId = jobId;
+	}
+
+	public String getPostcodeArea() {
+		return postcodeArea;
+	}
+
+	public void setPostcodeArea(String postcodeArea) {
+		this.postcodeArea = postcodeArea;
+	}
+
+	public int getUpdatedRecords() {
+		return updatedRecords;
+	}
+
+	public void setUpdatedRecords(int updatedRecords) {
+		this.updatedRecords = updatedRecords;
+	}
+
+	public Timestamp getCompleted() {
+		return completed;
+	}
+
+	public void setCompleted(Timestamp completed) {
+		this.completed = completed;
+	}
+}
@@ -0,0 +1,50 @@
+package asegroup1.api.models;
+
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Primary key of a {@link PriceRefreshArea}, the job and the postcode area it
+ * refreshed
+ */
+public class PriceRefreshAreaId implements Serializable {
+
+	private static final long serialVersionUID = 2893471652378410926L;
+
+	private String jobId;
+	private String postcodeArea;
+
+	public PriceRefreshAreaId() {
+		super();
+	}
+
+	public PriceRefreshAreaId(String jobId, String postcodeArea) {
+		super();
+		this.jobId = jobId;
+		this.postcodeArea = postcodeArea;
+	}
+
+	public String getJobId() {
+		return jobId;
+	}
+
+	public String getPostcodeArea() {
+		return postcodeArea;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj instanceof PriceRefreshAreaId) {
+			PriceRefreshAreaId id = (PriceRefreshAreaId) obj;
+			return Objects.equals(jobId, id.jobId) && Objects.equals(postcodeArea, id.postcodeArea);
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(jobId, postcodeArea);
+	}
+}
@@ -0,0 +1,145 @@
+package asegroup1.api.models;
+
+
+import java.io.Serializable;
+import java.sql.Timestamp;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Transient;
+
+@Entity
+@Table(name = "price_refresh_job")
+public class PriceRefreshJob implements Serializable {
+
+	private static final long serialVersionUID = 2650946187524163297L;
+
+	public enum Status {
+		RUNNING, COMPLETED, FAILED
+	}
+
+	@Id
+	@Column(name = "JOB_ID")
+	private String jobId;
+	@Column(name = "POSTCODE_PREFIX")
+	private String postcodePrefix;
+	@Enumerated(EnumType.STRING)
+	@Column(name = "STATUS")
+	private Status status;
+	@Column(name = "TOTAL_AREAS")
+	private int totalAreas;
+	@Column(name = "COMPLETED_AREAS")
+	private int completedAreas;
+	@Column(name = "FAILED_AREAS")
+	private int failedAreas;
+	@Column(name = "UPDATED_RECORDS")
+	private int updatedRecords;
+	@Column(name = "STARTED")
+	private Timestamp started;
+	@Column(name = "FINISHED")
+	private Timestamp finished;
+
+	// Only known while the job is running in this instance
+	@Transient
+	private Long estimatedSecondsRemaining;
+
+	public PriceRefreshJob() {
+		super();
+	}
+
+	public PriceRefreshJob(String jobId, String postcodePrefix, Timestamp started) {
+		super();
+		this.jobId = jobId;
+		this.postcodePrefix = postcodePrefix;
+		this.status = Status.RUNNING;
+		this.started = started;
+	}
+
+	public String getJobId() {
+		return jobId;
+	}
+
+	public void setJobId(String jobId) {
+		this.jobId = jobId;
+	}
+
+	public String getPostcodePrefix() {
+		return postcodePrefix;
+	}
+
+	public void setPostcodePrefix(String postcodePrefix) {
+		this.postcodePrefix = postcodePrefix;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public void setStatus(Status status) {
+		this.status = status;
+	}
+
+	public int getTotalAreas() {
+		return totalAreas;
+	}
+
+	public void setTotalAreas(int totalAreas) {
+		this.totalAreas = totalAreas;
+	}
+
+	public int getCompletedAreas() {
+		return completedAreas;
+	}
+
+	public void setCompletedAreas(int completedAreas) {
+		this.completedAreas = completedAreas;
+	}
+
+	public int getFailedAreas() {
+		return failedAreas;
+	}
+
+	public void setFailedAreas(int failedAreas) {
+		this.failedAreas = failedAreas;
+	}
+
+	public int getUpdatedRecords() {
+		return updatedRecords;
+	}
+
+	public void setUpdatedRecords(int updatedRecords) {
+		this.updatedRecords = updatedRecords;
+	}
+
+	public Timestamp getStarted() {
+		return started;
+	}
+
+	public void setStarted(Timestamp started) {
+		this.started = started;
+	}
+
+	public Timestamp getFinished() {
+		return finished;
+	}
+
+	public void setFinished(Timestamp finished) {
+		this.finished = finished;
+	}
+
+	public double getPercentComplete() {
+		return totalAreas == 0 ? 0 : (completedAreas * 100.0) / totalAreas;
+	}
+
+	public Long getEstimatedSecondsRemaining() {
+		return estimatedSecondsRemaining;
+	}
+
+	public void setEstimatedSecondsRemaining(Long estimatedSecondsRemaining) {
+		this.estimatedSecondsRemaining = estimatedSecondsRemaining;
+	}
+}
@@ -0,0 +1,129 @@
+package asegroup1.api.models;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * The land prices of the postcodes a user's track passed through. Each
+ * location of the track is attributed to its nearest postcode.
+ */
+public class TrajectoryPrices {
+	private int locations;
+	private int matchedLocations;
+	private Long averagePrice;
+	private Long weightedAveragePrice;
+	private Long minPrice;
+	private Long maxPrice;
+	private List<PostcodeVisit> postcodes;
+
+	public TrajectoryPrices(int locations, int matchedLocations, Long averagePrice, Long weightedAveragePrice, Long minPrice,
+			Long maxPrice, List<PostcodeVisit> postcodes) {
+		this.locations = locations;
+		this.matchedLocations = matchedLocations;
+		this.averagePrice = averagePrice;
+		this.weightedAveragePrice = weightedAveragePrice;
+		this.minPrice = minPrice;
+		this.maxPrice = maxPrice;
+		this.postcodes = postcodes;
+	}
+
+	/**
+	 * @return number of locations in the track
+	 */
+	public int getLocations() {
+		return locations;
+	}
+
+	/**
+	 * @return number of locations close enough to a postcode to be attributed to it
+	 */
+	public int getMatchedLocations() {
+		return matchedLocations;
+	}
+
+	/**
+	 * @return mean of the average prices of the priced postcodes passed through,
+	 * or null if none of them are priced
+	 */
+	public Long getAveragePrice() {
+		return averagePrice;
+	}
+
+	/**
+	 * @return mean of the average prices of the priced postcodes passed through,
+	 * weighted by the number of locations in each, or null if none of them are priced
+	 */
+	public Long getWeightedAveragePrice() {
+		return weightedAveragePrice;
+	}
+
+	public Long getMinPrice() {
+		return minPrice;
+	}
+
+	public Long getMaxPrice() {
+		return maxPrice;
+	}
+
+	/**
+	 * @return the postcodes passed through, in the order they were first reached
+	 */
+	public List<PostcodeVisit> getPostcodes() {
+		return postcodes;
+	}
+
+	/**
+	 * A postcode passed through by the track
+	 */
+	public static class PostcodeVisit {
+		private String postcode;
+		private Long averagePrice;
+		private int locations;
+		private int visits;
+		private Timestamp firstVisited;
+		private Timestamp lastVisited;
+
+		public PostcodeVisit(String postcode, Long averagePrice, int locations, int visits, Timestamp firstVisited,
+				Timestamp lastVisited) {
+			this.postcode = postcode;
+			this.averagePrice = averagePrice;
+			this.locations = locations;
+			this.visits = visits;
+			this.firstVisited = firstVisited;
+			this.lastVisited = lastVisited;
+		}
+
+		public String getPostcode() {
+			return postcode;
+		}
+
+		/**
+		 * @return average price of the postcode, or null if it is unset
+		 */
+		public Long getAveragePrice() {
+			return averagePrice;
+		}
+
+		/**
+		 * @return number of locations attributed to the postcode
+		 */
+		public int getLocations() {
+			return locations;
+		}
+
+		/**
+		 * @return number of times the track entered the postcode
+		 */
+		public int getVisits() {
+			return visits;
+		}
+
+		public Timestamp getFirstVisited() {
+			return firstVisited;
+		}
+
+		public Timestamp getLastVisited() {
+			return lastVisited;
+		}
+	}
+}
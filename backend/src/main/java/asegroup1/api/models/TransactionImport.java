@@ -0,0 +1,239 @@
+package asegroup1.api.models;
+
+
+import java.io.Serializable;
+import java.sql.Date;
+import java.sql.Timestamp;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+@Entity
+@Table(name = "transaction_import")
+public class TransactionImport implements Serializable {
+
+	private static final long serialVersionUID = -3320489575170962118L;
+
+	public enum Status {
+		RUNNING, COMPLETED, FAILED
+	}
+
+	public enum Mode {
+		/**
+		 * Import the complete file, adding or replacing every transaction in it
+		 */
+		FULL,
+		/**
+		 * Apply a monthly change file, whose rows add, change or delete
+		 * transactions, then recompute the average price of the postcodes touched
+		 */
+		DELTA
+	}
+
+	@Id
+	@Column(name = "IMPORT_ID")
+	private String importId;
+	@Column(name = "SOURCE_FILE")
+	private String sourceFile;
+	@Column(name = "FILE_SIZE")
+	private long fileSize;
+	@Enumerated(EnumType.STRING)
+	@Column(name = "MODE")
+	private Mode mode;
+	@Enumerated(EnumType.STRING)
+	@Column(name = "STATUS")
+	private Status status;
+	// Offset of the first record not yet written, an interrupted import resumes from here
+	@Column(name = "BYTES_READ")
+	private long bytesRead;
+	@Column(name = "ROWS_READ")
+	private long rowsRead;
+	@Column(name = "ROWS_APPLIED")
+	private long rowsApplied;
+	@Column(name = "ROWS_DELETED")
+	private long rowsDeleted;
+	@Column(name = "ROWS_SKIPPED")
+	private long rowsSkipped;
+	@Column(name = "POSTCODES_TOUCHED")
+	private long postcodesTouched;
+	@Column(name = "POSTCODES_REPRICED")
+	private long postcodesRepriced;
+	@Column(name = "READ_MILLIS")
+	private long readMillis;
+	@Column(name = "WRITE_MILLIS")
+	private long writeMillis;
+	@Column(name = "REPRICE_MILLIS")
+	private long repriceMillis;
+	@Column(name = "LATEST_TRANSACTION_DATE")
+	private Date latestTransactionDate;
+	@Column(name = "STARTED")
+	private Timestamp started;
+	@Column(name = "FINISHED")
+	private Timestamp finished;
+
+	public TransactionImport() {
+		super();
+	}
+
+	public TransactionImport(String importId, String sourceFile, long fileSize, Mode mode, Timestamp started) {
+		super();
+		this.importId = importId;
+		this.sourceFile = sourceFile;
+		this.fileSize = fileSize;
+		this.mode = mode;
+		this.status = Status.RUNNING;
+		this.started = started;
+	}
+
+	public String getImportId() {
+		return importId;
+	}
+
+	public void setImportId(String importId) {
+		this.importId = importId;
+	}
+
+	public String getSourceFile() {
+		return sourceFile;
+	}
+
+	public void setSourceFile(String sourceFile) {
+		this.sourceFile = sourceFile;
+	}
+
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	public void setFileSize(long fileSize) {
+		this.fileSize = fileSize;
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	public void setMode(Mode mode) {
+		this.mode = mode;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public void setStatus(Status status) {
+		this.status = status;
+	}
+
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	public void setBytesRead(long bytesRead) {
+		this.bytesRead = bytesRead;
+	}
+
+	public long getRowsRead() {
+		return rowsRead;
+	}
+
+	public void setRowsRead(long rowsRead) {
+		this.rowsRead = rowsRead;
+	}
+
+	public long getRowsApplied() {
+		return rowsApplied;
+	}
+
+	public void setRowsApplied(long rowsApplied) {
+		this.rowsApplied = rowsApplied;
+	}
+
+	public long getRowsDeleted() {
+		return rowsDeleted;
+	}
+
+	public void setRowsDeleted(long rowsDeleted) {
+		this.rowsDeleted = rowsDeleted;
+	}
+
+	public long getRowsSkipped() {
+		return rowsSkipped;
+	}
+
+	public void setRowsSkipped(long rowsSkipped) {
+		this.rowsSkipped = rowsSkipped;
+	}
+
+	public long getPostcodesTouched() {
+		return postcodesTouched;
+	}
+
+	public void setPostcodesTouched(long postcodesTouched) {
+		this.postcodesTouched = postcodesTouched;
+	}
+
+	public long getPostcodesRepriced() {
+		return postcodesRepriced;
+	}
+
+	public void setPostcodesRepriced(long postcodesRepriced) {
+		this.postcodesRepriced = postcodesRepriced;
+	}
+
+	public long getReadMillis() {
+		return readMillis;
+	}
+
+	public void setReadMillis(long readMillis) {
+		this.readMillis = readMillis;
+	}
+
+	public long getWriteMillis() {
+		return writeMillis;
+	}
+
+	public void setWriteMillis(long writeMillis) {
+		this.writeMillis = writeMillis;
+	}
+
+	public long getRepriceMillis() {
+		return repriceMillis;
+	}
+
+	public void setRepriceMillis(long repriceMillis) {
+		this.repriceMillis = repriceMillis;
+	}
+
+	public Date getLatestTransactionDate() {
+		return latestTransactionDate;
+	}
+
+	public void setLatestTransactionDate(Date latestTransactionDate) {
+		this.latestTransactionDate = latestTransactionDate;
+	}
+
+	public Timestamp getStarted() {
+		return started;
+	}
+
+	public void setStarted(Timestamp started) {
+		this.started = started;
+	}
+
+	public Timestamp getFinished() {
+		return finished;
+	}
+
+	public void setFinished(Timestamp finished) {
+		this.finished = finished;
+	}
+
+	public double getPercentComplete() {
+		return fileSize == 0 ? 0 : (bytesRead * 100.0) / fileSize;
+	}
+}
@@ -0,0 +1,274 @@
+package asegroup1.api.models.landregistry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import asegroup1.api.models.landregistry.LandRegistryData.EqualityConstraint;
+import asegroup1.api.models.landregistry.LandRegistryQuery.Selectable;
+import asegroup1.api.models.landregistry.LandRegistryQueryConstraint.RangeConstraint;
+import asegroup1.api.models.landregistry.LandRegistryQuerySelect.SelectObj;
+
+/**
+ * The SQL equivalent of a {@link LandRegistryQuery}, run against the local
+ * transactions table rather than the SPARQL endpoint. Columns are returned
+ * under the same names as the variables of the SPARQL query, so rows can be
+ * read into {@link LandRegistryData} the same way as SPARQL bindings.
+ */
+public class LandRegistrySqlQuery {
+
+	public static final String TABLE_NAME = "transactions";
+
+	// Numbers the rows of each group when sampling, see getSampleOrder
+	private static final String SAMPLE_ROW = "sample_row";
+
+	private static final Map<Selectable, String> COLUMNS = new EnumMap<>(Selectable.class);
+
+	static {
+		COLUMNS.put(Selectable.propertyType, "PROPERTY_TYPE");
+		COLUMNS.put(Selectable.estateType, "ESTATE_TYPE");
+		COLUMNS.put(Selectable.transactionDate, "TRANSACTION_DATE");
+		COLUMNS.put(Selectable.pricePaid, "PRICE_PAID");
+		COLUMNS.put(Selectable.newBuild, "NEW_BUILD");
+		COLUMNS.put(Selectable.transactionCategory, "TRANSACTION_CATEGORY");
+		COLUMNS.put(Selectable.paon, "PAON");
+		COLUMNS.put(Selectable.saon, "SAON");
+		COLUMNS.put(Selectable.street, "STREET");
+		COLUMNS.put(Selectable.locality, "LOCALITY");
+		COLUMNS.put(Selectable.town, "TOWN");
+		COLUMNS.put(Selectable.district, "DISTRICT");
+		COLUMNS.put(Selectable.county, "COUNTY");
+		COLUMNS.put(Selectable.postcode, "POSTCODE");
+	}
+
+	private final String sql;
+	private final List<Object> parameters;
+
+	private LandRegistrySqlQuery(String sql, List<Object> parameters) {
+		this.sql = sql;
+		this.parameters = parameters;
+	}
+
+	/**
+	 * @param query to translate, whose body is either a {@link LandRegistryQueryConstraint}
+	 *              or another {@link LandRegistryQuery}, as built by {@link LandRegistryQuery#buildQueryAveragePricePostcode(String...)}
+	 * @return the query as SQL
+	 * @throws IllegalArgumentException if the query uses a variable the transactions table does not have
+	 */
+	public static LandRegistrySqlQuery fromQuery(LandRegistryQuery query) {
+		List<Object> parameters = new ArrayList<>();
+		String sql = buildQuery(query, parameters, 0);
+		return new LandRegistrySqlQuery(sql, Collections.unmodifiableList(parameters));
+	}
+
+	public String getSql() {
+		return sql;
+	}
+
+	/**
+	 * @return values of the placeholders in the SQL, in order
+	 */
+	public List<Object> getParameters() {
+		return parameters;
+	}
+
+	private static String buildQuery(LandRegistryQuery query, List<Object> parameters, int depth) {
+		LandRegistryQueryBody body = query.getBody();
+		// Variables of a nested query are the names it selects, otherwise they are columns of the table
+		boolean nested = body instanceof LandRegistryQuery;
+		boolean grouping = !(query.getGroupConstraint() == null || query.getGroupConstraint().getSelectables().isEmpty());
+
+		List<String> groupColumns = new ArrayList<>();
+		if (grouping) {
+			for (String selectable : query.getGroupConstraint().getSelectables()) {
+				groupColumns.add(getColumn(selectable, nested));
+			}
+		}
+		Collection<SelectObj> selectObjs = query.getSelect().getSelectValues().values();
+		boolean sampling = grouping && selectObjs.stream().anyMatch(selectObj -> selectObj.aggregation == LandRegistryQuery.Aggregation.SAMPLE);
+		String partition = "OVER (PARTITION BY " + String.join(", ", groupColumns);
+
+		StringBuilder sqlBuilder = new StringBuilder("SELECT ");
+		List<String> names = new ArrayList<>();
+		for (SelectObj selectObj : selectObjs) {
+			if (!names.isEmpty()) {
+				sqlBuilder.append(", ");
+			}
+
+			String column = getColumn(selectObj.referenceName, nested);
+			// As in SPARQL, aggregations are ignored when nothing is grouped
+			if (!grouping || selectObj.aggregation == LandRegistryQuery.Aggregation.NONE) {
+				names.add(quote(selectObj.referenceName));
+				sqlBuilder.append(column).append(" AS ").append(quote(selectObj.referenceName));
+			} else if (selectObj.aggregation == LandRegistryQuery.Aggregation.SAMPLE) {
+				// Read from the sampled row, so sampled columns all come from the same row
+				names.add(quote(selectObj.aggregationName));
+				sqlBuilder.append(column).append(" AS ").append(quote(selectObj.aggregationName));
+			} else if (sampling) {
+				names.add(quote(selectObj.aggregationName));
+				sqlBuilder.append(getAggregation(selectObj.aggregation)).append("(").append(column).append(") ")
+						.append(partition).append(") AS ").append(quote(selectObj.aggregationName));
+			} else {
+				names.add(quote(selectObj.aggregationName));
+				sqlBuilder.append(getAggregation(selectObj.aggregation)).append("(").append(column).append(") AS ")
+						.append(quote(selectObj.aggregationName));
+			}
+		}
+		if (sampling) {
+			// Numbers the rows of each group, so the first is the one a MAX or MIN aggregation picked
+			sqlBuilder.append(", ROW_NUMBER() ").append(partition).append(getSampleOrder(selectObjs, nested))
+					.append(") AS ").append(quote(SAMPLE_ROW));
+		}
+
+		sqlBuilder.append(" FROM ");
+		if (nested) {
+			sqlBuilder.append("(").append(buildQuery((LandRegistryQuery) body, parameters, depth + 1)).append(") AS sub").append(depth);
+		} else if (body instanceof LandRegistryQueryConstraint) {
+			sqlBuilder.append(TABLE_NAME);
+			String where = buildWhere((LandRegistryQueryConstraint) body, parameters);
+			if (!where.isEmpty()) {
+				sqlBuilder.append(" WHERE ").append(where);
+			}
+		} else {
+			throw new IllegalArgumentException("Unsupported query body " + body);
+		}
+
+		if (sampling) {
+			return "SELECT " + String.join(", ", names) + " FROM (" + sqlBuilder + ") AS sampled" + depth
+					+ " WHERE " + quote(SAMPLE_ROW) + " = 1";
+		}
+		if (grouping) {
+			sqlBuilder.append(" GROUP BY ").append(String.join(", ", groupColumns));
+		}
+		return sqlBuilder.toString();
+	}
+
+	/**
+	 * SPARQL's SAMPLE picks any row of the group, so the row with the greatest
+	 * value of a MAX aggregation is picked, or the least of a MIN one. The
+	 * latest sales query therefore reads every column from the latest sale.
+	 */
+	private static String getSampleOrder(Collection<SelectObj> selectObjs, boolean nested) {
+		for (LandRegistryQuery.Aggregation aggregation : new LandRegistryQuery.Aggregation[] {
+				LandRegistryQuery.Aggregation.MAX, LandRegistryQuery.Aggregation.MIN }) {
+			for (SelectObj selectObj : selectObjs) {
+				if (selectObj.aggregation == aggregation) {
+					return " ORDER BY " + getColumn(selectObj.referenceName, nested)
+							+ (aggregation == LandRegistryQuery.Aggregation.MAX ? " DESC" : " ASC");
+				}
+			}
+		}
+		return "";
+	}
+
+	private static String buildWhere(LandRegistryQueryConstraint constraint, List<Object> parameters) {
+		List<String> conditions = new ArrayList<>();
+
+		for (Entry<Selectable, EqualityConstraint> equality : constraint.getEqualityConstraints().getAllConstraints().entrySet()) {
+			Selectable selectable = equality.getKey();
+			LandRegistryQueryValues values = constraint.getValueList(selectable.toString());
+			if (values != null) {
+				conditions.add(COLUMNS.get(selectable) + " IN (" + String.join(", ", Collections.nCopies(values.getValues().size(), "?")) + ")");
+				for (String value : values.getValues()) {
+					parameters.add(toParameter(selectable, stripSparqlSyntax(value)));
+				}
+			} else {
+				conditions.add(COLUMNS.get(selectable) + " = ?");
+				parameters.add(toParameter(selectable, equality.getValue().getValue()));
+			}
+		}
+
+		addRangeCondition(constraint, Selectable.transactionDate, ">", conditions, parameters);
+		addRangeCondition(constraint, Selectable.transactionDate, "<", conditions, parameters);
+		addRangeCondition(constraint, Selectable.pricePaid, ">", conditions, parameters);
+		addRangeCondition(constraint, Selectable.pricePaid, "<", conditions, parameters);
+
+		List<String> postcodes = constraint.getPostcodes();
+		if (postcodes != null && !postcodes.isEmpty()) {
+			// Built the same way as the SPARQL filter, MySQL's REGEXP is also unanchored
+			StringBuilder regex = new StringBuilder();
+			for (int i = 0; i < postcodes.size(); i++) {
+				regex.append(i == 0 ? "(" : "|(").append(postcodes.get(i).toUpperCase()).append(")");
+			}
+			conditions.add(COLUMNS.get(Selectable.postcode) + " REGEXP ?");
+			parameters.add(regex.toString());
+		}
+
+		return String.join(" AND ", conditions);
+	}
+
+	private static void addRangeCondition(LandRegistryQueryConstraint constraint, Selectable selectable, String comparator,
+			List<String> conditions, List<Object> parameters) {
+		RangeConstraint range = constraint.getRangeConstraint(selectable.toString(), comparator);
+		if (range != null) {
+			conditions.add(COLUMNS.get(selectable) + " " + comparator + " ?");
+			parameters.add(toParameter(selectable, stripSparqlSyntax(range.getValue())));
+		}
+	}
+
+	/**
+	 * Removes the quotes and namespace the SPARQL query wraps values in, so
+	 * "\"BN1 1AA\"" becomes "BN1 1AA" and "lrcommon:semi-detached" becomes
+	 * "semi_detached".
+	 */
+	static String stripSparqlSyntax(String value) {
+		if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+			return value.substring(1, value.length() - 1);
+		}
+		if (value.startsWith("lrcommon:") || value.startsWith("lrppi:")) {
+			return value.substring(value.indexOf(':') + 1).replace('-', '_');
+		}
+		return value;
+	}
+
+	private static Object toParameter(Selectable selectable, String value) {
+		switch (selectable) {
+			case pricePaid:
+				return Math.round(Double.parseDouble(value));
+			case newBuild:
+				return Boolean.parseBoolean(value);
+			default:
+				return value;
+		}
+	}
+
+	private static String getColumn(String variable, boolean nested) {
+		if (nested) {
+			return quote(variable);
+		}
+		try {
+			return COLUMNS.get(Selectable.valueOf(variable));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("The transactions table has no column for \"" + variable + "\"");
+		}
+	}
+
+	private static String getAggregation(LandRegistryQuery.Aggregation aggregation) {
+		switch (aggregation) {
+			case COUNT:
+			case SUM:
+			case AVG:
+			case MIN:
+			case MAX:
+				return aggregation.name();
+			default:
+				throw new IllegalArgumentException("Unexpected enum");
+		}
+	}
+
+	private static String quote(String identifier) {
+		if (!identifier.matches("[A-Za-z_][A-Za-z0-9_]*")) {
+			throw new IllegalArgumentException("Invalid variable name \"" + identifier + "\"");
+		}
+		return "`" + identifier + "`";
+	}
+
+	@Override
+	public String toString() {
+		return sql + " " + parameters;
+	}
+}
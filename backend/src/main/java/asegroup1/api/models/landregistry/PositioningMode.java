@@ -0,0 +1,44 @@
+package asegroup1.api.models.landregistry;
+
+import java.security.InvalidParameterException;
+
+/**
+ * How individual addresses are positioned on the map.
+ */
+public enum PositioningMode {
+	/**
+	 * Geocode every address, addresses that cannot be geocoded are returned
+	 * without a position
+	 */
+	GEOCODE,
+	/**
+	 * Place each address near the centroid of its postcode, without any network
+	 * requests
+	 */
+	CENTROID,
+	/**
+	 * Place each address near the centroid of its postcode, then replace that
+	 * with the geocoded position wherever geocoding succeeds
+	 */
+	CENTROID_REFINED;
+
+	/**
+	 * Parses the positioning mode requested by a client, ignoring case.
+	 *
+	 * @param mode name of the mode, or null for the default
+	 * @param defaultMode returned if mode is null or empty
+	 * @return the matching positioning mode
+	 * @throws InvalidParameterException if the mode is not recognised
+	 */
+	public static PositioningMode parse(String mode, PositioningMode defaultMode) {
+		if (mode == null || mode.isEmpty()) {
+			return defaultMode;
+		}
+		for (PositioningMode positioningMode : values()) {
+			if (positioningMode.name().equalsIgnoreCase(mode)) {
+				return positioningMode;
+			}
+		}
+		throw new InvalidParameterException("Unknown positioning mode \"" + mode + "\", expected one of GEOCODE, CENTROID or CENTROID_REFINED");
+	}
+}
@@ -0,0 +1,183 @@
+package asegroup1.api.models.landregistry;
+
+import java.time.LocalDate;
+
+import asegroup1.api.models.landregistry.LandRegistryQuery.EstateType;
+import asegroup1.api.models.landregistry.LandRegistryQuery.PropertyType;
+import asegroup1.api.models.landregistry.LandRegistryQuery.TransactionCategory;
+
+/**
+ * A row of the Price Paid Data CSV published by the Land Registry.
+ */
+public class PricePaidRecord {
+
+	/**
+	 * What a row of a change file does to the transaction it identifies. Rows of
+	 * the complete file are all additions.
+	 */
+	public enum RecordStatus {
+		ADDED, CHANGED, DELETED;
+
+		/**
+		 * @param code the letter used in the CSV
+		 * @return the matching status, or null if the code is not recognised
+		 */
+		public static RecordStatus parse(char code) {
+			switch (code) {
+				case 'A':
+					return ADDED;
+				case 'C':
+					return CHANGED;
+				case 'D':
+					return DELETED;
+				default:
+					return null;
+			}
+		}
+	}
+
+	private String transactionId;
+	private long pricePaid;
+	private LocalDate transactionDate;
+	private String postcode;
+	private PropertyType propertyType;
+	private boolean newBuild;
+	private EstateType estateType;
+	private String paon;
+	private String saon;
+	private String street;
+	private String locality;
+	private String town;
+	private String district;
+	private String county;
+	private TransactionCategory transactionCategory;
+	private RecordStatus recordStatus;
+
+	public String getTransactionId() {
+		return transactionId;
+	}
+
+	public void setTransactionId(String transactionId) {
+		this.transactionId = transactionId;
+	}
+
+	public long getPricePaid() {
+		return pricePaid;
+	}
+
+	public void setPricePaid(long pricePaid) {
+		this.pricePaid = pricePaid;
+	}
+
+	public LocalDate getTransactionDate() {
+		return transactionDate;
+	}
+
+	public void setTransactionDate(LocalDate transactionDate) {
+		this.transactionDate = transactionDate;
+	}
+
+	public String getPostcode() {
+		return postcode;
+	}
+
+	public void setPostcode(String postcode) {
+		this.postcode = postcode;
+	}
+
+	public PropertyType getPropertyType() {
+		return propertyType;
+	}
+
+	public void setPropertyType(PropertyType propertyType) {
+		this.propertyType = propertyType;
+	}
+
+	public boolean isNewBuild() {
+		return newBuild;
+	}
+
+	public void setNewBuild(boolean newBuild) {
+		this.newBuild = newBuild;
+	}
+
+	public EstateType getEstateType() {
+		return estateType;
+	}
+
+	public void setEstateType(EstateType estateType) {
+		this.estateType = estateType;
+	}
+
+	public String getPaon() {
+		return paon;
+	}
+
+	public void setPaon(String paon) {
+		this.paon = paon;
+	}
+
+	public String getSaon() {
+		return saon;
+	}
+
+	public void setSaon(String saon) {
+		this.saon = saon;
+	}
+
+	public String getStreet() {
+		return street;
+	}
+
+	public void setStreet(String street) {
+		this.street = street;
+	}
+
+	public String getLocality() {
+		return locality;
+	}
+
+	public void setLocality(String locality) {
+		this.locality = locality;
+	}
+
+	public String getTown() {
+		return town;
+	}
+
+	public void setTown(String town) {
+		this.town = town;
+	}
+
+	public String getDistrict() {
+		return district;
+	}
+
+	public void setDistrict(String district) {
+		this.district = district;
+	}
+
+	public String getCounty() {
+		return county;
+	}
+
+	public void setCounty(String county) {
+		this.county = county;
+	}
+
+	public TransactionCategory getTransactionCategory() {
+		return transactionCategory;
+	}
+
+	public void setTransactionCategory(TransactionCategory transactionCategory) {
+		this.transactionCategory = transactionCategory;
+	}
+
+	public RecordStatus getRecordStatus() {
+		return recordStatus;
+	}
+
+	public void setRecordStatus(RecordStatus recordStatus) {
+		this.recordStatus = recordStatus;
+	}
+}
@@ -0,0 +1,55 @@
+package asegroup1.api.models.landregistry;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidParameterException;
+import java.util.zip.CRC32;
+
+/**
+ * How aggregated postcode groups are picked when a viewport contains more
+ * groups than can be returned.
+ */
+public enum SamplingMode {
+	/**
+	 * A new random subset on every request
+	 */
+	RANDOM,
+	/**
+	 * The groups with the lowest {@link #getSampleRank sample rank}, so the same
+	 * viewport always returns the same subset
+	 */
+	DETERMINISTIC;
+
+	/**
+	 * Parses the sampling mode requested by a client, ignoring case.
+	 *
+	 * @param mode name of the mode, or null for the default
+	 * @param defaultMode returned if mode is null or empty
+	 * @return the matching sampling mode
+	 * @throws InvalidParameterException if the mode is not recognised
+	 */
+	public static SamplingMode parse(String mode, SamplingMode defaultMode) {
+		if (mode == null || mode.isEmpty()) {
+			return defaultMode;
+		}
+		for (SamplingMode samplingMode : values()) {
+			if (samplingMode.name().equalsIgnoreCase(mode)) {
+				return samplingMode;
+			}
+		}
+		throw new InvalidParameterException("Unknown sampling mode \"" + mode + "\", expected one of RANDOM or DETERMINISTIC");
+	}
+
+	/**
+	 * Ranks a postcode group for deterministic sampling. This is the CRC-32 of
+	 * the aggregated postcode, so it matches MySQL's CRC32(postcode_aggregate)
+	 * and every data source picks the same groups.
+	 *
+	 * @param postcodePrefix the aggregated postcode, e.g. "BN14 "
+	 * @return rank between 0 and 2^32 - 1
+	 */
+	public static long getSampleRank(String postcodePrefix) {
+		CRC32 crc = new CRC32();
+		crc.update(postcodePrefix.getBytes(StandardCharsets.US_ASCII));
+		return crc.getValue();
+	}
+}
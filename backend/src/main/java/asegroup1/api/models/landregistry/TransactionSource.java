@@ -0,0 +1,17 @@
+package asegroup1.api.models.landregistry;
+
+/**
+ * Where transactions are queried from, chosen per deployment with
+ * landregistry.transaction-source.
+ */
+public enum TransactionSource {
+	/**
+	 * Query the Land Registry's SPARQL endpoint
+	 */
+	SPARQL,
+	/**
+	 * Query the transactions table, which is filled by importing the Price Paid
+	 * Data CSV
+	 */
+	LOCAL
+}
@@ -0,0 +1,169 @@
+package asegroup1.api.services.cache;
+
+import asegroup1.api.models.CacheStatistics;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * A size bounded, thread safe cache. Once full the least recently used entry
+ * is evicted, and entries older than the time to live are never returned.
+ */
+public class ExpiringLruCache<K, V> {
+
+	/**
+	 * Told about keys as they are added to and removed from the cache. It is
+	 * called while the cache is locked, so it must not call back into the cache.
+	 */
+	public interface KeyListener<K> {
+		void onAdded(K key);
+
+		void onRemoved(K key);
+	}
+
+	private final int maxSize;
+	private final long ttlMillis;
+	private final LongSupplier clock;
+	private final KeyListener<? super K> listener;
+	private final LinkedHashMap<K, CacheEntry<V>> entries;
+
+	private long hits, misses, evictions, expirations, invalidations;
+
+	/**
+	 * @param maxSize   maximum number of entries held
+	 * @param ttlMillis how long an entry may be returned for after it is added
+	 */
+	public ExpiringLruCache(int maxSize, long ttlMillis) {
+		this(maxSize, ttlMillis, System::currentTimeMillis, null);
+	}
+
+	/**
+	 * @param maxSize   maximum number of entries held
+	 * @param ttlMillis how long an entry may be returned for after it is added
+	 * @param listener  told about every key added or removed, or null
+	 */
+	public ExpiringLruCache(int maxSize, long ttlMillis, KeyListener<? super K> listener) {
+		this(maxSize, ttlMillis, System::currentTimeMillis, listener);
+	}
+
+	ExpiringLruCache(int maxSize, long ttlMillis, LongSupplier clock) {
+		this(maxSize, ttlMillis, clock, null);
+	}
+
+	ExpiringLruCache(int maxSize, long ttlMillis, LongSupplier clock, KeyListener<? super K> listener) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("Cache size must be positive");
+		}
+		this.maxSize = maxSize;
+		this.ttlMillis = ttlMillis;
+		this.clock = clock;
+		this.listener = listener;
+		// Access order makes the eldest entry the least recently used
+		this.entries = new LinkedHashMap<K, CacheEntry<V>>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+				if (size() > ExpiringLruCache.this.maxSize) {
+					evictions++;
+					notifyRemoved(eldest.getKey());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * @param key to look up
+	 * @return the cached value, or null if it is absent or has expired
+	 */
+	public synchronized V get(K key) {
+		CacheEntry<V> entry = entries.get(key);
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		if (entry.expiresAt <= clock.getAsLong()) {
+			entries.remove(key);
+			notifyRemoved(key);
+			expirations++;
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.value;
+	}
+
+	public synchronized void put(K key, V value) {
+		entries.put(key, new CacheEntry<>(value, clock.getAsLong() + ttlMillis));
+		if (listener != null) {
+			listener.onAdded(key);
+		}
+	}
+
+	/**
+	 * @return true if an entry was removed
+	 */
+	public synchronized boolean invalidate(K key) {
+		if (entries.remove(key) != null) {
+			notifyRemoved(key);
+			invalidations++;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Removes every entry whose key matches the predicate.
+	 *
+	 * @return the number of entries removed
+	 */
+	public synchronized int invalidateIf(Predicate<? super K> predicate) {
+		int removed = 0;
+		Iterator<K> keys = entries.keySet().iterator();
+		while (keys.hasNext()) {
+			K key = keys.next();
+			if (predicate.test(key)) {
+				keys.remove();
+				notifyRemoved(key);
+				removed++;
+			}
+		}
+		invalidations += removed;
+		return removed;
+	}
+
+	public synchronized void invalidateAll() {
+		invalidations += entries.size();
+		for (K key : entries.keySet()) {
+			notifyRemoved(key);
+		}
+		entries.clear();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized CacheStatistics getStatistics() {
+		return new CacheStatistics(entries.size(), maxSize, hits, misses, evictions, expirations, invalidations);
+	}
+
+	private void notifyRemoved(K key) {
+		if (listener != null) {
+			listener.onRemoved(key);
+		}
+	}
+
+	private static final class CacheEntry<V> {
+		private final V value;
+		private final long expiresAt;
+
+		private CacheEntry(V value, long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
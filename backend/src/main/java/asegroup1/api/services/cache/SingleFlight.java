@@ -0,0 +1,168 @@
+package asegroup1.api.services.cache;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls with the same key, so that only the first caller
+ * makes the call and everyone who asks while it is in flight shares its result
+ * or failure. Nothing is kept once the call completes, so a later caller
+ * always makes a fresh call.
+ *
+ * Shared results are handed to every waiting caller, so they must not be
+ * modified.
+ */
+public class SingleFlight<K, V> {
+
+	@FunctionalInterface
+	public interface Call<V, E extends Exception> {
+		V call() throws E;
+	}
+
+	private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+	private final AtomicLong calls = new AtomicLong();
+	private final AtomicLong sharedCalls = new AtomicLong();
+
+	/**
+	 * Makes the call on this thread, or waits for the identical call already in
+	 * flight. If the caller making the call is interrupted, its failure is not
+	 * shared, and the callers waiting for it make the call again instead.
+	 *
+	 * @throws E the exception thrown by whichever caller made the call
+	 */
+	@SuppressWarnings("unchecked")
+	public <E extends Exception> V execute(K key, Call<V, E> call) throws E {
+		while (true) {
+			CompletableFuture<V> flight = new CompletableFuture<>();
+			CompletableFuture<V> existingFlight = inFlight.putIfAbsent(key, flight);
+
+			if (existingFlight != null) {
+				sharedCalls.incrementAndGet();
+				try {
+					return existingFlight.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new CompletionException(e);
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof AbandonedCallException) {
+						continue;
+					}
+					if (cause instanceof RuntimeException) {
+						throw (RuntimeException) cause;
+					}
+					if (cause instanceof Error) {
+						throw (Error) cause;
+					}
+					// Anything else was thrown by a call of the same type, so can only be an E
+					throw (E) cause;
+				}
+			}
+
+			calls.incrementAndGet();
+			V result;
+			try {
+				result = call.call();
+			} catch (Exception | Error e) {
+				// Removed before completing, so callers retrying an abandoned call start a fresh one
+				inFlight.remove(key, flight);
+				flight.completeExceptionally(wasInterrupted(e) ? new AbandonedCallException() : e);
+				throw e;
+			}
+			inFlight.remove(key, flight);
+			flight.complete(result);
+			return result;
+		}
+	}
+
+	/**
+	 * Starts the call, or joins the identical call already in flight. Each
+	 * caller gets its own future, so cancelling it does not affect the call or
+	 * the other callers.
+	 */
+	public CompletableFuture<V> executeAsync(K key, Supplier<CompletableFuture<V>> call) {
+		CompletableFuture<V> flight = new CompletableFuture<>();
+		CompletableFuture<V> existingFlight = inFlight.putIfAbsent(key, flight);
+
+		if (existingFlight != null) {
+			sharedCalls.incrementAndGet();
+			return existingFlight.thenApply(Function.identity());
+		}
+
+		calls.incrementAndGet();
+		CompletableFuture<V> result;
+		try {
+			result = call.get();
+		} catch (RuntimeException | Error e) {
+			inFlight.remove(key, flight);
+			flight.completeExceptionally(e);
+			return flight.thenApply(Function.identity());
+		}
+		result.whenComplete((value, failure) -> {
+			// Removed before completing, so callers arriving afterwards start a fresh call
+			inFlight.remove(key, flight);
+			if (failure == null) {
+				flight.complete(value);
+			} else {
+				flight.completeExceptionally(failure);
+			}
+		});
+		return flight.thenApply(Function.identity());
+	}
+
+	/**
+	 * @return true if the call failed because the thread making it was interrupted
+	 */
+	private static boolean wasInterrupted(Throwable failure) {
+		if (Thread.currentThread().isInterrupted()) {
+			return true;
+		}
+		for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+			if (cause instanceof InterruptedException || cause instanceof InterruptedIOException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Completes a call abandoned by the caller making it, telling the callers
+	 * waiting for it to make the call themselves
+	 */
+	private static final class AbandonedCallException extends RuntimeException {
+		private static final long serialVersionUID = 4409214470127153823L;
+
+		private AbandonedCallException() {
+			super(null, null, false, false);
+		}
+	}
+
+	/**
+	 * @return number of calls currently in flight
+	 */
+	public int getInFlight() {
+		return inFlight.size();
+	}
+
+	/**
+	 * @return number of calls made
+	 */
+	public long getCalls() {
+		return calls.get();
+	}
+
+	/**
+	 * @return number of callers that shared a call already in flight instead of
+	 *         making their own
+	 */
+	public long getSharedCalls() {
+		return sharedCalls.get();
+	}
+}
@@ -0,0 +1,267 @@
+package asegroup1.api.services.geocoding;
+
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.StringJoiner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.mashape.unirest.http.exceptions.UnirestException;
+
+import asegroup1.api.controllers.LandRegistryController;
+import asegroup1.api.daos.geocoding.GeocodeCacheDaoImpl;
+import asegroup1.api.daos.landregistry.LandRegistryDaoImpl;
+import asegroup1.api.models.GeocodedAddress;
+import asegroup1.api.services.ServiceImpl;
+import asegroup1.api.services.cache.ExpiringLruCache;
+import asegroup1.api.services.metrics.MetricsServiceImpl;
+
+/**
+ * Geocodes addresses through the Google geocoding API, remembering every
+ * position found. Positions are looked up in an in memory cache, then in the
+ * geocode_cache table, and only requested from Google if neither holds them.
+ * Positions geocoded longer ago than the time to live are requested again,
+ * replacing the stored row.
+ *
+ * Batches of addresses are geocoded concurrently by a bounded pool of threads,
+ * with requests to Google rate limited.
+ */
+
+@Service
+public class GeocodingServiceImpl extends ServiceImpl<GeocodedAddress> {
+
+	private final static Logger logger = LogManager.getLogger(LandRegistryController.class);
+
+	/**
+	 * Longest address key that fits in the geocode_cache table
+	 */
+	static final int MAX_ADDRESS_KEY_LENGTH = 255;
+
+	/**
+	 * Most lookups waiting for a geocoding thread, beyond which lookups are skipped
+	 */
+	private static final int MAX_QUEUED_LOOKUPS = 1000;
+
+	private GeocodeCacheDaoImpl geocodeCacheDao;
+	private LandRegistryDaoImpl landRegistryDao;
+	private MetricsServiceImpl metricsService;
+
+	private final int maxEntries;
+	private final long ttlDays;
+	private final int maxConcurrency;
+	private final double requestsPerSecond;
+	private final long requestTimeoutMillis;
+
+	private ExpiringLruCache<String, GeocodedAddress> memoryCache;
+	private ThreadPoolExecutor executor;
+	private RateLimiter rateLimiter;
+
+	private final AtomicLong databaseHits = new AtomicLong();
+	private final AtomicLong remoteLookups = new AtomicLong();
+	private final AtomicLong failedLookups = new AtomicLong();
+	private final AtomicLong timedOutLookups = new AtomicLong();
+
+	@Autowired
+	public GeocodingServiceImpl(GeocodeCacheDaoImpl geocodeCacheDao, LandRegistryDaoImpl landRegistryDao, MetricsServiceImpl metricsService,
+			@Value("${geocoding.cache.max-entries:10000}") int maxEntries,
+			@Value("${geocoding.cache.ttl-days:30}") long ttlDays,
+			@Value("${geocoding.max-concurrency:10}") int maxConcurrency,
+			@Value("${geocoding.requests-per-second:40}") double requestsPerSecond,
+			@Value("${geocoding.request-timeout-ms:5000}") long requestTimeoutMillis) {
+		super(geocodeCacheDao);
+		this.geocodeCacheDao = geocodeCacheDao;
+		this.landRegistryDao = landRegistryDao;
+		this.metricsService = metricsService;
+		this.maxEntries = maxEntries;
+		this.ttlDays = ttlDays;
+		this.maxConcurrency = maxConcurrency;
+		this.requestsPerSecond = requestsPerSecond;
+		this.requestTimeoutMillis = requestTimeoutMillis;
+	}
+
+	@PostConstruct
+	public void initialise() {
+		memoryCache = new ExpiringLruCache<>(maxEntries, TimeUnit.DAYS.toMillis(ttlDays));
+		rateLimiter = new RateLimiter(requestsPerSecond);
+
+		AtomicInteger threadCount = new AtomicInteger();
+		executor = new ThreadPoolExecutor(maxConcurrency, maxConcurrency, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(MAX_QUEUED_LOOKUPS), runnable -> {
+					Thread thread = new Thread(runnable, "geocoder-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		executor.allowCoreThreadTimeOut(true);
+
+		if (metricsService != null) {
+			metricsService.register("geocoding.cache", memoryCache::getStatistics);
+			metricsService.register("geocoding.database-hits", databaseHits::get);
+			metricsService.register("geocoding.remote-lookups", remoteLookups::get);
+			metricsService.register("geocoding.failed-lookups", failedLookups::get);
+			metricsService.register("geocoding.timed-out-lookups", timedOutLookups::get);
+			metricsService.register("geocoding.queued-lookups", () -> executor.getQueue().size());
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Builds the address sent to the geocoding API, and used as its cache key,
+	 * from its components. Components are upper cased and trimmed, empty
+	 * components are skipped and spaces are replaced with '+'.
+	 *
+	 * @param components of the address, e.g. paon, street and town
+	 * @return the normalised address, e.g. "12+HIGH+STREET+WORTHING"
+	 */
+	public static String normaliseAddress(String... components) {
+		StringJoiner address = new StringJoiner("+");
+		for (String component : components) {
+			if (component != null && !component.trim().isEmpty()) {
+				address.add(component.trim().toUpperCase().replaceAll("\\s+", "+"));
+			}
+		}
+		return address.toString();
+	}
+
+	/**
+	 * Find the position of an address.
+	 *
+	 * @param normalisedAddress address built by {@link #normaliseAddress(String...)}
+	 * @return the position of the address
+	 * @throws UnirestException if the geocoding API could not be reached
+	 * @throws org.json.JSONException if the geocoding API could not find the address
+	 */
+	public GeocodedAddress getPosition(String normalisedAddress) throws UnirestException {
+		return getPosition(normalisedAddress, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(requestTimeoutMillis));
+	}
+
+	/**
+	 * Find the positions of many addresses at once. Lookups run concurrently, so
+	 * the whole batch takes about as long as its slowest lookup. Each lookup has
+	 * its own request timeout, starting once a geocoding thread picks it up, and
+	 * the batch is returned after the request timeout even if lookups are still
+	 * running. Those are left to finish, so their positions are cached for the
+	 * next request.
+	 *
+	 * @param normalisedAddresses addresses built by {@link #normaliseAddress(String...)}
+	 * @return the position of each address that was found, addresses that failed or timed out are left out
+	 */
+	public Map<String, GeocodedAddress> getPositions(Collection<String> normalisedAddresses) {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(requestTimeoutMillis);
+
+		LinkedHashMap<String, Future<GeocodedAddress>> lookups = new LinkedHashMap<>();
+		for (String normalisedAddress : normalisedAddresses) {
+			if (lookups.containsKey(normalisedAddress)) {
+				continue;
+			}
+			try {
+				lookups.put(normalisedAddress, executor.submit(() -> getPosition(normalisedAddress)));
+			} catch (RejectedExecutionException e) {
+				failedLookups.incrementAndGet();
+				logger.warn("Geocoding queue is full, skipping " + normalisedAddress);
+			}
+		}
+
+		HashMap<String, GeocodedAddress> positions = new HashMap<>();
+		for (Entry<String, Future<GeocodedAddress>> lookup : lookups.entrySet()) {
+			try {
+				positions.put(lookup.getKey(), lookup.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+			} catch (TimeoutException e) {
+				timedOutLookups.incrementAndGet();
+				logger.warn("Timed out geocoding " + lookup.getKey());
+			} catch (ExecutionException e) {
+				failedLookups.incrementAndGet();
+				logger.error("Could not retrieve address for " + lookup.getKey(), e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+
+		// Lookups still waiting for a thread are no longer wanted, running ones are bounded by their own timeouts
+		for (Future<GeocodedAddress> lookup : lookups.values()) {
+			lookup.cancel(false);
+		}
+		return positions;
+	}
+
+	private GeocodedAddress getPosition(String normalisedAddress, long deadline) throws UnirestException {
+		GeocodedAddress position = memoryCache.get(normalisedAddress);
+		if (position != null && isFresh(position)) {
+			return position;
+		}
+
+		if (normalisedAddress.length() <= MAX_ADDRESS_KEY_LENGTH) {
+			position = null;
+			try {
+				position = geocodeCacheDao.get(normalisedAddress);
+			} catch (RuntimeException e) {
+				logger.warn("Unable to read geocode cache for " + normalisedAddress, e);
+			}
+			if (position != null && isFresh(position)) {
+				databaseHits.incrementAndGet();
+				memoryCache.put(normalisedAddress, position);
+				return position;
+			}
+		}
+
+		try {
+			if (!rateLimiter.acquire(deadline)) {
+				throw new UnirestException("Geocoding rate limit would be exceeded before the request timed out");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new UnirestException(e);
+		}
+
+		remoteLookups.incrementAndGet();
+		JSONObject location = landRegistryDao.getGeoLocationData(normalisedAddress);
+		position = new GeocodedAddress(normalisedAddress, location.getDouble("lat"), location.getDouble("lng"),
+				new Timestamp(System.currentTimeMillis()));
+
+		if (normalisedAddress.length() <= MAX_ADDRESS_KEY_LENGTH) {
+			try {
+				// Merged rather than persisted, as another request may have geocoded the same address meanwhile
+				geocodeCacheDao.update(position);
+			} catch (RuntimeException e) {
+				logger.warn("Unable to store geocode cache entry for " + normalisedAddress, e);
+			}
+		}
+		memoryCache.put(normalisedAddress, position);
+		return position;
+	}
+
+	/**
+	 * @return true if the position was geocoded within the time to live
+	 */
+	private boolean isFresh(GeocodedAddress position) {
+		Timestamp geocoded = position.getGeocoded();
+		return geocoded != null && geocoded.getTime() > System.currentTimeMillis() - TimeUnit.DAYS.toMillis(ttlDays);
+	}
+}
@@ -0,0 +1,50 @@
+package asegroup1.api.services.geocoding;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spaces calls evenly so that no more than a fixed number are made each
+ * second. Callers are given the next free slot and wait until it arrives.
+ */
+public class RateLimiter {
+
+	private final long intervalNanos;
+	private long nextFreeSlot;
+
+	/**
+	 * @param permitsPerSecond maximum number of calls each second
+	 */
+	public RateLimiter(double permitsPerSecond) {
+		if (!(permitsPerSecond > 0)) {
+			throw new IllegalArgumentException("Permits per second must be positive");
+		}
+		this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+		this.nextFreeSlot = System.nanoTime();
+	}
+
+	/**
+	 * Waits for a permit, giving up straight away if one would not be available
+	 * before the deadline.
+	 *
+	 * @param deadlineNanos latest {@link System#nanoTime()} the caller will wait until
+	 * @return true if a permit was acquired, false if it would arrive too late
+	 * @throws InterruptedException if interrupted whilst waiting
+	 */
+	public boolean acquire(long deadlineNanos) throws InterruptedException {
+		long slot;
+		synchronized (this) {
+			long now = System.nanoTime();
+			slot = Math.max(now, nextFreeSlot);
+			if (slot - deadlineNanos > 0) {
+				return false;
+			}
+			nextFreeSlot = slot + intervalNanos;
+		}
+
+		long wait = slot - System.nanoTime();
+		if (wait > 0) {
+			TimeUnit.NANOSECONDS.sleep(wait);
+		}
+		return true;
+	}
+}
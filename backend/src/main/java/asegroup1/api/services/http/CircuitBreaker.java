@@ -0,0 +1,152 @@
+package asegroup1.api.services.http;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Stops requests being sent to an upstream that is failing. The outcomes of
+ * the most recent requests are tracked, and once enough of them have failed
+ * the breaker opens and rejects requests straight away. After a while a single
+ * probe request is let through, which closes the breaker if it succeeds and
+ * opens it again if it fails.
+ */
+public class CircuitBreaker {
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final int minimumRequests;
+	private final double failureRateThreshold;
+	private final long openMillis;
+	private final LongSupplier clock;
+
+	// Ring buffer of the most recent outcomes, true for a failure
+	private final boolean[] outcomes;
+	private int outcomeCount;
+	private int nextOutcome;
+	private int failures;
+
+	private State state = State.CLOSED;
+	private long openedAt;
+	private boolean probeInFlight;
+
+	private long timesOpened;
+	private long rejectedRequests;
+
+	/**
+	 * @param windowSize           number of recent requests the failure rate is taken over
+	 * @param minimumRequests      fewest requests in the window before the breaker can open
+	 * @param failureRateThreshold fraction of failed requests at which the breaker opens
+	 * @param openMillis           how long the breaker stays open before probing the upstream
+	 */
+	public CircuitBreaker(int windowSize, int minimumRequests, double failureRateThreshold, long openMillis) {
+		this(windowSize, minimumRequests, failureRateThreshold, openMillis, System::currentTimeMillis);
+	}
+
+	CircuitBreaker(int windowSize, int minimumRequests, double failureRateThreshold, long openMillis, LongSupplier clock) {
+		if (windowSize <= 0) {
+			throw new IllegalArgumentException("Window size must be positive");
+		}
+		this.outcomes = new boolean[windowSize];
+		this.minimumRequests = Math.max(1, Math.min(minimumRequests, windowSize));
+		this.failureRateThreshold = failureRateThreshold;
+		this.openMillis = openMillis;
+		this.clock = clock;
+	}
+
+	/**
+	 * Check if a request may be sent. Every permitted request must be followed by
+	 * a call to {@link #onSuccess()} or {@link #onFailure()}.
+	 *
+	 * @return false if the breaker is open, or half open with a probe already in flight
+	 */
+	public synchronized boolean tryAcquire() {
+		if (state == State.OPEN && clock.getAsLong() - openedAt >= openMillis) {
+			state = State.HALF_OPEN;
+		}
+		if (state == State.CLOSED) {
+			return true;
+		}
+		if (state == State.HALF_OPEN && !probeInFlight) {
+			probeInFlight = true;
+			return true;
+		}
+		rejectedRequests++;
+		return false;
+	}
+
+	public synchronized void onSuccess() {
+		if (state == State.HALF_OPEN) {
+			close();
+		} else if (state == State.CLOSED) {
+			record(false);
+		}
+	}
+
+	public synchronized void onFailure() {
+		if (state == State.HALF_OPEN) {
+			open();
+		} else if (state == State.CLOSED) {
+			record(true);
+			if (outcomeCount >= minimumRequests && getFailureRate() >= failureRateThreshold) {
+				open();
+			}
+		}
+	}
+
+	private void record(boolean failure) {
+		if (outcomeCount == outcomes.length) {
+			if (outcomes[nextOutcome]) {
+				failures--;
+			}
+		} else {
+			outcomeCount++;
+		}
+		outcomes[nextOutcome] = failure;
+		if (failure) {
+			failures++;
+		}
+		nextOutcome = (nextOutcome + 1) % outcomes.length;
+	}
+
+	private void open() {
+		state = State.OPEN;
+		openedAt = clock.getAsLong();
+		probeInFlight = false;
+		timesOpened++;
+	}
+
+	private void close() {
+		state = State.CLOSED;
+		probeInFlight = false;
+		outcomeCount = 0;
+		nextOutcome = 0;
+		failures = 0;
+	}
+
+	public synchronized State getState() {
+		// Reported as half open once a probe would be let through
+		if (state == State.OPEN && clock.getAsLong() - openedAt >= openMillis) {
+			return State.HALF_OPEN;
+		}
+		return state;
+	}
+
+	/**
+	 * @return fraction of the requests in the window that failed
+	 */
+	public synchronized double getFailureRate() {
+		return outcomeCount == 0 ? 0 : failures / (double) outcomeCount;
+	}
+
+	public synchronized long getTimesOpened() {
+		return timesOpened;
+	}
+
+	/**
+	 * @return number of requests rejected while the breaker was not closed
+	 */
+	public synchronized long getRejectedRequests() {
+		return rejectedRequests;
+	}
+}
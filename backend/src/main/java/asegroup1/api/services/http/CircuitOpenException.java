@@ -0,0 +1,16 @@
+package asegroup1.api.services.http;
+
+import com.mashape.unirest.http.exceptions.UnirestException;
+
+/**
+ * Thrown when a request is not sent because the circuit breaker for its
+ * upstream is open
+ */
+public class CircuitOpenException extends UnirestException {
+
+	private static final long serialVersionUID = -2870165493720347731L;
+
+	public CircuitOpenException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,241 @@
+package asegroup1.api.services.http;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.mashape.unirest.http.Unirest;
+import com.mashape.unirest.http.exceptions.UnirestException;
+import com.mashape.unirest.http.options.Option;
+import com.mashape.unirest.http.options.Options;
+
+import asegroup1.api.controllers.LandRegistryController;
+import asegroup1.api.services.metrics.MetricsServiceImpl;
+
+/**
+ * Sends requests to the services the API depends on through Unirest's pooled
+ * client, which keeps keep alive connections. Requests have connect and read
+ * timeouts and an overall deadline, after which they are aborted, and the
+ * requests in flight to each upstream are limited, with the rest waiting in a
+ * queue for at most the same deadline. A slow upstream therefore cannot tie up
+ * the threads serving other requests for longer than that.
+ *
+ * Each upstream also has a {@link CircuitBreaker}, so while an upstream is
+ * failing requests to it fail straight away rather than waiting to time out.
+ */
+@Service
+public class HttpClientServiceImpl {
+
+	private final static Logger logger = LogManager.getLogger(LandRegistryController.class);
+
+	/**
+	 * The services requests are sent to, each with its own concurrency limit
+	 */
+	public enum Upstream {
+		LAND_REGISTRY, GEOCODING
+	}
+
+	private final long connectTimeoutMillis;
+	private final long readTimeoutMillis;
+	private final long requestTimeoutMillis;
+	private final int maxConnections;
+	private final int maxConnectionsPerRoute;
+	private final int maxQueuedRequests;
+	private final int landRegistryMaxConcurrency;
+	private final int geocodingMaxConcurrency;
+	private final int circuitBreakerWindowSize;
+	private final int circuitBreakerMinimumRequests;
+	private final double circuitBreakerFailureRateThreshold;
+	private final long circuitBreakerOpenMillis;
+
+	private final MetricsServiceImpl metricsService;
+
+	private final Map<Upstream, UpstreamLimiter> limiters = new EnumMap<>(Upstream.class);
+	private final Map<Upstream, CircuitBreaker> circuitBreakers = new EnumMap<>(Upstream.class);
+	private final AtomicLong rejectedRequests = new AtomicLong();
+	private final AtomicLong timedOutRequests = new AtomicLong();
+
+	// Aborts requests still running at their deadline
+	private final ScheduledExecutorService deadlines = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "http-request-deadlines");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	@Autowired
+	public HttpClientServiceImpl(MetricsServiceImpl metricsService,
+			@Value("${http.connect-timeout-ms:5000}") long connectTimeoutMillis,
+			@Value("${http.read-timeout-ms:20000}") long readTimeoutMillis,
+			@Value("${http.request-timeout-ms:30000}") long requestTimeoutMillis,
+			@Value("${http.max-connections:100}") int maxConnections,
+			@Value("${http.max-connections-per-route:20}") int maxConnectionsPerRoute,
+			@Value("${http.max-queued-requests:500}") int maxQueuedRequests,
+			@Value("${http.landregistry.max-concurrency:8}") int landRegistryMaxConcurrency,
+			@Value("${http.geocoding.max-concurrency:10}") int geocodingMaxConcurrency,
+			@Value("${http.circuit-breaker.window-size:20}") int circuitBreakerWindowSize,
+			@Value("${http.circuit-breaker.minimum-requests:10}") int circuitBreakerMinimumRequests,
+			@Value("${http.circuit-breaker.failure-rate-threshold:0.5}") double circuitBreakerFailureRateThreshold,
+			@Value("${http.circuit-breaker.open-ms:30000}") long circuitBreakerOpenMillis) {
+		this.metricsService = metricsService;
+		this.connectTimeoutMillis = connectTimeoutMillis;
+		this.readTimeoutMillis = readTimeoutMillis;
+		this.requestTimeoutMillis = requestTimeoutMillis;
+		this.maxConnections = maxConnections;
+		this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+		this.maxQueuedRequests = maxQueuedRequests;
+		this.landRegistryMaxConcurrency = landRegistryMaxConcurrency;
+		this.geocodingMaxConcurrency = geocodingMaxConcurrency;
+		this.circuitBreakerWindowSize = circuitBreakerWindowSize;
+		this.circuitBreakerMinimumRequests = circuitBreakerMinimumRequests;
+		this.circuitBreakerFailureRateThreshold = circuitBreakerFailureRateThreshold;
+		this.circuitBreakerOpenMillis = circuitBreakerOpenMillis;
+	}
+
+	@PostConstruct
+	public void configure() {
+		// Both rebuild Unirest's connection pools, so the timeouts apply to every pooled connection
+		Unirest.setTimeouts(connectTimeoutMillis, readTimeoutMillis);
+		Unirest.setConcurrency(maxConnections, maxConnectionsPerRoute);
+
+		limiters.put(Upstream.LAND_REGISTRY, new UpstreamLimiter(landRegistryMaxConcurrency, maxQueuedRequests));
+		limiters.put(Upstream.GEOCODING, new UpstreamLimiter(geocodingMaxConcurrency, maxQueuedRequests));
+		for (Upstream upstream : Upstream.values()) {
+			circuitBreakers.put(upstream, new CircuitBreaker(circuitBreakerWindowSize, circuitBreakerMinimumRequests,
+					circuitBreakerFailureRateThreshold, circuitBreakerOpenMillis));
+		}
+
+		if (metricsService != null) {
+			for (Upstream upstream : Upstream.values()) {
+				String name = "http." + upstream.name().toLowerCase(Locale.ROOT).replace('_', '-');
+				UpstreamLimiter limiter = limiters.get(upstream);
+				metricsService.register(name + ".in-flight", limiter::getInFlight);
+				metricsService.register(name + ".queued", limiter::getQueued);
+
+				CircuitBreaker circuitBreaker = circuitBreakers.get(upstream);
+				metricsService.register(name + ".circuit-breaker.state", circuitBreaker::getState);
+				metricsService.register(name + ".circuit-breaker.failure-rate", circuitBreaker::getFailureRate);
+				metricsService.register(name + ".circuit-breaker.times-opened", circuitBreaker::getTimesOpened);
+				metricsService.register(name + ".circuit-breaker.rejected-requests", circuitBreaker::getRejectedRequests);
+			}
+			metricsService.register("http.rejected-requests", rejectedRequests::get);
+			metricsService.register("http.timed-out-requests", timedOutRequests::get);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		deadlines.shutdownNow();
+		try {
+			Unirest.shutdown();
+		} catch (IOException e) {
+			logger.warn("Unable to close HTTP connections", e);
+		}
+	}
+
+	/**
+	 * Send a request with Unirest's pooled blocking client, handing the response
+	 * to the handler while its body is still being received. The request waits
+	 * for the upstream to have capacity and goes through its circuit breaker.
+	 * The request timeout bounds the whole call, from waiting for capacity to
+	 * the handler reading the last of the body, and the request is aborted if
+	 * it is still running then.
+	 *
+	 * @param upstream the service the request is sent to
+	 * @param request  the request, which must not have been sent
+	 * @param handler  reads the response, which is released once it returns
+	 * @return the result of the handler
+	 * @throws UnirestException if too many requests are waiting for the upstream,
+	 *                          the request timeout passes, or a {@link CircuitOpenException}
+	 *                          if the upstream is failing
+	 * @throws IOException      if the request fails or the handler cannot read the response
+	 */
+	public <T> T execute(Upstream upstream, HttpUriRequest request, ResponseHandler<? extends T> handler)
+			throws IOException, UnirestException {
+		long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(requestTimeoutMillis);
+		UpstreamLimiter limiter = limiters.get(upstream);
+		CircuitBreaker circuitBreaker = circuitBreakers.get(upstream);
+
+		CompletableFuture<Void> permit = new CompletableFuture<>();
+		// A permit granted after the caller has given up is handed straight back
+		if (!limiter.submit(() -> {
+			if (!permit.complete(null)) {
+				limiter.release();
+			}
+		})) {
+			rejectedRequests.incrementAndGet();
+			throw new UnirestException("Too many requests are waiting for " + upstream);
+		}
+		try {
+			permit.get(requestTimeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			if (permit.cancel(false)) {
+				timedOutRequests.incrementAndGet();
+				throw new UnirestException("Request to " + upstream + " timed out after " + requestTimeoutMillis + "ms");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			if (!permit.cancel(false)) {
+				limiter.release();
+			}
+			throw new UnirestException(e);
+		} catch (ExecutionException e) {
+			// The permit is only ever completed normally
+			throw new IllegalStateException(e);
+		}
+
+		if (!circuitBreaker.tryAcquire()) {
+			limiter.release();
+			throw new CircuitOpenException("Requests to " + upstream + " are failing, try again later");
+		}
+
+		boolean[] responded = new boolean[1];
+		ScheduledFuture<?> deadline = deadlines.schedule(request::abort,
+				deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+		try {
+			HttpClient client = (HttpClient) Options.getOption(Option.HTTPCLIENT);
+			return client.execute(request, response -> {
+				responded[0] = true;
+				// Server errors count against the upstream, client errors are the fault of the request
+				if (response.getStatusLine().getStatusCode() >= 500) {
+					circuitBreaker.onFailure();
+				} else {
+					circuitBreaker.onSuccess();
+				}
+				return handler.handleResponse(response);
+			});
+		} catch (IOException | RuntimeException e) {
+			if (!responded[0]) {
+				circuitBreaker.onFailure();
+			}
+			if (request.isAborted()) {
+				timedOutRequests.incrementAndGet();
+				throw new UnirestException("Request to " + upstream + " timed out after " + requestTimeoutMillis + "ms");
+			}
+			throw e;
+		} finally {
+			deadline.cancel(false);
+			limiter.release();
+		}
+	}
+}
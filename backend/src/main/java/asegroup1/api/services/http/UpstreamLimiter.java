@@ -0,0 +1,73 @@
+package asegroup1.api.services.http;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the number of requests in flight to an upstream. Requests beyond the
+ * limit wait in a bounded queue, and are started by whichever thread releases
+ * a permit, so no thread is held while a request waits.
+ */
+class UpstreamLimiter {
+
+	private final int maxConcurrency;
+	private final int maxQueued;
+	private final Semaphore permits;
+	private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger queued = new AtomicInteger();
+
+	/**
+	 * @param maxConcurrency most requests in flight at once
+	 * @param maxQueued      most requests waiting to start, beyond which requests are rejected
+	 */
+	UpstreamLimiter(int maxConcurrency, int maxQueued) {
+		this.maxConcurrency = maxConcurrency;
+		this.maxQueued = maxQueued;
+		this.permits = new Semaphore(maxConcurrency);
+	}
+
+	/**
+	 * Start a request now if a permit is free, or once one is released. The
+	 * request must call {@link #release()} once it has finished.
+	 *
+	 * @param start starts the request
+	 * @return false if the queue is full, in which case the request is not started
+	 */
+	boolean submit(Runnable start) {
+		if (queued.incrementAndGet() > maxQueued) {
+			queued.decrementAndGet();
+			return false;
+		}
+		waiting.add(start);
+		drain();
+		return true;
+	}
+
+	void release() {
+		permits.release();
+		drain();
+	}
+
+	private void drain() {
+		while (!waiting.isEmpty() && permits.tryAcquire()) {
+			Runnable start = waiting.poll();
+			if (start == null) {
+				// Another thread took the request, so the permit is handed back
+				permits.release();
+				continue;
+			}
+			queued.decrementAndGet();
+			start.run();
+		}
+	}
+
+	int getInFlight() {
+		return maxConcurrency - permits.availablePermits();
+	}
+
+	int getQueued() {
+		return queued.get();
+	}
+}
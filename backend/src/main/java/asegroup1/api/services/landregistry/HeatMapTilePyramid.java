@@ -0,0 +1,294 @@
+package asegroup1.api.services.landregistry;
+
+import asegroup1.api.daos.landregistry.PostcodeSpatialIndex;
+import asegroup1.api.models.landregistry.LandRegistryData;
+import asegroup1.api.models.landregistry.SamplingMode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Heatmap points precomputed for every aggregation level, split into square
+ * tiles keyed by z/x/y.
+ *
+ * The zoom level z is the number of characters removed from each postcode
+ * before aggregating, matching the aggregation done by
+ * {@link PostcodeSpatialIndex#searchInBoundaries}, so z = 0 holds a point per
+ * postcode and z = 3 holds a point per postcode sector e.g. "BN14 ". Each
+ * aggregated point is stored in the tile containing its centre.
+ */
+public class HeatMapTilePyramid {
+
+	static final int MAX_ZOOM = 3;
+
+	/**
+	 * Width and height of a tile in degrees for each zoom level
+	 */
+	private static final double[] TILE_DEGREES = {0.125, 0.25, 0.5, 1};
+
+	private final List<HashMap<Long, Tile>> levels;
+
+	private HeatMapTilePyramid(List<HashMap<Long, Tile>> levels) {
+		this.levels = levels;
+	}
+
+	/**
+	 * Precompute the tiles for every zoom level from the postcodes held in the
+	 * spatial index.
+	 *
+	 * @param index to aggregate
+	 * @return the built pyramid
+	 */
+	public static HeatMapTilePyramid build(PostcodeSpatialIndex index) {
+		List<HashMap<Long, Tile>> levels = new ArrayList<>();
+
+		for (int z = 0; z <= MAX_ZOOM; z++) {
+			final int zoom = z;
+			HashMap<Long, Tile> tiles = new HashMap<>();
+
+			index.forEachPostcodeGroup(zoom, (postcodePrefix, latitude, longitude, averagePrice, radius, postcodeCount) -> {
+				int x = getTileX(longitude, zoom);
+				int y = getTileY(latitude, zoom);
+				tiles.computeIfAbsent(getTileKey(x, y), key -> new Tile(x, y))
+						.add(postcodePrefix, latitude, longitude, averagePrice, radius, postcodeCount);
+			});
+
+			tiles.values().forEach(Tile::trim);
+			levels.add(tiles);
+		}
+
+		return new HeatMapTilePyramid(levels);
+	}
+
+	/**
+	 * Get a single tile.
+	 *
+	 * @param z zoom level (0-3)
+	 * @param x tile column, counted eastwards from longitude -180
+	 * @param y tile row, counted northwards from latitude -90
+	 * @return the tile, or null if it holds no points
+	 */
+	public Tile getTile(int z, int x, int y) {
+		return levels.get(z).get(getTileKey(x, y));
+	}
+
+	/**
+	 * Estimates the number of priced postcodes inside the boundaries from the
+	 * coarsest tiles, assuming postcodes are spread evenly across each tile.
+	 */
+	int estimatePostcodeCount(double top, double right, double bottom, double left) {
+		double tileDegrees = TILE_DEGREES[MAX_ZOOM];
+		double estimate = 0;
+
+		for (Tile tile : getTilesInBoundaries(MAX_ZOOM, top, right, bottom, left)) {
+			double tileLeft = tile.getX() * tileDegrees - 180;
+			double tileBottom = tile.getY() * tileDegrees - 90;
+
+			double overlapWidth = Math.min(top, tileLeft + tileDegrees) - Math.max(bottom, tileLeft);
+			double overlapHeight = Math.min(right, tileBottom + tileDegrees) - Math.max(left, tileBottom);
+
+			if (overlapWidth > 0 && overlapHeight > 0) {
+				estimate += tile.getPostcodeCount() * (overlapWidth * overlapHeight) / (tileDegrees * tileDegrees);
+			}
+		}
+		return (int) Math.round(estimate);
+	}
+
+	/**
+	 * Collects the precomputed points inside the boundaries, from the zoom level
+	 * that the database query would have aggregated to, and samples them down to
+	 * the return count.
+	 *
+	 * As with {@link PostcodeSpatialIndex#searchInBoundaries}, top and bottom
+	 * bound the longitude and left and right bound the latitude.
+	 *
+	 * @param top         upper longitude bound
+	 * @param right       upper latitude bound
+	 * @param bottom      lower longitude bound
+	 * @param left        lower latitude bound
+	 * @param returnCount maximum number of points to return
+	 * @param sampling    how points are picked when there are more than the return count
+	 * @return aggregated points, in no particular order
+	 */
+	public List<LandRegistryData> getPointsInBoundaries(double top, double right, double bottom, double left, int returnCount,
+			SamplingMode sampling) {
+		int zoom = PostcodeSpatialIndex.getAggregationStrip(top, bottom, estimatePostcodeCount(top, right, bottom, left), returnCount);
+
+		List<Tile> tiles = new ArrayList<>(getTilesInBoundaries(zoom, top, right, bottom, left));
+		int pointCount = 0;
+		for (Tile tile : tiles) {
+			pointCount += tile.size();
+		}
+
+		// Flatten the points inside the bounds into one list of (tile, point) references
+		int[] tileIndexes = new int[pointCount];
+		int[] pointIndexes = new int[pointCount];
+		int matchCount = 0;
+		for (int t = 0; t < tiles.size(); t++) {
+			Tile tile = tiles.get(t);
+			for (int p = 0; p < tile.size(); p++) {
+				double latitude = tile.latitudes[p];
+				double longitude = tile.longitudes[p];
+				if (longitude > bottom && longitude < top && latitude > left && latitude < right) {
+					tileIndexes[matchCount] = t;
+					pointIndexes[matchCount] = p;
+					matchCount++;
+				}
+			}
+		}
+
+		int[] selected;
+		if (sampling == SamplingMode.DETERMINISTIC && matchCount > returnCount) {
+			long[] ranks = new long[matchCount];
+			for (int match = 0; match < matchCount; match++) {
+				ranks[match] = tiles.get(tileIndexes[match]).getSampleRank(pointIndexes[match]);
+			}
+			selected = PostcodeSpatialIndex.sampleGroupsByRank(ranks, matchCount, returnCount);
+		} else {
+			selected = PostcodeSpatialIndex.sampleGroups(matchCount, returnCount);
+		}
+
+		List<LandRegistryData> landRegistryDataList = new ArrayList<>(selected.length);
+		for (int match : selected) {
+			landRegistryDataList.add(tiles.get(tileIndexes[match]).toLandRegistryData(pointIndexes[match]));
+		}
+		return landRegistryDataList;
+	}
+
+	private Collection<Tile> getTilesInBoundaries(int zoom, double top, double right, double bottom, double left) {
+		HashMap<Long, Tile> level = levels.get(zoom);
+
+		int minX = getTileX(bottom, zoom);
+		int maxX = getTileX(top, zoom);
+		int minY = getTileY(left, zoom);
+		int maxY = getTileY(right, zoom);
+
+		List<Tile> tiles = new ArrayList<>();
+		if (maxX < minX || maxY < minY) {
+			return tiles;
+		}
+
+		// Very large viewports cover more tile positions than there are tiles
+		if ((long) (maxX - minX + 1) * (maxY - minY + 1) > level.size()) {
+			for (Tile tile : level.values()) {
+				if (tile.getX() >= minX && tile.getX() <= maxX && tile.getY() >= minY && tile.getY() <= maxY) {
+					tiles.add(tile);
+				}
+			}
+			return tiles;
+		}
+
+		for (int x = minX; x <= maxX; x++) {
+			for (int y = minY; y <= maxY; y++) {
+				Tile tile = level.get(getTileKey(x, y));
+				if (tile != null) {
+					tiles.add(tile);
+				}
+			}
+		}
+		return tiles;
+	}
+
+	static int getTileX(double longitude, int zoom) {
+		return (int) Math.floor((longitude + 180) / TILE_DEGREES[zoom]);
+	}
+
+	static int getTileY(double latitude, int zoom) {
+		return (int) Math.floor((latitude + 90) / TILE_DEGREES[zoom]);
+	}
+
+	private static long getTileKey(int x, int y) {
+		return ((long) x << 32) | (y & 0xffffffffL);
+	}
+
+	/**
+	 * The aggregated points whose centres fall inside one tile.
+	 */
+	public static class Tile {
+		private final int x, y;
+		private int size;
+		private int postcodeCount;
+		private String[] postcodePrefixes = new String[16];
+		private double[] latitudes = new double[16];
+		private double[] longitudes = new double[16];
+		private double[] radii = new double[16];
+		private long[] averagePrices = new long[16];
+		// CRC-32 of each postcode prefix, precomputed for deterministic sampling
+		private int[] sampleRanks = new int[16];
+
+		Tile(int x, int y) {
+			this.x = x;
+			this.y = y;
+		}
+
+		private void add(String postcodePrefix, double latitude, double longitude, long averagePrice, double radius, int postcodes) {
+			if (size == latitudes.length) {
+				postcodePrefixes = Arrays.copyOf(postcodePrefixes, size * 2);
+				latitudes = Arrays.copyOf(latitudes, size * 2);
+				longitudes = Arrays.copyOf(longitudes, size * 2);
+				radii = Arrays.copyOf(radii, size * 2);
+				averagePrices = Arrays.copyOf(averagePrices, size * 2);
+				sampleRanks = Arrays.copyOf(sampleRanks, size * 2);
+			}
+			postcodePrefixes[size] = postcodePrefix;
+			latitudes[size] = latitude;
+			longitudes[size] = longitude;
+			radii[size] = radius;
+			averagePrices[size] = averagePrice;
+			sampleRanks[size] = (int) SamplingMode.getSampleRank(postcodePrefix);
+			postcodeCount += postcodes;
+			size++;
+		}
+
+		private void trim() {
+			postcodePrefixes = Arrays.copyOf(postcodePrefixes, size);
+			latitudes = Arrays.copyOf(latitudes, size);
+			longitudes = Arrays.copyOf(longitudes, size);
+			radii = Arrays.copyOf(radii, size);
+			averagePrices = Arrays.copyOf(averagePrices, size);
+			sampleRanks = Arrays.copyOf(sampleRanks, size);
+		}
+
+		public int getX() {
+			return x;
+		}
+
+		public int getY() {
+			return y;
+		}
+
+		/**
+		 * @return the number of aggregated points in this tile
+		 */
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * @return the number of priced postcodes aggregated into this tile
+		 */
+		public int getPostcodeCount() {
+			return postcodeCount;
+		}
+
+		/**
+		 * @return the deterministic sampling rank of a point, see {@link SamplingMode#getSampleRank}
+		 */
+		public long getSampleRank(int point) {
+			return sampleRanks[point] & 0xffffffffL;
+		}
+
+		public LandRegistryData toLandRegistryData(int point) {
+			LandRegistryData landRegistryData = new LandRegistryData();
+			landRegistryData.setPostCode(postcodePrefixes[point]);
+			landRegistryData.setLatitude(latitudes[point]);
+			landRegistryData.setLongitude(longitudes[point]);
+			landRegistryData.setPricePaid(averagePrices[point]);
+			landRegistryData.setRadius(radii[point]);
+			return landRegistryData;
+		}
+	}
+}
@@ -0,0 +1,20 @@
+package asegroup1.api.services.landregistry;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published once a new {@link HeatMapTilePyramid} has replaced the previous
+ * one, so that results read from the old tiles can be discarded.
+ */
+public class HeatMapTilePyramidBuiltEvent extends ApplicationEvent {
+
+	private static final long serialVersionUID = -6438213927390917470L;
+
+	public HeatMapTilePyramidBuiltEvent(HeatMapTilePyramid pyramid) {
+		super(pyramid);
+	}
+
+	public HeatMapTilePyramid getPyramid() {
+		return (HeatMapTilePyramid) getSource();
+	}
+}
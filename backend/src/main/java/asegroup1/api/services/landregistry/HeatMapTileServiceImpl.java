@@ -0,0 +1,145 @@
+package asegroup1.api.services.landregistry;
+
+import asegroup1.api.controllers.LandRegistryController;
+import asegroup1.api.daos.landregistry.LandRegistryDaoImpl;
+import asegroup1.api.daos.landregistry.PostcodeSpatialIndex;
+import asegroup1.api.daos.landregistry.PostcodeSpatialIndexLoadedEvent;
+import asegroup1.api.models.landregistry.LandRegistryData;
+import asegroup1.api.models.landregistry.SamplingMode;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps a {@link HeatMapTilePyramid} built from the postcode spatial index, so
+ * that heatmap viewports can be served by looking up precomputed tiles.
+ *
+ * Rebuilds run on a background thread and the new pyramid is swapped in once
+ * it is complete, so requests keep reading the old pyramid in the meantime.
+ */
+@Service
+public class HeatMapTileServiceImpl {
+
+	private final static Logger logger = LogManager.getLogger(LandRegistryController.class);
+
+	private LandRegistryDaoImpl landRegistryDao;
+
+	private final ApplicationEventPublisher eventPublisher;
+	private final boolean tilePyramidEnabled;
+
+	// Null until the spatial index has loaded
+	private volatile HeatMapTilePyramid tilePyramid;
+
+	private ExecutorService tileBuilder;
+
+	// Set while a rebuild is waiting to start, so requests made in the meantime share it
+	private final AtomicBoolean rebuildPending = new AtomicBoolean();
+
+	@Autowired
+	public HeatMapTileServiceImpl(LandRegistryDaoImpl landRegistryDao, ApplicationEventPublisher eventPublisher,
+			@Value("${landregistry.tile-pyramid.enabled:true}") boolean tilePyramidEnabled) {
+		this.landRegistryDao = landRegistryDao;
+		this.eventPublisher = eventPublisher;
+		this.tilePyramidEnabled = tilePyramidEnabled;
+	}
+
+	@PostConstruct
+	public void initialise() {
+		tileBuilder = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "heatmap-tile-builder");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if (tileBuilder != null) {
+			tileBuilder.shutdownNow();
+		}
+	}
+
+	@EventListener
+	public void onSpatialIndexLoaded(PostcodeSpatialIndexLoadedEvent event) {
+		if (tilePyramidEnabled) {
+			buildTilePyramid(event.getIndex());
+		}
+	}
+
+	/**
+	 * Rebuild every tile from the current spatial index in the background, used
+	 * after average prices have been updated. Returns straight away, the new
+	 * tiles are served once they are all built.
+	 */
+	public void rebuildTilePyramid() {
+		if (!tilePyramidEnabled || landRegistryDao.getSpatialIndex() == null) {
+			return;
+		}
+		// A rebuild that has not started yet will read the latest prices anyway
+		if (!rebuildPending.compareAndSet(false, true)) {
+			return;
+		}
+		Runnable rebuild = () -> {
+			rebuildPending.set(false);
+			PostcodeSpatialIndex index = landRegistryDao.getSpatialIndex();
+			try {
+				if (index != null) {
+					buildTilePyramid(index);
+				}
+			} catch (RuntimeException e) {
+				// The old tiles are still served
+				logger.error("Unable to rebuild heatmap tile pyramid", e);
+			}
+		};
+		if (tileBuilder == null) {
+			rebuild.run();
+			return;
+		}
+		try {
+			tileBuilder.submit(rebuild);
+		} catch (RejectedExecutionException e) {
+			rebuildPending.set(false);
+			logger.warn("Heatmap tiles not rebuilt, the application is shutting down");
+		}
+	}
+
+	private synchronized void buildTilePyramid(PostcodeSpatialIndex index) {
+		long startTime = System.currentTimeMillis();
+		HeatMapTilePyramid pyramid = HeatMapTilePyramid.build(index);
+		tilePyramid = pyramid;
+		logger.info("Built heatmap tile pyramid in " + (System.currentTimeMillis() - startTime) + "ms");
+
+		if (eventPublisher != null) {
+			eventPublisher.publishEvent(new HeatMapTilePyramidBuiltEvent(pyramid));
+		}
+	}
+
+	public boolean isReady() {
+		return tilePyramid != null;
+	}
+
+	/**
+	 * Get the aggregated points inside the boundaries from the precomputed tiles.
+	 *
+	 * @return the points, or null if the tiles have not been built yet
+	 */
+	public List<LandRegistryData> getPointsInBoundaries(double top, double right, double bottom, double left, SamplingMode sampling) {
+		HeatMapTilePyramid pyramid = tilePyramid;
+		if (pyramid == null) {
+			return null;
+		}
+		return pyramid.getPointsInBoundaries(top, right, bottom, left, LandRegistryDaoImpl.AGGREGATION_RETURN_COUNT, sampling);
+	}
+}
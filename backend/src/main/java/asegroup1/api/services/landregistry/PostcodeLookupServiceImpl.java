@@ -0,0 +1,86 @@
+package asegroup1.api.services.landregistry;
+
+import java.security.InvalidParameterException;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import asegroup1.api.daos.landregistry.LandRegistryDaoImpl;
+import asegroup1.api.models.PostCodeCoordinates;
+
+/**
+ * Finds the postcode a position is in, taken to be the postcode whose centroid
+ * is nearest to it. Lookups are answered from the in memory postcode index, and
+ * fail until it has loaded.
+ */
+@Service
+public class PostcodeLookupServiceImpl {
+
+	/**
+	 * Most positions looked up at once
+	 */
+	public static final int MAX_BATCH_SIZE = 10000;
+
+	/**
+	 * Furthest a postcode may be looked up from a position
+	 */
+	public static final double MAX_DISTANCE_METRES = 50000;
+
+	private final double defaultMaxDistanceMetres;
+
+	private LandRegistryDaoImpl landRegistryDao;
+
+	@Autowired
+	public PostcodeLookupServiceImpl(LandRegistryDaoImpl landRegistryDao,
+			@Value("${landregistry.postcode-lookup.max-distance-metres:5000}") double defaultMaxDistanceMetres) {
+		this.landRegistryDao = landRegistryDao;
+		this.defaultMaxDistanceMetres = defaultMaxDistanceMetres;
+	}
+
+	/**
+	 * @param latitude          of the position
+	 * @param longitude         of the position
+	 * @param maxDistanceMetres furthest the postcode may be from the position, or null for the default
+	 * @return the nearest postcode, or null if there is none within the distance
+	 * @throws InvalidParameterException if the position or distance are invalid
+	 * @throws IllegalStateException     if the postcode index has not been loaded yet
+	 */
+	public PostCodeCoordinates getNearestPostcode(double latitude, double longitude, Double maxDistanceMetres) {
+		return getNearestPostcodes(new double[][] {{latitude, longitude}}, maxDistanceMetres).get(0);
+	}
+
+	/**
+	 * @param positions         latitude and longitude pairs
+	 * @param maxDistanceMetres furthest a postcode may be from its position, or null for the default
+	 * @return the nearest postcode to each position, in the same order, with null
+	 * where there is none within the distance
+	 * @throws InvalidParameterException if any position or the distance are invalid
+	 * @throws IllegalStateException     if the postcode index has not been loaded yet
+	 */
+	public List<PostCodeCoordinates> getNearestPostcodes(double[][] positions, Double maxDistanceMetres) {
+		if (positions == null || positions.length == 0) {
+			throw new InvalidParameterException("No positions given");
+		}
+		if (positions.length > MAX_BATCH_SIZE) {
+			throw new InvalidParameterException("At most " + MAX_BATCH_SIZE + " positions can be looked up at once");
+		}
+		for (double[] position : positions) {
+			if (position == null || position.length != 2 || !(Math.abs(position[0]) <= 90) || !(Math.abs(position[1]) <= 180)) {
+				throw new InvalidParameterException("Each position must be a latitude and longitude pair");
+			}
+		}
+
+		double maxDistance = maxDistanceMetres == null ? defaultMaxDistanceMetres : maxDistanceMetres;
+		if (!(maxDistance > 0) || maxDistance > MAX_DISTANCE_METRES) {
+			throw new InvalidParameterException("Max distance must be between 0 and " + MAX_DISTANCE_METRES + " metres");
+		}
+
+		List<PostCodeCoordinates> nearestPostcodes = landRegistryDao.findNearestPostcodes(positions, maxDistance);
+		if (nearestPostcodes == null) {
+			throw new IllegalStateException("Postcode index has not been loaded yet");
+		}
+		return nearestPostcodes;
+	}
+}
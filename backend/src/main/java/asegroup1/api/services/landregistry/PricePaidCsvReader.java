@@ -0,0 +1,383 @@
+package asegroup1.api.services.landregistry;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+
+import asegroup1.api.models.landregistry.LandRegistryQuery.EstateType;
+import asegroup1.api.models.landregistry.LandRegistryQuery.PropertyType;
+import asegroup1.api.models.landregistry.LandRegistryQuery.TransactionCategory;
+import asegroup1.api.models.landregistry.PricePaidRecord;
+import asegroup1.api.models.landregistry.PricePaidRecord.RecordStatus;
+
+/**
+ * Reads the Price Paid Data CSV a record at a time. The file is memory mapped a
+ * window at a time, and each record is split into fields in place, so only the
+ * values of a record are copied out of the file, never its lines. Files larger
+ * than a window, such as the complete 4GB file, are read by moving the window
+ * along to the start of the record that crosses its end.
+ */
+class PricePaidCsvReader implements Closeable {
+
+	static final int TRANSACTION_ID = 0, PRICE_PAID = 1, TRANSACTION_DATE = 2, POSTCODE = 3, PROPERTY_TYPE = 4, OLD_NEW = 5,
+			DURATION = 6, PAON = 7, SAON = 8, STREET = 9, LOCALITY = 10, TOWN = 11, DISTRICT = 12, COUNTY = 13, CATEGORY = 14,
+			RECORD_STATUS = 15;
+	static final int FIELD_COUNT = 16;
+
+	private static final int DEFAULT_WINDOW_BYTES = 64 * 1024 * 1024;
+	// Spare slots so a record with too many fields is reported rather than overflowing
+	private static final int MAX_FIELDS = FIELD_COUNT + 4;
+
+	private final FileChannel channel;
+	private final long fileSize;
+	private final int windowBytes;
+
+	// Unmapped by the garbage collector once the window has moved on
+	private MappedByteBuffer window;
+	private long windowStart;
+	private long position;
+
+	private final int[] fieldStarts = new int[MAX_FIELDS];
+	private final int[] fieldEnds = new int[MAX_FIELDS];
+	private final boolean[] fieldEscaped = new boolean[MAX_FIELDS];
+	private int fieldCount;
+	private long recordStart;
+	private byte[] valueBuffer = new byte[256];
+
+	/**
+	 * @param file        the CSV, which has no header row
+	 * @param startOffset offset of the first record to read, 0 or a position previously returned by {@link #getPosition()}
+	 */
+	PricePaidCsvReader(Path file, long startOffset) throws IOException {
+		this(file, startOffset, DEFAULT_WINDOW_BYTES);
+	}
+
+	PricePaidCsvReader(Path file, long startOffset, int windowBytes) throws IOException {
+		this.channel = FileChannel.open(file, StandardOpenOption.READ);
+		this.fileSize = channel.size();
+		this.windowBytes = windowBytes;
+		this.position = Math.min(startOffset, fileSize);
+	}
+
+	/**
+	 * Move on to the next record, skipping blank lines.
+	 *
+	 * @return false once the end of the file is reached
+	 * @throws IOException if the file cannot be read or a record is malformed
+	 */
+	boolean next() throws IOException {
+		while (position < fileSize) {
+			if (window == null || position < windowStart || position >= windowStart + window.limit()) {
+				map(position);
+			}
+
+			int recordEnd = split((int) (position - windowStart));
+			if (recordEnd < 0) {
+				// The record continues past the window, which is moved to start at the record
+				if (position == windowStart) {
+					throw new IOException("Record at offset " + position + " is longer than " + windowBytes + " bytes");
+				}
+				map(position);
+				continue;
+			}
+
+			recordStart = position;
+			position = windowStart + recordEnd;
+			if (fieldCount > 1 || fieldEnds[0] > fieldStarts[0]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void map(long start) throws IOException {
+		windowStart = start;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowBytes, fileSize - start));
+	}
+
+	/**
+	 * Finds the fields of the record starting at the offset.
+	 *
+	 * @return offset just after the record's line ending, or -1 if the record
+	 * does not end within the window
+	 */
+	private int split(int offset) throws IOException {
+		int limit = window.limit();
+		boolean windowAtEnd = windowStart + limit == fileSize;
+		int i = offset;
+		fieldCount = 0;
+
+		while (true) {
+			if (fieldCount == MAX_FIELDS) {
+				throw new IOException("Record at offset " + (windowStart + offset) + " has more than " + MAX_FIELDS + " fields");
+			}
+			int start, end;
+			boolean escaped = false;
+
+			if (i < limit && window.get(i) == '"') {
+				start = ++i;
+				while (true) {
+					if (i >= limit) {
+						if (windowAtEnd) {
+							throw new IOException("Unterminated quote in record at offset " + (windowStart + offset));
+						}
+						return -1;
+					}
+					if (window.get(i) == '"') {
+						// A doubled quote is a quote within the value, which cannot be told apart from the end of the value at the window's edge
+						if (i + 1 >= limit && !windowAtEnd) {
+							return -1;
+						}
+						if (i + 1 < limit && window.get(i + 1) == '"') {
+							escaped = true;
+							i += 2;
+							continue;
+						}
+						end = i++;
+						break;
+					}
+					i++;
+				}
+			} else {
+				start = i;
+				while (i < limit) {
+					byte b = window.get(i);
+					if (b == ',' || b == '\n' || b == '\r') {
+						break;
+					}
+					i++;
+				}
+				end = i;
+			}
+
+			fieldStarts[fieldCount] = start;
+			fieldEnds[fieldCount] = end;
+			fieldEscaped[fieldCount] = escaped;
+			fieldCount++;
+
+			if (i >= limit) {
+				return windowAtEnd ? limit : -1;
+			}
+			byte separator = window.get(i);
+			if (separator == ',') {
+				i++;
+			} else if (separator == '\n') {
+				return i + 1;
+			} else if (separator == '\r') {
+				if (i + 1 >= limit) {
+					return windowAtEnd ? limit : -1;
+				}
+				return window.get(i + 1) == '\n' ? i + 2 : i + 1;
+			} else {
+				throw new IOException("Unexpected character after quoted value at offset " + (windowStart + i));
+			}
+		}
+	}
+
+	/**
+	 * @return offset just after the current record, which is where a reader
+	 * resuming after it should start
+	 */
+	long getPosition() {
+		return position;
+	}
+
+	/**
+	 * @return offset of the start of the current record
+	 */
+	long getRecordStart() {
+		return recordStart;
+	}
+
+	long getFileSize() {
+		return fileSize;
+	}
+
+	int getFieldCount() {
+		return fieldCount;
+	}
+
+	/**
+	 * @return the value of a field of the current record, or null if it is empty
+	 */
+	String getString(int field) {
+		int length = fieldEnds[field] - fieldStarts[field];
+		if (length == 0) {
+			return null;
+		}
+		if (valueBuffer.length < length) {
+			valueBuffer = new byte[Math.max(length, valueBuffer.length * 2)];
+		}
+		for (int i = 0; i < length; i++) {
+			valueBuffer[i] = window.get(fieldStarts[field] + i);
+		}
+		String value = new String(valueBuffer, 0, length, StandardCharsets.UTF_8);
+		return fieldEscaped[field] ? value.replace("\"\"", "\"") : value;
+	}
+
+	/**
+	 * @return the first character of a field of the current record, or 0 if it is empty
+	 */
+	char getCode(int field) {
+		return fieldEnds[field] > fieldStarts[field] ? (char) window.get(fieldStarts[field]) : 0;
+	}
+
+	/**
+	 * Parses a field of digits without copying it out of the file.
+	 *
+	 * @return the value, or -1 if the field is empty or not a whole number
+	 */
+	long getLong(int field) {
+		int start = fieldStarts[field], end = fieldEnds[field];
+		if (start == end || end - start > 18) {
+			return -1;
+		}
+		long value = 0;
+		for (int i = start; i < end; i++) {
+			int digit = window.get(i) - '0';
+			if (digit < 0 || digit > 9) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	/**
+	 * Parses a date of the form "2018-05-25 00:00", ignoring the time.
+	 *
+	 * @return the date, or null if the field does not start with a valid date
+	 */
+	LocalDate getDate(int field) {
+		int start = fieldStarts[field];
+		if (fieldEnds[field] - start < 10 || window.get(start + 4) != '-' || window.get(start + 7) != '-') {
+			return null;
+		}
+		int year = parseDigits(start, 4), month = parseDigits(start + 5, 2), day = parseDigits(start + 8, 2);
+		if (year < 0 || month < 0 || day < 0) {
+			return null;
+		}
+		try {
+			return LocalDate.of(year, month, day);
+		} catch (DateTimeException e) {
+			return null;
+		}
+	}
+
+	private int parseDigits(int start, int length) {
+		int value = 0;
+		for (int i = start; i < start + length; i++) {
+			int digit = window.get(i) - '0';
+			if (digit < 0 || digit > 9) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	/**
+	 * Converts the current record. Deleted records in a change file only need
+	 * their transaction id, so their other fields are not checked.
+	 *
+	 * @return the record, or null if it is malformed
+	 */
+	PricePaidRecord getRecord() {
+		if (fieldCount < FIELD_COUNT - 1) {
+			return null;
+		}
+		PricePaidRecord record = new PricePaidRecord();
+
+		String transactionId = getString(TRANSACTION_ID);
+		if (transactionId == null) {
+			return null;
+		}
+		if (transactionId.startsWith("{") && transactionId.endsWith("}")) {
+			transactionId = transactionId.substring(1, transactionId.length() - 1);
+		}
+		record.setTransactionId(transactionId);
+
+		// The record status column was added after the first releases, older files only hold additions
+		RecordStatus recordStatus = fieldCount > RECORD_STATUS ? RecordStatus.parse(getCode(RECORD_STATUS)) : RecordStatus.ADDED;
+		if (recordStatus == null) {
+			return null;
+		}
+		record.setRecordStatus(recordStatus);
+		if (recordStatus == RecordStatus.DELETED) {
+			return record;
+		}
+
+		long pricePaid = getLong(PRICE_PAID);
+		LocalDate transactionDate = getDate(TRANSACTION_DATE);
+		if (pricePaid < 0 || transactionDate == null) {
+			return null;
+		}
+		record.setPricePaid(pricePaid);
+		record.setTransactionDate(transactionDate);
+		record.setPostcode(getString(POSTCODE));
+		record.setPropertyType(parsePropertyType(getCode(PROPERTY_TYPE)));
+		record.setNewBuild(getCode(OLD_NEW) == 'Y');
+		record.setEstateType(parseEstateType(getCode(DURATION)));
+		record.setPaon(getString(PAON));
+		record.setSaon(getString(SAON));
+		record.setStreet(getString(STREET));
+		record.setLocality(getString(LOCALITY));
+		record.setTown(getString(TOWN));
+		record.setDistrict(getString(DISTRICT));
+		record.setCounty(getString(COUNTY));
+		record.setTransactionCategory(parseTransactionCategory(getCode(CATEGORY)));
+		return record;
+	}
+
+	static PropertyType parsePropertyType(char code) {
+		switch (code) {
+			case 'D':
+				return PropertyType.detached;
+			case 'S':
+				return PropertyType.semi_detached;
+			case 'T':
+				return PropertyType.terraced;
+			case 'F':
+				return PropertyType.flat_maisonette;
+			case 'O':
+				return PropertyType.other;
+			default:
+				return null;
+		}
+	}
+
+	static EstateType parseEstateType(char code) {
+		switch (code) {
+			case 'F':
+				return EstateType.freehold;
+			case 'L':
+				return EstateType.leasehold;
+			default:
+				// U, for sales of under seven year leases whose duration is not recorded
+				return null;
+		}
+	}
+
+	static TransactionCategory parseTransactionCategory(char code) {
+		switch (code) {
+			case 'A':
+				return TransactionCategory.standard_price_paid_transaction;
+			case 'B':
+				return TransactionCategory.additional_price_paid_transaction;
+			default:
+				return null;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		channel.close();
+	}
+}
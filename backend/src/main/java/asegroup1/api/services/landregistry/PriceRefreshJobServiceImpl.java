@@ -0,0 +1,250 @@
+package asegroup1.api.services.landregistry;
+
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import asegroup1.api.controllers.LandRegistryController;
+import asegroup1.api.daos.landregistry.PriceRefreshJobDaoImpl;
+import asegroup1.api.models.PriceRefreshJob;
+import asegroup1.api.models.PriceRefreshJob.Status;
+import asegroup1.api.services.ServiceImpl;
+import asegroup1.api.services.metrics.MetricsServiceImpl;
+
+/**
+ * Refreshes the average price of every postcode matching a prefix as a
+ * background job. The postcode areas of a job are refreshed concurrently by a
+ * pool of workers, and each finished area is checkpointed in the database so
+ * that jobs interrupted by a restart resume where they stopped.
+ */
+
+@Service
+public class PriceRefreshJobServiceImpl extends ServiceImpl<PriceRefreshJob> {
+
+	private final static Logger logger = LogManager.getLogger(LandRegistryController.class);
+
+	private PriceRefreshJobDaoImpl priceRefreshJobDao;
+	private LandRegistryServiceImpl landRegistryService;
+	private HeatMapTileServiceImpl heatMapTileService;
+	private MetricsServiceImpl metricsService;
+
+	private final int workers;
+
+	private ThreadPoolExecutor workerPool;
+	private ExecutorService jobRunner;
+
+	// Jobs running in this instance, by job id
+	private final Map<String, JobProgress> activeJobs = new ConcurrentHashMap<>();
+
+	@Autowired
+	public PriceRefreshJobServiceImpl(PriceRefreshJobDaoImpl priceRefreshJobDao, LandRegistryServiceImpl landRegistryService,
+			HeatMapTileServiceImpl heatMapTileService, MetricsServiceImpl metricsService,
+			@Value("${landregistry.price-refresh.workers:4}") int workers) {
+		super(priceRefreshJobDao);
+		this.priceRefreshJobDao = priceRefreshJobDao;
+		this.landRegistryService = landRegistryService;
+		this.heatMapTileService = heatMapTileService;
+		this.metricsService = metricsService;
+		this.workers = workers;
+	}
+
+	@PostConstruct
+	public void initialise() {
+		AtomicInteger workerCount = new AtomicInteger();
+		workerPool = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+			Thread thread = new Thread(runnable, "price-refresh-" + workerCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		workerPool.allowCoreThreadTimeOut(true);
+
+		// Each job waits on its areas in its own thread so that the workers are shared between jobs
+		jobRunner = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "price-refresh-job");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		if (metricsService != null) {
+			metricsService.register("landregistry.price-refresh.active-jobs", activeJobs::size);
+			metricsService.register("landregistry.price-refresh.queued-areas", () -> workerPool.getQueue().size());
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		// Running jobs are left marked as running, so they resume on the next start
+		if (jobRunner != null) {
+			jobRunner.shutdownNow();
+		}
+		if (workerPool != null) {
+			workerPool.shutdownNow();
+		}
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void resumeUnfinishedJobs() {
+		for (PriceRefreshJob job : priceRefreshJobDao.listUnfinishedJobs()) {
+			logger.info("Resuming price refresh job " + job.getJobId() + " for \"" + job.getPostcodePrefix() + "\"");
+			launch(job);
+		}
+	}
+
+	/**
+	 * Start refreshing the prices of every postcode matching the prefix in the
+	 * background. If a job for the same prefix is already running it is
+	 * returned instead of starting another.
+	 *
+	 * @param postcodePrefix start of the postcodes to refresh, or "" for every postcode
+	 * @return id of the job, used to follow its progress with {@link #getJobStatus(String)}
+	 */
+	public String startJob(String postcodePrefix) {
+		synchronized (activeJobs) {
+			for (Entry<String, JobProgress> activeJob : activeJobs.entrySet()) {
+				if (activeJob.getValue().postcodePrefix.equals(postcodePrefix)) {
+					return activeJob.getKey();
+				}
+			}
+
+			PriceRefreshJob job = new PriceRefreshJob(UUID.randomUUID().toString(), postcodePrefix,
+					new Timestamp(System.currentTimeMillis()));
+			priceRefreshJobDao.add(job);
+			launch(job);
+			return job.getJobId();
+		}
+	}
+
+	/**
+	 * @return the job with its progress, and an estimate of the time remaining
+	 * if it is running in this instance, or null if there is no such job
+	 */
+	public PriceRefreshJob getJobStatus(String jobId) {
+		PriceRefreshJob job = priceRefreshJobDao.get(jobId);
+		JobProgress progress = activeJobs.get(jobId);
+		if (job != null && progress != null) {
+			job.setFailedAreas(progress.failedAreas.get());
+			job.setEstimatedSecondsRemaining(progress.estimateSecondsRemaining());
+		}
+		return job;
+	}
+
+	private void launch(PriceRefreshJob job) {
+		activeJobs.put(job.getJobId(), new JobProgress(job.getPostcodePrefix()));
+		jobRunner.submit(() -> runJob(job));
+	}
+
+	/**
+	 * Refreshes every area of the job that has not been checkpointed, blocking
+	 * until all of them have been attempted.
+	 */
+	void runJob(PriceRefreshJob job) {
+		String jobId = job.getJobId();
+		JobProgress progress = activeJobs.computeIfAbsent(jobId, id -> new JobProgress(job.getPostcodePrefix()));
+		try {
+			HashMap<String, List<String>> postcodeAreas = landRegistryService.getPostcodeAreas(job.getPostcodePrefix());
+			Set<String> completedAreas = priceRefreshJobDao.getCompletedAreas(jobId);
+			priceRefreshJobDao.startRun(jobId, postcodeAreas.size());
+
+			ExecutorCompletionService<Integer> areaRefreshes = new ExecutorCompletionService<>(workerPool);
+			int submittedAreas = 0;
+			for (Entry<String, List<String>> postcodeArea : postcodeAreas.entrySet()) {
+				if (completedAreas.contains(postcodeArea.getKey())) {
+					continue;
+				}
+				areaRefreshes.submit(() -> refreshArea(jobId, postcodeArea.getKey(), postcodeArea.getValue()));
+				submittedAreas++;
+			}
+			progress.startRun(submittedAreas);
+			logger.info("Refreshing " + submittedAreas + " of " + postcodeAreas.size() + " postcode areas for job " + jobId);
+
+			int updatedRecords = 0;
+			for (int i = 0; i < submittedAreas; i++) {
+				try {
+					updatedRecords += areaRefreshes.take().get();
+				} catch (ExecutionException e) {
+					progress.failedAreas.incrementAndGet();
+					logger.error("Failed to refresh a postcode area for job " + jobId, e.getCause());
+				}
+				progress.finishedAreas.incrementAndGet();
+			}
+
+			if (updatedRecords > 0 && heatMapTileService != null) {
+				heatMapTileService.rebuildTilePyramid();
+			}
+
+			int failedAreas = progress.failedAreas.get();
+			priceRefreshJobDao.finishJob(jobId, failedAreas > 0 ? Status.FAILED : Status.COMPLETED, failedAreas);
+			logger.info("Price refresh job " + jobId + " updated " + updatedRecords + " records, " + failedAreas + " areas failed");
+		} catch (InterruptedException e) {
+			// Shutting down, the job stays running in the database and resumes on the next start
+			Thread.currentThread().interrupt();
+		} catch (RuntimeException e) {
+			logger.error("Price refresh job " + jobId + " failed", e);
+			priceRefreshJobDao.finishJob(jobId, Status.FAILED, progress.failedAreas.get());
+		} finally {
+			activeJobs.remove(jobId);
+		}
+	}
+
+	private int refreshArea(String jobId, String postcodeArea, List<String> postcodes) throws Exception {
+		int updatedRecords = landRegistryService.updatePostcodeArea(postcodes);
+		priceRefreshJobDao.completeArea(jobId, postcodeArea, updatedRecords);
+		return updatedRecords;
+	}
+
+	/**
+	 * Progress of the current run of a job, used to estimate how long it has left
+	 */
+	private static final class JobProgress {
+		private final String postcodePrefix;
+		private final AtomicInteger finishedAreas = new AtomicInteger();
+		private final AtomicInteger failedAreas = new AtomicInteger();
+		private volatile int runAreas = -1;
+		private volatile long runStarted;
+
+		private JobProgress(String postcodePrefix) {
+			this.postcodePrefix = postcodePrefix;
+		}
+
+		private void startRun(int areas) {
+			runStarted = System.currentTimeMillis();
+			runAreas = areas;
+		}
+
+		/**
+		 * @return seconds until the job finishes at its current rate, or null if no area has finished yet
+		 */
+		private Long estimateSecondsRemaining() {
+			int finished = finishedAreas.get();
+			if (runAreas < 0 || finished == 0) {
+				return null;
+			}
+			double millisPerArea = (System.currentTimeMillis() - runStarted) / (double) finished;
+			return Math.round(millisPerArea * (runAreas - finished) / 1000);
+		}
+	}
+}
@@ -0,0 +1,275 @@
+package asegroup1.api.services.landregistry;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.InvalidParameterException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import asegroup1.api.controllers.LandRegistryController;
+import asegroup1.api.daos.landregistry.LandRegistryDaoImpl;
+import asegroup1.api.daos.landregistry.TransactionStoreDaoImpl;
+import asegroup1.api.models.TransactionImport;
+import asegroup1.api.models.TransactionImport.Mode;
+import asegroup1.api.models.TransactionImport.Status;
+import asegroup1.api.models.landregistry.LandRegistryData;
+import asegroup1.api.models.landregistry.LandRegistryQuery;
+import asegroup1.api.models.landregistry.LandRegistrySqlQuery;
+import asegroup1.api.models.landregistry.PricePaidRecord;
+import asegroup1.api.services.ServiceImpl;
+import asegroup1.api.services.metrics.MetricsServiceImpl;
+
+/**
+ * Imports the Price Paid Data CSV into the local transactions table as a
+ * background job. Files are read from the import directory only, one import at
+ * a time, and imports interrupted by a restart resume from their watermark.
+ *
+ * The complete file is imported once, after which the monthly change files are
+ * applied as delta imports. A delta import only recomputes the average price of
+ * the postcodes whose transactions it changed.
+ */
+
+@Service
+public class TransactionImportServiceImpl extends ServiceImpl<TransactionImport> {
+
+	private final static Logger logger = LogManager.getLogger(LandRegistryController.class);
+
+	/**
+	 * Most postcodes repriced with one query
+	 */
+	static final int REPRICE_BATCH_SIZE = 1000;
+
+	private TransactionStoreDaoImpl transactionStoreDao;
+	private LandRegistryDaoImpl landRegistryDao;
+	private HeatMapTileServiceImpl heatMapTileService;
+	private MetricsServiceImpl metricsService;
+
+	// Empty to disable imports
+	private final String importDirectory;
+	private final int batchSize;
+
+	private ExecutorService importRunner;
+
+	// Imports running in this instance, by import id
+	private final Map<String, String> activeImports = new ConcurrentHashMap<>();
+
+	@Autowired
+	public TransactionImportServiceImpl(TransactionStoreDaoImpl transactionStoreDao, LandRegistryDaoImpl landRegistryDao,
+			HeatMapTileServiceImpl heatMapTileService, MetricsServiceImpl metricsService,
+			@Value("${landregistry.transactions.import-directory:}") String importDirectory,
+			@Value("${landregistry.transactions.import-batch-size:2000}") int batchSize) {
+		super(transactionStoreDao);
+		this.transactionStoreDao = transactionStoreDao;
+		this.landRegistryDao = landRegistryDao;
+		this.heatMapTileService = heatMapTileService;
+		this.metricsService = metricsService;
+		this.importDirectory = importDirectory;
+		this.batchSize = batchSize;
+	}
+
+	@PostConstruct
+	public void initialise() {
+		// A single thread, as concurrent imports would only compete for the same table
+		importRunner = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "transaction-import");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		if (metricsService != null) {
+			metricsService.register("landregistry.transaction-import.active-imports", activeImports::size);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		// Running imports are left marked as running, so they resume on the next start
+		if (importRunner != null) {
+			importRunner.shutdownNow();
+		}
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void resumeUnfinishedImports() {
+		for (TransactionImport unfinishedImport : transactionStoreDao.listUnfinishedImports()) {
+			logger.info("Resuming import " + unfinishedImport.getImportId() + " of \"" + unfinishedImport.getSourceFile() + "\" from byte "
+					+ unfinishedImport.getBytesRead());
+			launch(unfinishedImport);
+		}
+	}
+
+	/**
+	 * Start importing a Price Paid Data CSV in the background. If the same file
+	 * is already being imported, that import is returned instead of starting
+	 * another.
+	 *
+	 * @param fileName name of the file, relative to the import directory
+	 * @param mode     {@link Mode#FULL} for the complete file, {@link Mode#DELTA} for a monthly change file
+	 * @return id of the import, used to follow its progress with {@link #getImportStatus(String)}
+	 * @throws IllegalStateException     if imports are disabled
+	 * @throws InvalidParameterException if the file is outside the import directory or does not exist
+	 */
+	public String startImport(String fileName, Mode mode) throws IOException {
+		Path file = resolveImportFile(fileName);
+
+		synchronized (activeImports) {
+			for (Entry<String, String> activeImport : activeImports.entrySet()) {
+				if (activeImport.getValue().equals(file.toString())) {
+					return activeImport.getKey();
+				}
+			}
+
+			TransactionImport transactionImport = new TransactionImport(UUID.randomUUID().toString(), file.toString(), Files.size(file), mode,
+					new Timestamp(System.currentTimeMillis()));
+			transactionStoreDao.add(transactionImport);
+			launch(transactionImport);
+			return transactionImport.getImportId();
+		}
+	}
+
+	Path resolveImportFile(String fileName) {
+		if (importDirectory == null || importDirectory.isEmpty()) {
+			throw new IllegalStateException("Transaction imports are disabled, set landregistry.transactions.import-directory to enable them");
+		}
+		Path directory = Paths.get(importDirectory).toAbsolutePath().normalize();
+		Path file = directory.resolve(fileName).normalize();
+		if (!file.startsWith(directory) || file.equals(directory)) {
+			throw new InvalidParameterException("Files can only be imported from the import directory");
+		}
+		if (!Files.isRegularFile(file)) {
+			throw new InvalidParameterException("No file named \"" + fileName + "\" in the import directory");
+		}
+		return file;
+	}
+
+	/**
+	 * @return the import with its progress, or null if there is no such import
+	 */
+	public TransactionImport getImportStatus(String importId) {
+		return transactionStoreDao.get(importId);
+	}
+
+	private void launch(TransactionImport transactionImport) {
+		activeImports.put(transactionImport.getImportId(), transactionImport.getSourceFile());
+		importRunner.submit(() -> runImport(transactionImport));
+	}
+
+	/**
+	 * Reads the file from the import's watermark to its end, writing a batch at
+	 * a time, then for a delta import recomputes the average price of the
+	 * postcodes it touched.
+	 */
+	void runImport(TransactionImport transactionImport) {
+		String importId = transactionImport.getImportId();
+		long rowsAppliedBefore = transactionImport.getRowsApplied();
+		long rowsDeletedBefore = transactionImport.getRowsDeleted();
+
+		try (PricePaidCsvReader reader = new PricePaidCsvReader(Paths.get(transactionImport.getSourceFile()), transactionImport.getBytesRead())) {
+			if (reader.getFileSize() != transactionImport.getFileSize()) {
+				throw new IOException("\"" + transactionImport.getSourceFile() + "\" has changed since the import started");
+			}
+
+			List<PricePaidRecord> batch = new ArrayList<>(batchSize);
+			long batchStarted = System.currentTimeMillis();
+			while (reader.next()) {
+				transactionImport.setRowsRead(transactionImport.getRowsRead() + 1);
+				PricePaidRecord record = reader.getRecord();
+				if (record == null) {
+					transactionImport.setRowsSkipped(transactionImport.getRowsSkipped() + 1);
+				} else {
+					batch.add(record);
+				}
+
+				if (batch.size() == batchSize) {
+					writeBatch(transactionImport, batch, reader.getPosition(), batchStarted);
+					batch = new ArrayList<>(batchSize);
+					if (Thread.currentThread().isInterrupted()) {
+						// Shutting down, the import stays running in the database and resumes on the next start
+						return;
+					}
+					batchStarted = System.currentTimeMillis();
+				}
+			}
+			writeBatch(transactionImport, batch, reader.getPosition(), batchStarted);
+
+			if (transactionImport.getMode() == Mode.DELTA) {
+				repriceTouchedPostcodes(transactionImport);
+			}
+
+			transactionStoreDao.finishImport(transactionImport, Status.COMPLETED);
+			logger.info(getStageReport(transactionImport, transactionImport.getRowsApplied() - rowsAppliedBefore,
+					transactionImport.getRowsDeleted() - rowsDeletedBefore));
+		} catch (IOException | RuntimeException e) {
+			logger.error("Import " + importId + " of \"" + transactionImport.getSourceFile() + "\" failed", e);
+			transactionStoreDao.finishImport(transactionImport, Status.FAILED);
+		} finally {
+			activeImports.remove(importId);
+		}
+	}
+
+	private void writeBatch(TransactionImport transactionImport, List<PricePaidRecord> batch, long bytesRead, long batchStarted) {
+		transactionImport.setReadMillis(transactionImport.getReadMillis() + System.currentTimeMillis() - batchStarted);
+		transactionImport.setBytesRead(bytesRead);
+		transactionStoreDao.writeBatch(transactionImport, batch);
+	}
+
+	/**
+	 * Recomputes the average price of every postcode the import touched from the
+	 * transactions table, which is far fewer than a full refresh of every
+	 * postcode. Only prices that changed are saved.
+	 */
+	void repriceTouchedPostcodes(TransactionImport transactionImport) {
+		long startTime = System.currentTimeMillis();
+		List<String> postcodes = transactionStoreDao.getTouchedPostcodes(transactionImport.getImportId());
+		int repriced = 0;
+
+		for (int from = 0; from < postcodes.size(); from += REPRICE_BATCH_SIZE) {
+			String[] batch = postcodes.subList(from, Math.min(postcodes.size(), from + REPRICE_BATCH_SIZE)).toArray(new String[0]);
+			List<LandRegistryData> averages = transactionStoreDao.executeQuery(
+					LandRegistrySqlQuery.fromQuery(LandRegistryQuery.buildQueryAveragePricePostcode(batch)));
+			repriced += landRegistryDao.updateAveragePrice(LandRegistryServiceImpl.toPostcodePrices(averages, batch));
+		}
+
+		if (repriced > 0 && heatMapTileService != null) {
+			heatMapTileService.rebuildTilePyramid();
+		}
+		transactionImport.setPostcodesTouched(postcodes.size());
+		transactionImport.setPostcodesRepriced(repriced);
+		transactionImport.setRepriceMillis(System.currentTimeMillis() - startTime);
+	}
+
+	/**
+	 * @return the time taken by and rows handled in each stage of the import
+	 */
+	static String getStageReport(TransactionImport transactionImport, long rowsApplied, long rowsDeleted) {
+		StringBuilder report = new StringBuilder(transactionImport.getMode() + " import " + transactionImport.getImportId() + " completed:")
+				.append(String.format(" read %d rows (%d skipped) in %dms,", transactionImport.getRowsRead(), transactionImport.getRowsSkipped(),
+						transactionImport.getReadMillis()))
+				.append(String.format(" wrote %d and deleted %d transactions in %dms", rowsApplied, rowsDeleted, transactionImport.getWriteMillis()));
+		if (transactionImport.getMode() == Mode.DELTA) {
+			report.append(String.format(", repriced %d of %d touched postcodes in %dms", transactionImport.getPostcodesRepriced(),
+					transactionImport.getPostcodesTouched(), transactionImport.getRepriceMillis()));
+		}
+		return report.toString();
+	}
+}
@@ -0,0 +1,385 @@
+package asegroup1.api.services.landregistry;
+
+import asegroup1.api.controllers.LandRegistryController;
+import asegroup1.api.daos.landregistry.AveragePricesUpdatedEvent;
+import asegroup1.api.models.PostCodeCoordinates;
+import asegroup1.api.models.landregistry.PositioningMode;
+import asegroup1.api.models.landregistry.SamplingMode;
+import asegroup1.api.services.cache.ExpiringLruCache;
+import asegroup1.api.services.metrics.MetricsServiceImpl;
+import com.mashape.unirest.http.exceptions.UnirestException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the display data for map viewports. Viewport bounds are snapped
+ * outwards to a grid whose cell size follows the size of the viewport, so small
+ * pans and zooms map onto the same cached result.
+ *
+ * Cached viewports are invalidated when the average price of a postcode inside
+ * them changes, found through an index of the grid cells each viewport covers.
+ * If the changed prices are being served from heatmap tiles, the viewports are
+ * invalidated again once the tiles have been rebuilt.
+ *
+ * Only deterministically sampled viewports are cached, as randomly sampled
+ * ones should differ between requests. Cached results are shared between
+ * requests, so they are returned as unmodifiable lists.
+ */
+@Service
+public class ViewportCacheServiceImpl {
+
+	private final static Logger logger = LogManager.getLogger(LandRegistryController.class);
+
+	/**
+	 * Minimum number of grid cells spanned by a viewport, the larger this is the
+	 * less a snapped viewport extends past the requested one
+	 */
+	static final int GRID_DIVISIONS = 8;
+	private static final int MIN_GRID_LEVEL = -20;
+	private static final int MAX_GRID_LEVEL = 8;
+
+	private final boolean enabled;
+	private final int maxEntries;
+	private final long ttlSeconds;
+
+	private MetricsServiceImpl metricsService;
+	private HeatMapTileServiceImpl heatMapTileService;
+
+	private ExpiringLruCache<ViewportKey, List<?>> cache;
+
+	// Cached viewports by the grid cells they can be affected by, kept in step with the cache
+	private final Map<GridCell, Set<ViewportKey>> cellIndex = new HashMap<>();
+	// Number of cached viewports at each grid level
+	private final Map<Integer, Integer> levelCounts = new HashMap<>();
+
+	// Incremented on every invalidation, so results loaded across one are not cached
+	private final AtomicLong invalidationCount = new AtomicLong();
+
+	// Postcodes updated since the heatmap tiles were last built
+	private final List<PostCodeCoordinates> pendingTileUpdates = new ArrayList<>();
+
+	@Autowired
+	public ViewportCacheServiceImpl(MetricsServiceImpl metricsService, HeatMapTileServiceImpl heatMapTileService,
+			@Value("${landregistry.viewport-cache.enabled:true}") boolean enabled,
+			@Value("${landregistry.viewport-cache.max-entries:2000}") int maxEntries,
+			@Value("${landregistry.viewport-cache.ttl-seconds:600}") long ttlSeconds) {
+		this.metricsService = metricsService;
+		this.heatMapTileService = heatMapTileService;
+		this.enabled = enabled;
+		this.maxEntries = maxEntries;
+		this.ttlSeconds = ttlSeconds;
+	}
+
+	@PostConstruct
+	public void createCache() {
+		cache = new ExpiringLruCache<>(maxEntries, ttlSeconds * 1000, new ExpiringLruCache.KeyListener<ViewportKey>() {
+			@Override
+			public void onAdded(ViewportKey key) {
+				addToIndex(key);
+			}
+
+			@Override
+			public void onRemoved(ViewportKey key) {
+				removeFromIndex(key);
+			}
+		});
+		if (metricsService != null) {
+			metricsService.register("landregistry.viewport-cache", cache::getStatistics);
+		}
+	}
+
+	/**
+	 * Loads the display data for a viewport, or for the grid aligned area around
+	 * it if that has been loaded recently.
+	 *
+	 * As elsewhere in the land registry services, top and bottom bound the
+	 * longitude and left and right bound the latitude.
+	 *
+	 * @param sampling    the sampling mode the data is loaded with
+	 * @param positioning the positioning mode the data is loaded with
+	 * @param loader      loads the data for the snapped bounds on a cache miss
+	 * @return the display data, which is unmodifiable if it may be shared
+	 */
+	public List<?> getPositionInsideBounds(double top, double right, double bottom, double left, SamplingMode sampling,
+			PositioningMode positioning, ViewportLoader loader) throws IOException, UnirestException {
+		ViewportKey key = enabled && sampling != SamplingMode.RANDOM
+				? ViewportKey.snap(top, right, bottom, left, sampling, positioning)
+				: null;
+		if (key == null) {
+			return loader.load(top, right, bottom, left);
+		}
+
+		List<?> cached = cache.get(key);
+		if (cached != null) {
+			return cached;
+		}
+
+		long invalidationsBeforeLoad = invalidationCount.get();
+		List<?> loaded = loader.load(key.getTop(), key.getRight(), key.getBottom(), key.getLeft());
+		if (loaded == null) {
+			return null;
+		}
+		List<?> shared = Collections.unmodifiableList(new ArrayList<>(loaded));
+		// Prices changed while loading, so the result may already be out of date
+		if (invalidationCount.get() == invalidationsBeforeLoad) {
+			cache.put(key, shared);
+		}
+		return shared;
+	}
+
+	@EventListener
+	public void onAveragePricesUpdated(AveragePricesUpdatedEvent event) {
+		invalidate(event.getUpdatedPostcodes());
+
+		// Tiles still hold the old prices until they are rebuilt
+		if (heatMapTileService != null && heatMapTileService.isReady()) {
+			synchronized (pendingTileUpdates) {
+				pendingTileUpdates.addAll(event.getUpdatedPostcodes());
+			}
+		}
+	}
+
+	@EventListener
+	public void onTilePyramidBuilt(HeatMapTilePyramidBuiltEvent event) {
+		List<PostCodeCoordinates> updatedPostcodes;
+		synchronized (pendingTileUpdates) {
+			updatedPostcodes = new ArrayList<>(pendingTileUpdates);
+			pendingTileUpdates.clear();
+		}
+		invalidate(updatedPostcodes);
+	}
+
+	private void invalidate(List<PostCodeCoordinates> updatedPostcodes) {
+		if (cache == null || updatedPostcodes.isEmpty()) {
+			return;
+		}
+		invalidationCount.incrementAndGet();
+
+		Set<ViewportKey> affected = new HashSet<>();
+		synchronized (cellIndex) {
+			for (PostCodeCoordinates postcode : updatedPostcodes) {
+				double latitude = postcode.getLatitude();
+				double longitude = postcode.getLongitude();
+				for (int level : levelCounts.keySet()) {
+					Set<ViewportKey> keys = cellIndex.get(GridCell.containing(level, latitude, longitude));
+					if (keys == null) {
+						continue;
+					}
+					for (ViewportKey key : keys) {
+						if (key.isAffectedBy(latitude, longitude)) {
+							affected.add(key);
+						}
+					}
+				}
+			}
+		}
+
+		// The cache calls back into the index, so it is only invalidated once the index is unlocked
+		int removed = 0;
+		for (ViewportKey key : affected) {
+			if (cache.invalidate(key)) {
+				removed++;
+			}
+		}
+		if (removed > 0) {
+			logger.info("Invalidated " + removed + " cached viewports after " + updatedPostcodes.size() + " postcode prices changed");
+		}
+	}
+
+	private void addToIndex(ViewportKey key) {
+		synchronized (cellIndex) {
+			boolean added = false;
+			for (GridCell cell : key.getAffectingCells()) {
+				added |= cellIndex.computeIfAbsent(cell, c -> new HashSet<>()).add(key);
+			}
+			// Keys already cached are added again when they are replaced
+			if (added) {
+				levelCounts.merge(key.level, 1, Integer::sum);
+			}
+		}
+	}
+
+	private void removeFromIndex(ViewportKey key) {
+		synchronized (cellIndex) {
+			boolean removed = false;
+			for (GridCell cell : key.getAffectingCells()) {
+				Set<ViewportKey> keys = cellIndex.get(cell);
+				if (keys != null && keys.remove(key)) {
+					removed = true;
+					if (keys.isEmpty()) {
+						cellIndex.remove(cell);
+					}
+				}
+			}
+			if (removed) {
+				levelCounts.computeIfPresent(key.level, (level, count) -> count > 1 ? count - 1 : null);
+			}
+		}
+	}
+
+	/**
+	 * Loads display data for a viewport
+	 */
+	@FunctionalInterface
+	public interface ViewportLoader {
+		List<?> load(double top, double right, double bottom, double left) throws IOException, UnirestException;
+	}
+
+	/**
+	 * A viewport snapped to the grid cells of size 2^level degrees
+	 */
+	static final class ViewportKey {
+		private final int level;
+		private final long minX, maxX, minY, maxY;
+		private final SamplingMode sampling;
+		private final PositioningMode positioning;
+
+		private ViewportKey(int level, long minX, long maxX, long minY, long maxY, SamplingMode sampling, PositioningMode positioning) {
+			this.level = level;
+			this.minX = minX;
+			this.maxX = maxX;
+			this.minY = minY;
+			this.maxY = maxY;
+			this.sampling = sampling;
+			this.positioning = positioning;
+		}
+
+		/**
+		 * Snaps the bounds outwards to a grid of at least {@link #GRID_DIVISIONS}
+		 * cells across the longer side of the viewport.
+		 *
+		 * @return the key, or null if the bounds cannot be cached
+		 */
+		static ViewportKey snap(double top, double right, double bottom, double left, SamplingMode sampling,
+				PositioningMode positioning) {
+			double span = Math.max(top - bottom, right - left);
+			if (!(span > 0) || Double.isInfinite(span)) {
+				return null;
+			}
+			int level = (int) Math.ceil(Math.log(span / GRID_DIVISIONS) / Math.log(2));
+			level = Math.max(MIN_GRID_LEVEL, Math.min(MAX_GRID_LEVEL, level));
+			double cellSize = Math.pow(2, level);
+
+			return new ViewportKey(level,
+					(long) Math.floor(bottom / cellSize), (long) Math.ceil(top / cellSize),
+					(long) Math.floor(left / cellSize), (long) Math.ceil(right / cellSize),
+					sampling, positioning);
+		}
+
+		private double getCellSize() {
+			return Math.pow(2, level);
+		}
+
+		double getTop() {
+			return maxX * getCellSize();
+		}
+
+		double getBottom() {
+			return minX * getCellSize();
+		}
+
+		double getRight() {
+			return maxY * getCellSize();
+		}
+
+		double getLeft() {
+			return minY * getCellSize();
+		}
+
+		/**
+		 * @return the cells of this key's level holding every position that
+		 *         {@link #isAffectedBy affects} it
+		 */
+		List<GridCell> getAffectingCells() {
+			List<GridCell> cells = new ArrayList<>();
+			for (long x = minX - 1; x <= maxX + 1; x++) {
+				for (long y = minY - 1; y <= maxY + 1; y++) {
+					cells.add(new GridCell(level, x, y));
+				}
+			}
+			return cells;
+		}
+
+		/**
+		 * Aggregated points can be centred up to about a cell outside of the
+		 * postcodes they hold, so postcodes within a cell of the viewport also
+		 * affect it.
+		 */
+		boolean isAffectedBy(double latitude, double longitude) {
+			double cellSize = getCellSize();
+			return longitude >= getBottom() - cellSize && longitude <= getTop() + cellSize
+					&& latitude >= getLeft() - cellSize && latitude <= getRight() + cellSize;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof ViewportKey)) {
+				return false;
+			}
+			ViewportKey that = (ViewportKey) o;
+			return level == that.level && minX == that.minX && maxX == that.maxX && minY == that.minY && maxY == that.maxY
+					&& sampling == that.sampling && positioning == that.positioning;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(level, minX, maxX, minY, maxY, sampling, positioning);
+		}
+	}
+
+	/**
+	 * A grid cell of size 2^level degrees, with x along the longitude and y along
+	 * the latitude as in {@link ViewportKey}
+	 */
+	static final class GridCell {
+		private final int level;
+		private final long x, y;
+
+		private GridCell(int level, long x, long y) {
+			this.level = level;
+			this.x = x;
+			this.y = y;
+		}
+
+		static GridCell containing(int level, double latitude, double longitude) {
+			double cellSize = Math.pow(2, level);
+			return new GridCell(level, (long) Math.floor(longitude / cellSize), (long) Math.floor(latitude / cellSize));
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof GridCell)) {
+				return false;
+			}
+			GridCell that = (GridCell) o;
+			return level == that.level && x == that.x && y == that.y;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(level, x, y);
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package asegroup1.api.services.location;
+
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import asegroup1.api.controllers.LocationController;
+import asegroup1.api.daos.location.LocationDaoImpl;
+
+/**
+ * Keeps location_data small by rolling up locations older than the raw
+ * retention period into location_data_rollup, at one point per user per rollup
+ * interval, and deleting them. Rolled up points can themselves be deleted once
+ * older than the rollup retention period.
+ */
+
+@Service
+public class LocationRetentionServiceImpl {
+
+	private final static Logger logger = LogManager.getLogger(LocationController.class);
+
+	/**
+	 * Length of the period rolled up in each transaction, before rounding up to
+	 * a whole number of intervals
+	 */
+	private static final long ROLLUP_WINDOW_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+	private LocationDaoImpl locationDao;
+
+	private final boolean enabled;
+	private final int rollupIntervalSeconds;
+	private final int rawRetentionDays;
+	private final int rollupRetentionDays;
+
+	@Autowired
+	public LocationRetentionServiceImpl(LocationDaoImpl locationDao,
+			@Value("${location.retention.enabled:false}") boolean enabled,
+			@Value("${location.retention.rollup-interval-seconds:60}") int rollupIntervalSeconds,
+			@Value("${location.retention.raw-days:30}") int rawRetentionDays,
+			@Value("${location.retention.rollup-days:0}") int rollupRetentionDays) {
+		this.locationDao = locationDao;
+		this.enabled = enabled;
+		this.rollupIntervalSeconds = rollupIntervalSeconds;
+		this.rawRetentionDays = rawRetentionDays;
+		this.rollupRetentionDays = rollupRetentionDays;
+	}
+
+	@Scheduled(cron = "${location.retention.cron:0 30 3 * * *}")
+	public void applyRetention() {
+		if (!enabled) {
+			return;
+		}
+		long startTime = System.currentTimeMillis();
+		int rolledUp = rollUpBefore(getRawCutoff(startTime));
+
+		int deletedRollups = 0;
+		if (rollupRetentionDays > 0) {
+			deletedRollups = locationDao.deleteRollupsBefore(new Timestamp(startTime - TimeUnit.DAYS.toMillis(rollupRetentionDays)));
+		}
+		logger.info("Rolled up " + rolledUp + " locations and deleted " + deletedRollups + " rolled up points in "
+				+ (System.currentTimeMillis() - startTime) + "ms");
+	}
+
+	/**
+	 * Roll up every location before the cutoff, a window at a time so that no
+	 * single transaction holds locks over the whole table.
+	 *
+	 * @param cutoff aligned to the rollup interval, so no interval is split between runs
+	 * @return number of locations rolled up
+	 */
+	int rollUpBefore(Timestamp cutoff) {
+		Timestamp oldest = locationDao.getOldestLocationTime();
+		if (oldest == null || !oldest.before(cutoff)) {
+			return 0;
+		}
+		long intervalMillis = TimeUnit.SECONDS.toMillis(rollupIntervalSeconds);
+		long windowMillis = (ROLLUP_WINDOW_MILLIS + intervalMillis - 1) / intervalMillis * intervalMillis;
+
+		int rolledUp = 0;
+		long windowStart = alignToInterval(oldest.getTime());
+		while (windowStart < cutoff.getTime()) {
+			long windowEnd = Math.min(windowStart + windowMillis, cutoff.getTime());
+			rolledUp += locationDao.rollUpLocations(new Timestamp(windowStart), new Timestamp(windowEnd), rollupIntervalSeconds);
+			windowStart = windowEnd;
+		}
+		return rolledUp;
+	}
+
+	/**
+	 * @return the time before which locations are only held rolled up, once retention has run
+	 */
+	public Timestamp getRawCutoff(long now) {
+		return new Timestamp(alignToInterval(now - TimeUnit.DAYS.toMillis(rawRetentionDays)));
+	}
+
+	/**
+	 * @return true if locations from the given time may have been rolled up
+	 */
+	public boolean mayBeRolledUp(Timestamp from) {
+		return from == null || from.before(getRawCutoff(System.currentTimeMillis()));
+	}
+
+	private long alignToInterval(long millis) {
+		long intervalMillis = TimeUnit.SECONDS.toMillis(rollupIntervalSeconds);
+		return Math.floorDiv(millis, intervalMillis) * intervalMillis;
+	}
+}
@@ -2,10 +2,20 @@ package asegroup1.api.services.location;
 
 import java.io.IOException;
 import java.security.InvalidParameterException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.json.JSONObject;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import com.fasterxml.jackson.databind.JsonNode;
@@ -13,9 +23,14 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mashape.unirest.http.exceptions.UnirestException;
 
 import asegroup1.api.daos.landregistry.LandRegistryDaoImpl;
+import asegroup1.api.daos.landregistry.PostcodeSpatialIndex;
 import asegroup1.api.daos.location.LocationDaoImpl;
+import asegroup1.api.models.LocationArea;
 import asegroup1.api.models.LocationData;
+import asegroup1.api.models.LocationInsertStatus;
+import asegroup1.api.models.TrajectoryPrices;
 import asegroup1.api.services.ServiceImpl;
+import asegroup1.api.services.metrics.MetricsServiceImpl;
 
 /**
  * @author Greg Mitten gregoryamitten@gmail.com
@@ -30,27 +45,222 @@ public class LocationServiceImpl extends ServiceImpl<LocationData> {
 
 	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
 
+	private final MetricsServiceImpl metricsService;
+	private final LocationRetentionServiceImpl retentionService;
+
+	private final boolean writeBehindEnabled;
+	private final int writeBehindShards;
+	private final int writeBehindCapacity;
+	private final int writeBehindBatchSize;
+	private final long writeBehindFlushIntervalMillis;
+	private final long writeBehindShutdownTimeoutMillis;
+	private final double trajectoryMaxPostcodeDistanceMetres;
+
+	// Null unless write behind is enabled, in which case locations are written in the background
+	private LocationWriteBuffer writeBuffer;
+
     @Autowired
-	public LocationServiceImpl(LocationDaoImpl locationDao, LandRegistryDaoImpl landRegistryDao) {
+	public LocationServiceImpl(LocationDaoImpl locationDao, LandRegistryDaoImpl landRegistryDao, MetricsServiceImpl metricsService,
+			LocationRetentionServiceImpl retentionService,
+			@Value("${location.write-behind.enabled:false}") boolean writeBehindEnabled,
+			@Value("${location.write-behind.shards:8}") int writeBehindShards,
+			@Value("${location.write-behind.capacity:20000}") int writeBehindCapacity,
+			@Value("${location.write-behind.batch-size:500}") int writeBehindBatchSize,
+			@Value("${location.write-behind.flush-interval-ms:1000}") long writeBehindFlushIntervalMillis,
+			@Value("${location.write-behind.shutdown-timeout-ms:30000}") long writeBehindShutdownTimeoutMillis,
+			@Value("${location.trajectory.max-postcode-distance-metres:2000}") double trajectoryMaxPostcodeDistanceMetres) {
         super(locationDao);
         this.locationDao = locationDao;
         this.landRegistryDao = landRegistryDao;
+        this.metricsService = metricsService;
+        this.retentionService = retentionService;
+        this.writeBehindEnabled = writeBehindEnabled;
+        this.writeBehindShards = writeBehindShards;
+        this.writeBehindCapacity = writeBehindCapacity;
+        this.writeBehindBatchSize = writeBehindBatchSize;
+        this.writeBehindFlushIntervalMillis = writeBehindFlushIntervalMillis;
+        this.writeBehindShutdownTimeoutMillis = writeBehindShutdownTimeoutMillis;
+        this.trajectoryMaxPostcodeDistanceMetres = trajectoryMaxPostcodeDistanceMetres;
     }
 
+	@PostConstruct
+	public void createWriteBuffer() {
+		if (!writeBehindEnabled) {
+			return;
+		}
+		writeBuffer = new LocationWriteBuffer(writeBehindShards, writeBehindCapacity, writeBehindBatchSize,
+				writeBehindFlushIntervalMillis, locationDao::addAll);
+		if (metricsService != null) {
+			metricsService.register("location.write-buffer.queued", writeBuffer::getQueuedLocations);
+			metricsService.register("location.write-buffer.written", writeBuffer::getFlushedLocations);
+			metricsService.register("location.write-buffer.failed", writeBuffer::getFailedLocations);
+			metricsService.register("location.write-buffer.last-flush-ms", writeBuffer::getLastFlushMillis);
+			metricsService.register("location.write-buffer.average-flush-ms", writeBuffer::getAverageFlushMillis);
+		}
+	}
+
+	@PreDestroy
+	public void flushWriteBuffer() {
+		if (writeBuffer != null) {
+			writeBuffer.close(writeBehindShutdownTimeoutMillis);
+		}
+	}
+
+	/**
+	 * @return true if locations are queued by {@link #create(LocationData)} and written in the background
+	 */
+	public boolean isWriteBehind() {
+		return writeBuffer != null;
+	}
+
+	/**
+	 * Add a location. With write behind enabled the location is only queued,
+	 * with its time truncated to the second as it is stored, and a location
+	 * already stored is silently skipped when the queue is written.
+	 *
+	 * @throws InvalidParameterException if the location has no time or an invalid position, or is already stored
+	 * @throws WriteBufferFullException  if write behind is enabled and the queue is full
+	 */
 	@Override
 	public void create(LocationData t) {
-		if (locationDao.getLocationDataById(t.getUserId(), t.getTimelog()).size() == 0) {
-			super.create(t);
-		} else {
+		if (t == null || !isValidLocation(t.getUserId(), t)) {
+			throw new InvalidParameterException("Location must have a user, a time and a valid position");
+		}
+		if (writeBuffer != null) {
+			// Queued as a copy, so the caller cannot change it before it is written
+			if (!writeBuffer.offer(withTimelog(t, LocationDaoImpl.truncateToSecond(t.getTimelog())))) {
+				throw new WriteBufferFullException("Too many locations are waiting to be added, try again later");
+			}
+		} else if (!locationDao.insertIfAbsent(t)) {
 			throw new InvalidParameterException("Entry already exists");
 		}
 
 	}
 
+	/**
+	 * Add many locations of one user at once. Locations already stored, and
+	 * repeats within the batch, are reported as duplicates rather than failing
+	 * the batch. Times are truncated to the second, as they are stored.
+	 *
+	 * @param userId    user every location must belong to, checked to exist by the caller
+	 * @param locations locations to add
+	 * @return the status of each location, in the same order as the locations
+	 */
+	public List<LocationInsertStatus> createAll(String userId, List<LocationData> locations) {
+		LocationInsertStatus[] statuses = new LocationInsertStatus[locations.size()];
+		List<LocationData> validLocations = new ArrayList<>();
+		List<Integer> validIndexes = new ArrayList<>();
+		Set<Timestamp> batchTimelogs = new HashSet<>();
+		Timestamp earliest = null, latest = null;
+
+		for (int i = 0; i < locations.size(); i++) {
+			LocationData location = locations.get(i);
+			if (!isValidLocation(userId, location)) {
+				statuses[i] = LocationInsertStatus.INVALID;
+				continue;
+			}
+			Timestamp timelog = LocationDaoImpl.truncateToSecond(location.getTimelog());
+			if (!batchTimelogs.add(timelog)) {
+				statuses[i] = LocationInsertStatus.DUPLICATE;
+				continue;
+			}
+			validLocations.add(withTimelog(location, timelog));
+			validIndexes.add(i);
+			earliest = earliest == null || timelog.before(earliest) ? timelog : earliest;
+			latest = latest == null || timelog.after(latest) ? timelog : latest;
+		}
+
+		if (!validLocations.isEmpty()) {
+			Set<Timestamp> storedTimelogs = locationDao.getTimelogs(userId, earliest, latest);
+			List<LocationData> newLocations = new ArrayList<>();
+			List<Integer> newIndexes = new ArrayList<>();
+			for (int i = 0; i < validLocations.size(); i++) {
+				if (storedTimelogs.contains(validLocations.get(i).getTimelog())) {
+					statuses[validIndexes.get(i)] = LocationInsertStatus.DUPLICATE;
+				} else {
+					newLocations.add(validLocations.get(i));
+					newIndexes.add(validIndexes.get(i));
+				}
+			}
+
+			int[] insertedRows = locationDao.addAll(newLocations);
+			for (int i = 0; i < newIndexes.size(); i++) {
+				// A location stored by another request since the check is ignored by the insert
+				statuses[newIndexes.get(i)] = insertedRows[i] == 0 ? LocationInsertStatus.DUPLICATE : LocationInsertStatus.ADDED;
+			}
+		}
+		return Arrays.asList(statuses);
+	}
+
+	/**
+	 * @return a copy of the location at another time, leaving the caller's location unchanged
+	 */
+	private static LocationData withTimelog(LocationData location, Timestamp timelog) {
+		LocationData copy = new LocationData();
+		copy.setUserId(location.getUserId());
+		copy.setTimelog(timelog);
+		copy.setLongitude(location.getLongitude());
+		copy.setLatitude(location.getLatitude());
+		copy.setAltitude(location.getAltitude());
+		copy.setDelivered(location.getDelivered());
+		return copy;
+	}
+
+	private static boolean isValidLocation(String userId, LocationData location) {
+		return location != null && location.getTimelog() != null && userId != null && userId.equals(location.getUserId())
+				&& Math.abs(location.getLatitude()) <= 90 && Math.abs(location.getLongitude()) <= 180;
+	}
+
 	public List<LocationData> getLocationData(String userID){
 		return locationDao.getUserLocations(userID);
     }
 
+	/**
+	 * Rolled up locations are only read if the range reaches back past the raw
+	 * retention period.
+	 *
+	 * @see LocationDaoImpl#getUserLocations(String, Timestamp, Timestamp, Timestamp, int, boolean)
+	 */
+	public List<LocationData> getLocationData(String userID, Timestamp from, Timestamp to, Timestamp after, int limit) {
+		return locationDao.getUserLocations(userID, from, to, after, limit, mayBeRolledUp(after != null ? after : from));
+	}
+
+	/**
+	 * @see LocationDaoImpl#getUserLocationsInArea(String, LocationArea, Timestamp, Timestamp, Timestamp, int, boolean)
+	 */
+	public List<LocationData> getLocationDataInArea(String userID, LocationArea area, Timestamp from, Timestamp to, Timestamp after,
+			int limit) {
+		return locationDao.getUserLocationsInArea(userID, area, from, to, after, limit, mayBeRolledUp(after != null ? after : from));
+	}
+
+	/**
+	 * @see LocationDaoImpl#streamUserLocations(String, Timestamp, Timestamp, boolean, Consumer)
+	 */
+	public void streamLocationData(String userID, Timestamp from, Timestamp to, Consumer<LocationData> consumer) {
+		locationDao.streamUserLocations(userID, from, to, mayBeRolledUp(from), consumer);
+	}
+
+	/**
+	 * Attributes each of the user's locations in the range to its nearest
+	 * postcode, using the in memory postcode index rather than a query per
+	 * location, and totals the prices of the postcodes passed through.
+	 *
+	 * @return the prices along the track, or null if the postcode index has not been loaded
+	 */
+	public TrajectoryPrices getTrajectoryPrices(String userID, Timestamp from, Timestamp to) {
+		PostcodeSpatialIndex index = landRegistryDao == null ? null : landRegistryDao.getSpatialIndex();
+		if (index == null) {
+			return null;
+		}
+		TrajectoryPriceAccumulator accumulator = new TrajectoryPriceAccumulator(index, trajectoryMaxPostcodeDistanceMetres);
+		streamLocationData(userID, from, to, accumulator);
+		return accumulator.getTrajectoryPrices();
+	}
+
+	private boolean mayBeRolledUp(Timestamp from) {
+		return retentionService == null || retentionService.mayBeRolledUp(from);
+	}
+
 	public JsonNode getAddressCoordinates(String address) throws UnirestException, IOException {
     	//"United Kingdom" appended to help google infer what data is wanted, as we don't support any other country.
 		return convertJSONObjectToObjectNode(landRegistryDao.getGeoLocationData(address.replace(" ", "+") + "United+Kingdom"));
@@ -0,0 +1,223 @@
+package asegroup1.api.services.location;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import asegroup1.api.controllers.LocationController;
+import asegroup1.api.models.LocationData;
+
+/**
+ * Holds locations in memory and writes them to the database in batches from
+ * background threads. Locations are split between shards by user, each with
+ * its own bounded queue and flushing thread, so a user's locations are always
+ * written in the order they arrived.
+ *
+ * A batch is written once it is full or once its first location has waited for
+ * the flush interval, whichever comes first.
+ */
+public class LocationWriteBuffer {
+
+	private final static Logger logger = LogManager.getLogger(LocationController.class);
+
+	private final List<BlockingQueue<LocationData>> shards;
+	private final List<Thread> flushers;
+	private final int batchSize;
+	private final long flushIntervalNanos;
+	private final Consumer<List<LocationData>> writer;
+
+	private volatile boolean running = true;
+	// Held to read while offering and to write while closing, so no location
+	// is queued once close has started
+	private final ReadWriteLock closing = new ReentrantReadWriteLock();
+
+	private final AtomicLong flushes = new AtomicLong();
+	private final AtomicLong flushedLocations = new AtomicLong();
+	private final AtomicLong failedLocations = new AtomicLong();
+	private final AtomicLong totalFlushNanos = new AtomicLong();
+	private volatile long lastFlushMillis;
+
+	/**
+	 * @param shardCount          number of queues and flushing threads
+	 * @param capacity            most locations held across every shard
+	 * @param batchSize           most locations written at once
+	 * @param flushIntervalMillis longest a location waits before its batch is written
+	 * @param writer              writes a batch of locations to the database
+	 */
+	public LocationWriteBuffer(int shardCount, int capacity, int batchSize, long flushIntervalMillis, Consumer<List<LocationData>> writer) {
+		this.batchSize = batchSize;
+		this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+		this.writer = writer;
+
+		shards = new ArrayList<>(shardCount);
+		flushers = new ArrayList<>(shardCount);
+		for (int i = 0; i < shardCount; i++) {
+			BlockingQueue<LocationData> shard = new ArrayBlockingQueue<>(Math.max(1, capacity / shardCount));
+			shards.add(shard);
+
+			Thread flusher = new Thread(() -> flushContinuously(shard), "location-writer-" + (i + 1));
+			flusher.setDaemon(true);
+			flushers.add(flusher);
+			flusher.start();
+		}
+	}
+
+	/**
+	 * Queue a location to be written.
+	 *
+	 * @return false if the location's shard is full or the buffer is closed, in which case it is not queued
+	 */
+	public boolean offer(LocationData location) {
+		closing.readLock().lock();
+		try {
+			if (!running) {
+				return false;
+			}
+			int shard = Math.floorMod(String.valueOf(location.getUserId()).hashCode(), shards.size());
+			return shards.get(shard).offer(location);
+		} finally {
+			closing.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Stop accepting locations and wait for those already queued to be written.
+	 * Any still queued once the timeout has passed are counted as failed.
+	 *
+	 * @param timeoutMillis longest to wait for the queues to empty
+	 * @return true if every queued location was written
+	 */
+	public boolean close(long timeoutMillis) {
+		closing.writeLock().lock();
+		try {
+			running = false;
+		} finally {
+			closing.writeLock().unlock();
+		}
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		try {
+			for (Thread flusher : flushers) {
+				flusher.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		int unwritten = 0;
+		for (BlockingQueue<LocationData> shard : shards) {
+			List<LocationData> lost = new ArrayList<>();
+			shard.drainTo(lost);
+			unwritten += lost.size();
+		}
+		if (unwritten > 0) {
+			failedLocations.addAndGet(unwritten);
+			logger.error("Shut down with " + unwritten + " locations still waiting to be written");
+		}
+		return unwritten == 0;
+	}
+
+	private void flushContinuously(BlockingQueue<LocationData> shard) {
+		List<LocationData> batch = new ArrayList<>(batchSize);
+		while (running || !shard.isEmpty()) {
+			try {
+				LocationData first = shard.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+
+				long deadline = System.nanoTime() + flushIntervalNanos;
+				while (batch.size() < batchSize) {
+					shard.drainTo(batch, batchSize - batch.size());
+					long remaining = deadline - System.nanoTime();
+					if (batch.size() >= batchSize || remaining <= 0 || !running) {
+						break;
+					}
+					LocationData next = shard.poll(remaining, TimeUnit.NANOSECONDS);
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+				}
+			} catch (InterruptedException e) {
+				// Write what has been taken from the queue before stopping
+				running = false;
+			}
+
+			if (!batch.isEmpty()) {
+				flush(batch);
+				batch.clear();
+			}
+		}
+	}
+
+	private void flush(List<LocationData> batch) {
+		long startTime = System.nanoTime();
+		write(batch);
+		long flushNanos = System.nanoTime() - startTime;
+		totalFlushNanos.addAndGet(flushNanos);
+		flushes.incrementAndGet();
+		lastFlushMillis = TimeUnit.NANOSECONDS.toMillis(flushNanos);
+	}
+
+	/**
+	 * Writes a batch, and if that fails writes each half of it separately, so
+	 * a location that cannot be written only loses itself rather than its batch.
+	 */
+	private void write(List<LocationData> batch) {
+		try {
+			writer.accept(batch);
+			flushedLocations.addAndGet(batch.size());
+		} catch (RuntimeException e) {
+			if (batch.size() == 1) {
+				failedLocations.incrementAndGet();
+				logger.error("Unable to write buffered location of user " + batch.get(0).getUserId(), e);
+				return;
+			}
+			logger.warn("Unable to write " + batch.size() + " buffered locations, retrying in halves: " + e);
+			int half = batch.size() / 2;
+			write(batch.subList(0, half));
+			write(batch.subList(half, batch.size()));
+		}
+	}
+
+	/**
+	 * @return number of locations waiting to be written
+	 */
+	public int getQueuedLocations() {
+		int queued = 0;
+		for (BlockingQueue<LocationData> shard : shards) {
+			queued += shard.size();
+		}
+		return queued;
+	}
+
+	public long getFlushedLocations() {
+		return flushedLocations.get();
+	}
+
+	/**
+	 * @return number of locations lost because they could not be written
+	 */
+	public long getFailedLocations() {
+		return failedLocations.get();
+	}
+
+	public long getLastFlushMillis() {
+		return lastFlushMillis;
+	}
+
+	public double getAverageFlushMillis() {
+		long flushCount = flushes.get();
+		return flushCount == 0 ? 0 : totalFlushNanos.get() / (flushCount * 1e6);
+	}
+}
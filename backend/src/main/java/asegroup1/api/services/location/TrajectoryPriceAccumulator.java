@@ -0,0 +1,119 @@
+package asegroup1.api.services.location;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import asegroup1.api.daos.landregistry.PostcodeSpatialIndex;
+import asegroup1.api.models.LocationData;
+import asegroup1.api.models.TrajectoryPrices;
+import asegroup1.api.models.TrajectoryPrices.PostcodeVisit;
+
+/**
+ * Attributes each location of a track to its nearest postcode in the
+ * {@link PostcodeSpatialIndex}, and totals the prices of the postcodes passed
+ * through. Locations are expected in time order, as they are streamed from the
+ * database.
+ */
+public class TrajectoryPriceAccumulator implements Consumer<LocationData> {
+
+	private final PostcodeSpatialIndex index;
+	private final double maxDistanceMetres;
+
+	// Visited postcodes by tree position, in the order they were first reached
+	private final Map<Integer, Visit> visits = new LinkedHashMap<>();
+
+	private int locations;
+	private int matchedLocations;
+
+	private int lastPosition = -1;
+	private float lastLatitude = Float.NaN;
+	private float lastLongitude = Float.NaN;
+
+	/**
+	 * @param index             postcodes to attribute locations to
+	 * @param maxDistanceMetres furthest a location may be from its postcode, further locations are ignored
+	 */
+	public TrajectoryPriceAccumulator(PostcodeSpatialIndex index, double maxDistanceMetres) {
+		this.index = index;
+		this.maxDistanceMetres = maxDistanceMetres;
+	}
+
+	@Override
+	public void accept(LocationData location) {
+		locations++;
+
+		// A stationary device sends the same position repeatedly, so the last search is reused
+		int position;
+		if (location.getLatitude() == lastLatitude && location.getLongitude() == lastLongitude) {
+			position = lastPosition;
+		} else {
+			position = index.findNearest(location.getLatitude(), location.getLongitude(), maxDistanceMetres);
+			lastLatitude = location.getLatitude();
+			lastLongitude = location.getLongitude();
+		}
+
+		if (position >= 0) {
+			matchedLocations++;
+			Visit visit = visits.get(position);
+			if (visit == null) {
+				visit = new Visit(location.getTimelog());
+				visits.put(position, visit);
+			}
+			visit.add(location.getTimelog(), position != lastPosition);
+		}
+		lastPosition = position;
+	}
+
+	public TrajectoryPrices getTrajectoryPrices() {
+		List<PostcodeVisit> postcodes = new ArrayList<>(visits.size());
+		int pricedPostcodes = 0;
+		int pricedLocations = 0;
+		double priceTotal = 0;
+		double weightedPriceTotal = 0;
+		Long minPrice = null;
+		Long maxPrice = null;
+
+		for (Map.Entry<Integer, Visit> entry : visits.entrySet()) {
+			Visit visit = entry.getValue();
+			long price = index.getAveragePrice(entry.getKey());
+			if (price > 0) {
+				pricedPostcodes++;
+				pricedLocations += visit.locations;
+				priceTotal += price;
+				weightedPriceTotal += (double) price * visit.locations;
+				minPrice = minPrice == null ? price : Math.min(minPrice, price);
+				maxPrice = maxPrice == null ? price : Math.max(maxPrice, price);
+			}
+			postcodes.add(new PostcodeVisit(index.getPostcode(entry.getKey()), price > 0 ? price : null, visit.locations, visit.visits,
+					visit.firstVisited, visit.lastVisited));
+		}
+
+		return new TrajectoryPrices(locations, matchedLocations,
+				pricedPostcodes == 0 ? null : Math.round(priceTotal / pricedPostcodes),
+				pricedLocations == 0 ? null : Math.round(weightedPriceTotal / pricedLocations),
+				minPrice, maxPrice, postcodes);
+	}
+
+	private static final class Visit {
+		private int locations;
+		private int visits;
+		private final Timestamp firstVisited;
+		private Timestamp lastVisited;
+
+		private Visit(Timestamp firstVisited) {
+			this.firstVisited = firstVisited;
+		}
+
+		private void add(Timestamp time, boolean entered) {
+			locations++;
+			if (entered) {
+				visits++;
+			}
+			lastVisited = time;
+		}
+	}
+}
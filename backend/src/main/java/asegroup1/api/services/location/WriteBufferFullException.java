@@ -0,0 +1,13 @@
+package asegroup1.api.services.location;
+
+/**
+ * Thrown when a location cannot be queued because the write buffer is full
+ */
+public class WriteBufferFullException extends RuntimeException {
+
+	private static final long serialVersionUID = 4410839152790153761L;
+
+	public WriteBufferFullException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,38 @@
+package asegroup1.api.services.metrics;
+
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Collects named metrics from across the application so that they can be
+ * reported from one endpoint. Each metric is read from its supplier when the
+ * metrics are requested.
+ */
+@Service
+public class MetricsServiceImpl {
+
+	private final Map<String, Supplier<?>> metrics = new ConcurrentHashMap<>();
+
+	/**
+	 * Register a metric, replacing any metric already registered with the name.
+	 *
+	 * @param name   unique name of the metric, e.g. "landregistry.viewport-cache"
+	 * @param metric supplies the current value, which must be serialisable to JSON
+	 */
+	public void register(String name, Supplier<?> metric) {
+		metrics.put(name, metric);
+	}
+
+	/**
+	 * @return the current value of every registered metric, ordered by name
+	 */
+	public Map<String, Object> getMetrics() {
+		TreeMap<String, Object> values = new TreeMap<>();
+		metrics.forEach((name, metric) -> values.put(name, metric.get()));
+		return values;
+	}
+}
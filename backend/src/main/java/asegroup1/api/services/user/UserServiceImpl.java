@@ -4,12 +4,22 @@ import asegroup1.api.controllers.LandRegistryController;
 import asegroup1.api.daos.user.UserDaoImpl;
 import asegroup1.api.models.UserData;
 import asegroup1.api.services.ServiceImpl;
+import asegroup1.api.services.cache.ExpiringLruCache;
+import asegroup1.api.services.metrics.MetricsServiceImpl;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import java.util.concurrent.TimeUnit;
+
 /**
+ * Users are looked up through a cache of known user ids, as ids never change
+ * once added. Ids that were not found are also remembered for a short time, so
+ * repeated posts from an unknown user do not each query the database.
+ *
  * @author Greg Mitten gregoryamitten@gmail.com
  * @author Rikkey Paal
  */
@@ -19,11 +29,70 @@ public class UserServiceImpl extends ServiceImpl<UserData> {
 	private UserDaoImpl userDataDao;
 	private final static Logger logger = LogManager.getLogger(LandRegistryController.class);
 
+	private final MetricsServiceImpl metricsService;
+	private final int maxEntries;
+	private final long ttlMinutes;
+	private final int negativeMaxEntries;
+	private final long negativeTtlSeconds;
+
+	// Null until created, in which case every lookup goes to the database
+	private ExpiringLruCache<String, UserData> knownUsers;
+	private ExpiringLruCache<String, Boolean> unknownUsers;
 
 	@Autowired
-	public UserServiceImpl(UserDaoImpl dao) {
+	public UserServiceImpl(UserDaoImpl dao, MetricsServiceImpl metricsService,
+			@Value("${user.cache.max-entries:100000}") int maxEntries,
+			@Value("${user.cache.ttl-minutes:60}") long ttlMinutes,
+			@Value("${user.cache.negative-max-entries:10000}") int negativeMaxEntries,
+			@Value("${user.cache.negative-ttl-seconds:30}") long negativeTtlSeconds) {
 		super(dao);
 		userDataDao = dao;
+		this.metricsService = metricsService;
+		this.maxEntries = maxEntries;
+		this.ttlMinutes = ttlMinutes;
+		this.negativeMaxEntries = negativeMaxEntries;
+		this.negativeTtlSeconds = negativeTtlSeconds;
+	}
+
+	@PostConstruct
+	public void createCaches() {
+		knownUsers = new ExpiringLruCache<>(maxEntries, TimeUnit.MINUTES.toMillis(ttlMinutes));
+		unknownUsers = new ExpiringLruCache<>(negativeMaxEntries, TimeUnit.SECONDS.toMillis(negativeTtlSeconds));
+		if (metricsService != null) {
+			metricsService.register("user.known-cache", knownUsers::getStatistics);
+			metricsService.register("user.unknown-cache", unknownUsers::getStatistics);
+		}
+	}
+
+	/**
+	 * @return the user, or null if there is no user with the id
+	 */
+	@Override
+	public UserData get(String id) {
+		if (knownUsers == null || id == null) {
+			return super.get(id);
+		}
+		UserData user = knownUsers.get(id);
+		if (user != null || unknownUsers.get(id) != null) {
+			return user;
+		}
+
+		user = super.get(id);
+		if (user != null) {
+			knownUsers.put(id, user);
+		} else {
+			unknownUsers.put(id, Boolean.TRUE);
+		}
+		return user;
+	}
+
+	@Override
+	public void delete(String id) {
+		super.delete(id);
+		if (knownUsers != null) {
+			knownUsers.invalidate(id);
+			unknownUsers.put(id, Boolean.TRUE);
+		}
 	}
 
 	public int add(String key) {
@@ -32,7 +101,12 @@ public class UserServiceImpl extends ServiceImpl<UserData> {
 		}
 		logger.info("Adding: " + key);
 		userDataDao.add(new UserData(key));
-		return (userDataDao.get(key) == null ? 1 : 0);
+		UserData user = userDataDao.get(key);
+		if (user != null && knownUsers != null) {
+			unknownUsers.invalidate(key);
+			knownUsers.put(key, user);
+		}
+		return (user == null ? 1 : 0);
 	}
 
 }
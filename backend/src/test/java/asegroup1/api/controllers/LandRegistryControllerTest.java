@@ -3,11 +3,14 @@ package asegroup1.api.controllers;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.fail;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.security.InvalidParameterException;
 import java.util.Arrays;
 import java.util.List;
 
@@ -18,7 +21,15 @@ import org.springframework.http.HttpStatus;
 
 import com.mashape.unirest.http.exceptions.UnirestException;
 
+import asegroup1.api.models.PostCodeCoordinates;
+import asegroup1.api.models.PriceRefreshJob;
+import asegroup1.api.models.TransactionImport;
+import asegroup1.api.models.TransactionImport.Mode;
+import asegroup1.api.services.http.CircuitOpenException;
 import asegroup1.api.services.landregistry.LandRegistryServiceImpl;
+import asegroup1.api.services.landregistry.PostcodeLookupServiceImpl;
+import asegroup1.api.services.landregistry.PriceRefreshJobServiceImpl;
+import asegroup1.api.services.landregistry.TransactionImportServiceImpl;
 
 class LandRegistryControllerTest {
 
@@ -36,7 +47,7 @@ class LandRegistryControllerTest {
 			object.put("left", 1);
 			object.put("right", 1);
 
-			assertEquals(items, new LandRegistryController(mockedService).getDataToDisplayOnMap(object).getBody());
+			assertEquals(items, new LandRegistryController(mockedService, null, null, null).getDataToDisplayOnMap(object).getBody());
 			
 		} catch (UnirestException | IOException | JSONException e) {
 			fail(e);
@@ -70,10 +81,10 @@ class LandRegistryControllerTest {
 				if (tmp >= 1) {
 					object.put("right", 1);
 				}
-				assertEquals(HttpStatus.BAD_REQUEST, new LandRegistryController(mockedService).getDataToDisplayOnMap(object).getStatusCode());
+				assertEquals(HttpStatus.BAD_REQUEST, new LandRegistryController(mockedService, null, null, null).getDataToDisplayOnMap(object).getStatusCode());
 			}
 
-			assertEquals(HttpStatus.BAD_REQUEST, new LandRegistryController(mockedService).getDataToDisplayOnMap(null).getStatusCode());
+			assertEquals(HttpStatus.BAD_REQUEST, new LandRegistryController(mockedService, null, null, null).getDataToDisplayOnMap(null).getStatusCode());
 
 		} catch (UnirestException | IOException | JSONException e) {
 			fail(e);
@@ -83,37 +94,117 @@ class LandRegistryControllerTest {
 	@Test
 	void testUpdateTransactionValidParameter() {
 		LandRegistryServiceImpl mockedService = mock(LandRegistryServiceImpl.class);
-		try {
-			doNothing().when(mockedService).updatePostcodeDatabase(any());
-			// check every valid postcode format
-			String[] validPostcode = new String[] { "AA9A 9AA", "A9A 9AA", "A9 9AA", "A99 9AA", "AA9 9AA", "AA99 9AA" };
-			for (String postcode : validPostcode) {
-				String acc = "";
-				for (char c : postcode.toCharArray()) {
-					acc += c;
-					assertEquals(HttpStatus.OK, new LandRegistryController(mockedService).updateTransactionData(acc).getStatusCode());
-				}
+		PriceRefreshJobServiceImpl mockedJobService = mock(PriceRefreshJobServiceImpl.class);
+		when(mockedJobService.startJob(any())).thenReturn("job-id");
+		LandRegistryController controller = new LandRegistryController(mockedService, mockedJobService, null, null);
+
+		// check every valid postcode format
+		String[] validPostcode = new String[] { "AA9A 9AA", "A9A 9AA", "A9 9AA", "A99 9AA", "AA9 9AA", "AA99 9AA" };
+		for (String postcode : validPostcode) {
+			String acc = "";
+			for (char c : postcode.toCharArray()) {
+				acc += c;
+				assertEquals(HttpStatus.ACCEPTED, controller.updateTransactionData(acc).getStatusCode());
 			}
-			assertEquals(HttpStatus.OK, new LandRegistryController(mockedService).updateTransactionData(null).getStatusCode());
-		} catch (IOException | UnirestException e) {
-			fail(e);
 		}
+		assertEquals(HttpStatus.ACCEPTED, controller.updateTransactionData(null).getStatusCode());
+		assertEquals("job-id", controller.updateTransactionData(null).getBody());
+		verify(mockedJobService, atLeastOnce()).startJob("");
 	}
 
 	@Test
 	void testUpdateTransactionInvalidParameter() {
 		LandRegistryServiceImpl mockedService = mock(LandRegistryServiceImpl.class);
-		try {
-			doNothing().when(mockedService).updatePostcodeDatabase(any());
-			String[] invalidPostcode = new String[] { "9", ".", "*", "%", "\"", "AA999AA" };
-			for (String postcode : invalidPostcode) {
-				assertEquals(HttpStatus.BAD_REQUEST, new LandRegistryController(mockedService).updateTransactionData(postcode).getStatusCode());
-			}
+		PriceRefreshJobServiceImpl mockedJobService = mock(PriceRefreshJobServiceImpl.class);
+		LandRegistryController controller = new LandRegistryController(mockedService, mockedJobService, null, null);
 
-		} catch (IOException | UnirestException e) {
-			e.printStackTrace();
+		String[] invalidPostcode = new String[] { "9", ".", "*", "%", "\"", "AA999AA" };
+		for (String postcode : invalidPostcode) {
+			assertEquals(HttpStatus.BAD_REQUEST, controller.updateTransactionData(postcode).getStatusCode());
 		}
+		verify(mockedJobService, never()).startJob(any());
 	}
 
+	@Test
+	void testGetUpdateStatus() {
+		PriceRefreshJobServiceImpl mockedJobService = mock(PriceRefreshJobServiceImpl.class);
+		PriceRefreshJob job = new PriceRefreshJob("job-id", "BN23", null);
+		when(mockedJobService.getJobStatus("job-id")).thenReturn(job);
+		LandRegistryController controller = new LandRegistryController(mock(LandRegistryServiceImpl.class), mockedJobService, null, null);
+
+		assertEquals(HttpStatus.OK, controller.getUpdateStatus("job-id").getStatusCode());
+		assertEquals(job, controller.getUpdateStatus("job-id").getBody());
+		assertEquals(HttpStatus.NOT_FOUND, controller.getUpdateStatus("unknown").getStatusCode());
+	}
+
+	@Test
+	void testGetNearestPostcode() {
+		PostcodeLookupServiceImpl mockedLookupService = mock(PostcodeLookupServiceImpl.class);
+		PostCodeCoordinates postcode = new PostCodeCoordinates();
+		postcode.setPostcode("BN14 7BH");
+		when(mockedLookupService.getNearestPostcode(50.8, -0.37, null)).thenReturn(postcode);
+		when(mockedLookupService.getNearestPostcode(60, -20, null)).thenReturn(null);
+		when(mockedLookupService.getNearestPostcode(91, 0, null)).thenThrow(new InvalidParameterException("Invalid"));
+		when(mockedLookupService.getNearestPostcode(51, 0, null)).thenThrow(new IllegalStateException("Not loaded"));
+		LandRegistryController controller = new LandRegistryController(mock(LandRegistryServiceImpl.class), null, mockedLookupService, null);
+
+		assertEquals(postcode, controller.getNearestPostcode(50.8, -0.37, null).getBody());
+		assertEquals(HttpStatus.NOT_FOUND, controller.getNearestPostcode(60, -20, null).getStatusCode());
+		assertEquals(HttpStatus.BAD_REQUEST, controller.getNearestPostcode(91, 0, null).getStatusCode());
+		assertEquals(HttpStatus.SERVICE_UNAVAILABLE, controller.getNearestPostcode(51, 0, null).getStatusCode());
+	}
+
+	@Test
+	void testGetNearestPostcodes() {
+		PostcodeLookupServiceImpl mockedLookupService = mock(PostcodeLookupServiceImpl.class);
+		double[][] positions = {{50.8, -0.37}, {60, -20}};
+		when(mockedLookupService.getNearestPostcodes(positions, 100.0)).thenReturn(Arrays.asList(new PostCodeCoordinates(), null));
+		LandRegistryController controller = new LandRegistryController(mock(LandRegistryServiceImpl.class), null, mockedLookupService, null);
+
+		assertEquals(HttpStatus.OK, controller.getNearestPostcodes(positions, 100.0).getStatusCode());
+		assertEquals(2, ((List<?>) controller.getNearestPostcodes(positions, 100.0).getBody()).size());
+	}
+
+	@Test
+	void testGetDataToDisplayOnMapUpstreamFailing() throws Exception {
+		LandRegistryServiceImpl mockedService = mock(LandRegistryServiceImpl.class);
+		when(mockedService.getPositionInsideBounds(any())).thenThrow(new CircuitOpenException("Failing"));
+
+		JSONObject object = new JSONObject();
+		object.put("top", 1);
+		object.put("bottom", 1);
+		object.put("left", 1);
+		object.put("right", 1);
+
+		assertEquals(HttpStatus.SERVICE_UNAVAILABLE, new LandRegistryController(mockedService, null, null, null).getDataToDisplayOnMap(object).getStatusCode());
+	}
+
+	@Test
+	void testImportTransactions() throws IOException {
+		TransactionImportServiceImpl mockedImportService = mock(TransactionImportServiceImpl.class);
+		when(mockedImportService.startImport("pp-complete.csv", Mode.FULL)).thenReturn("import-id");
+		when(mockedImportService.startImport("pp-monthly-update.csv", Mode.DELTA)).thenReturn("delta-import-id");
+		when(mockedImportService.startImport("../secrets", Mode.FULL)).thenThrow(new InvalidParameterException("Outside import directory"));
+		when(mockedImportService.startImport("pp-2018.csv", Mode.FULL)).thenThrow(new IllegalStateException("Imports disabled"));
+		LandRegistryController controller = new LandRegistryController(mock(LandRegistryServiceImpl.class), null, null, mockedImportService);
+
+		assertEquals(HttpStatus.ACCEPTED, controller.importTransactions("pp-complete.csv", null).getStatusCode());
+		assertEquals("import-id", controller.importTransactions("pp-complete.csv", null).getBody());
+		assertEquals("delta-import-id", controller.importTransactions("pp-monthly-update.csv", "delta").getBody());
+		assertEquals(HttpStatus.BAD_REQUEST, controller.importTransactions("pp-monthly-update.csv", "partial").getStatusCode());
+		assertEquals(HttpStatus.BAD_REQUEST, controller.importTransactions("../secrets", "FULL").getStatusCode());
+		assertEquals(HttpStatus.SERVICE_UNAVAILABLE, controller.importTransactions("pp-2018.csv", null).getStatusCode());
+	}
+
+	@Test
+	void testGetImportStatus() {
+		TransactionImportServiceImpl mockedImportService = mock(TransactionImportServiceImpl.class);
+		TransactionImport transactionImport = new TransactionImport("import-id", "pp-complete.csv", 100, Mode.FULL, null);
+		when(mockedImportService.getImportStatus("import-id")).thenReturn(transactionImport);
+		LandRegistryController controller = new LandRegistryController(mock(LandRegistryServiceImpl.class), null, null, mockedImportService);
+
+		assertEquals(transactionImport, controller.getImportStatus("import-id").getBody());
+		assertEquals(HttpStatus.NOT_FOUND, controller.getImportStatus("unknown").getStatusCode());
+	}
 
 }
@@ -1,17 +1,41 @@
 package asegroup1.api.controllers;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
 import org.junit.jupiter.api.Test;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import asegroup1.api.models.LocationData;
+import asegroup1.api.models.LocationInsertStatus;
+import asegroup1.api.models.TrajectoryPrices;
 import asegroup1.api.models.UserData;
 import asegroup1.api.services.location.LocationServiceImpl;
+import asegroup1.api.services.location.WriteBufferFullException;
 import asegroup1.api.services.user.UserServiceImpl;
 
 class LocationControllerTest {
@@ -24,7 +48,7 @@ class LocationControllerTest {
 		LocationData data = new LocationData();
 		data.setUserId("test");
 
-		assertEquals(HttpStatus.BAD_REQUEST, new LocationController(null, userServiceImpl).postAddLocationData(data).getStatusCode());
+		assertEquals(HttpStatus.BAD_REQUEST, new LocationController(null, userServiceImpl, new ObjectMapper()).postAddLocationData(data).getStatusCode());
 	}
 
 	@Test
@@ -39,7 +63,175 @@ class LocationControllerTest {
 		LocationData data = new LocationData();
 		data.setUserId("test");
 
-		assertEquals(HttpStatus.OK, new LocationController(locationService, userServiceImpl).postAddLocationData(data).getStatusCode());
+		assertEquals(HttpStatus.OK, new LocationController(locationService, userServiceImpl, new ObjectMapper()).postAddLocationData(data).getStatusCode());
+	}
+
+	@Test
+	void testPostAddLocationDataBatchNoUser() {
+		UserServiceImpl userServiceImpl = mock(UserServiceImpl.class);
+		when(userServiceImpl.get(any())).thenReturn(null);
+		LocationServiceImpl locationService = mock(LocationServiceImpl.class);
+
+		List<LocationData> batch = Collections.singletonList(new LocationData());
+		assertEquals(HttpStatus.BAD_REQUEST,
+				new LocationController(locationService, userServiceImpl, new ObjectMapper()).postAddLocationDataBatch("test", batch).getStatusCode());
+		verify(locationService, never()).createAll(anyString(), any());
+	}
+
+	@Test
+	void testPostAddLocationDataBatchEmpty() {
+		UserServiceImpl userServiceImpl = mock(UserServiceImpl.class);
+		when(userServiceImpl.get(any())).thenReturn(new UserData());
+
+		assertEquals(HttpStatus.BAD_REQUEST,
+				new LocationController(null, userServiceImpl, new ObjectMapper()).postAddLocationDataBatch("test", Collections.emptyList()).getStatusCode());
+	}
+
+	@Test
+	void testPostAddLocationDataBatchUser() {
+		UserServiceImpl userServiceImpl = mock(UserServiceImpl.class);
+		when(userServiceImpl.get(any())).thenReturn(new UserData());
+
+		List<LocationInsertStatus> statuses = Arrays.asList(LocationInsertStatus.ADDED, LocationInsertStatus.DUPLICATE);
+		LocationServiceImpl locationService = mock(LocationServiceImpl.class);
+		when(locationService.createAll(any(), any())).thenReturn(statuses);
+
+		List<LocationData> batch = Arrays.asList(new LocationData(), new LocationData());
+		assertEquals(statuses, new LocationController(locationService, userServiceImpl, new ObjectMapper()).postAddLocationDataBatch("test", batch).getBody());
+		verify(userServiceImpl).get("test");
+	}
+
+	@Test
+	void testPostAddLocationDataBufferFull() {
+		UserServiceImpl userServiceImpl = mock(UserServiceImpl.class);
+		when(userServiceImpl.get(any())).thenReturn(new UserData());
+
+		LocationServiceImpl locationService = mock(LocationServiceImpl.class);
+		doThrow(new WriteBufferFullException("Full")).when(locationService).create(any());
+
+		LocationData data = new LocationData();
+		data.setUserId("test");
+
+		assertEquals(HttpStatus.TOO_MANY_REQUESTS, new LocationController(locationService, userServiceImpl, new ObjectMapper()).postAddLocationData(data).getStatusCode());
+	}
+
+	@Test
+	void testPostAddLocationDataWriteBehind() {
+		UserServiceImpl userServiceImpl = mock(UserServiceImpl.class);
+		when(userServiceImpl.get(any())).thenReturn(new UserData());
+
+		LocationServiceImpl locationService = mock(LocationServiceImpl.class);
+		when(locationService.isWriteBehind()).thenReturn(true);
+
+		LocationData data = new LocationData();
+		data.setUserId("test");
+
+		assertEquals(HttpStatus.ACCEPTED, new LocationController(locationService, userServiceImpl, new ObjectMapper()).postAddLocationData(data).getStatusCode());
+	}
+
+	private static LocationData createLocation(long time) {
+		LocationData data = new LocationData();
+		data.setUserId("test");
+		data.setTimelog(new Timestamp(time));
+		return data;
+	}
+
+	@Test
+	void testGetUserLocationPage() {
+		LocationServiceImpl locationService = mock(LocationServiceImpl.class);
+		when(locationService.getLocationData("test", null, null, new Timestamp(1000), 2))
+				.thenReturn(Arrays.asList(createLocation(2000), createLocation(3000)));
+		when(locationService.getLocationData("test", null, null, new Timestamp(3000), 2))
+				.thenReturn(Collections.singletonList(createLocation(4000)));
+		LocationController controller = new LocationController(locationService, null, new ObjectMapper());
+
+		ResponseEntity<?> fullPage = controller.getUserLocation("test", null, null, 1000L, 2);
+		assertEquals(HttpStatus.OK, fullPage.getStatusCode());
+		assertEquals("3000", fullPage.getHeaders().getFirst(LocationController.NEXT_PAGE_HEADER));
+
+		ResponseEntity<?> lastPage = controller.getUserLocation("test", null, null, 3000L, 2);
+		assertNull(lastPage.getHeaders().getFirst(LocationController.NEXT_PAGE_HEADER));
+	}
+
+	@Test
+	void testGetUserLocationInvalidLimit() {
+		LocationServiceImpl locationService = mock(LocationServiceImpl.class);
+		LocationController controller = new LocationController(locationService, null, new ObjectMapper());
+
+		assertEquals(HttpStatus.BAD_REQUEST, controller.getUserLocation("test", null, null, null, 0).getStatusCode());
+		assertEquals(HttpStatus.BAD_REQUEST,
+				controller.getUserLocation("test", null, null, null, LocationController.MAX_PAGE_SIZE + 1).getStatusCode());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void testStreamUserLocations() throws IOException {
+		LocationServiceImpl locationService = mock(LocationServiceImpl.class);
+		doAnswer(invocation -> {
+			Consumer<LocationData> consumer = invocation.getArgument(3);
+			consumer.accept(createLocation(1000));
+			consumer.accept(createLocation(2000));
+			return null;
+		}).when(locationService).streamLocationData(eq("test"), any(), any(), any());
+		LocationController controller = new LocationController(locationService, null, new ObjectMapper());
+
+		ByteArrayOutputStream ndjson = new ByteArrayOutputStream();
+		controller.streamUserLocations("test", null, null, "ndjson").getBody().writeTo(ndjson);
+		String[] lines = ndjson.toString("UTF-8").split("\n");
+		assertEquals(2, lines.length);
+		assertTrue(lines[0].startsWith("{") && lines[1].startsWith("{"));
+
+		ByteArrayOutputStream json = new ByteArrayOutputStream();
+		controller.streamUserLocations("test", null, null, "json").getBody().writeTo(json);
+		assertEquals(2, new ObjectMapper().readTree(json.toString("UTF-8")).size());
+	}
+
+	@Test
+	void testGetUserLocationInArea() {
+		LocationServiceImpl locationService = mock(LocationServiceImpl.class);
+		when(locationService.getLocationDataInArea(eq("test"), any(), any(), any(), any(), anyInt()))
+				.thenReturn(Collections.singletonList(createLocation(1000)));
+		LocationController controller = new LocationController(locationService, null, new ObjectMapper());
+
+		assertEquals(HttpStatus.OK,
+				controller.getUserLocationInArea("test", 50.8, -0.4, 50.9, -0.3, null, null, null, null, null, null, null).getStatusCode());
+		assertEquals(HttpStatus.OK,
+				controller.getUserLocationInArea("test", null, null, null, null, 50.8, -0.37, 500.0, null, null, null, 10).getStatusCode());
+		verify(locationService, times(2)).getLocationDataInArea(eq("test"), any(), any(), any(), any(), anyInt());
+	}
+
+	@Test
+	void testGetUserLocationInAreaInvalid() {
+		LocationServiceImpl locationService = mock(LocationServiceImpl.class);
+		LocationController controller = new LocationController(locationService, null, new ObjectMapper());
+
+		// Incomplete box
+		assertEquals(HttpStatus.BAD_REQUEST,
+				controller.getUserLocationInArea("test", 50.8, -0.4, null, -0.3, null, null, null, null, null, null, null).getStatusCode());
+		// Negative radius
+		assertEquals(HttpStatus.BAD_REQUEST,
+				controller.getUserLocationInArea("test", null, null, null, null, 50.8, -0.37, -5.0, null, null, null, null).getStatusCode());
+		verify(locationService, never()).getLocationDataInArea(any(), any(), any(), any(), any(), anyInt());
+	}
+
+	@Test
+	void testGetTrajectoryPrices() {
+		LocationServiceImpl locationService = mock(LocationServiceImpl.class);
+		when(locationService.getTrajectoryPrices(eq("test"), any(), any()))
+				.thenReturn(new TrajectoryPrices(0, 0, null, null, null, null, Collections.emptyList()));
+		LocationController controller = new LocationController(locationService, null, new ObjectMapper());
+
+		assertEquals(HttpStatus.OK, controller.getTrajectoryPrices("test", 1000L, 2000L).getStatusCode());
+		verify(locationService).getTrajectoryPrices("test", new Timestamp(1000), new Timestamp(2000));
+	}
+
+	@Test
+	void testGetTrajectoryPricesIndexNotLoaded() {
+		LocationServiceImpl locationService = mock(LocationServiceImpl.class);
+		when(locationService.getTrajectoryPrices(any(), any(), any())).thenReturn(null);
+
+		assertEquals(HttpStatus.SERVICE_UNAVAILABLE,
+				new LocationController(locationService, null, new ObjectMapper()).getTrajectoryPrices("test", null, null).getStatusCode());
 	}
 
 }
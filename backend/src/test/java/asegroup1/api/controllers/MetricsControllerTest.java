@@ -0,0 +1,29 @@
+package asegroup1.api.controllers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import asegroup1.api.services.metrics.MetricsServiceImpl;
+
+class MetricsControllerTest {
+
+	@Test
+	void testGetMetrics() {
+		MetricsServiceImpl mockedService = mock(MetricsServiceImpl.class);
+		Map<String, Object> metrics = Collections.singletonMap("landregistry.viewport-cache", 1);
+		when(mockedService.getMetrics()).thenReturn(metrics);
+
+		ResponseEntity<Map<String, Object>> response = new MetricsController(mockedService).getMetrics();
+
+		assertEquals(HttpStatus.OK, response.getStatusCode());
+		assertEquals(metrics, response.getBody());
+	}
+}
@@ -23,6 +23,10 @@ import asegroup1.api.services.user.UserServiceImpl;
 
 class UserControllerTest {
 
+	private static UserServiceImpl createUserService(UserDaoImpl dao) {
+		return new UserServiceImpl(dao, null, 100, 60, 100, 30);
+	}
+
     @Test
     void testIfUserControllerSendsRequestThroughToDao() {
         String userId = "test";
@@ -34,7 +38,7 @@ class UserControllerTest {
         when(userDaoMock.get(userId)).thenReturn(userData);
 
 
-        UserServiceImpl userService = new UserServiceImpl(userDaoMock);
+        UserServiceImpl userService = createUserService(userDaoMock);
         UserController userController = new UserController(userService);
 
         ResponseEntity<UserData> response = userController.getUserData("test");
@@ -47,7 +51,7 @@ class UserControllerTest {
 		UserDaoImpl userDaoMock = mock(UserDaoImpl.class);
 		when(userDaoMock.get(any())).thenReturn(new UserData());
 		doNothing().when(userDaoMock).add(any());
-		assertEquals(HttpStatus.BAD_REQUEST, new UserController(new UserServiceImpl(userDaoMock)).addUserData("test").getStatusCode());
+		assertEquals(HttpStatus.BAD_REQUEST, new UserController(createUserService(userDaoMock)).addUserData("test").getStatusCode());
 	}
 
 	@Test
@@ -55,7 +59,7 @@ class UserControllerTest {
 		UserDaoImpl userDaoMock = mock(UserDaoImpl.class);
 		when(userDaoMock.get(any())).thenReturn(null);
 		doNothing().when(userDaoMock).add(any());
-		assertEquals(HttpStatus.BAD_REQUEST, new UserController(new UserServiceImpl(userDaoMock)).addUserData("test").getStatusCode());
+		assertEquals(HttpStatus.BAD_REQUEST, new UserController(createUserService(userDaoMock)).addUserData("test").getStatusCode());
 	}
 
 	@Test
@@ -63,6 +67,6 @@ class UserControllerTest {
 		UserDaoImpl userDaoMock = mock(UserDaoImpl.class);
 		when(userDaoMock.get(any())).thenReturn(null).thenReturn(new UserData());
 		doNothing().when(userDaoMock).add(any());
-		assertEquals(HttpStatus.OK, new UserController(new UserServiceImpl(userDaoMock)).addUserData("test").getStatusCode());
+		assertEquals(HttpStatus.OK, new UserController(createUserService(userDaoMock)).addUserData("test").getStatusCode());
 	}
 }
\ No newline at end of file
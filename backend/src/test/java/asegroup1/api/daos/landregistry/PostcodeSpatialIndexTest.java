@@ -0,0 +1,272 @@
+package asegroup1.api.daos.landregistry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import asegroup1.api.models.landregistry.LandRegistryData;
+import asegroup1.api.models.landregistry.LandRegistryQuery.Selectable;
+import asegroup1.api.models.landregistry.SamplingMode;
+
+class PostcodeSpatialIndexTest {
+
+	private static final long RANDOM_SEED = 8312595207343625996L;
+
+	@Test
+	void testEncodePostcodeRoundTrip() {
+		for (String postcode : new String[] {"BN14 7BH", "NW9 9PR", "B1 1AA", "EC1A 1BB", "GIR 0AA"}) {
+			long code = PostcodeSpatialIndex.encodePostcode(postcode);
+			assertTrue(code >= 0);
+			assertEquals(postcode, PostcodeSpatialIndex.decodePostcodePrefix(code, 0));
+		}
+	}
+
+	@Test
+	void testEncodePostcodeRejectsInvalidPostcodes() {
+		for (String postcode : new String[] {null, "", "0", "BN14", "BN14 7B", "ABCDE 1AA", "BN1? 7BH"}) {
+			assertEquals(-1, PostcodeSpatialIndex.encodePostcode(postcode));
+		}
+	}
+
+	@Test
+	void testEncodedPostcodesKeepStringOrder() {
+		assertTrue(PostcodeSpatialIndex.encodePostcode("BN1 1AA") < PostcodeSpatialIndex.encodePostcode("BN14 7BH"));
+		assertTrue(PostcodeSpatialIndex.encodePostcode("BN14 7BH") < PostcodeSpatialIndex.encodePostcode("BN14 7BJ"));
+		assertTrue(PostcodeSpatialIndex.encodePostcode("BN14 9AA") < PostcodeSpatialIndex.encodePostcode("BN15 0AA"));
+	}
+
+	@Test
+	void testDecodePostcodePrefixMatchesDatabaseAggregation() {
+		long code = PostcodeSpatialIndex.encodePostcode("BN14 7BH");
+
+		assertEquals("BN14 7B", PostcodeSpatialIndex.decodePostcodePrefix(code / 37, 1));
+		assertEquals("BN14 7", PostcodeSpatialIndex.decodePostcodePrefix(code / (37 * 37), 2));
+		assertEquals("BN14 ", PostcodeSpatialIndex.decodePostcodePrefix(code / (37 * 37 * 37), 3));
+	}
+
+	@Test
+	void testSearchOnlyReturnsPricedPostcodesInsideBounds() {
+		PostcodeSpatialIndex index = PostcodeSpatialIndex.builder()
+				.add("BN14 7BH", 0.5, 0.5, 100)
+				.add("NW9 9PR", 0.6, 0.6, 200)
+				.add("NN12 8DT", 0.7, 0.7, 0)
+				.add("TW7 4QN", 1.5, 0.5, 300)
+				.add("L22 3YU", 0.5, 1.5, 400)
+				.build();
+
+		// top/bottom bound the longitude, left/right bound the latitude
+		List<LandRegistryData> results = index.searchInBoundaries(1, 1, 0, 0, 1000);
+
+		HashMap<String, String> prices = new HashMap<>();
+		for (LandRegistryData result : results) {
+			prices.put(result.getConstraint(Selectable.postcode), result.getConstraint(Selectable.pricePaid));
+		}
+
+		assertEquals(2, prices.size());
+		assertEquals("100", prices.get("BN14 7BH"));
+		assertEquals("200", prices.get("NW9 9PR"));
+	}
+
+	@Test
+	void testSearchMatchesBruteForceOverRandomData() {
+		Random random = new Random(RANDOM_SEED);
+		PostcodeSpatialIndex.Builder builder = PostcodeSpatialIndex.builder();
+		double[][] points = new double[5000][];
+
+		for (int i = 0; i < points.length; i++) {
+			points[i] = new double[] {50 + random.nextDouble() * 5, -5 + random.nextDouble() * 5};
+			builder.add(String.format("AB%d %d%c%c", i / 1000, i / 100 % 10, (char) ('A' + i / 10 % 10), (char) ('A' + i % 10)),
+					points[i][0], points[i][1], 1 + random.nextInt(1000));
+		}
+		PostcodeSpatialIndex index = builder.build();
+
+		int expected = 0;
+		for (double[] point : points) {
+			if (point[1] > -3 && point[1] < -2 && point[0] > 51 && point[0] < 52) {
+				expected++;
+			}
+		}
+
+		// Small viewports are not aggregated, so each result is a single postcode
+		assertEquals(expected, index.searchInBoundaries(-2, 52, -3, 51, 5000).size());
+	}
+
+	@Test
+	void testSearchAggregatesLargeViewportsByPostcodePrefix() {
+		PostcodeSpatialIndex index = PostcodeSpatialIndex.builder()
+				.add("BN14 7BH", 50, 0, 100)
+				.add("BN14 7BJ", 52, 2, 300)
+				.add("BN14 8AA", 51, 1, 200)
+				.add("BN14 8AB", 51, 1, 200)
+				.add("BN14 9AA", 51, 1, 200)
+				.add("BN15 1AA", 51, 1, 500)
+				.add("BN15 1AB", 51, 1, 500)
+				.add("BN15 2AA", 51, 1, 500)
+				.add("BN15 2AB", 51, 1, 500)
+				.add("BN15 3AA", 51, 1, 500)
+				.build();
+
+		// A viewport of over 9 degrees holding at least five times the return
+		// count strips the whole inward code
+		List<LandRegistryData> results = index.searchInBoundaries(10, 60, -10, 40, 2);
+
+		assertEquals(2, results.size());
+		for (LandRegistryData result : results) {
+			if (result.getConstraint(Selectable.postcode).equals("BN14 ")) {
+				assertEquals("200", result.getConstraint(Selectable.pricePaid));
+				assertEquals(51, result.getLatitude(), 1e-9);
+				assertEquals(1, result.getLongitude(), 1e-9);
+				assertEquals(Math.sqrt(8) * 55556, result.getRadius(), 1e-6);
+			} else {
+				assertEquals("BN15 ", result.getConstraint(Selectable.postcode));
+				assertEquals(0, result.getRadius(), 1e-9);
+			}
+		}
+	}
+
+	@Test
+	void testSearchLimitsResultsToReturnCount() {
+		PostcodeSpatialIndex.Builder builder = PostcodeSpatialIndex.builder();
+		for (int i = 0; i < 100; i++) {
+			builder.add(String.format("AB1 %d%c%c", i / 10 % 10, (char) ('A' + i % 10), 'A'), 0.5, 0.5, 10);
+		}
+
+		assertEquals(10, builder.build().searchInBoundaries(1, 1, 0, 0, 10).size());
+	}
+
+	@Test
+	void testGetPosition() {
+		PostcodeSpatialIndex index = PostcodeSpatialIndex.builder()
+				.add("BN14 7BH", 50.8, -0.37, 0)
+				.add("NW9 9PR", 51.6, -0.25, 100)
+				.build();
+
+		assertEquals(50.8, index.getPosition("BN14 7BH")[0], 1e-9);
+		assertEquals(-0.25, index.getPosition("nw9 9pr")[1], 1e-9);
+		assertNull(index.getPosition("TW7 4QN"));
+	}
+
+	@Test
+	void testUpdateAveragePrice() {
+		PostcodeSpatialIndex index = PostcodeSpatialIndex.builder()
+				.add("BN14 7BH", 0.5, 0.5, 0)
+				.build();
+
+		assertTrue(index.searchInBoundaries(1, 1, 0, 0, 1000).isEmpty());
+
+		assertTrue(index.updateAveragePrice("BN14 7BH", 250000L));
+		assertEquals(Long.valueOf(250000L), index.getAveragePrice("BN14 7BH"));
+		assertEquals(1, index.searchInBoundaries(1, 1, 0, 0, 1000).size());
+
+		assertTrue(index.updateAveragePrice("BN14 7BH", null));
+		assertTrue(index.searchInBoundaries(1, 1, 0, 0, 1000).isEmpty());
+
+		assertFalse(index.updateAveragePrice("NW9 9PR", 1L));
+		assertNull(index.getAveragePrice("NW9 9PR"));
+	}
+
+	@Test
+	void testDeterministicSamplingPicksLowestRankedGroups() {
+		PostcodeSpatialIndex.Builder builder = PostcodeSpatialIndex.builder();
+		long[] ranks = new long[100];
+		for (int i = 0; i < 100; i++) {
+			String postcode = String.format("AB1 %d%c%c", i / 10 % 10, (char) ('A' + i % 10), 'A');
+			builder.add(postcode, 0.5, 0.5, 10);
+			ranks[i] = SamplingMode.getSampleRank(postcode);
+		}
+		PostcodeSpatialIndex index = builder.build();
+
+		Arrays.sort(ranks);
+		HashSet<String> first = new HashSet<>();
+		for (LandRegistryData result : index.searchInBoundaries(1, 1, 0, 0, 10, SamplingMode.DETERMINISTIC)) {
+			String postcode = result.getConstraint(Selectable.postcode);
+			assertTrue(SamplingMode.getSampleRank(postcode) <= ranks[9]);
+			first.add(postcode);
+		}
+		assertEquals(10, first.size());
+
+		for (int i = 0; i < 5; i++) {
+			HashSet<String> repeat = new HashSet<>();
+			for (LandRegistryData result : index.searchInBoundaries(1, 1, 0, 0, 10, SamplingMode.DETERMINISTIC)) {
+				repeat.add(result.getConstraint(Selectable.postcode));
+			}
+			assertEquals(first, repeat);
+		}
+	}
+
+	@Test
+	void testSampleGroupsByRank() {
+		Random random = new Random(RANDOM_SEED);
+		long[] ranks = new long[1000];
+		for (int i = 0; i < ranks.length; i++) {
+			ranks[i] = random.nextInt(50) & 0xffffffffL;
+		}
+
+		int[] selected = PostcodeSpatialIndex.sampleGroupsByRank(ranks, ranks.length, 100);
+
+		long[] sortedRanks = ranks.clone();
+		Arrays.sort(sortedRanks);
+		HashSet<Integer> distinct = new HashSet<>();
+		for (int group : selected) {
+			assertTrue(ranks[group] <= sortedRanks[99]);
+			distinct.add(group);
+		}
+		assertEquals(100, distinct.size());
+	}
+
+	@Test
+	void testFindNearestMatchesBruteForceOverRandomData() {
+		Random random = new Random(RANDOM_SEED);
+		PostcodeSpatialIndex.Builder builder = PostcodeSpatialIndex.builder();
+		double[][] points = new double[5000][];
+
+		for (int i = 0; i < points.length; i++) {
+			points[i] = new double[] {50 + random.nextDouble() * 5, -5 + random.nextDouble() * 5};
+			builder.add(String.format("AB%d %d%c%c", i / 1000, i / 100 % 10, (char) ('A' + i / 10 % 10), (char) ('A' + i % 10)),
+					points[i][0], points[i][1], 1 + random.nextInt(1000));
+		}
+		PostcodeSpatialIndex index = builder.build();
+
+		for (int query = 0; query < 500; query++) {
+			double latitude = 49.5 + random.nextDouble() * 6;
+			double longitude = -5.5 + random.nextDouble() * 6;
+			double scale = Math.cos(Math.toRadians(latitude));
+
+			double nearestDistance = Double.MAX_VALUE;
+			for (double[] point : points) {
+				double distance = Math.pow(point[0] - latitude, 2) + Math.pow((point[1] - longitude) * scale, 2);
+				nearestDistance = Math.min(nearestDistance, distance);
+			}
+
+			int position = index.findNearest(latitude, longitude);
+			double distance = Math.pow(index.getLatitude(position) - latitude, 2)
+					+ Math.pow((index.getLongitude(position) - longitude) * scale, 2);
+			assertEquals(nearestDistance, distance, 1e-12);
+		}
+	}
+
+	@Test
+	void testFindNearestWithinDistance() {
+		PostcodeSpatialIndex index = PostcodeSpatialIndex.builder()
+				.add("BN14 7BH", 50.8, -0.37, 100)
+				.add("NW9 9PR", 51.58, -0.25, 0)
+				.build();
+
+		int position = index.findNearest(50.801, -0.37, 500);
+		assertEquals("BN14 7BH", index.getPostcode(position));
+		assertEquals(100, index.getAveragePrice(position));
+
+		// About 111 metres from BN14 7BH
+		assertEquals(-1, index.findNearest(50.801, -0.37, 100));
+		assertEquals(-1, PostcodeSpatialIndex.builder().build().findNearest(50.8, -0.37));
+	}
+}
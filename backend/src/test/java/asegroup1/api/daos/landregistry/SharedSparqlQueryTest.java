@@ -0,0 +1,91 @@
+package asegroup1.api.daos.landregistry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import asegroup1.api.models.landregistry.LandRegistryData;
+import asegroup1.api.models.landregistry.LandRegistryQuery.Selectable;
+
+class SharedSparqlQueryTest {
+
+	private static Map<String, String> binding(String postcode) {
+		return Collections.singletonMap("postcode", postcode);
+	}
+
+	@Test
+	void testJoinedCallerReadsRowsAsTheyArrive() throws Exception {
+		SharedSparqlQuery query = new SharedSparqlQuery();
+		CountDownLatch firstRowRead = new CountDownLatch(1);
+		List<LandRegistryData> rows = Collections.synchronizedList(new ArrayList<>());
+
+		CompletableFuture<Integer> reader = CompletableFuture.supplyAsync(() -> {
+			try {
+				return query.read(row -> {
+					rows.add(row);
+					firstRowRead.countDown();
+				});
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		});
+
+		query.add(binding("BN23 7LQ"));
+		assertTrue(firstRowRead.await(5, TimeUnit.SECONDS));
+		assertFalse(reader.isDone());
+
+		query.add(binding("BN23 7LE"));
+		query.finish(null);
+
+		assertEquals(2, (int) reader.get(5, TimeUnit.SECONDS));
+		assertEquals("BN23 7LE", rows.get(1).getConstraint(Selectable.postcode));
+	}
+
+	@Test
+	void testLateCallerReadsEveryRowAsItsOwn() throws Exception {
+		SharedSparqlQuery query = new SharedSparqlQuery();
+		query.add(binding("BN23 7LQ"));
+		query.add(binding("BN23 7LE"));
+		query.finish(null);
+
+		List<LandRegistryData> first = new ArrayList<>();
+		List<LandRegistryData> second = new ArrayList<>();
+		assertEquals(2, query.read(first::add));
+		assertEquals(2, query.read(second::add));
+		assertEquals("BN23 7LQ", second.get(0).getConstraint(Selectable.postcode));
+		assertNotSame(first.get(0), second.get(0));
+	}
+
+	@Test
+	void testFailureIsShared() throws Exception {
+		SharedSparqlQuery query = new SharedSparqlQuery();
+		query.add(binding("BN23 7LQ"));
+		query.finish(new IOException("Connection reset"));
+
+		List<LandRegistryData> rows = new ArrayList<>();
+		assertThrows(IOException.class, () -> query.read(rows::add));
+		assertEquals(1, rows.size());
+		assertFalse(query.isAbandoned());
+	}
+
+	@Test
+	void testInterruptedQueryIsAbandoned() {
+		SharedSparqlQuery query = new SharedSparqlQuery();
+		query.finish(new IOException(new InterruptedException()));
+
+		assertTrue(query.isAbandoned());
+	}
+}
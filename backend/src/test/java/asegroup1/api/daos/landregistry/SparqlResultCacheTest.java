@@ -0,0 +1,63 @@
+package asegroup1.api.daos.landregistry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+import asegroup1.api.models.landregistry.LandRegistryQuery;
+
+class SparqlResultCacheTest {
+
+	@Test
+	void testCanonicaliseCollapsesWhitespaceOutsideLiterals() {
+		assertEquals("SELECT ?a WHERE { ?a ?b \"two  spaces\" }",
+				SparqlResultCache.canonicalise("  SELECT ?a\nWHERE {\n\t?a   ?b \"two  spaces\"\n}\n"));
+		assertEquals("FILTER (?a = \"quote \\\"  inside\")",
+				SparqlResultCache.canonicalise("FILTER (?a = \"quote \\\"  inside\")"));
+	}
+
+	@Test
+	void testCanonicaliseIgnoresValuesOrder() {
+		String first = LandRegistryQuery.buildQueryAveragePricePostcode("BN14 7BH", "NW9 9PR", "B1 1AA").buildQuery();
+		String second = LandRegistryQuery.buildQueryAveragePricePostcode("NW9 9PR", "B1 1AA", "BN14 7BH").buildQuery();
+		String other = LandRegistryQuery.buildQueryAveragePricePostcode("NW9 9PR", "B1 1AA", "BN14 7BJ").buildQuery();
+
+		assertNotEquals(first, second);
+		assertEquals(SparqlResultCache.canonicalise(first), SparqlResultCache.canonicalise(second));
+		assertNotEquals(SparqlResultCache.canonicalise(first), SparqlResultCache.canonicalise(other));
+	}
+
+	@Test
+	void testMemoryCache() {
+		SparqlResultCache cache = new SparqlResultCache(10, 60000, null);
+		cache.put("SELECT ?a", "{\"result\":1}");
+
+		assertEquals("{\"result\":1}", cache.get("SELECT ?a"));
+		assertNull(cache.get("SELECT ?b"));
+		assertEquals(1, cache.getStatistics().getHits());
+	}
+
+	@Test
+	void testDiskCacheOutlivesMemoryCache() {
+		try {
+			Path directory = Files.createTempDirectory("sparql-cache-test");
+			new SparqlResultCache(10, 60000, directory).put("SELECT ?a", "{\"result\":1}");
+
+			SparqlResultCache restarted = new SparqlResultCache(10, 60000, directory);
+			assertEquals("{\"result\":1}", restarted.get("SELECT ?a"));
+			assertEquals(1, restarted.getDiskHits());
+
+			SparqlResultCache expired = new SparqlResultCache(10, -1, directory);
+			assertNull(expired.get("SELECT ?a"));
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+}
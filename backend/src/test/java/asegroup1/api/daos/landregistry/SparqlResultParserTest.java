@@ -0,0 +1,75 @@
+package asegroup1.api.daos.landregistry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import asegroup1.api.models.landregistry.LandRegistryData;
+import asegroup1.api.models.landregistry.LandRegistryQuery.Selectable;
+
+class SparqlResultParserTest {
+
+	private static final String RESULT = "{\"head\": {\"vars\": [\"postcode\", \"pricePaid\", \"street\"]},"
+			+ " \"results\": {\"bindings\": ["
+			+ "{\"postcode\": {\"type\": \"literal\", \"value\": \"BN23 7LQ\"},"
+			+ " \"pricePaid\": {\"type\": \"literal\", \"datatype\": \"http://www.w3.org/2001/XMLSchema#decimal\", \"value\": \"132827\"}},"
+			+ "{\"postcode\": {\"type\": \"literal\", \"value\": \"BN23 7LE\"},"
+			+ " \"street\": {\"type\": \"literal\", \"value\": \"Pevensey Bay Road\"}}"
+			+ "]}}";
+
+	@Test
+	void testParsesBindingsFromStream() throws IOException {
+		List<LandRegistryData> rows = new ArrayList<>();
+		int rowsRead = SparqlResultParser.parse(new ByteArrayInputStream(RESULT.getBytes(StandardCharsets.UTF_8)), rows::add);
+
+		assertEquals(2, rowsRead);
+		assertEquals(2, rows.size());
+		assertEquals("BN23 7LQ", rows.get(0).getConstraint(Selectable.postcode));
+		assertEquals("132827", rows.get(0).getConstraint(Selectable.pricePaid));
+		assertEquals("BN23 7LE", rows.get(1).getConstraint(Selectable.postcode));
+		assertEquals("PEVENSEY BAY ROAD", rows.get(1).getConstraint(Selectable.street));
+		assertFalse(rows.get(1).hasConstraint(Selectable.pricePaid));
+	}
+
+	@Test
+	void testParsesResultWrappedByProxy() throws IOException {
+		String proxyResponse = "{\"status\": 200, \"result\": \"" + RESULT.replace("\"", "\\\"") + "\"}";
+
+		List<LandRegistryData> rows = new ArrayList<>();
+		assertEquals(2, SparqlResultParser.parse(proxyResponse, rows::add));
+		assertEquals("BN23 7LE", rows.get(1).getConstraint(Selectable.postcode));
+	}
+
+	@Test
+	void testWrittenBindingsReadAsSameRows() throws IOException {
+		List<Map<String, String>> bindings = new ArrayList<>();
+		assertEquals(2, SparqlResultParser.parseBindings(new ByteArrayInputStream(RESULT.getBytes(StandardCharsets.UTF_8)), bindings::add));
+
+		List<LandRegistryData> rows = new ArrayList<>();
+		assertEquals(2, SparqlResultParser.parse(SparqlResultParser.write(bindings), rows::add));
+		assertEquals("132827", rows.get(0).getConstraint(Selectable.pricePaid));
+		assertEquals("PEVENSEY BAY ROAD", rows.get(1).getConstraint(Selectable.street));
+	}
+
+	@Test
+	void testParsesEmptyResult() throws IOException {
+		List<LandRegistryData> rows = new ArrayList<>();
+		assertEquals(0, SparqlResultParser.parse("{\"head\": {\"vars\": []}, \"results\": {\"bindings\": []}}", rows::add));
+		assertEquals(0, rows.size());
+	}
+
+	@Test
+	void testRejectsNonObject() {
+		assertThrows(IOException.class, () -> SparqlResultParser.parse("[]", row -> {
+		}));
+	}
+}
@@ -0,0 +1,44 @@
+package asegroup1.api.models;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.security.InvalidParameterException;
+
+import org.junit.jupiter.api.Test;
+
+class LocationAreaTest {
+
+	@Test
+	void testBox() {
+		LocationArea area = LocationArea.box(50.8, -0.4, 50.9, -0.3);
+		assertFalse(area.isCircle());
+		assertEquals(50.8, area.getMinLatitude(), 1e-9);
+		assertEquals(-0.3, area.getMaxLongitude(), 1e-9);
+	}
+
+	@Test
+	void testInvalidBox() {
+		assertThrows(InvalidParameterException.class, () -> LocationArea.box(50.9, -0.4, 50.8, -0.3));
+		assertThrows(InvalidParameterException.class, () -> LocationArea.box(50.8, -0.4, 91, -0.3));
+	}
+
+	@Test
+	void testCircleBoundsContainRadius() {
+		LocationArea area = LocationArea.circle(50.8, -0.37, 1000);
+		assertTrue(area.isCircle());
+
+		// 1km is about 0.009 degrees of latitude, and more degrees of longitude away from the equator
+		assertEquals(0.009, area.getMaxLatitude() - 50.8, 0.0002);
+		assertEquals(area.getMaxLatitude() - 50.8, 50.8 - area.getMinLatitude(), 1e-9);
+		assertTrue(area.getMaxLongitude() - -0.37 > area.getMaxLatitude() - 50.8);
+	}
+
+	@Test
+	void testInvalidCircle() {
+		assertThrows(InvalidParameterException.class, () -> LocationArea.circle(50.8, -0.37, 0));
+		assertThrows(InvalidParameterException.class, () -> LocationArea.circle(50.8, 181, 10));
+	}
+}
@@ -0,0 +1,96 @@
+package asegroup1.api.models.landregistry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import asegroup1.api.models.landregistry.LandRegistryQuery.PropertyType;
+import asegroup1.api.models.landregistry.LandRegistryQuery.Selectable;
+
+class LandRegistrySqlQueryTest {
+
+	@Test
+	void testLatestSalesQuery() {
+		LandRegistryQueryConstraint constraint = new LandRegistryQueryConstraint();
+		constraint.setMinDate(LocalDate.of(2014, 1, 1));
+		constraint.setEqualityConstraint(Selectable.postcode, "BN14 7BH", "BN14 7BJ");
+		constraint.getEqualityConstraints().setPropertyType(PropertyType.semi_detached);
+
+		LandRegistrySqlQuery query = LandRegistrySqlQuery.fromQuery(
+				LandRegistryQuery.buildQueryLatestSalesOnly(constraint, Arrays.asList(Selectable.town, Selectable.pricePaid)));
+		String sql = query.getSql();
+
+		assertTrue(sql.startsWith("SELECT `paon`, `saon`, `street`, `postcode`, `TransactionDate`, `Town`, `PricePaid` FROM ("
+				+ "SELECT PAON AS `paon`, SAON AS `saon`, STREET AS `street`, POSTCODE AS `postcode`,"
+				+ " MAX(TRANSACTION_DATE) OVER (PARTITION BY PAON, SAON, STREET, POSTCODE) AS `TransactionDate`,"
+				+ " TOWN AS `Town`, PRICE_PAID AS `PricePaid`,"
+				+ " ROW_NUMBER() OVER (PARTITION BY PAON, SAON, STREET, POSTCODE ORDER BY TRANSACTION_DATE DESC) AS `sample_row`"
+				+ " FROM transactions WHERE "), sql);
+		assertTrue(sql.endsWith(") AS sampled0 WHERE `sample_row` = 1"), sql);
+		assertTrue(sql.contains("POSTCODE IN (?, ?)"), sql);
+		assertTrue(sql.contains("PROPERTY_TYPE = ?"), sql);
+		assertTrue(sql.contains("TRANSACTION_DATE > ?"), sql);
+		assertTrue(query.getParameters().containsAll(Arrays.asList("BN14 7BH", "BN14 7BJ", "semi_detached", "2014-01-01")));
+		assertEquals(sql.length() - sql.replace("?", "").length(), query.getParameters().size());
+	}
+
+	@Test
+	void testAveragePricePostcodeQuery() {
+		LandRegistrySqlQuery query = LandRegistrySqlQuery.fromQuery(LandRegistryQuery.buildQueryAveragePricePostcode("BN23 7", "Eastbourne"));
+		String sql = query.getSql();
+
+		assertTrue(sql.startsWith("SELECT `postcode` AS `postcode`, AVG(`PricePaid`) AS `pricePaid` FROM (SELECT `paon`"), sql);
+		assertTrue(sql.contains(") AS sampled1 WHERE `sample_row` = 1) AS sub0"), sql);
+		assertTrue(sql.endsWith(") AS sub0 GROUP BY `postcode`"), sql);
+		assertTrue(sql.contains("TOWN = ?"), sql);
+		assertTrue(sql.contains("POSTCODE REGEXP ?"), sql);
+		assertEquals(Arrays.asList("EASTBOURNE", "(BN23 7)"), query.getParameters());
+	}
+
+	@Test
+	void testLatestSaleColumnsComeFromOneSale() {
+		// An address sold for 250000 in 2015 and 180000 in 2018 should give 180000, the price of its latest sale,
+		// rather than the highest price it was ever sold for
+		LandRegistryQueryConstraint constraint = new LandRegistryQueryConstraint();
+		constraint.setEqualityConstraint(Selectable.postcode, "BN14 7BH");
+		String sql = LandRegistrySqlQuery.fromQuery(LandRegistryQuery.buildQueryLatestSalesOnly(constraint,
+				Arrays.asList(Selectable.pricePaid, Selectable.propertyType))).getSql();
+
+		assertFalse(sql.contains("MAX(PRICE_PAID)"), sql);
+		assertFalse(sql.contains("MAX(PROPERTY_TYPE)"), sql);
+		assertTrue(sql.contains("PRICE_PAID AS `PricePaid`, PROPERTY_TYPE AS `PropertyType`"), sql);
+		// Only the first row of each address, ordered latest sale first, is returned
+		assertTrue(sql.contains("ROW_NUMBER() OVER (PARTITION BY PAON, SAON, STREET, POSTCODE ORDER BY TRANSACTION_DATE DESC)"), sql);
+		assertTrue(sql.endsWith("WHERE `sample_row` = 1"), sql);
+	}
+
+	@Test
+	void testUngroupedQuery() {
+		LandRegistryQueryConstraint constraint = new LandRegistryQueryConstraint();
+		constraint.getEqualityConstraints().setPricePaid(250000);
+		LandRegistrySqlQuery query = LandRegistrySqlQuery.fromQuery(new LandRegistryQuery(constraint, null, new LandRegistryQuerySelect(Selectable.street)));
+
+		assertEquals("SELECT STREET AS `street` FROM transactions WHERE PRICE_PAID = ?", query.getSql());
+		assertEquals(Arrays.asList(250000L), query.getParameters());
+	}
+
+	@Test
+	void testUnknownVariable() {
+		LandRegistryQuery query = new LandRegistryQuery(new LandRegistryQueryConstraint(), null, new LandRegistryQuerySelect());
+		query.getSelect().addSelectValue("addr");
+		assertThrows(IllegalArgumentException.class, () -> LandRegistrySqlQuery.fromQuery(query));
+	}
+
+	@Test
+	void testStripSparqlSyntax() {
+		assertEquals("BN1 1AA", LandRegistrySqlQuery.stripSparqlSyntax("\"BN1 1AA\""));
+		assertEquals("semi_detached", LandRegistrySqlQuery.stripSparqlSyntax("lrcommon:semi-detached"));
+		assertEquals("123", LandRegistrySqlQuery.stripSparqlSyntax("123"));
+	}
+}
@@ -0,0 +1,34 @@
+package asegroup1.api.models.landregistry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.security.InvalidParameterException;
+
+import org.junit.jupiter.api.Test;
+
+class SamplingModeTest {
+
+	@Test
+	void testParseIgnoresCase() {
+		assertEquals(SamplingMode.DETERMINISTIC, SamplingMode.parse("deterministic", SamplingMode.RANDOM));
+		assertEquals(SamplingMode.RANDOM, SamplingMode.parse("Random", SamplingMode.DETERMINISTIC));
+	}
+
+	@Test
+	void testParseFallsBackToDefault() {
+		assertEquals(SamplingMode.DETERMINISTIC, SamplingMode.parse(null, SamplingMode.DETERMINISTIC));
+		assertEquals(SamplingMode.RANDOM, SamplingMode.parse("", SamplingMode.RANDOM));
+	}
+
+	@Test
+	void testParseRejectsUnknownModes() {
+		assertThrows(InvalidParameterException.class, () -> SamplingMode.parse("stratified", SamplingMode.RANDOM));
+	}
+
+	@Test
+	void testSampleRankMatchesMySqlCrc32() {
+		// SELECT CRC32('123456789') = 3421780262
+		assertEquals(3421780262L, SamplingMode.getSampleRank("123456789"));
+	}
+}
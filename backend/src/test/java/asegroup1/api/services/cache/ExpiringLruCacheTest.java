@@ -0,0 +1,115 @@
+package asegroup1.api.services.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import asegroup1.api.models.CacheStatistics;
+
+class ExpiringLruCacheTest {
+
+	@Test
+	void testEvictsLeastRecentlyUsedEntry() {
+		ExpiringLruCache<String, Integer> cache = new ExpiringLruCache<>(2, 1000);
+		cache.put("a", 1);
+		cache.put("b", 2);
+		cache.get("a");
+		cache.put("c", 3);
+
+		assertEquals(Integer.valueOf(1), cache.get("a"));
+		assertNull(cache.get("b"));
+		assertEquals(Integer.valueOf(3), cache.get("c"));
+		assertEquals(1, cache.getStatistics().getEvictions());
+	}
+
+	@Test
+	void testExpiresEntriesAfterTimeToLive() {
+		AtomicLong time = new AtomicLong();
+		ExpiringLruCache<String, Integer> cache = new ExpiringLruCache<>(10, 100, time::get);
+		cache.put("a", 1);
+
+		time.set(99);
+		assertEquals(Integer.valueOf(1), cache.get("a"));
+		time.set(100);
+		assertNull(cache.get("a"));
+
+		assertEquals(0, cache.size());
+		assertEquals(1, cache.getStatistics().getExpirations());
+	}
+
+	@Test
+	void testInvalidateIf() {
+		ExpiringLruCache<Integer, Integer> cache = new ExpiringLruCache<>(10, 1000);
+		for (int i = 0; i < 6; i++) {
+			cache.put(i, i);
+		}
+
+		assertEquals(3, cache.invalidateIf(key -> key % 2 == 0));
+		assertNull(cache.get(2));
+		assertEquals(Integer.valueOf(3), cache.get(3));
+		assertEquals(3, cache.getStatistics().getInvalidations());
+	}
+
+	@Test
+	void testInvalidate() {
+		ExpiringLruCache<String, Integer> cache = new ExpiringLruCache<>(10, 1000);
+		cache.put("a", 1);
+
+		assertTrue(cache.invalidate("a"));
+		assertFalse(cache.invalidate("a"));
+		assertNull(cache.get("a"));
+		assertEquals(1, cache.getStatistics().getInvalidations());
+	}
+
+	@Test
+	void testStatisticsCountHitsAndMisses() {
+		ExpiringLruCache<String, Integer> cache = new ExpiringLruCache<>(10, 1000);
+		cache.put("a", 1);
+		cache.get("a");
+		cache.get("a");
+		cache.get("a");
+		cache.get("b");
+
+		CacheStatistics statistics = cache.getStatistics();
+		assertEquals(3, statistics.getHits());
+		assertEquals(1, statistics.getMisses());
+		assertEquals(0.75, statistics.getHitRate(), 1e-9);
+		assertEquals(1, statistics.getSize());
+		assertEquals(10, statistics.getMaxSize());
+	}
+
+	@Test
+	void testListenerTracksKeys() {
+		AtomicLong time = new AtomicLong();
+		Set<String> keys = new HashSet<>();
+		ExpiringLruCache<String, Integer> cache = new ExpiringLruCache<>(2, 100, time::get, new ExpiringLruCache.KeyListener<String>() {
+			@Override
+			public void onAdded(String key) {
+				keys.add(key);
+			}
+
+			@Override
+			public void onRemoved(String key) {
+				assertTrue(keys.remove(key));
+			}
+		});
+
+		cache.put("a", 1);
+		cache.put("b", 2);
+		cache.put("c", 3);
+		assertEquals(new HashSet<>(Arrays.asList("b", "c")), keys);
+
+		cache.invalidate("b");
+		time.set(100);
+		cache.get("c");
+		assertTrue(keys.isEmpty());
+	}
+}
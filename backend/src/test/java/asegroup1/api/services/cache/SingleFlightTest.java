@@ -0,0 +1,174 @@
+package asegroup1.api.services.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class SingleFlightTest {
+
+	@Test
+	void testConcurrentCallersShareOneCall() throws Exception {
+		SingleFlight<String, Object> singleFlight = new SingleFlight<>();
+		AtomicInteger calls = new AtomicInteger();
+		CountDownLatch release = new CountDownLatch(1);
+		Object result = new Object();
+
+		ExecutorService callers = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Object>> results = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				results.add(callers.submit(() -> singleFlight.execute("query", () -> {
+					calls.incrementAndGet();
+					release.await();
+					return result;
+				})));
+			}
+			// Wait for every caller to either make the call or join it
+			while (singleFlight.getCalls() + singleFlight.getSharedCalls() < 4) {
+				Thread.sleep(1);
+			}
+			release.countDown();
+
+			for (Future<Object> callerResult : results) {
+				assertSame(result, callerResult.get(5, TimeUnit.SECONDS));
+			}
+		} finally {
+			callers.shutdownNow();
+		}
+		assertEquals(1, calls.get());
+		assertEquals(3, singleFlight.getSharedCalls());
+		assertEquals(0, singleFlight.getInFlight());
+	}
+
+	@Test
+	void testCompletedCallsAreNotReused() throws IOException {
+		SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+		AtomicInteger calls = new AtomicInteger();
+
+		assertEquals(Integer.valueOf(1), singleFlight.execute("query", calls::incrementAndGet));
+		assertEquals(Integer.valueOf(2), singleFlight.execute("query", calls::incrementAndGet));
+		assertEquals(0, singleFlight.getSharedCalls());
+	}
+
+	@Test
+	void testFailureIsSharedAndNotKept() throws Exception {
+		SingleFlight<String, String> singleFlight = new SingleFlight<>();
+		CountDownLatch release = new CountDownLatch(1);
+
+		ExecutorService callers = Executors.newFixedThreadPool(2);
+		try {
+			List<Future<String>> results = new ArrayList<>();
+			for (int i = 0; i < 2; i++) {
+				results.add(callers.submit(() -> singleFlight.execute("query", () -> {
+					release.await();
+					throw new IOException("Upstream unavailable");
+				})));
+			}
+			while (singleFlight.getCalls() + singleFlight.getSharedCalls() < 2) {
+				Thread.sleep(1);
+			}
+			release.countDown();
+
+			for (Future<String> callerResult : results) {
+				try {
+					callerResult.get(5, TimeUnit.SECONDS);
+				} catch (ExecutionException e) {
+					assertTrue(e.getCause() instanceof IOException);
+				}
+			}
+		} finally {
+			callers.shutdownNow();
+		}
+		assertEquals(1, singleFlight.getCalls());
+
+		assertEquals("recovered", singleFlight.execute("query", () -> "recovered"));
+		assertThrows(IllegalStateException.class, () -> singleFlight.execute("other", () -> {
+			throw new IllegalStateException();
+		}));
+	}
+
+	@Test
+	void testAsyncCallersShareOneCall() {
+		SingleFlight<String, String> singleFlight = new SingleFlight<>();
+		CompletableFuture<String> upstream = new CompletableFuture<>();
+		AtomicInteger calls = new AtomicInteger();
+
+		CompletableFuture<String> first = singleFlight.executeAsync("query", () -> {
+			calls.incrementAndGet();
+			return upstream;
+		});
+		CompletableFuture<String> second = singleFlight.executeAsync("query", () -> {
+			calls.incrementAndGet();
+			return upstream;
+		});
+		assertFalse(first.isDone());
+
+		upstream.complete("result");
+		assertEquals("result", first.join());
+		assertEquals("result", second.join());
+		assertEquals(1, calls.get());
+		assertEquals(0, singleFlight.getInFlight());
+	}
+
+	@Test
+	void testCancellingOneAsyncCallerLeavesOthers() {
+		SingleFlight<String, String> singleFlight = new SingleFlight<>();
+		CompletableFuture<String> upstream = new CompletableFuture<>();
+
+		CompletableFuture<String> first = singleFlight.executeAsync("query", () -> upstream);
+		CompletableFuture<String> second = singleFlight.executeAsync("query", () -> upstream);
+		assertTrue(first.cancel(true));
+
+		upstream.complete("result");
+		assertEquals("result", second.join());
+		assertFalse(upstream.isCancelled());
+	}
+
+	@Test
+	void testInterruptedCallerDoesNotFailOthers() throws Exception {
+		SingleFlight<String, String> singleFlight = new SingleFlight<>();
+		CountDownLatch leaderStarted = new CountDownLatch(1);
+		AtomicInteger calls = new AtomicInteger();
+
+		ExecutorService callers = Executors.newFixedThreadPool(2);
+		try {
+			Future<String> leader = callers.submit(() -> singleFlight.execute("query", () -> {
+				calls.incrementAndGet();
+				leaderStarted.countDown();
+				Thread.sleep(10000);
+				return "leader";
+			}));
+			leaderStarted.await();
+			Future<String> follower = callers.submit(() -> singleFlight.execute("query", () -> {
+				calls.incrementAndGet();
+				return "follower";
+			}));
+			while (singleFlight.getSharedCalls() < 1) {
+				Thread.sleep(1);
+			}
+			leader.cancel(true);
+
+			assertEquals("follower", follower.get(5, TimeUnit.SECONDS));
+		} finally {
+			callers.shutdownNow();
+		}
+		assertEquals(2, calls.get());
+		assertEquals(0, singleFlight.getInFlight());
+	}
+}
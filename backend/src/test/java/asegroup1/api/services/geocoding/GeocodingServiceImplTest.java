@@ -0,0 +1,124 @@
+package asegroup1.api.services.geocoding;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import com.mashape.unirest.http.exceptions.UnirestException;
+
+import asegroup1.api.daos.geocoding.GeocodeCacheDaoImpl;
+import asegroup1.api.daos.landregistry.LandRegistryDaoImpl;
+import asegroup1.api.models.GeocodedAddress;
+
+class GeocodingServiceImplTest {
+
+	private static GeocodingServiceImpl createGeocodingService(GeocodeCacheDaoImpl geocodeCacheDao, LandRegistryDaoImpl landRegistryDao) {
+		GeocodingServiceImpl geocodingService = new GeocodingServiceImpl(geocodeCacheDao, landRegistryDao, null, 10000, 30, 10, 40, 5000);
+		geocodingService.initialise();
+		return geocodingService;
+	}
+
+	@Test
+	void testNormaliseAddress() {
+		assertEquals("12+HIGH+STREET+WORTHING", GeocodingServiceImpl.normaliseAddress("12", " High  Street ", "worthing"));
+		assertEquals("FLAT+1+WORTHING", GeocodingServiceImpl.normaliseAddress("Flat 1", "", null, "Worthing"));
+	}
+
+	@Test
+	void testMissIsGeocodedAndStored() {
+		GeocodeCacheDaoImpl geocodeCacheDao = mock(GeocodeCacheDaoImpl.class);
+		LandRegistryDaoImpl landRegistryDao = mock(LandRegistryDaoImpl.class);
+
+		try {
+			when(landRegistryDao.getGeoLocationData("12+HIGH+STREET+WORTHING")).thenReturn(new JSONObject("{\"lat\":50.8,\"lng\":-0.37}"));
+
+			GeocodingServiceImpl geocodingService = createGeocodingService(geocodeCacheDao, landRegistryDao);
+			GeocodedAddress position = geocodingService.getPosition("12+HIGH+STREET+WORTHING");
+			GeocodedAddress cachedPosition = geocodingService.getPosition("12+HIGH+STREET+WORTHING");
+
+			assertEquals(50.8, position.getLatitude(), 1e-9);
+			assertEquals(-0.37, cachedPosition.getLongitude(), 1e-9);
+			verify(landRegistryDao, times(1)).getGeoLocationData(anyString());
+			verify(geocodeCacheDao, times(1)).update(any());
+		} catch (UnirestException | JSONException e) {
+			fail(e);
+		}
+	}
+
+	@Test
+	void testStoredPositionNeverTouchesNetwork() {
+		GeocodeCacheDaoImpl geocodeCacheDao = mock(GeocodeCacheDaoImpl.class);
+		LandRegistryDaoImpl landRegistryDao = mock(LandRegistryDaoImpl.class);
+
+		when(geocodeCacheDao.get("12+HIGH+STREET+WORTHING"))
+				.thenReturn(new GeocodedAddress("12+HIGH+STREET+WORTHING", 50.8, -0.37, new Timestamp(System.currentTimeMillis())));
+
+		try {
+			GeocodingServiceImpl geocodingService = createGeocodingService(geocodeCacheDao, landRegistryDao);
+			assertEquals(50.8, geocodingService.getPosition("12+HIGH+STREET+WORTHING").getLatitude(), 1e-9);
+			assertEquals(50.8, geocodingService.getPosition("12+HIGH+STREET+WORTHING").getLatitude(), 1e-9);
+
+			verify(geocodeCacheDao, times(1)).get(anyString());
+			verify(landRegistryDao, never()).getGeoLocationData(anyString());
+		} catch (UnirestException e) {
+			fail(e);
+		}
+	}
+
+	@Test
+	void testExpiredPositionIsGeocodedAgain() {
+		GeocodeCacheDaoImpl geocodeCacheDao = mock(GeocodeCacheDaoImpl.class);
+		LandRegistryDaoImpl landRegistryDao = mock(LandRegistryDaoImpl.class);
+
+		when(geocodeCacheDao.get("12+HIGH+STREET+WORTHING"))
+				.thenReturn(new GeocodedAddress("12+HIGH+STREET+WORTHING", 50.8, -0.37, new Timestamp(0)));
+
+		try {
+			when(landRegistryDao.getGeoLocationData("12+HIGH+STREET+WORTHING")).thenReturn(new JSONObject("{\"lat\":50.9,\"lng\":-0.37}"));
+
+			GeocodingServiceImpl geocodingService = createGeocodingService(geocodeCacheDao, landRegistryDao);
+			assertEquals(50.9, geocodingService.getPosition("12+HIGH+STREET+WORTHING").getLatitude(), 1e-9);
+
+			verify(landRegistryDao, times(1)).getGeoLocationData(anyString());
+			verify(geocodeCacheDao, times(1)).update(any());
+		} catch (UnirestException | JSONException e) {
+			fail(e);
+		}
+	}
+
+	@Test
+	void testGetPositionsReturnsPartialResults() {
+		GeocodeCacheDaoImpl geocodeCacheDao = mock(GeocodeCacheDaoImpl.class);
+		LandRegistryDaoImpl landRegistryDao = mock(LandRegistryDaoImpl.class);
+
+		try {
+			when(landRegistryDao.getGeoLocationData("1+HIGH+STREET")).thenReturn(new JSONObject("{\"lat\":1,\"lng\":2}"));
+			when(landRegistryDao.getGeoLocationData("2+HIGH+STREET")).thenThrow(new JSONException("No results"));
+			when(landRegistryDao.getGeoLocationData("3+HIGH+STREET")).thenReturn(new JSONObject("{\"lat\":3,\"lng\":4}"));
+
+			Map<String, GeocodedAddress> positions = createGeocodingService(geocodeCacheDao, landRegistryDao)
+					.getPositions(Arrays.asList("1+HIGH+STREET", "2+HIGH+STREET", "3+HIGH+STREET", "1+HIGH+STREET"));
+
+			assertEquals(2, positions.size());
+			assertEquals(1, positions.get("1+HIGH+STREET").getLatitude(), 1e-9);
+			assertEquals(4, positions.get("3+HIGH+STREET").getLongitude(), 1e-9);
+			verify(landRegistryDao, times(3)).getGeoLocationData(anyString());
+		} catch (UnirestException | JSONException e) {
+			fail(e);
+		}
+	}
+}
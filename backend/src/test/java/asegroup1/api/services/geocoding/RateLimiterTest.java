@@ -0,0 +1,50 @@
+package asegroup1.api.services.geocoding;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class RateLimiterTest {
+
+	@Test
+	void testSpacesPermits() {
+		RateLimiter rateLimiter = new RateLimiter(100);
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		long start = System.nanoTime();
+
+		try {
+			for (int i = 0; i < 6; i++) {
+				assertTrue(rateLimiter.acquire(deadline));
+			}
+		} catch (InterruptedException e) {
+			fail(e);
+		}
+
+		// The first permit is immediate, the next five are 10ms apart
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+	}
+
+	@Test
+	void testGivesUpIfPermitWouldMissDeadline() {
+		RateLimiter rateLimiter = new RateLimiter(1);
+
+		try {
+			assertTrue(rateLimiter.acquire(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100)));
+			long start = System.nanoTime();
+			assertFalse(rateLimiter.acquire(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100)));
+			assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(100));
+		} catch (InterruptedException e) {
+			fail(e);
+		}
+	}
+
+	@Test
+	void testRejectsNonPositiveRates() {
+		assertThrows(IllegalArgumentException.class, () -> new RateLimiter(0));
+	}
+}
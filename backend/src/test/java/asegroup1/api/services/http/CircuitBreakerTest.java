@@ -0,0 +1,84 @@
+package asegroup1.api.services.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import asegroup1.api.services.http.CircuitBreaker.State;
+
+class CircuitBreakerTest {
+
+	@Test
+	void testOpensOnceFailureRateReachesThreshold() {
+		CircuitBreaker circuitBreaker = new CircuitBreaker(10, 4, 0.5, 1000);
+
+		// Too few requests to open, even though all failed
+		for (int i = 0; i < 3; i++) {
+			assertTrue(circuitBreaker.tryAcquire());
+			circuitBreaker.onFailure();
+		}
+		assertEquals(State.CLOSED, circuitBreaker.getState());
+
+		for (int i = 0; i < 3; i++) {
+			assertTrue(circuitBreaker.tryAcquire());
+			circuitBreaker.onSuccess();
+		}
+		assertEquals(0.5, circuitBreaker.getFailureRate(), 1e-9);
+		assertEquals(State.CLOSED, circuitBreaker.getState());
+
+		assertTrue(circuitBreaker.tryAcquire());
+		circuitBreaker.onFailure();
+		assertEquals(State.OPEN, circuitBreaker.getState());
+		assertFalse(circuitBreaker.tryAcquire());
+		assertEquals(1, circuitBreaker.getTimesOpened());
+		assertEquals(1, circuitBreaker.getRejectedRequests());
+	}
+
+	@Test
+	void testOldOutcomesLeaveTheWindow() {
+		CircuitBreaker circuitBreaker = new CircuitBreaker(4, 4, 0.75, 1000);
+		for (int i = 0; i < 2; i++) {
+			circuitBreaker.tryAcquire();
+			circuitBreaker.onFailure();
+		}
+		for (int i = 0; i < 4; i++) {
+			circuitBreaker.tryAcquire();
+			circuitBreaker.onSuccess();
+		}
+		assertEquals(0, circuitBreaker.getFailureRate(), 1e-9);
+	}
+
+	@Test
+	void testHalfOpenProbe() {
+		AtomicLong time = new AtomicLong();
+		CircuitBreaker circuitBreaker = new CircuitBreaker(10, 1, 0.5, 1000, time::get);
+		circuitBreaker.tryAcquire();
+		circuitBreaker.onFailure();
+		assertEquals(State.OPEN, circuitBreaker.getState());
+
+		time.set(999);
+		assertFalse(circuitBreaker.tryAcquire());
+
+		// A single probe is let through once the breaker has been open long enough
+		time.set(1000);
+		assertEquals(State.HALF_OPEN, circuitBreaker.getState());
+		assertTrue(circuitBreaker.tryAcquire());
+		assertFalse(circuitBreaker.tryAcquire());
+
+		// A failed probe opens the breaker again
+		circuitBreaker.onFailure();
+		assertEquals(State.OPEN, circuitBreaker.getState());
+		assertEquals(2, circuitBreaker.getTimesOpened());
+
+		time.set(2000);
+		assertTrue(circuitBreaker.tryAcquire());
+		circuitBreaker.onSuccess();
+		assertEquals(State.CLOSED, circuitBreaker.getState());
+		assertEquals(0, circuitBreaker.getFailureRate(), 1e-9);
+		assertTrue(circuitBreaker.tryAcquire());
+	}
+}
@@ -0,0 +1,61 @@
+package asegroup1.api.services.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class UpstreamLimiterTest {
+
+	@Test
+	void testRequestsBeyondLimitWait() {
+		UpstreamLimiter limiter = new UpstreamLimiter(2, 10);
+		List<Integer> started = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			int request = i;
+			assertTrue(limiter.submit(() -> started.add(request)));
+		}
+		assertEquals(2, started.size());
+		assertEquals(2, limiter.getInFlight());
+		assertEquals(2, limiter.getQueued());
+
+		limiter.release();
+		assertEquals(3, started.size());
+		assertEquals(2, (int) started.get(2));
+
+		limiter.release();
+		limiter.release();
+		limiter.release();
+		assertEquals(4, started.size());
+		assertEquals(0, limiter.getInFlight());
+		assertEquals(0, limiter.getQueued());
+	}
+
+	@Test
+	void testRejectsWhenQueueIsFull() {
+		UpstreamLimiter limiter = new UpstreamLimiter(1, 1);
+		assertTrue(limiter.submit(() -> {}));
+		assertTrue(limiter.submit(() -> {}));
+		assertFalse(limiter.submit(() -> {}));
+		assertEquals(1, limiter.getQueued());
+	}
+
+	@Test
+	void testRequestsFinishingImmediatelyStartTheNext() {
+		UpstreamLimiter limiter = new UpstreamLimiter(1, 100);
+		List<Integer> started = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			int request = i;
+			limiter.submit(() -> {
+				started.add(request);
+				limiter.release();
+			});
+		}
+		assertEquals(50, started.size());
+		assertEquals(0, limiter.getInFlight());
+	}
+}
@@ -0,0 +1,116 @@
+package asegroup1.api.services.landregistry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import asegroup1.api.daos.landregistry.PostcodeSpatialIndex;
+import asegroup1.api.models.landregistry.LandRegistryData;
+import asegroup1.api.models.landregistry.LandRegistryQuery.Selectable;
+import asegroup1.api.models.landregistry.SamplingMode;
+
+class HeatMapTilePyramidTest {
+
+	private static final long RANDOM_SEED = 8312595207343625996L;
+
+	private static PostcodeSpatialIndex index;
+	private static HeatMapTilePyramid pyramid;
+
+	@BeforeAll
+	private static void setUpPyramid() {
+		Random random = new Random(RANDOM_SEED);
+		PostcodeSpatialIndex.Builder builder = PostcodeSpatialIndex.builder();
+
+		for (int i = 0; i < 5000; i++) {
+			builder.add(String.format("AB%d %d%c%c", i / 1000, i / 100 % 10, (char) ('A' + i / 10 % 10), (char) ('A' + i % 10)),
+					50 + random.nextDouble() * 5, -5 + random.nextDouble() * 5, 1 + random.nextInt(1000));
+		}
+		index = builder.build();
+		pyramid = HeatMapTilePyramid.build(index);
+	}
+
+	@Test
+	void testTilesHoldEveryPostcodeAtEachZoomLevel() {
+		for (int z = 0; z <= HeatMapTilePyramid.MAX_ZOOM; z++) {
+			int postcodeCount = 0;
+			for (int x = HeatMapTilePyramid.getTileX(-5, z); x <= HeatMapTilePyramid.getTileX(0, z); x++) {
+				for (int y = HeatMapTilePyramid.getTileY(50, z); y <= HeatMapTilePyramid.getTileY(55, z); y++) {
+					HeatMapTilePyramid.Tile tile = pyramid.getTile(z, x, y);
+					if (tile != null) {
+						postcodeCount += tile.getPostcodeCount();
+					}
+				}
+			}
+			assertEquals(5000, postcodeCount);
+		}
+	}
+
+	@Test
+	void testTileKeyedByZoomAndPosition() {
+		HeatMapTilePyramid.Tile tile = pyramid.getTile(0, HeatMapTilePyramid.getTileX(-2.5, 0), HeatMapTilePyramid.getTileY(52.5, 0));
+
+		assertNotNull(tile);
+		assertEquals(HeatMapTilePyramid.getTileX(-2.5, 0), tile.getX());
+		assertEquals(HeatMapTilePyramid.getTileY(52.5, 0), tile.getY());
+		assertNull(pyramid.getTile(0, 0, 0));
+	}
+
+	@Test
+	void testSmallViewportMatchesSpatialIndexSearch() {
+		// top/bottom bound the longitude, left/right bound the latitude
+		List<LandRegistryData> fromTiles = pyramid.getPointsInBoundaries(-2, 52, -3, 51, 5000, SamplingMode.RANDOM);
+		List<LandRegistryData> fromIndex = index.searchInBoundaries(-2, 52, -3, 51, 5000);
+
+		HashSet<String> indexPostcodes = new HashSet<>();
+		for (LandRegistryData point : fromIndex) {
+			indexPostcodes.add(point.getConstraint(Selectable.postcode));
+		}
+
+		assertEquals(fromIndex.size(), fromTiles.size());
+		for (LandRegistryData point : fromTiles) {
+			assertTrue(indexPostcodes.contains(point.getConstraint(Selectable.postcode)));
+			assertTrue(point.getLongitude() > -3 && point.getLongitude() < -2);
+			assertTrue(point.getLatitude() > 51 && point.getLatitude() < 52);
+		}
+	}
+
+	@Test
+	void testLargeViewportIsServedFromAggregatedTiles() {
+		List<LandRegistryData> points = pyramid.getPointsInBoundaries(10, 60, -10, 40, 1000, SamplingMode.RANDOM);
+
+		assertTrue(points.size() <= 1000);
+		for (LandRegistryData point : points) {
+			// The whole inward code is stripped, leaving e.g. "AB1 "
+			assertTrue(point.getConstraint(Selectable.postcode).endsWith(" "));
+		}
+	}
+
+	@Test
+	void testDeterministicSamplingMatchesSpatialIndex() {
+		HashSet<String> fromTiles = new HashSet<>();
+		for (LandRegistryData point : pyramid.getPointsInBoundaries(-2, 52, -3, 51, 50, SamplingMode.DETERMINISTIC)) {
+			fromTiles.add(point.getConstraint(Selectable.postcode));
+		}
+		HashSet<String> fromIndex = new HashSet<>();
+		for (LandRegistryData point : index.searchInBoundaries(-2, 52, -3, 51, 50, SamplingMode.DETERMINISTIC)) {
+			fromIndex.add(point.getConstraint(Selectable.postcode));
+		}
+
+		assertEquals(50, fromTiles.size());
+		assertEquals(fromIndex, fromTiles);
+	}
+
+	@Test
+	void testEstimatePostcodeCount() {
+		assertEquals(5000, pyramid.estimatePostcodeCount(10, 60, -10, 40));
+		assertEquals(0, pyramid.estimatePostcodeCount(10, 10, -10, 0));
+	}
+}
@@ -5,8 +5,12 @@ import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.notNull;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -18,6 +22,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Random;
+import java.util.function.Consumer;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -30,12 +35,16 @@ import org.mockito.Mockito;
 import com.mashape.unirest.http.exceptions.UnirestException;
 
 import asegroup1.api.daos.landregistry.LandRegistryDaoImpl;
+import asegroup1.api.daos.landregistry.SparqlResultParser;
 import asegroup1.api.models.heatmap.HeatMapDataPoint;
 import asegroup1.api.models.landregistry.LandRegistryData;
 import asegroup1.api.models.landregistry.LandRegistryQuery;
 import asegroup1.api.models.landregistry.LandRegistryQuery.Selectable;
 import asegroup1.api.models.landregistry.LandRegistryQueryConstraint;
 import asegroup1.api.models.landregistry.LandRegistryQuerySelect;
+import asegroup1.api.models.landregistry.PositioningMode;
+import asegroup1.api.models.landregistry.SamplingMode;
+import asegroup1.api.models.landregistry.TransactionSource;
 
 /**
  * @author Greg Mitten
@@ -48,9 +57,15 @@ class LandRegistryServiceImplTest {
 
 	private static final long RANDOM_SEED = 8312595207343625996L;
 
+	private static LandRegistryServiceImpl createLandRegistryService(LandRegistryDaoImpl landRegistryDao,
+			ViewportCacheServiceImpl viewportCacheService) {
+		return new LandRegistryServiceImpl(landRegistryDao, null, viewportCacheService, null, null,
+				SamplingMode.DETERMINISTIC, PositioningMode.GEOCODE, TransactionSource.SPARQL);
+	}
+
 	@BeforeAll
 	private static void setUpService() {
-		landRegistryService = new LandRegistryServiceImpl(null);
+		landRegistryService = createLandRegistryService(null, null);
 	}
 
 	@Test
@@ -63,11 +78,10 @@ class LandRegistryServiceImplTest {
 			LandRegistryDaoImpl landRegistryDataDaoMock =
 				mock(LandRegistryDaoImpl.class);
 
-			when(landRegistryDataDaoMock.executeSPARQLQuery(notNull()))
-				.thenReturn(getSPARQLResponse());
+			mockSPARQLResponse(landRegistryDataDaoMock, getSPARQLResponse());
 
 			LandRegistryServiceImpl landRegistryService =
-				new LandRegistryServiceImpl(landRegistryDataDaoMock);
+				createLandRegistryService(landRegistryDataDaoMock, null);
 
 			List<LandRegistryData> addressByPostCode = landRegistryService.getTransactions(new LandRegistryQuerySelect(Selectable.pricePaid), constraint);
 
@@ -118,8 +132,7 @@ class LandRegistryServiceImplTest {
 		JSONObject mockRequest = fetchMockRequest();
 
 		try {
-			when(landRegistryDataDaoMock.executeSPARQLQuery(notNull()))
-				.thenReturn(getSPARQLResponse());
+			mockSPARQLResponse(landRegistryDataDaoMock, getSPARQLResponse());
 
 			when(landRegistryDataDaoMock.getGeoLocationData(notNull()))
 				.thenReturn(fetchMockResponse());
@@ -128,11 +141,11 @@ class LandRegistryServiceImplTest {
 					 mockRequest.getDouble("top"),
 					 mockRequest.getDouble("right"),
 					 mockRequest.getDouble("bottom"),
-					 mockRequest.getDouble("left"), true))
+					 mockRequest.getDouble("left"), true, SamplingMode.DETERMINISTIC))
 				.thenReturn(addresses);
 
 			LandRegistryServiceImpl landRegistryServiceLocal =
-				new LandRegistryServiceImpl(landRegistryDataDaoMock);
+				createLandRegistryService(landRegistryDataDaoMock, null);
 
 			addresses = (List<LandRegistryData>)landRegistryServiceLocal
 							.getPositionInsideBounds(mockRequest);
@@ -147,6 +160,36 @@ class LandRegistryServiceImplTest {
 		}
 	}
 
+	@Test
+	void testDefaultViewportRequestIsCached() {
+		LandRegistryDaoImpl landRegistryDataDaoMock = mock(LandRegistryDaoImpl.class);
+		when(landRegistryDataDaoMock.searchForLandRegistryDataInBoundaries(
+				 anyDouble(), anyDouble(), anyDouble(), anyDouble(), eq(true), eq(SamplingMode.DETERMINISTIC)))
+			.thenReturn(new ArrayList<>());
+
+		ViewportCacheServiceImpl viewportCacheService = new ViewportCacheServiceImpl(null, null, true, 2000, 600);
+		viewportCacheService.createCache();
+		LandRegistryServiceImpl landRegistryServiceLocal =
+			createLandRegistryService(landRegistryDataDaoMock, viewportCacheService);
+
+		// No sampling mode, so the default is used
+		JSONObject mockRequest = new JSONObject();
+		mockRequest.put("top", -0.11);
+		mockRequest.put("right", 51.53);
+		mockRequest.put("bottom", -0.14);
+		mockRequest.put("left", 51.51);
+
+		try {
+			landRegistryServiceLocal.getPositionInsideBounds(mockRequest);
+			landRegistryServiceLocal.getPositionInsideBounds(mockRequest);
+		} catch (UnirestException | IOException e) {
+			fail(e);
+		}
+
+		verify(landRegistryDataDaoMock, times(1)).searchForLandRegistryDataInBoundaries(
+			anyDouble(), anyDouble(), anyDouble(), anyDouble(), eq(true), eq(SamplingMode.DETERMINISTIC));
+	}
+
 	@Test
 	void testIfNormalisedValuesConvertToCorrectColours() {
 		List<HeatMapDataPoint> heatMapDataPoints =
@@ -215,6 +258,23 @@ class LandRegistryServiceImplTest {
 			dataPoints.get(0) instanceof HeatMapDataPoint;
 	}
 
+	@Test
+	void testCentroidJitterIsDeterministicAndBounded() {
+		double[] position = LandRegistryServiceImpl.jitterPosition(50.8, -0.37, "12|");
+		assertEquals(position[0], LandRegistryServiceImpl.jitterPosition(50.8, -0.37, "12|")[0]);
+		assertEquals(position[1], LandRegistryServiceImpl.jitterPosition(50.8, -0.37, "12|")[1]);
+
+		double[] neighbour = LandRegistryServiceImpl.jitterPosition(50.8, -0.37, "14|");
+		assertTrue(position[0] != neighbour[0] || position[1] != neighbour[1]);
+
+		for (int i = 0; i < 1000; i++) {
+			double[] jittered = LandRegistryServiceImpl.jitterPosition(50.8, -0.37, i + "|FLAT " + i);
+			double northMetres = (jittered[0] - 50.8) * 111320;
+			double eastMetres = (jittered[1] + 0.37) * 111320 * Math.cos(Math.toRadians(50.8));
+			assertTrue(Math.hypot(northMetres, eastMetres) <= LandRegistryServiceImpl.MAX_CENTROID_JITTER_METRES + 1e-6);
+		}
+	}
+
 	// UTILS
 	private JSONObject fetchMockResponse() {
 		JSONObject mockResponse = new JSONObject();
@@ -319,11 +379,11 @@ class LandRegistryServiceImplTest {
 												 lowerPriceBound, priceRange);
 
 		when(landRegistryDataDaoMock.searchForLandRegistryDataInBoundaries(
-				 0, 0, 0, 0, true))
+				 0, 0, 0, 0, true, SamplingMode.DETERMINISTIC))
 			.thenReturn(landRegistryDataList);
 
 		LandRegistryServiceImpl landRegistryService =
-			new LandRegistryServiceImpl(landRegistryDataDaoMock);
+			createLandRegistryService(landRegistryDataDaoMock, null);
 
 		JSONObject mockRequest = fetchMockRequest();
 
@@ -337,6 +397,13 @@ class LandRegistryServiceImplTest {
 		return null;
 	}
 
+	private void mockSPARQLResponse(LandRegistryDaoImpl landRegistryDataDaoMock, JSONObject response)
+			throws IOException, UnirestException {
+		// Rows are handed to the consumer the service passes in, as they are when the response is read
+		doAnswer(invocation -> SparqlResultParser.parse(response.toString(), invocation.<Consumer<LandRegistryData>>getArgument(1)))
+			.when(landRegistryDataDaoMock).executeSPARQLQuery(notNull(), notNull());
+	}
+
 	private JSONObject getSPARQLResponse() throws JSONException {
 		return new JSONObject(
 			"{\"result\":\"{\\n  \\\"head\\\": {\\n    \\\"vars\\\": [ \\\"paon\\\" , \\\"saon\\\" , \\\"street\\\" , "
@@ -367,9 +434,9 @@ class LandRegistryServiceImplTest {
 		try {
 			LandRegistryDaoImpl landRegistryDataDaoMock = mock(LandRegistryDaoImpl.class);
 
-			when(landRegistryDataDaoMock.executeSPARQLQuery(notNull())).thenReturn(getSPARQLPostcodePriceResponse());
+			mockSPARQLResponse(landRegistryDataDaoMock, getSPARQLPostcodePriceResponse());
 
-			LandRegistryServiceImpl landRegistryService = new LandRegistryServiceImpl(landRegistryDataDaoMock);
+			LandRegistryServiceImpl landRegistryService = createLandRegistryService(landRegistryDataDaoMock, null);
 
 			HashMap<String, Long> prices = landRegistryService.getAllPostcodePrices(postcodes);
 			assertNotNull(prices);
@@ -397,9 +464,9 @@ class LandRegistryServiceImplTest {
 		try {
 			LandRegistryDaoImpl landRegistryDataDaoMock = mock(LandRegistryDaoImpl.class);
 
-			when(landRegistryDataDaoMock.executeSPARQLQuery(notNull())).thenReturn(getSPARQLPostcodePriceResponse());
+			mockSPARQLResponse(landRegistryDataDaoMock, getSPARQLPostcodePriceResponse());
 
-			LandRegistryServiceImpl landRegistryService = new LandRegistryServiceImpl(landRegistryDataDaoMock);
+			LandRegistryServiceImpl landRegistryService = createLandRegistryService(landRegistryDataDaoMock, null);
 			for (LandRegistryData transaction : landRegistryService.getTransactions(LandRegistryQuery.buildQueryAveragePricePostcode(postcodes))) {
 				assertNotNull(transaction);
 				assertEquals(2, transaction.getAllConstraints().size());
@@ -432,11 +499,11 @@ class LandRegistryServiceImplTest {
 
 
 			when(landRegistryDataDaoMock.updateAveragePrice(Mockito.any())).thenReturn(1);
-			when(landRegistryDataDaoMock.executeSPARQLQuery(notNull())).thenReturn(getSPARQLPostcodePriceResponse());
+			mockSPARQLResponse(landRegistryDataDaoMock, getSPARQLPostcodePriceResponse());
 			when(landRegistryDataDaoMock.getMatchingPostcodes("BN23 7L", false, 1)).thenReturn(postcodeAreas);
 
 
-			LandRegistryServiceImpl landRegistryService = new LandRegistryServiceImpl(landRegistryDataDaoMock);
+			LandRegistryServiceImpl landRegistryService = createLandRegistryService(landRegistryDataDaoMock, null);
 
 			landRegistryService.updatePostcodeDatabase("BN23 7L");
 
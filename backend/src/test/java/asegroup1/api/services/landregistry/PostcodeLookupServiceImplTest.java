@@ -0,0 +1,53 @@
+package asegroup1.api.services.landregistry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.security.InvalidParameterException;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+import asegroup1.api.daos.landregistry.LandRegistryDaoImpl;
+import asegroup1.api.models.PostCodeCoordinates;
+
+class PostcodeLookupServiceImplTest {
+
+	@Test
+	void testGetNearestPostcodeUsesDefaultDistance() {
+		LandRegistryDaoImpl mockedDao = mock(LandRegistryDaoImpl.class);
+		PostCodeCoordinates postcode = new PostCodeCoordinates();
+		when(mockedDao.findNearestPostcodes(any(), eq(5000.0))).thenReturn(Collections.singletonList(postcode));
+
+		assertEquals(postcode, new PostcodeLookupServiceImpl(mockedDao, 5000).getNearestPostcode(50.8, -0.37, null));
+	}
+
+	@Test
+	void testGetNearestPostcodesInvalid() {
+		LandRegistryDaoImpl mockedDao = mock(LandRegistryDaoImpl.class);
+		PostcodeLookupServiceImpl lookupService = new PostcodeLookupServiceImpl(mockedDao, 5000);
+
+		assertThrows(InvalidParameterException.class, () -> lookupService.getNearestPostcodes(new double[0][], null));
+		assertThrows(InvalidParameterException.class, () -> lookupService.getNearestPostcodes(new double[][] {{91, 0}}, null));
+		assertThrows(InvalidParameterException.class, () -> lookupService.getNearestPostcodes(new double[][] {{50.8}}, null));
+		assertThrows(InvalidParameterException.class, () -> lookupService.getNearestPostcode(50.8, -0.37, -1.0));
+		assertThrows(InvalidParameterException.class,
+				() -> lookupService.getNearestPostcodes(new double[PostcodeLookupServiceImpl.MAX_BATCH_SIZE + 1][], null));
+		verify(mockedDao, never()).findNearestPostcodes(any(), anyDouble());
+	}
+
+	@Test
+	void testGetNearestPostcodesBeforeIndexLoaded() {
+		LandRegistryDaoImpl mockedDao = mock(LandRegistryDaoImpl.class);
+		when(mockedDao.findNearestPostcodes(any(), anyDouble())).thenReturn(null);
+
+		assertThrows(IllegalStateException.class, () -> new PostcodeLookupServiceImpl(mockedDao, 5000).getNearestPostcode(50.8, -0.37, null));
+	}
+}
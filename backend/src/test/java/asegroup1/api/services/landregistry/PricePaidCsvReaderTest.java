@@ -0,0 +1,128 @@
+package asegroup1.api.services.landregistry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import asegroup1.api.models.landregistry.LandRegistryQuery.EstateType;
+import asegroup1.api.models.landregistry.LandRegistryQuery.PropertyType;
+import asegroup1.api.models.landregistry.LandRegistryQuery.TransactionCategory;
+import asegroup1.api.models.landregistry.PricePaidRecord;
+import asegroup1.api.models.landregistry.PricePaidRecord.RecordStatus;
+
+class PricePaidCsvReaderTest {
+
+	private static final String FIRST_ROW = "\"{5BBE9CB3-6332-4EB0-9CD3-8737CEA4A65A}\",\"42000\",\"1995-12-21 00:00\",\"NE4 9DN\",\"S\",\"N\",\"F\","
+			+ "\"8\",\"\",\"MATFEN PLACE\",\"FENHAM\",\"NEWCASTLE UPON TYNE\",\"NEWCASTLE UPON TYNE\",\"TYNE AND WEAR\",\"A\",\"A\"";
+	private static final String SECOND_ROW = "\"{20E2441A-0F16-49AB-97D4-8737E62A5D93}\",\"95000\",\"1995-03-03 00:00\",\"RM16 4UR\",\"F\",\"Y\",\"L\","
+			+ "\"THE \"\"OLD\"\" MILL, 30\",\"FLAT 2\",\"HEATH ROAD\",\"GRAYS\",\"GRAYS\",\"THURROCK\",\"THURROCK\",\"B\",\"A\"";
+
+	@Test
+	void testReadsRecords() throws IOException {
+		Path file = writeFile(FIRST_ROW + "\n" + SECOND_ROW + "\n");
+		try (PricePaidCsvReader reader = new PricePaidCsvReader(file, 0)) {
+			assertTrue(reader.next());
+			PricePaidRecord first = reader.getRecord();
+			assertEquals("5BBE9CB3-6332-4EB0-9CD3-8737CEA4A65A", first.getTransactionId());
+			assertEquals(42000, first.getPricePaid());
+			assertEquals(LocalDate.of(1995, 12, 21), first.getTransactionDate());
+			assertEquals("NE4 9DN", first.getPostcode());
+			assertEquals(PropertyType.semi_detached, first.getPropertyType());
+			assertFalse(first.isNewBuild());
+			assertEquals(EstateType.freehold, first.getEstateType());
+			assertEquals("8", first.getPaon());
+			assertNull(first.getSaon());
+			assertEquals("TYNE AND WEAR", first.getCounty());
+			assertEquals(TransactionCategory.standard_price_paid_transaction, first.getTransactionCategory());
+			assertEquals(RecordStatus.ADDED, first.getRecordStatus());
+
+			assertTrue(reader.next());
+			PricePaidRecord second = reader.getRecord();
+			assertEquals("THE \"OLD\" MILL, 30", second.getPaon());
+			assertEquals("FLAT 2", second.getSaon());
+			assertTrue(second.isNewBuild());
+			assertEquals(PropertyType.flat_maisonette, second.getPropertyType());
+			assertEquals(TransactionCategory.additional_price_paid_transaction, second.getTransactionCategory());
+
+			assertFalse(reader.next());
+			assertEquals(Files.size(file), reader.getPosition());
+		}
+	}
+
+	@Test
+	void testRecordsCrossingWindows() throws IOException {
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 50; i++) {
+			content.append(i % 2 == 0 ? FIRST_ROW : SECOND_ROW).append(i % 3 == 0 ? "\r\n" : "\n");
+		}
+		// Without a line ending after the last record
+		content.append(FIRST_ROW);
+		Path file = writeFile(content.toString());
+
+		// Smaller than two records, so most records cross the end of a window
+		try (PricePaidCsvReader reader = new PricePaidCsvReader(file, 0, 400)) {
+			List<PricePaidRecord> records = readAll(reader);
+			assertEquals(51, records.size());
+			for (int i = 0; i < records.size(); i++) {
+				assertEquals(i % 2 == 0 ? "8" : "THE \"OLD\" MILL, 30", records.get(i).getPaon());
+				assertEquals(RecordStatus.ADDED, records.get(i).getRecordStatus());
+			}
+		}
+	}
+
+	@Test
+	void testResumesFromPosition() throws IOException {
+		Path file = writeFile(FIRST_ROW + "\n\n" + SECOND_ROW + "\n");
+		long resumePosition;
+		try (PricePaidCsvReader reader = new PricePaidCsvReader(file, 0)) {
+			assertTrue(reader.next());
+			resumePosition = reader.getPosition();
+		}
+		try (PricePaidCsvReader reader = new PricePaidCsvReader(file, resumePosition)) {
+			List<PricePaidRecord> records = readAll(reader);
+			assertEquals(1, records.size());
+			assertEquals("20E2441A-0F16-49AB-97D4-8737E62A5D93", records.get(0).getTransactionId());
+		}
+	}
+
+	@Test
+	void testMalformedAndDeletedRecords() throws IOException {
+		Path file = writeFile(FIRST_ROW.replace("\"42000\"", "\"unknown\"") + "\n"
+				+ "\"{5BBE9CB3-6332-4EB0-9CD3-8737CEA4A65A}\",\"\",\"\",\"\",\"\",\"\",\"\",\"\",\"\",\"\",\"\",\"\",\"\",\"\",\"\",\"D\"\n");
+		try (PricePaidCsvReader reader = new PricePaidCsvReader(file, 0)) {
+			assertTrue(reader.next());
+			assertNull(reader.getRecord());
+
+			assertTrue(reader.next());
+			PricePaidRecord deleted = reader.getRecord();
+			assertEquals(RecordStatus.DELETED, deleted.getRecordStatus());
+			assertEquals("5BBE9CB3-6332-4EB0-9CD3-8737CEA4A65A", deleted.getTransactionId());
+		}
+	}
+
+	private static List<PricePaidRecord> readAll(PricePaidCsvReader reader) throws IOException {
+		List<PricePaidRecord> records = new ArrayList<>();
+		while (reader.next()) {
+			records.add(reader.getRecord());
+		}
+		return records;
+	}
+
+	private static Path writeFile(String content) throws IOException {
+		Path file = Files.createTempFile("price-paid", ".csv");
+		file.toFile().deleteOnExit();
+		Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+}
@@ -0,0 +1,96 @@
+package asegroup1.api.services.landregistry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.mashape.unirest.http.exceptions.UnirestException;
+
+import asegroup1.api.daos.landregistry.PriceRefreshJobDaoImpl;
+import asegroup1.api.models.PriceRefreshJob;
+import asegroup1.api.models.PriceRefreshJob.Status;
+
+class PriceRefreshJobServiceImplTest {
+
+	@Test
+	void testRunJobSkipsCheckpointedAreas() {
+		PriceRefreshJobDaoImpl jobDao = mock(PriceRefreshJobDaoImpl.class);
+		LandRegistryServiceImpl landRegistryService = mock(LandRegistryServiceImpl.class);
+
+		HashMap<String, List<String>> postcodeAreas = new HashMap<>();
+		postcodeAreas.put("BN23 7L", Arrays.asList("BN23 7LE", "BN23 7LL"));
+		postcodeAreas.put("BN23 7N", Arrays.asList("BN23 7NA"));
+		postcodeAreas.put("BN23 8A", Arrays.asList("BN23 8AB"));
+
+		try {
+			when(landRegistryService.getPostcodeAreas("BN23")).thenReturn(postcodeAreas);
+			when(landRegistryService.updatePostcodeArea(postcodeAreas.get("BN23 7L"))).thenReturn(2);
+			when(landRegistryService.updatePostcodeArea(postcodeAreas.get("BN23 8A"))).thenReturn(1);
+			when(jobDao.getCompletedAreas("job")).thenReturn(Collections.singleton("BN23 7N"));
+
+			PriceRefreshJobServiceImpl jobService = new PriceRefreshJobServiceImpl(jobDao, landRegistryService, null, null, 4);
+			jobService.initialise();
+			jobService.runJob(new PriceRefreshJob("job", "BN23", null));
+
+			verify(jobDao).startRun("job", 3);
+			verify(jobDao).completeArea("job", "BN23 7L", 2);
+			verify(jobDao).completeArea("job", "BN23 8A", 1);
+			verify(jobDao, never()).completeArea(anyString(), eq("BN23 7N"), anyInt());
+			verify(landRegistryService, never()).updatePostcodeArea(postcodeAreas.get("BN23 7N"));
+			verify(jobDao).finishJob("job", Status.COMPLETED, 0);
+		} catch (IOException | UnirestException e) {
+			fail(e);
+		}
+	}
+
+	@Test
+	void testFailedAreaIsNotCheckpointed() {
+		PriceRefreshJobDaoImpl jobDao = mock(PriceRefreshJobDaoImpl.class);
+		LandRegistryServiceImpl landRegistryService = mock(LandRegistryServiceImpl.class);
+
+		HashMap<String, List<String>> postcodeAreas = new HashMap<>();
+		postcodeAreas.put("BN23 7L", Arrays.asList("BN23 7LE"));
+		postcodeAreas.put("BN23 7N", Arrays.asList("BN23 7NA"));
+
+		try {
+			when(landRegistryService.getPostcodeAreas("BN23")).thenReturn(postcodeAreas);
+			when(landRegistryService.updatePostcodeArea(postcodeAreas.get("BN23 7L"))).thenReturn(1);
+			when(landRegistryService.updatePostcodeArea(postcodeAreas.get("BN23 7N"))).thenThrow(new UnirestException("Unavailable"));
+			when(jobDao.getCompletedAreas("job")).thenReturn(Collections.emptySet());
+
+			PriceRefreshJobServiceImpl jobService = new PriceRefreshJobServiceImpl(jobDao, landRegistryService, null, null, 4);
+			jobService.initialise();
+			jobService.runJob(new PriceRefreshJob("job", "BN23", null));
+
+			verify(jobDao).completeArea("job", "BN23 7L", 1);
+			verify(jobDao, never()).completeArea(anyString(), eq("BN23 7N"), anyInt());
+			verify(jobDao).finishJob("job", Status.FAILED, 1);
+		} catch (IOException | UnirestException e) {
+			fail(e);
+		}
+	}
+
+	@Test
+	void testUnknownJobStatus() {
+		PriceRefreshJobDaoImpl jobDao = mock(PriceRefreshJobDaoImpl.class);
+		PriceRefreshJobServiceImpl jobService = new PriceRefreshJobServiceImpl(jobDao, mock(LandRegistryServiceImpl.class), null, null, 4);
+		assertEquals(null, jobService.getJobStatus("unknown"));
+		verify(jobDao).get("unknown");
+		verify(jobDao, never()).finishJob(anyString(), any(), anyInt());
+	}
+}
@@ -0,0 +1,116 @@
+package asegroup1.api.services.landregistry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import asegroup1.api.daos.landregistry.LandRegistryDaoImpl;
+import asegroup1.api.daos.landregistry.TransactionStoreDaoImpl;
+import asegroup1.api.models.TransactionImport;
+import asegroup1.api.models.TransactionImport.Mode;
+import asegroup1.api.models.TransactionImport.Status;
+import asegroup1.api.models.landregistry.LandRegistryData;
+import asegroup1.api.models.landregistry.LandRegistrySqlQuery;
+import asegroup1.api.models.landregistry.PricePaidRecord;
+import asegroup1.api.models.landregistry.PricePaidRecord.RecordStatus;
+
+class TransactionImportServiceImplTest {
+
+	private static final String CHANGED_ROW = "\"{5BBE9CB3-6332-4EB0-9CD3-8737CEA4A65A}\",\"42000\",\"1995-12-21 00:00\",\"NE4 9DN\",\"S\",\"N\",\"F\","
+			+ "\"8\",\"\",\"MATFEN PLACE\",\"FENHAM\",\"NEWCASTLE UPON TYNE\",\"NEWCASTLE UPON TYNE\",\"TYNE AND WEAR\",\"A\",\"C\"";
+	private static final String DELETED_ROW = "\"{20E2441A-0F16-49AB-97D4-8737E62A5D93}\",\"95000\",\"1995-03-03 00:00\",\"RM16 4UR\",\"F\",\"Y\",\"L\","
+			+ "\"30\",\"FLAT 2\",\"HEATH ROAD\",\"GRAYS\",\"GRAYS\",\"THURROCK\",\"THURROCK\",\"B\",\"D\"";
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void testDeltaImportRepricesTouchedPostcodes() throws IOException {
+		TransactionStoreDaoImpl transactionStoreDao = mock(TransactionStoreDaoImpl.class);
+		LandRegistryDaoImpl landRegistryDao = mock(LandRegistryDaoImpl.class);
+		HeatMapTileServiceImpl heatMapTileService = mock(HeatMapTileServiceImpl.class);
+
+		LandRegistryData average = new LandRegistryData();
+		average.setConstraint("postcode", "NE4 9DN");
+		average.setConstraint("pricePaid", "42000");
+		when(transactionStoreDao.getTouchedPostcodes("import")).thenReturn(Arrays.asList("NE4 9DN", "RM16 4UR"));
+		when(transactionStoreDao.executeQuery(any(LandRegistrySqlQuery.class))).thenReturn(Collections.singletonList(average));
+		when(landRegistryDao.updateAveragePrice(any())).thenReturn(2);
+
+		Path file = writeFile(CHANGED_ROW + "\n" + DELETED_ROW + "\n");
+		TransactionImport transactionImport = new TransactionImport("import", file.toString(), Files.size(file), Mode.DELTA, null);
+		new TransactionImportServiceImpl(transactionStoreDao, landRegistryDao, heatMapTileService, null, "", 2000).runImport(transactionImport);
+
+		ArgumentCaptor<List<PricePaidRecord>> batch = ArgumentCaptor.forClass(List.class);
+		verify(transactionStoreDao).writeBatch(eq(transactionImport), batch.capture());
+		assertEquals(2, batch.getValue().size());
+		assertEquals(RecordStatus.CHANGED, batch.getValue().get(0).getRecordStatus());
+		assertEquals(RecordStatus.DELETED, batch.getValue().get(1).getRecordStatus());
+
+		// Postcodes left without sales are saved without a price
+		HashMap<String, Long> expectedPrices = new HashMap<>();
+		expectedPrices.put("NE4 9DN", 42000L);
+		expectedPrices.put("RM16 4UR", null);
+		verify(landRegistryDao).updateAveragePrice(expectedPrices);
+		verify(heatMapTileService).rebuildTilePyramid();
+		verify(transactionStoreDao).finishImport(transactionImport, Status.COMPLETED);
+
+		assertEquals(2, transactionImport.getRowsRead());
+		assertEquals(Files.size(file), transactionImport.getBytesRead());
+		assertEquals(2, transactionImport.getPostcodesTouched());
+		assertEquals(2, transactionImport.getPostcodesRepriced());
+	}
+
+	@Test
+	void testFullImportDoesNotReprice() throws IOException {
+		TransactionStoreDaoImpl transactionStoreDao = mock(TransactionStoreDaoImpl.class);
+		LandRegistryDaoImpl landRegistryDao = mock(LandRegistryDaoImpl.class);
+
+		Path file = writeFile(CHANGED_ROW + "\n");
+		TransactionImport transactionImport = new TransactionImport("import", file.toString(), Files.size(file), Mode.FULL, null);
+		new TransactionImportServiceImpl(transactionStoreDao, landRegistryDao, null, null, "", 2000).runImport(transactionImport);
+
+		verify(transactionStoreDao, never()).getTouchedPostcodes("import");
+		verify(landRegistryDao, never()).updateAveragePrice(any());
+		verify(transactionStoreDao).finishImport(transactionImport, Status.COMPLETED);
+	}
+
+	@Test
+	void testGetStageReport() {
+		TransactionImport transactionImport = new TransactionImport("import", "pp-monthly-update.csv", 100, Mode.DELTA, null);
+		transactionImport.setRowsRead(10);
+		transactionImport.setRowsSkipped(1);
+		transactionImport.setReadMillis(5);
+		transactionImport.setWriteMillis(20);
+		transactionImport.setPostcodesTouched(8);
+		transactionImport.setPostcodesRepriced(6);
+		transactionImport.setRepriceMillis(30);
+
+		String report = TransactionImportServiceImpl.getStageReport(transactionImport, 7, 2);
+		assertTrue(report.contains("read 10 rows (1 skipped) in 5ms"), report);
+		assertTrue(report.contains("wrote 7 and deleted 2 transactions in 20ms"), report);
+		assertTrue(report.contains("repriced 6 of 8 touched postcodes in 30ms"), report);
+	}
+
+	private static Path writeFile(String content) throws IOException {
+		Path file = Files.createTempFile("price-paid", ".csv");
+		file.toFile().deleteOnExit();
+		Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+}
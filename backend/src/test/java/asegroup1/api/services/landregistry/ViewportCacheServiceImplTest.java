@@ -0,0 +1,121 @@
+package asegroup1.api.services.landregistry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.mashape.unirest.http.exceptions.UnirestException;
+
+import asegroup1.api.daos.landregistry.AveragePricesUpdatedEvent;
+import asegroup1.api.models.PostCodeCoordinates;
+import asegroup1.api.models.landregistry.PositioningMode;
+import asegroup1.api.models.landregistry.SamplingMode;
+
+class ViewportCacheServiceImplTest {
+
+	private static ViewportCacheServiceImpl createCacheService() {
+		ViewportCacheServiceImpl viewportCacheService = new ViewportCacheServiceImpl(null, null, true, 2000, 600);
+		viewportCacheService.createCache();
+		return viewportCacheService;
+	}
+
+	@Test
+	void testSnapContainsViewport() {
+		ViewportCacheServiceImpl.ViewportKey key = ViewportCacheServiceImpl.ViewportKey.snap(-0.11, 51.53, -0.14, 51.51, SamplingMode.RANDOM, PositioningMode.CENTROID);
+
+		assertTrue(key.getTop() >= -0.11 && key.getBottom() <= -0.14);
+		assertTrue(key.getRight() >= 51.53 && key.getLeft() <= 51.51);
+		// Cells are under a quarter of the viewport, and snapping adds at most a cell to each side
+		assertTrue(key.getTop() - key.getBottom() < 0.03 * 1.5);
+		assertTrue(key.getRight() - key.getLeft() < 0.03 * 1.5);
+	}
+
+	@Test
+	void testSnapRejectsEmptyViewports() {
+		assertNull(ViewportCacheServiceImpl.ViewportKey.snap(0, 0, 0, 0, SamplingMode.RANDOM, PositioningMode.CENTROID));
+		assertNull(ViewportCacheServiceImpl.ViewportKey.snap(-1, 0, 0, 0, SamplingMode.RANDOM, PositioningMode.CENTROID));
+	}
+
+	@Test
+	void testSmallPansShareCachedResult() {
+		ViewportCacheServiceImpl viewportCacheService = createCacheService();
+		List<double[]> loads = new ArrayList<>();
+		ViewportCacheServiceImpl.ViewportLoader loader = (top, right, bottom, left) -> {
+			loads.add(new double[] {top, right, bottom, left});
+			return Collections.singletonList(loads.size());
+		};
+
+		try {
+			List<?> first = viewportCacheService.getPositionInsideBounds(-0.11, 51.53, -0.14, 51.51, SamplingMode.DETERMINISTIC, PositioningMode.CENTROID, loader);
+			List<?> panned = viewportCacheService.getPositionInsideBounds(-0.1101, 51.5301, -0.1401, 51.5101, SamplingMode.DETERMINISTIC, PositioningMode.CENTROID, loader);
+			List<?> otherPositioning = viewportCacheService.getPositionInsideBounds(-0.11, 51.53, -0.14, 51.51, SamplingMode.DETERMINISTIC, PositioningMode.GEOCODE, loader);
+
+			assertEquals(first, panned);
+			assertEquals(Arrays.asList(2), otherPositioning);
+			assertEquals(2, loads.size());
+		} catch (IOException | UnirestException e) {
+			fail(e);
+		}
+	}
+
+	@Test
+	void testRandomSamplingIsNotCached() {
+		ViewportCacheServiceImpl viewportCacheService = createCacheService();
+		int[] loads = new int[1];
+		ViewportCacheServiceImpl.ViewportLoader loader = (top, right, bottom, left) -> Collections.singletonList(++loads[0]);
+
+		try {
+			viewportCacheService.getPositionInsideBounds(-0.11, 51.53, -0.14, 51.51, SamplingMode.RANDOM, PositioningMode.CENTROID, loader);
+			assertEquals(Arrays.asList(2), viewportCacheService.getPositionInsideBounds(-0.11, 51.53, -0.14, 51.51, SamplingMode.RANDOM, PositioningMode.CENTROID, loader));
+		} catch (IOException | UnirestException e) {
+			fail(e);
+		}
+	}
+
+	@Test
+	void testCachedResultsAreUnmodifiable() {
+		ViewportCacheServiceImpl viewportCacheService = createCacheService();
+		ViewportCacheServiceImpl.ViewportLoader loader = (top, right, bottom, left) -> new ArrayList<>(Arrays.asList(1, 2));
+
+		try {
+			List<?> first = viewportCacheService.getPositionInsideBounds(-0.11, 51.53, -0.14, 51.51, SamplingMode.DETERMINISTIC, PositioningMode.CENTROID, loader);
+			assertThrows(UnsupportedOperationException.class, first::clear);
+			assertEquals(Arrays.asList(1, 2), viewportCacheService.getPositionInsideBounds(-0.11, 51.53, -0.14, 51.51, SamplingMode.DETERMINISTIC, PositioningMode.CENTROID, loader));
+		} catch (IOException | UnirestException e) {
+			fail(e);
+		}
+	}
+
+	@Test
+	void testPriceUpdateInvalidatesAffectedViewportsOnly() {
+		ViewportCacheServiceImpl viewportCacheService = createCacheService();
+		int[] loads = new int[1];
+		ViewportCacheServiceImpl.ViewportLoader loader = (top, right, bottom, left) -> Collections.singletonList(++loads[0]);
+
+		try {
+			viewportCacheService.getPositionInsideBounds(-0.11, 51.53, -0.14, 51.51, SamplingMode.DETERMINISTIC, PositioningMode.CENTROID, loader);
+			viewportCacheService.getPositionInsideBounds(-2.11, 53.53, -2.14, 53.51, SamplingMode.DETERMINISTIC, PositioningMode.CENTROID, loader);
+
+			PostCodeCoordinates updated = new PostCodeCoordinates();
+			updated.setPostcode("EC1A 1BB");
+			updated.setLatitude(51.52);
+			updated.setLongitude(-0.12);
+			viewportCacheService.onAveragePricesUpdated(new AveragePricesUpdatedEvent(this, Arrays.asList(updated)));
+
+			assertEquals(Arrays.asList(3), viewportCacheService.getPositionInsideBounds(-0.11, 51.53, -0.14, 51.51, SamplingMode.DETERMINISTIC, PositioningMode.CENTROID, loader));
+			assertEquals(Arrays.asList(2), viewportCacheService.getPositionInsideBounds(-2.11, 53.53, -2.14, 53.51, SamplingMode.DETERMINISTIC, PositioningMode.CENTROID, loader));
+		} catch (IOException | UnirestException e) {
+			fail(e);
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package asegroup1.api.services.location;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import asegroup1.api.daos.location.LocationDaoImpl;
+
+class LocationRetentionServiceImplTest {
+
+	private static LocationRetentionServiceImpl createRetentionService(LocationDaoImpl locationDao) {
+		return new LocationRetentionServiceImpl(locationDao, false, 60, 30, 0);
+	}
+
+
+	@Test
+	void testDisabledRetentionDoesNothing() {
+		LocationDaoImpl locationDao = mock(LocationDaoImpl.class);
+		createRetentionService(locationDao).applyRetention();
+		verifyZeroInteractions(locationDao);
+	}
+
+	@Test
+	void testRollUpCoversEveryWindowBeforeCutoff() {
+		LocationDaoImpl locationDao = mock(LocationDaoImpl.class);
+		long day = TimeUnit.DAYS.toMillis(1);
+		when(locationDao.getOldestLocationTime()).thenReturn(new Timestamp(10 * day + 90_500));
+		when(locationDao.rollUpLocations(any(), any(), anyInt())).thenReturn(5);
+
+		LocationRetentionServiceImpl retentionService = createRetentionService(locationDao);
+		Timestamp cutoff = new Timestamp(12 * day + 3_600_000);
+		assertEquals(15, retentionService.rollUpBefore(cutoff));
+
+		ArgumentCaptor<Timestamp> starts = ArgumentCaptor.forClass(Timestamp.class);
+		ArgumentCaptor<Timestamp> ends = ArgumentCaptor.forClass(Timestamp.class);
+		verify(locationDao, times(3)).rollUpLocations(starts.capture(), ends.capture(), eq(60));
+
+		List<Timestamp> windowStarts = starts.getAllValues();
+		List<Timestamp> windowEnds = ends.getAllValues();
+		// The first window starts on the interval holding the oldest location
+		assertEquals(10 * day + 60_000, windowStarts.get(0).getTime());
+		for (int i = 1; i < windowStarts.size(); i++) {
+			assertEquals(windowEnds.get(i - 1), windowStarts.get(i));
+		}
+		assertEquals(cutoff, windowEnds.get(windowEnds.size() - 1));
+	}
+
+	@Test
+	void testNothingToRollUp() {
+		LocationDaoImpl locationDao = mock(LocationDaoImpl.class);
+		when(locationDao.getOldestLocationTime()).thenReturn(null);
+		assertEquals(0, createRetentionService(locationDao).rollUpBefore(new Timestamp(System.currentTimeMillis())));
+		verify(locationDao, never()).rollUpLocations(any(), any(), anyInt());
+	}
+
+	@Test
+	void testRawCutoff() {
+		LocationRetentionServiceImpl retentionService = createRetentionService(mock(LocationDaoImpl.class));
+		long now = System.currentTimeMillis();
+		Timestamp cutoff = retentionService.getRawCutoff(now);
+
+		assertEquals(0, cutoff.getTime() % 60_000);
+		assertTrue(cutoff.getTime() <= now - TimeUnit.DAYS.toMillis(30));
+		assertTrue(retentionService.mayBeRolledUp(null));
+		assertTrue(retentionService.mayBeRolledUp(new Timestamp(now - TimeUnit.DAYS.toMillis(31))));
+		assertFalse(retentionService.mayBeRolledUp(new Timestamp(now - TimeUnit.DAYS.toMillis(29))));
+	}
+}
@@ -1,34 +1,50 @@
 package asegroup1.api.services.location;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.fail;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.security.InvalidParameterException;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 
 import asegroup1.api.daos.location.LocationDaoImpl;
 import asegroup1.api.models.LocationData;
+import asegroup1.api.models.LocationInsertStatus;
 
 class LocationServiceImplTest {
 
+	private static LocationServiceImpl createLocationService(LocationDaoImpl locationDao) {
+		return new LocationServiceImpl(locationDao, null, null, null, false, 8, 20000, 500, 1000, 30000, 2000);
+	}
+
+
 	@Test
 	void testCreateLocationDataEmpty() {
 		LocationDaoImpl mockedLocDao = mock(LocationDaoImpl.class);
-		when(mockedLocDao.getLocationDataById(any(), any())).thenReturn(Arrays.asList());
+		when(mockedLocDao.insertIfAbsent(any())).thenReturn(true);
 		
 		LocationData data = new LocationData();
 		data.setUserId("testId");
 		data.setTimelog(Timestamp.valueOf(LocalDateTime.now()));
 
 		try {
-			new LocationServiceImpl(mockedLocDao, null).create(data);
+			createLocationService(mockedLocDao).create(data);
+			verify(mockedLocDao).insertIfAbsent(data);
+			verify(mockedLocDao, never()).getLocationDataById(any(), any());
 		} catch (InvalidParameterException e) {
 			fail(e);
 		}
@@ -38,14 +54,68 @@ class LocationServiceImplTest {
 	@Test
 	void testCreateLocationDataExsists() {
 		LocationDaoImpl mockedLocDao = mock(LocationDaoImpl.class);
-		when(mockedLocDao.getLocationDataById(any(), any())).thenReturn(Arrays.asList(new LocationData()));
+		when(mockedLocDao.insertIfAbsent(any())).thenReturn(false);
 		
 		LocationData data = new LocationData();
 		data.setUserId("testId");
 		data.setTimelog(Timestamp.valueOf(LocalDateTime.now()));
 
-		assertThrows(InvalidParameterException.class, () -> new LocationServiceImpl(mockedLocDao, null).create(data));
+		assertThrows(InvalidParameterException.class, () -> createLocationService(mockedLocDao).create(data));
 		
 	}
 
+	@Test
+	void testCreateRejectsInvalidLocation() {
+		LocationDaoImpl mockedLocDao = mock(LocationDaoImpl.class);
+
+		LocationData data = new LocationData();
+		data.setUserId("testId");
+		data.setTimelog(Timestamp.valueOf(LocalDateTime.now()));
+		data.setLatitude(91);
+
+		assertThrows(InvalidParameterException.class, () -> createLocationService(mockedLocDao).create(data));
+		verify(mockedLocDao, never()).insertIfAbsent(any());
+	}
+
+	private static LocationData createLocation(String userId, String time) {
+		LocationData data = new LocationData();
+		data.setUserId(userId);
+		data.setTimelog(Timestamp.valueOf(time));
+		data.setLatitude(50.8f);
+		data.setLongitude(-0.37f);
+		return data;
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void testCreateAllReportsEachLocation() {
+		LocationDaoImpl mockedLocDao = mock(LocationDaoImpl.class);
+		when(mockedLocDao.getTimelogs(eq("testId"), any(), any()))
+				.thenReturn(Collections.singleton(Timestamp.valueOf("2018-11-20 10:00:01")));
+		when(mockedLocDao.addAll(anyList())).thenReturn(new int[] {1, 0});
+
+		LocationData otherUser = createLocation("otherId", "2018-11-20 10:00:03");
+		LocationData noTime = createLocation("testId", "2018-11-20 10:00:04");
+		noTime.setTimelog(null);
+		LocationData withMillis = createLocation("testId", "2018-11-20 10:00:00.250");
+
+		List<LocationInsertStatus> statuses = createLocationService(mockedLocDao).createAll("testId", Arrays.asList(
+				withMillis,
+				createLocation("testId", "2018-11-20 10:00:00.750"),
+				createLocation("testId", "2018-11-20 10:00:01"),
+				otherUser,
+				noTime,
+				createLocation("testId", "2018-11-20 10:00:02")));
+
+		assertEquals(Arrays.asList(LocationInsertStatus.ADDED, LocationInsertStatus.DUPLICATE, LocationInsertStatus.DUPLICATE,
+				LocationInsertStatus.INVALID, LocationInsertStatus.INVALID, LocationInsertStatus.DUPLICATE), statuses);
+
+		ArgumentCaptor<List<LocationData>> inserted = ArgumentCaptor.forClass(List.class);
+		verify(mockedLocDao).addAll(inserted.capture());
+		assertEquals(2, inserted.getValue().size());
+		assertEquals(Timestamp.valueOf("2018-11-20 10:00:00"), inserted.getValue().get(0).getTimelog());
+		// The caller's locations are left as they were
+		assertEquals(Timestamp.valueOf("2018-11-20 10:00:00.250"), withMillis.getTimelog());
+	}
+
 }
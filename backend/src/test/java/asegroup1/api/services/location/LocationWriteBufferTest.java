@@ -0,0 +1,174 @@
+package asegroup1.api.services.location;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import asegroup1.api.models.LocationData;
+
+class LocationWriteBufferTest {
+
+	private static LocationData createLocation(String userId, long time) {
+		LocationData location = new LocationData();
+		location.setUserId(userId);
+		location.setTimelog(new Timestamp(time));
+		return location;
+	}
+
+	@Test
+	void testCloseWritesEveryLocationInOrder() {
+		List<LocationData> written = Collections.synchronizedList(new ArrayList<>());
+		LocationWriteBuffer buffer = new LocationWriteBuffer(4, 1000, 7, 50, written::addAll);
+
+		for (int i = 0; i < 100; i++) {
+			assertTrue(buffer.offer(createLocation("user" + (i % 3), i)));
+		}
+		assertTrue(buffer.close(5000));
+		assertEquals(100, written.size());
+		assertEquals(100, buffer.getFlushedLocations());
+
+		// Each user's locations are written in the order they were offered
+		for (int user = 0; user < 3; user++) {
+			long previous = -1;
+			for (LocationData location : written) {
+				if (location.getUserId().equals("user" + user)) {
+					assertTrue(location.getTimelog().getTime() > previous);
+					previous = location.getTimelog().getTime();
+				}
+			}
+		}
+		assertFalse(buffer.offer(createLocation("user0", 100)));
+	}
+
+	@Test
+	void testBatchesAreLimitedToBatchSize() {
+		List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+		LocationWriteBuffer buffer = new LocationWriteBuffer(1, 1000, 10, 1000, batch -> batchSizes.add(batch.size()));
+
+		for (int i = 0; i < 95; i++) {
+			buffer.offer(createLocation("user", i));
+		}
+		assertTrue(buffer.close(5000));
+		int total = 0;
+		for (int batchSize : batchSizes) {
+			assertTrue(batchSize <= 10);
+			total += batchSize;
+		}
+		assertEquals(95, total);
+	}
+
+	@Test
+	void testFullShardRejectsLocations() throws InterruptedException {
+		CountDownLatch writing = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		LocationWriteBuffer buffer = new LocationWriteBuffer(1, 2, 1, 10, batch -> {
+			writing.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+
+		// The first location is taken by the flusher, which then blocks
+		assertTrue(buffer.offer(createLocation("user", 0)));
+		writing.await();
+		assertTrue(buffer.offer(createLocation("user", 1)));
+		assertTrue(buffer.offer(createLocation("user", 2)));
+		assertFalse(buffer.offer(createLocation("user", 3)));
+		assertEquals(2, buffer.getQueuedLocations());
+
+		release.countDown();
+		assertTrue(buffer.close(5000));
+		assertEquals(3, buffer.getFlushedLocations());
+	}
+
+	@Test
+	void testFailedWritesAreCounted() {
+		LocationWriteBuffer buffer = new LocationWriteBuffer(1, 10, 5, 10, batch -> {
+			throw new IllegalStateException("Database unavailable");
+		});
+		buffer.offer(createLocation("user", 0));
+		buffer.offer(createLocation("user", 1));
+		buffer.close(5000);
+		assertEquals(2, buffer.getFailedLocations());
+		assertEquals(0, buffer.getFlushedLocations());
+	}
+
+	@Test
+	void testFailedBatchOnlyLosesBadLocation() {
+		List<LocationData> written = Collections.synchronizedList(new ArrayList<>());
+		LocationWriteBuffer buffer = new LocationWriteBuffer(1, 10, 5, 1000, batch -> {
+			for (LocationData location : batch) {
+				if (location.getTimelog().getTime() == 2) {
+					throw new IllegalStateException("Data truncated");
+				}
+			}
+			written.addAll(batch);
+		});
+		for (int i = 0; i < 5; i++) {
+			buffer.offer(createLocation("user", i));
+		}
+		buffer.close(5000);
+		assertEquals(4, written.size());
+		assertEquals(4, buffer.getFlushedLocations());
+		assertEquals(1, buffer.getFailedLocations());
+	}
+
+	@Test
+	void testLocationsOfferedWhileClosingAreWrittenOrRejected() throws Exception {
+		LocationWriteBuffer buffer = new LocationWriteBuffer(4, 100000, 10, 1, batch -> {});
+		CountDownLatch offering = new CountDownLatch(1);
+
+		CompletableFuture<Integer> offerer = CompletableFuture.supplyAsync(() -> {
+			int accepted = 0;
+			for (int i = 0; i < 100000; i++) {
+				if (buffer.offer(createLocation("user" + (i % 7), i))) {
+					accepted++;
+				}
+				offering.countDown();
+			}
+			return accepted;
+		});
+
+		offering.await();
+		assertTrue(buffer.close(5000));
+		int accepted = offerer.get(5, TimeUnit.SECONDS);
+		assertEquals(accepted, buffer.getFlushedLocations());
+		assertEquals(0, buffer.getFailedLocations());
+	}
+
+	@Test
+	void testLocationsLeftAfterTimeoutAreCountedAsFailed() throws InterruptedException {
+		CountDownLatch writing = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		LocationWriteBuffer buffer = new LocationWriteBuffer(1, 10, 1, 10, batch -> {
+			writing.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+
+		assertTrue(buffer.offer(createLocation("user", 0)));
+		writing.await();
+		assertTrue(buffer.offer(createLocation("user", 1)));
+		assertTrue(buffer.offer(createLocation("user", 2)));
+
+		assertFalse(buffer.close(50));
+		assertEquals(2, buffer.getFailedLocations());
+		assertEquals(0, buffer.getQueuedLocations());
+		release.countDown();
+	}
+}
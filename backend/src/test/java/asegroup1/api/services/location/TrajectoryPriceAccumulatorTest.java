@@ -0,0 +1,76 @@
+package asegroup1.api.services.location;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import asegroup1.api.daos.landregistry.PostcodeSpatialIndex;
+import asegroup1.api.models.LocationData;
+import asegroup1.api.models.TrajectoryPrices;
+import asegroup1.api.models.TrajectoryPrices.PostcodeVisit;
+
+class TrajectoryPriceAccumulatorTest {
+
+	private static final PostcodeSpatialIndex INDEX = PostcodeSpatialIndex.builder()
+			.add("BN14 7BH", 50.80, -0.37, 100)
+			.add("BN14 7BJ", 50.81, -0.37, 300)
+			.add("BN14 8AA", 50.82, -0.37, 0)
+			.build();
+
+	private static LocationData createLocation(double latitude, double longitude, long millis) {
+		LocationData location = new LocationData();
+		location.setUserId("test");
+		location.setLatitude((float) latitude);
+		location.setLongitude((float) longitude);
+		location.setTimelog(new Timestamp(millis));
+		return location;
+	}
+
+	@Test
+	void testAttributesLocationsToNearestPostcode() {
+		TrajectoryPriceAccumulator accumulator = new TrajectoryPriceAccumulator(INDEX, 1000);
+		accumulator.accept(createLocation(50.800, -0.37, 1000));
+		accumulator.accept(createLocation(50.800, -0.37, 2000));
+		accumulator.accept(createLocation(50.811, -0.37, 3000));
+		accumulator.accept(createLocation(50.801, -0.37, 4000));
+		accumulator.accept(createLocation(50.821, -0.37, 5000));
+		// Too far from any postcode
+		accumulator.accept(createLocation(52, -0.37, 6000));
+
+		TrajectoryPrices prices = accumulator.getTrajectoryPrices();
+		assertEquals(6, prices.getLocations());
+		assertEquals(5, prices.getMatchedLocations());
+
+		List<PostcodeVisit> postcodes = prices.getPostcodes();
+		assertEquals(3, postcodes.size());
+
+		PostcodeVisit first = postcodes.get(0);
+		assertEquals("BN14 7BH", first.getPostcode());
+		assertEquals(3, first.getLocations());
+		assertEquals(2, first.getVisits());
+		assertEquals(new Timestamp(1000), first.getFirstVisited());
+		assertEquals(new Timestamp(4000), first.getLastVisited());
+
+		assertEquals("BN14 7BJ", postcodes.get(1).getPostcode());
+		assertNull(postcodes.get(2).getAveragePrice());
+
+		// Unpriced postcodes are left out of the totals
+		assertEquals(200, prices.getAveragePrice().longValue());
+		assertEquals(150, prices.getWeightedAveragePrice().longValue());
+		assertEquals(100, prices.getMinPrice().longValue());
+		assertEquals(300, prices.getMaxPrice().longValue());
+	}
+
+	@Test
+	void testNoLocations() {
+		TrajectoryPrices prices = new TrajectoryPriceAccumulator(INDEX, 1000).getTrajectoryPrices();
+		assertEquals(0, prices.getLocations());
+		assertNull(prices.getAveragePrice());
+		assertNull(prices.getWeightedAveragePrice());
+		assertEquals(0, prices.getPostcodes().size());
+	}
+}
@@ -1,9 +1,13 @@
 package asegroup1.api.services.user;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import org.junit.jupiter.api.Test;
@@ -13,12 +17,16 @@ import asegroup1.api.models.UserData;
 
 class UserServiceImplTest {
 
+	private static UserServiceImpl createUserService(UserDaoImpl dao) {
+		return new UserServiceImpl(dao, null, 100, 60, 100, 30);
+	}
+
 	@Test
 	void testAddExists() {
 		UserDaoImpl mockedDao = mock(UserDaoImpl.class);
 		doNothing().when(mockedDao).add(any());
 		when(mockedDao.get(any())).thenReturn(new UserData());
-		assertEquals(-1, new UserServiceImpl(mockedDao).add("test"));
+		assertEquals(-1, createUserService(mockedDao).add("test"));
 	}
 
 	@Test
@@ -26,7 +34,7 @@ class UserServiceImplTest {
 		UserDaoImpl mockedDao = mock(UserDaoImpl.class);
 		doNothing().when(mockedDao).add(any());
 		when(mockedDao.get(any())).thenReturn(null);
-		assertEquals(1, new UserServiceImpl(mockedDao).add("test"));
+		assertEquals(1, createUserService(mockedDao).add("test"));
 	}
 
 	@Test
@@ -34,7 +42,48 @@ class UserServiceImplTest {
 		UserDaoImpl mockedDao = mock(UserDaoImpl.class);
 		doNothing().when(mockedDao).add(any());
 		when(mockedDao.get(any())).thenReturn(null).thenReturn(new UserData());
-		assertEquals(0, new UserServiceImpl(mockedDao).add("test"));
+		assertEquals(0, createUserService(mockedDao).add("test"));
+	}
+
+	@Test
+	void testGetCachesKnownUser() {
+		UserDaoImpl mockedDao = mock(UserDaoImpl.class);
+		when(mockedDao.get("test")).thenReturn(new UserData("test"));
+		UserServiceImpl userService = createUserService(mockedDao);
+		userService.createCaches();
+
+		assertEquals("test", userService.get("test").getUserId());
+		assertEquals("test", userService.get("test").getUserId());
+		verify(mockedDao, times(1)).get("test");
+	}
+
+	@Test
+	void testGetCachesUnknownUserUntilAdded() {
+		UserDaoImpl mockedDao = mock(UserDaoImpl.class);
+		when(mockedDao.get("test")).thenReturn(null, null, new UserData("test"));
+		UserServiceImpl userService = createUserService(mockedDao);
+		userService.createCaches();
+
+		assertNull(userService.get("test"));
+		assertNull(userService.get("test"));
+		verify(mockedDao, times(1)).get("test");
+
+		assertEquals(0, userService.add("test"));
+		assertNotNull(userService.get("test"));
+		verify(mockedDao, times(3)).get("test");
+	}
+
+	@Test
+	void testDeleteForgetsUser() {
+		UserDaoImpl mockedDao = mock(UserDaoImpl.class);
+		when(mockedDao.get("test")).thenReturn(new UserData("test"));
+		UserServiceImpl userService = createUserService(mockedDao);
+		userService.createCaches();
+
+		assertNotNull(userService.get("test"));
+		userService.delete("test");
+		assertNull(userService.get("test"));
+		verify(mockedDao).delete("test");
 	}
 
 }
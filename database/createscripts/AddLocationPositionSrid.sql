@@ -0,0 +1,8 @@
+-- Adds the POSITION column the spatial location searches read to an existing location_data table, with the SRID
+-- the spatial index needs before MySQL will use it. New databases get it from CreateTables.sql, as does
+-- location_data_rollup, which only exists on databases created with it.
+USE development;
+
+ALTER TABLE location_data
+	ADD POSITION POINT SRID 0 AS (POINT(LONGITUDE, LATITUDE)) STORED NOT NULL,
+	ADD SPATIAL INDEX(POSITION);
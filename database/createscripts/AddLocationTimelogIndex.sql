@@ -0,0 +1,6 @@
+-- Adds the TIMELOG index retention uses to find old locations across every user to an existing location_data
+-- table. New databases get it from CreateTables.sql.
+USE development;
+
+ALTER TABLE location_data
+	ADD INDEX(TIMELOG);
@@ -17,11 +17,133 @@ CREATE TABLE IF NOT EXISTS location_data (
 	LATITUDE FLOAT,
 	ALTITUDE FLOAT,
 	DELIVERED BOOLEAN,
+	-- Kept in step with the longitude and latitude by MySQL, for spatial searches. The SRID lets MySQL use the
+	-- spatial index, and 0 matches the (longitude, latitude) points the searches build their envelopes from
+	POSITION POINT SRID 0 AS (POINT(LONGITUDE, LATITUDE)) STORED NOT NULL,
 
 	PRIMARY KEY(USER_ID, TIMELOG),
+	-- Lets retention find old locations across every user without a full scan
+	INDEX(TIMELOG),
+	SPATIAL INDEX(POSITION),
 	FOREIGN KEY(USER_ID) REFERENCES user_data(USER_ID)
 	-- Delete all user's locations if user is deleted
 		ON DELETE CASCADE
 	-- Dont allow user to update ID if they have locations
 		ON UPDATE RESTRICT
-);
\ No newline at end of file
+);
+
+-- Positions returned by the Google geocoding API, keyed by the normalised address sent to it
+CREATE TABLE IF NOT EXISTS geocode_cache (
+	ADDRESS_KEY VARCHAR(255),
+	LATITUDE DOUBLE,
+	LONGITUDE DOUBLE,
+	GEOCODED DATETIME,
+
+	PRIMARY KEY(ADDRESS_KEY)
+);
+
+
+-- Background jobs refreshing the average price of every postcode matching a prefix
+CREATE TABLE IF NOT EXISTS price_refresh_job (
+	JOB_ID CHAR(36),
+	POSTCODE_PREFIX VARCHAR(8),
+	STATUS VARCHAR(16),
+	TOTAL_AREAS INT,
+	COMPLETED_AREAS INT,
+	FAILED_AREAS INT,
+	UPDATED_RECORDS INT,
+	STARTED DATETIME,
+	FINISHED DATETIME,
+
+	PRIMARY KEY(JOB_ID)
+);
+
+-- Postcode areas a refresh job has finished, so that it can resume after a restart
+CREATE TABLE IF NOT EXISTS price_refresh_area (
+	JOB_ID CHAR(36),
+	POSTCODE_AREA VARCHAR(8),
+	UPDATED_RECORDS INT,
+	COMPLETED DATETIME,
+
+	PRIMARY KEY(JOB_ID, POSTCODE_AREA),
+	FOREIGN KEY(JOB_ID) REFERENCES price_refresh_job(JOB_ID)
+		ON DELETE CASCADE
+);
+
+-- Locations older than the raw retention period, downsampled to one point per user per rollup interval
+CREATE TABLE IF NOT EXISTS location_data_rollup (
+	USER_ID CHAR(64),
+	TIMELOG DATETIME,
+	LONGITUDE FLOAT,
+	LATITUDE FLOAT,
+	ALTITUDE FLOAT,
+	DELIVERED BOOLEAN,
+	POINTS INT,
+	POSITION POINT SRID 0 AS (POINT(LONGITUDE, LATITUDE)) STORED NOT NULL,
+
+	PRIMARY KEY(USER_ID, TIMELOG),
+	SPATIAL INDEX(POSITION),
+	FOREIGN KEY(USER_ID) REFERENCES user_data(USER_ID)
+		ON DELETE CASCADE
+		ON UPDATE RESTRICT
+);
+
+-- Local copy of the Price Paid Data, queried instead of the SPARQL endpoint when landregistry.transaction-source=LOCAL
+CREATE TABLE IF NOT EXISTS transactions (
+	TRANSACTION_ID CHAR(36),
+	PRICE_PAID BIGINT,
+	TRANSACTION_DATE DATE,
+	POSTCODE VARCHAR(8),
+	PROPERTY_TYPE VARCHAR(16),
+	NEW_BUILD BOOLEAN,
+	ESTATE_TYPE VARCHAR(16),
+	PAON VARCHAR(100),
+	SAON VARCHAR(100),
+	STREET VARCHAR(100),
+	LOCALITY VARCHAR(100),
+	TOWN VARCHAR(100),
+	DISTRICT VARCHAR(100),
+	COUNTY VARCHAR(100),
+	TRANSACTION_CATEGORY VARCHAR(40),
+
+	PRIMARY KEY(TRANSACTION_ID),
+	-- Latest sales are grouped by address within a postcode
+	INDEX(POSTCODE, PAON, SAON, STREET, TRANSACTION_DATE),
+	INDEX(TOWN)
+);
+
+-- Imports of the Price Paid Data CSV, BYTES_READ is the watermark an interrupted import resumes from
+CREATE TABLE IF NOT EXISTS transaction_import (
+	IMPORT_ID CHAR(36),
+	SOURCE_FILE VARCHAR(255),
+	FILE_SIZE BIGINT,
+	-- FULL for the complete file, DELTA for a monthly change file
+	MODE VARCHAR(8),
+	STATUS VARCHAR(16),
+	BYTES_READ BIGINT,
+	ROWS_READ BIGINT,
+	ROWS_APPLIED BIGINT,
+	ROWS_DELETED BIGINT,
+	ROWS_SKIPPED BIGINT,
+	POSTCODES_TOUCHED BIGINT,
+	POSTCODES_REPRICED BIGINT,
+	-- Time spent in each stage of the import
+	READ_MILLIS BIGINT,
+	WRITE_MILLIS BIGINT,
+	REPRICE_MILLIS BIGINT,
+	LATEST_TRANSACTION_DATE DATE,
+	STARTED DATETIME,
+	FINISHED DATETIME,
+
+	PRIMARY KEY(IMPORT_ID)
+);
+
+-- Postcodes whose transactions a delta import has changed, so their average price is recomputed even if the import is resumed
+CREATE TABLE IF NOT EXISTS transaction_import_postcode (
+	IMPORT_ID CHAR(36),
+	POSTCODE VARCHAR(8),
+
+	PRIMARY KEY(IMPORT_ID, POSTCODE),
+	FOREIGN KEY(IMPORT_ID) REFERENCES transaction_import(IMPORT_ID)
+		ON DELETE CASCADE
+);